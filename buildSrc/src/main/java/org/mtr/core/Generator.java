@@ -51,6 +51,8 @@ public class Generator {
 					testMethod.annotations.add("RepeatedTest(10)");
 					testMethod.content.add(String.format("final %1$s data = TestUtilities.random%1$s();", className));
 					testMethod.content.add(String.format("TestUtilities.serializeAndDeserialize(data, TestUtilities::new%s);", className));
+					testMethod.content.add(String.format("TestUtilities.serializeAndDeserializeBinary(data, TestUtilities::new%s);", className));
+					testMethod.content.add(String.format("TestUtilities.copyAndUpdate(data, TestUtilities.random%1$s(), TestUtilities::new%1$s, %1$s::copyData);", className));
 
 					schemaParsers.put(schemaClassName, new SchemaParser(schemaClass, extendsClassName, testMethod, jsonObject));
 				} catch (Exception e) {
@@ -64,8 +66,10 @@ public class Generator {
 		final Path projectPath = project.getProjectDir().toPath();
 
 		schemaParsers.forEach((schemaClassName, schemaParser) -> {
+			// Not caught, so that the build fails if the schema is invalid
+			final String schemaClassContent = schemaParser.generateSchemaClass(schemaParsers, testClass);
 			try {
-				FileUtils.write(projectPath.resolve("src/main/java/org/mtr").resolve(outputPath).resolve(schemaClassName + ".java").toFile(), schemaParser.generateSchemaClass(schemaParsers, testClass), StandardCharsets.UTF_8);
+				FileUtils.write(projectPath.resolve("src/main/java/org/mtr").resolve(outputPath).resolve(schemaClassName + ".java").toFile(), schemaClassContent, StandardCharsets.UTF_8);
 			} catch (Exception e) {
 				LOGGER.error("", e);
 			}
@@ -54,6 +54,10 @@ public class Class implements GeneratedObject {
 		return result;
 	}
 
+	public String getName() {
+		return name;
+	}
+
 	public Constructor createConstructor(VisibilityModifier visibilityModifier) {
 		final Constructor constructor = new Constructor(visibilityModifier, name);
 		constructors.add(constructor);
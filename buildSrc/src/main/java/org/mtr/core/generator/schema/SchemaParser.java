@@ -1,6 +1,7 @@
 package org.mtr.core.generator.schema;
 
 import com.google.gson.JsonObject;
+import it.unimi.dsi.fastutil.ints.Int2ObjectAVLTreeMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.mtr.core.generator.objects.Class;
@@ -15,8 +16,13 @@ public class SchemaParser {
 	private final Constructor constructor2;
 	private final Method updateMethod;
 	private final Method serializeMethod;
+	private final Method copyMethod;
 	private final String extendsClassName;
 	private final Method testMethod;
+	/**
+	 * Used to make sure that the field ids written by {@code BinaryWriter} are unique
+	 */
+	private final ObjectArrayList<String> keys = new ObjectArrayList<>();
 	final ObjectArrayList<String> testMethodContent1 = new ObjectArrayList<>();
 	final ObjectArrayList<String> testMethodContent2 = new ObjectArrayList<>();
 
@@ -26,13 +32,16 @@ public class SchemaParser {
 		constructor2 = schemaClass.createConstructor(VisibilityModifier.PROTECTED);
 		updateMethod = new Method(VisibilityModifier.PUBLIC, null, "updateData");
 		serializeMethod = new Method(VisibilityModifier.PUBLIC, null, "serializeData");
+		copyMethod = new Method(VisibilityModifier.PUBLIC, null, "copyData");
 		this.extendsClassName = extendsClassName;
 		this.testMethod = testMethod;
 
 		updateMethod.parameters.add(new Parameter(Type.createObject("ReaderBase"), "readerBase"));
 		serializeMethod.parameters.add(new Parameter(Type.createObject("WriterBase"), "writerBase"));
+		copyMethod.parameters.add(new Parameter(Type.createObject(schemaClass.getName()), "source"));
 		schemaClass.methods.add(updateMethod);
 		schemaClass.methods.add(serializeMethod);
+		schemaClass.methods.add(copyMethod);
 		final Method toStringMethod = new Method(VisibilityModifier.PUBLIC, Type.STRING, "toString");
 		toStringMethod.annotations.add("Nonnull");
 		toStringMethod.content.add(extendsClassName == null ? "return \"\"" : "return super.toString()");
@@ -89,6 +98,7 @@ public class SchemaParser {
 				});
 
 				schemaClass.fields.add(field);
+				keys.add(key);
 				toStringMethod.content.add(String.format("\t+ \"%1$s: \" + %1$s + \"\\n\"", key));
 			}
 		});
@@ -116,14 +126,18 @@ public class SchemaParser {
 		if (extendsClassName != null) {
 			updateMethod.content.add(0, "super.updateData(readerBase);");
 			serializeMethod.content.add(0, "super.serializeData(writerBase);");
+			copyMethod.content.add(0, "super.copyData(source);");
 		}
 
 		traverseExtendedClasses(this, schemaParsers);
+		checkFieldIds(schemaParsers);
 
 		if (schemaParsers.values().stream().noneMatch(schemaParser -> schemaParser.extendsClassName != null && equals(schemaParsers.get(schemaParser.extendsClassName)))) {
 			testMethod.content.addAll(testMethodContent1);
 			testMethod.content.addAll(testMethodContent2);
 			testMethod.content.add(testMethod.content.get(1));
+			testMethod.content.add(testMethod.content.get(2));
+			testMethod.content.add(testMethod.content.get(3));
 			testClass.methods.add(testMethod);
 		}
 
@@ -172,10 +186,28 @@ public class SchemaParser {
 		method.content.add(String.format(typeWithData.writeData, key, typeWithData.type.name));
 		schemaClass.methods.add(method);
 		updateMethod.content.add(String.format(typeWithData.unpackData, key, typeWithData.type.name));
+		copyMethod.content.add(String.format(typeWithData.copyData, key, typeWithData.type.name));
 		serializeMethod.content.add(String.format("%s(writerBase);", methodName));
 		testMethodContent1.add(String.format(typeWithData.randomData, String.format("data.%s", key)));
 	}
 
+	/**
+	 * The binary format uses the hash code of each key as the field id, so fail if two keys of a class (including extended classes) have the same hash code.
+	 */
+	private void checkFieldIds(Object2ObjectAVLTreeMap<String, SchemaParser> schemaParsers) {
+		final Int2ObjectAVLTreeMap<String> fieldIds = new Int2ObjectAVLTreeMap<>();
+		SchemaParser schemaParser = this;
+		while (schemaParser != null) {
+			for (final String key : schemaParser.keys) {
+				final String existingKey = fieldIds.put(key.hashCode(), key);
+				if (existingKey != null && !existingKey.equals(key)) {
+					throw new IllegalStateException(String.format("Keys \"%s\" and \"%s\" in the same schema have the same field id", existingKey, key));
+				}
+			}
+			schemaParser = schemaParser.extendsClassName == null ? null : schemaParsers.get(schemaParser.extendsClassName);
+		}
+	}
+
 	private void traverseExtendedClasses(SchemaParser schemaParser, Object2ObjectAVLTreeMap<String, SchemaParser> schemaParsers) {
 		if (schemaParser.extendsClassName != null) {
 			final SchemaParser extendedSchemaParser = schemaParsers.get(schemaParser.extendsClassName);
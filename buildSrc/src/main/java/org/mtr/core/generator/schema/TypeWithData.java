@@ -11,15 +11,17 @@ public class TypeWithData {
 	public final String readData;
 	public final String unpackData;
 	public final String writeData;
+	public final String copyData;
 	public final String randomData;
 	public final boolean requireAbstractInitializationMethod;
 	public final ObjectArrayList<String> extraParameters;
 
-	private TypeWithData(Type type, @Nullable String readData, String unpackData, String writeData, String randomData, boolean requireAbstractInitializationMethod, ObjectArrayList<String> extraParameters) {
+	private TypeWithData(Type type, @Nullable String readData, String unpackData, String writeData, String copyData, String randomData, boolean requireAbstractInitializationMethod, ObjectArrayList<String> extraParameters) {
 		this.type = type;
 		this.readData = readData;
 		this.unpackData = unpackData;
 		this.writeData = writeData;
+		this.copyData = copyData;
 		this.randomData = randomData;
 		this.requireAbstractInitializationMethod = requireAbstractInitializationMethod;
 		this.extraParameters = extraParameters;
@@ -31,6 +33,7 @@ public class TypeWithData {
 				String.format("%1$s = readerBase.get%2$s(\"%1$s\", %3$s);", "%1$s", primitiveType, defaultValue),
 				String.format("readerBase.unpack%2$s(\"%1$s\", value -> %1$s = value);", "%1$s", primitiveType),
 				String.format("writerBase.write%2$s(\"%1$s\", %1$s);", "%1$s", primitiveType),
+				"%1$s = source.%1$s;",
 				String.format("%1$s = %2$s;", "%1$s", getRandomPrimitive(primitiveType)),
 				false,
 				ObjectArrayList.of()
@@ -43,6 +46,7 @@ public class TypeWithData {
 				null,
 				String.format("readerBase.iterate%2$sArray(\"%1$s\", %1$s::clear, %1$s::add);", "%1$s", arrayType),
 				String.format("final WriterBase.Array %1$sWriterBaseArray = writerBase.writeArray(\"%1$s\"); %1$s.forEach(%1$sWriterBaseArray::write%2$s);", "%1$s", arrayType),
+				"%1$s.clear(); %1$s.addAll(source.%1$s);",
 				String.format("%1$s.clear(); TestUtilities.randomLoop(() -> %1$s.add(%2$s));", "%1$s", getRandomPrimitive(arrayType)),
 				false,
 				ObjectArrayList.of()
@@ -58,6 +62,7 @@ public class TypeWithData {
 				null,
 				String.format("readerBase.iterateReaderArray(\"%1$s\", %1$s::clear, readerBaseChild -> %1$s.add(new %2$s(%3$s)));", "%1$s", arrayType, String.join(", ", parameters)),
 				"writerBase.writeDataset(%1$s, \"%1$s\");",
+				"%1$s.clear(); %1$s.addAll(source.%1$s);",
 				String.format("%1$s.clear(); TestUtilities.randomLoop(() -> %1$s.add(TestUtilities.random%2$s()));", "%1$s", arrayType),
 				false,
 				extraParameters
@@ -73,6 +78,7 @@ public class TypeWithData {
 				"%1$s = new %2$s(readerBase.getChild(\"%1$s\"));",
 				String.format("readerBase.unpackChild(\"%1$s\", readerBaseChild -> %1$s = new %2$s(%3$s));", "%1$s", "%2$s", String.join(", ", parameters)),
 				"if (%1$s != null) %1$s.serializeData(writerBase.writeChild(\"%1$s\"));",
+				"if (source.%1$s != null) %1$s = source.%1$s;",
 				String.format("%1$s = TestUtilities.random%2$s();", "%1$s", className),
 				true,
 				extraParameters
@@ -85,6 +91,7 @@ public class TypeWithData {
 				String.format("%1$s = EnumHelper.valueOf(%2$s.values()[0], readerBase.getString(\"%1$s\", \"\"));", "%1$s", refName),
 				String.format("readerBase.unpackString(\"%1$s\", value -> %1$s = EnumHelper.valueOf(%2$s.values()[0], value));", "%1$s", refName),
 				"writerBase.writeString(\"%1$s\", %1$s.toString());",
+				"%1$s = source.%1$s;",
 				String.format("%1$s = TestUtilities.randomEnum(%2$s.values());", "%1$s", refName),
 				false,
 				ObjectArrayList.of()
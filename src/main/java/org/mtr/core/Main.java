@@ -4,7 +4,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.mtr.core.data.Depot;
 import org.mtr.core.servlet.*;
+import org.mtr.core.simulation.PathGenerationPool;
+import org.mtr.core.simulation.RunTier;
 import org.mtr.core.simulation.Simulator;
+import org.mtr.core.simulation.SimulatorOptions;
 import org.mtr.core.tool.Utilities;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectImmutableList;
@@ -19,6 +22,7 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -29,9 +33,28 @@ public class Main {
 	private final Webserver webserver;
 	@Nullable
 	private final ScheduledExecutorService scheduledExecutorService;
+	@Nullable
+	private final ForkJoinPool forkJoinPool;
+	private final PathGenerationPool pathGenerationPool = new PathGenerationPool();
 
 	public static final Logger LOGGER = LogManager.getLogger("TransportSimulationCore");
 	public static final int MILLISECONDS_PER_TICK = 10;
+	/**
+	 * Set this system property to {@code true} to simulate independent groups of sidings in parallel
+	 */
+	public static final String PARALLEL_SIDING_SIMULATION_PROPERTY = "parallelSidingSimulation";
+	/**
+	 * Set this system property to {@code true} to save data in append-only log files instead of one file per object
+	 */
+	public static final String LOG_STORAGE_PROPERTY = "logStorage";
+	/**
+	 * Set this system property to {@code true} to send vehicle and lift updates as MessagePack deltas
+	 */
+	public static final String DELTA_CLIENT_UPDATES_PROPERTY = "deltaClientUpdates";
+	/**
+	 * Set this system property to {@code true} to send the updates of all clients in a tick together, over the push channel if the game is subscribed to it
+	 */
+	public static final String BATCH_CLIENT_UPDATES_PROPERTY = "batchClientUpdates";
 
 	public static void main(String[] args) {
 		try {
@@ -42,7 +65,11 @@ public class Main {
 			final boolean threadedSimulation = Boolean.parseBoolean(args[i++]);
 			final String[] dimensions = new String[args.length - i];
 			System.arraycopy(args, i, dimensions, 0, dimensions.length);
-			final Main main = new Main(rootPath, webserverPort, clientWebserverPort, threadedSimulation, dimensions);
+			final Main main = new Main(rootPath, webserverPort, clientWebserverPort, threadedSimulation, new SimulatorOptions()
+					.setParallelSidingSimulation(Boolean.getBoolean(PARALLEL_SIDING_SIMULATION_PROPERTY))
+					.setUseLogStorage(Boolean.getBoolean(LOG_STORAGE_PROPERTY))
+					.setDeltaClientUpdates(Boolean.getBoolean(DELTA_CLIENT_UPDATES_PROPERTY))
+					.setBatchClientUpdates(Boolean.getBoolean(BATCH_CLIENT_UPDATES_PROPERTY)), dimensions);
 			main.readConsoleInput();
 		} catch (Exception e) {
 			printHelp();
@@ -51,11 +78,21 @@ public class Main {
 	}
 
 	public Main(Path rootPath, int webserverPort, int clientWebserverPort, boolean threadedSimulation, String... dimensions) {
+		this(rootPath, webserverPort, clientWebserverPort, threadedSimulation, new SimulatorOptions(), dimensions);
+	}
+
+	/**
+	 * @param simulatorOptions the options of the simulators of all dimensions, which share one fork-join pool, push channel and path generation pool created here
+	 */
+	public Main(Path rootPath, int webserverPort, int clientWebserverPort, boolean threadedSimulation, SimulatorOptions simulatorOptions, String... dimensions) {
 		final ObjectArrayList<Simulator> tempSimulators = new ObjectArrayList<>();
+		forkJoinPool = simulatorOptions.getParallelSidingSimulation() ? new ForkJoinPool() : null;
+		final PushChannel pushChannel = simulatorOptions.getBatchClientUpdates() ? new PushChannel() : null;
+		simulatorOptions.setForkJoinPool(forkJoinPool).setPushChannel(pushChannel).setPathGenerationPool(pathGenerationPool);
 
 		LOGGER.info("Loading files...");
 		for (final String dimension : dimensions) {
-			tempSimulators.add(new Simulator(dimension, dimensions, rootPath, clientWebserverPort));
+			tempSimulators.add(new Simulator(dimension, dimensions, rootPath, clientWebserverPort, simulatorOptions));
 		}
 
 		simulators = new ObjectImmutableList<>(tempSimulators);
@@ -64,6 +101,9 @@ public class Main {
 		webserver.addServlet(new ServletHolder(new OperationServlet(simulators)), "/mtr/api/operation/*");
 		webserver.addServlet(new ServletHolder(new SystemMapServlet(simulators)), "/mtr/api/map/stations-and-routes");
 		webserver.addServlet(new ServletHolder(new OBAServlet(simulators)), "/oba/api/where/*");
+		if (pushChannel != null) {
+			webserver.addServlet(new ServletHolder(new PushServlet(pushChannel)), "/mtr/api/push");
+		}
 		webserver.start();
 
 		if (threadedSimulation) {
@@ -93,8 +133,14 @@ public class Main {
 			Utilities.awaitTermination(scheduledExecutorService);
 		}
 
+		if (forkJoinPool != null) {
+			forkJoinPool.shutdown();
+			Utilities.awaitTermination(forkJoinPool);
+		}
+
 		LOGGER.info("Starting full save...");
 		simulators.forEach(Simulator::stop);
+		pathGenerationPool.shutdown();
 		LOGGER.info("Stopped");
 	}
 
@@ -112,13 +158,24 @@ public class Main {
 					case "save-all":
 						save();
 						break;
+					case "status":
+						simulators.forEach(Simulator::logRunQueueStatistics);
+						simulators.forEach(simulator -> simulator.pathCache.logStatistics(simulator.dimension));
+						break;
 					case "generate":
 					case "regenerate":
 						final StringBuilder generateKey = new StringBuilder();
 						for (int i = 1; i < input.length; i++) {
 							generateKey.append(input[i]).append(" ");
 						}
-						simulators.forEach(simulator -> Depot.generateDepotsByName(simulator, generateKey.toString(), null));
+						simulators.forEach(simulator -> simulator.run(() -> Depot.generateDepotsByName(simulator, generateKey.toString(), null), RunTier.BULK));
+						break;
+					case "cancel":
+						final StringBuilder cancelKey = new StringBuilder();
+						for (int i = 1; i < input.length; i++) {
+							cancelKey.append(input[i]).append(" ");
+						}
+						simulators.forEach(simulator -> simulator.run(() -> Depot.cancelDepotsByName(simulator, cancelKey.toString()), RunTier.WRITE));
 						break;
 					default:
 						LOGGER.info("Unknown command \"{}\"", input[0]);
@@ -135,5 +192,9 @@ public class Main {
 	private static void printHelp() {
 		LOGGER.info("Usage:");
 		LOGGER.info("java -jar Transport-Simulation-Core.jar <rootPath> <webserverPort> <dimensions...>");
+		LOGGER.info("Add -D{}=true to simulate independent sidings in parallel", PARALLEL_SIDING_SIMULATION_PROPERTY);
+		LOGGER.info("Add -D{}=true to save data in append-only log files", LOG_STORAGE_PROPERTY);
+		LOGGER.info("Add -D{}=true to send vehicle and lift updates as MessagePack deltas", DELTA_CLIENT_UPDATES_PROPERTY);
+		LOGGER.info("Add -D{}=true to send the updates of all clients together", BATCH_CLIENT_UPDATES_PROPERTY);
 	}
 }
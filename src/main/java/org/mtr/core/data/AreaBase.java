@@ -66,6 +66,7 @@ public abstract class AreaBase<T extends AreaBase<T, U>, U extends SavedRailBase
 	public void setCorners(Position position1, Position position2) {
 		this.position1 = position1;
 		this.position2 = position2;
+		markDirty();
 	}
 
 	public boolean inArea(Position position) {
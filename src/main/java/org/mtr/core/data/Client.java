@@ -1,10 +1,10 @@
 package org.mtr.core.data;
 
 import org.mtr.core.generated.data.ClientSchema;
-import org.mtr.core.operation.PlayerPresentResponse;
+import org.mtr.core.operation.ClientUpdateCache;
+import org.mtr.core.operation.VehicleLiftDeltaEncoder;
 import org.mtr.core.operation.VehicleLiftResponse;
 import org.mtr.core.operation.VehicleUpdate;
-import org.mtr.core.serializer.JsonReader;
 import org.mtr.core.serializer.ReaderBase;
 import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
@@ -13,6 +13,7 @@ import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongAVLTreeSet;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectAVLTreeSet;
 
+import javax.annotation.Nullable;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -20,6 +21,11 @@ import java.util.function.Consumer;
 public class Client extends ClientSchema {
 
 	private long nextSendTime;
+	/**
+	 * Only created if updates are sent as deltas
+	 */
+	@Nullable
+	private VehicleLiftDeltaEncoder vehicleLiftDeltaEncoder;
 
 	private final LongAVLTreeSet existingVehicleIds = new LongAVLTreeSet();
 	private final LongAVLTreeSet keepVehicleIds = new LongAVLTreeSet();
@@ -60,26 +66,56 @@ public class Client extends ClientSchema {
 		this.updateRadius = updateRadius;
 	}
 
-	public void sendUpdates(Simulator simulator) {
+	/**
+	 * @param clientUpdateCache shared by all clients, so that updates sent to many clients are only serialized once
+	 */
+	public void sendUpdates(Simulator simulator, ClientUpdateCache clientUpdateCache) {
 		final long currentMillis = System.currentTimeMillis();
 		if (currentMillis > nextSendTime) {
 			nextSendTime = currentMillis + 100;
-			final VehicleLiftResponse vehicleLiftResponse = new VehicleLiftResponse(clientId, simulator);
+			final VehicleLiftResponse vehicleLiftResponse = new VehicleLiftResponse(clientId, simulator, clientUpdateCache);
 			final boolean hasUpdate1 = process(vehicleUpdates, existingVehicleIds, keepVehicleIds, vehicleLiftResponse::addVehicleToUpdate, vehicleLiftResponse::addVehicleToKeep);
 			final boolean hasUpdate2 = process(liftUpdates, existingLiftIds, keepLiftIds, vehicleLiftResponse::addLiftToUpdate, vehicleLiftResponse::addLiftToKeep);
 			final boolean hasUpdate3 = process(signalBlockUpdates, existingRailIds, keepRailIds, vehicleLiftResponse::addSignalBlockUpdate, railId -> {
 			});
 
 			if (hasUpdate1 || hasUpdate2 || hasUpdate3) {
-				simulator.sendHttpRequest("vehicles-lifts", vehicleLiftResponse, responseObject -> new PlayerPresentResponse(new JsonReader(responseObject)).verify(simulator, clientId));
+				if (simulator.useDeltaClientUpdates()) {
+					if (vehicleLiftDeltaEncoder == null) {
+						vehicleLiftDeltaEncoder = new VehicleLiftDeltaEncoder();
+					}
+					final byte[] content = vehicleLiftDeltaEncoder.encode(vehicleLiftResponse, clientUpdateCache);
+					if (content != null) {
+						simulator.sendClientUpdate(clientId, "vehicles-lifts-delta", content, VehicleLiftDeltaEncoder.CONTENT_TYPE);
+					}
+				} else {
+					simulator.sendClientUpdate(clientId, "vehicles-lifts", vehicleLiftResponse);
+				}
 			}
 		}
 	}
 
-	public void update(Vehicle vehicle, boolean needsUpdate, int pathUpdateIndex) {
-		final long vehicleId = vehicle.getId();
-		if (needsUpdate || !existingVehicleIds.contains(vehicleId)) {
-			vehicleUpdates.put(vehicleId, new VehicleUpdate(vehicle, vehicle.vehicleExtraData.copy(pathUpdateIndex)));
+	/**
+	 * Send the full state with the next delta update, after the client missed an update.
+	 */
+	public void resyncDeltaUpdates() {
+		if (vehicleLiftDeltaEncoder != null) {
+			vehicleLiftDeltaEncoder.resync();
+		}
+	}
+
+	/**
+	 * Only reads the client state, so it can be called from multiple threads as long as no updates are being written or sent.
+	 *
+	 * @return {@code false} if the client already has the vehicle
+	 */
+	boolean needsVehicleUpdate(long vehicleId, boolean needsUpdate) {
+		return needsUpdate || !existingVehicleIds.contains(vehicleId);
+	}
+
+	void update(long vehicleId, @Nullable VehicleUpdate vehicleUpdate) {
+		if (vehicleUpdate != null) {
+			vehicleUpdates.put(vehicleId, vehicleUpdate);
 			keepVehicleIds.remove(vehicleId);
 		} else if (!vehicleUpdates.containsKey(vehicleId)) {
 			keepVehicleIds.add(vehicleId);
@@ -0,0 +1,86 @@
+package org.mtr.core.data;
+
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A {@link SpatialIndex} of the areas that clients are interested in, which is each client's position padded by its update radius.
+ * Entities query the grid with their bounding box rather than checking every client.
+ * Queries only return candidates, so callers should still perform their own exact check.
+ * Querying is read-only and can be done from multiple threads; rebuilding must not happen at the same time.
+ */
+public final class ClientInterestIndex {
+
+	/**
+	 * The clients as of the last rebuild, in the same order as the source collection
+	 */
+	private final ObjectArrayList<ClientState> clientStates = new ObjectArrayList<>();
+	/**
+	 * Clients usually have a large update radius, so the cells are larger than the default and large queries fall back to checking every client sooner
+	 */
+	private final SpatialIndex<Client> spatialIndex = new SpatialIndex<>(8, 256, 64);
+
+	/**
+	 * Rebuild the grid if any client was added, removed, or has moved since the last call.
+	 */
+	public void update(Collection<Client> clients) {
+		if (hasChanged(clients)) {
+			clientStates.clear();
+			spatialIndex.clear();
+
+			clients.forEach(client -> {
+				final ClientState clientState = new ClientState(client);
+				clientStates.add(clientState);
+				final Position position = clientState.position;
+				final double updateRadius = clientState.updateRadius;
+				spatialIndex.put(client, (long) Math.floor(position.getX() - updateRadius), (long) Math.floor(position.getZ() - updateRadius), (long) Math.ceil(position.getX() + updateRadius), (long) Math.ceil(position.getZ() + updateRadius));
+			});
+		}
+	}
+
+	/**
+	 * Iterate through each client whose update area overlaps the bounding box exactly once.
+	 */
+	public void iterateClients(long minX, long minZ, long maxX, long maxZ, Consumer<Client> consumer) {
+		spatialIndex.iterate(minX, minZ, maxX, maxZ, consumer);
+	}
+
+	public void iterateClients(Position position1, Position position2, Consumer<Client> consumer) {
+		spatialIndex.iterate(position1, position2, consumer);
+	}
+
+	private boolean hasChanged(Collection<Client> clients) {
+		if (clients.size() != clientStates.size()) {
+			return true;
+		}
+
+		int index = 0;
+		for (final Client client : clients) {
+			if (!clientStates.get(index).matches(client)) {
+				return true;
+			}
+			index++;
+		}
+
+		return false;
+	}
+
+	private static class ClientState {
+
+		private final Client client;
+		private final Position position;
+		private final double updateRadius;
+
+		private ClientState(Client client) {
+			this.client = client;
+			position = client.getPosition();
+			updateRadius = client.getUpdateRadius();
+		}
+
+		private boolean matches(Client client) {
+			return this.client == client && position.equals(client.getPosition()) && updateRadius == client.getUpdateRadius();
+		}
+	}
+}
@@ -1,26 +1,30 @@
 package org.mtr.core.data;
 
 import org.mtr.core.Main;
+import org.mtr.core.path.PathCache;
+import org.mtr.core.path.RailGraph;
 import org.mtr.core.serializer.SerializedDataBaseWithId;
 import org.mtr.core.simulation.Simulator;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.*;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public abstract class Data {
 
-	public final ObjectArraySet<Station> stations = new ObjectArraySet<>();
-	public final ObjectArraySet<Platform> platforms = new ObjectArraySet<>();
-	public final ObjectArraySet<Siding> sidings = new ObjectArraySet<>();
-	public final ObjectArraySet<Route> routes = new ObjectArraySet<>();
-	public final ObjectArraySet<Depot> depots = new ObjectArraySet<>();
-	public final ObjectArraySet<Lift> lifts = new ObjectArraySet<>();
-	public final ObjectArraySet<Rail> rails = new ObjectArraySet<>();
+	public final EntityStore<Station> stations = new EntityStore<>();
+	public final EntityStore<Platform> platforms = new EntityStore<>();
+	public final EntityStore<Siding> sidings = new EntityStore<>();
+	public final EntityStore<Route> routes = new EntityStore<>();
+	public final EntityStore<Depot> depots = new EntityStore<>();
+	public final EntityStore<Lift> lifts = new EntityStore<>();
+	public final EntityStore<Rail> rails = new EntityStore<>();
 
 	public final Long2ObjectOpenHashMap<Station> stationIdMap = new Long2ObjectOpenHashMap<>();
 	public final Long2ObjectOpenHashMap<Platform> platformIdMap = new Long2ObjectOpenHashMap<>();
@@ -34,14 +38,50 @@ public abstract class Data {
 	public final Object2ObjectOpenHashMap<Position, Rail> runwaysInbound = new Object2ObjectOpenHashMap<>();
 	public final ObjectOpenHashSet<Position> runwaysOutbound = new ObjectOpenHashSet<>();
 	public final Long2ObjectOpenHashMap<Position> platformIdToPosition = new Long2ObjectOpenHashMap<>();
+	/**
+	 * Built when first needed after the rails change
+	 */
+	@Nullable
+	private RailGraph railGraph;
+	/**
+	 * Only changed on the simulation thread, but read by servlet threads to check whether a {@link org.mtr.core.simulation.ReadSnapshot} is up to date
+	 */
+	private volatile long modificationCount;
+	/**
+	 * Paths found by siding path finders, kept across rail changes that can't affect them
+	 */
+	public final PathCache pathCache = new PathCache();
+
+	public final SpatialIndex<Station> stationIndex = new SpatialIndex<>();
+	public final SpatialIndex<Platform> platformIndex = new SpatialIndex<>();
+	public final SpatialIndex<Siding> sidingIndex = new SpatialIndex<>();
+	public final SpatialIndex<Depot> depotIndex = new SpatialIndex<>();
+	public final SpatialIndex<Rail> railIndex = new SpatialIndex<>();
+
+	/**
+	 * @return a counter that changes whenever the data is synced or any {@link NameColorDataBase} is marked dirty, so that unchanged data doesn't have to be checked object by object
+	 */
+	public final long getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * Should be called when saved fields change without syncing, such as when signals are changed.
+	 */
+	public final void markModified() {
+		modificationCount++;
+	}
 
 	public void sync() {
+		markModified();
 		try {
 			// clear rail connections
 			// write rail connections
 			positionsToRail.clear();
 			rails.forEach(rail -> rail.writePositionsToRailCache(positionsToRail));
 			rails.forEach(rail -> rail.writeConnectedRailsCacheFromMap(positionsToRail));
+			railGraph = null;
+			pathCache.clear();
 
 			// clear runways
 			// write runways
@@ -83,8 +123,15 @@ public abstract class Data {
 			mapIds(liftIdMap, lifts);
 			mapIds(railIdMap, rails);
 
-			mapAreasAndSavedRails(platforms, stations);
-			mapAreasAndSavedRails(sidings, depots);
+			writeAreaIndex(stationIndex, stations);
+			writeAreaIndex(depotIndex, depots);
+			writeSavedRailIndex(platformIndex, platforms);
+			writeSavedRailIndex(sidingIndex, sidings);
+			railIndex.clear();
+			rails.forEach(rail -> railIndex.put(rail, rail.getPosition1(), rail.getPosition2()));
+
+			mapAreasAndSavedRails(platforms, stations, stationIndex);
+			mapAreasAndSavedRails(sidings, depots, depotIndex);
 
 			// clear platform routes
 			// clear platform route colors
@@ -104,7 +151,9 @@ public abstract class Data {
 			routes.forEach(route -> {
 				route.depots.clear();
 				route.getRoutePlatforms().forEach(routePlatformData -> routePlatformData.writePlatformCache(route, platformIdMap));
-				route.getRoutePlatforms().removeIf(routePlatformData -> routePlatformData.platform == null);
+				if (route.getRoutePlatforms().removeIf(routePlatformData -> routePlatformData.platform == null)) {
+					route.markDirty();
+				}
 			});
 
 			// clear depot routes
@@ -120,19 +169,135 @@ public abstract class Data {
 
 			// clear station connections
 			// write station connections
-			stations.forEach(station1 -> {
-				station1.connectedStations.clear();
-				stations.forEach(station2 -> {
-					if (station1 != station2 && station1.intersecting(station2)) {
-						station1.connectedStations.add(station2);
+			stations.forEach(station -> station.connectedStations.clear());
+			stations.forEach(station1 -> iterateIntersectingStations(station1, station1.connectedStations::add));
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
+	}
+
+	/**
+	 * Only recompute the caches affected by a set of changes rather than rebuilding everything.
+	 * The resulting caches should be the same as calling {@link Data#sync()}.
+	 * Saved rails found to be invalid are removed and added to the removed entities of the change set.
+	 */
+	public void sync(DataChangeSet dataChangeSet) {
+		markModified();
+		try {
+			// update rail connections
+			final ObjectOpenHashSet<Position> railNodePositions = new ObjectOpenHashSet<>();
+			double maxChangedSpeedLimit = 0;
+			for (final Rail rail : dataChangeSet.rails) {
+				maxChangedSpeedLimit = Math.max(maxChangedSpeedLimit, Math.max(rail.speedLimit1MetersPerMillisecond, rail.speedLimit2MetersPerMillisecond));
+			}
+			dataChangeSet.removedRails.forEach(rail -> {
+				removeFromPositionsToRail(rail, rail.getPosition1(), rail.getPosition2());
+				removeFromPositionsToRail(rail, rail.getPosition2(), rail.getPosition1());
+				railNodePositions.add(rail.getPosition1());
+				railNodePositions.add(rail.getPosition2());
+			});
+			dataChangeSet.rails.forEach(rail -> {
+				rail.writePositionsToRailCache(positionsToRail);
+				railNodePositions.add(rail.getPosition1());
+				railNodePositions.add(rail.getPosition2());
+			});
+			if (!railNodePositions.isEmpty()) {
+				railGraph = null;
+				pathCache.invalidate(railNodePositions, maxChangedSpeedLimit);
+			}
+
+			// update rail connections and runways of all rails touching a changed node
+			railNodePositions.forEach(position -> {
+				runwaysInbound.remove(position);
+				runwaysOutbound.remove(position);
+				final Object2ObjectOpenHashMap<Position, Rail> railsAtPosition = positionsToRail.get(position);
+				if (railsAtPosition != null) {
+					railsAtPosition.values().forEach(rail -> rail.writeConnectedRailsCacheFromMap(positionsToRail));
+					if (railsAtPosition.size() == 1) {
+						writeRunway(position, railsAtPosition.values().iterator().next());
+					}
+				}
+			});
+
+			if (this instanceof Simulator) {
+				removeInvalidSavedRails(platforms, dataChangeSet.platforms, dataChangeSet.removedPlatforms, railNodePositions);
+				removeInvalidSavedRails(sidings, dataChangeSet.sidings, dataChangeSet.removedSidings, railNodePositions);
+			}
+
+			updateIds(stationIdMap, dataChangeSet.stations, dataChangeSet.removedStations);
+			updateIds(platformIdMap, dataChangeSet.platforms, dataChangeSet.removedPlatforms);
+			updateIds(sidingIdMap, dataChangeSet.sidings, dataChangeSet.removedSidings);
+			updateIds(routeIdMap, dataChangeSet.routes, dataChangeSet.removedRoutes);
+			updateIds(depotIdMap, dataChangeSet.depots, dataChangeSet.removedDepots);
+			updateIds(liftIdMap, dataChangeSet.lifts, dataChangeSet.removedLifts);
+			dataChangeSet.removedRails.forEach(rail -> {
+				if (railIdMap.get(rail.getHexId()) == rail) {
+					railIdMap.remove(rail.getHexId());
+				}
+			});
+			dataChangeSet.rails.forEach(rail -> railIdMap.put(rail.getHexId(), rail));
+
+			dataChangeSet.removedStations.forEach(stationIndex::remove);
+			dataChangeSet.stations.forEach(station -> writeAreaIndex(stationIndex, station));
+			dataChangeSet.removedDepots.forEach(depotIndex::remove);
+			dataChangeSet.depots.forEach(depot -> writeAreaIndex(depotIndex, depot));
+			dataChangeSet.removedPlatforms.forEach(platformIndex::remove);
+			dataChangeSet.platforms.forEach(platform -> writeSavedRailIndex(platformIndex, platform));
+			dataChangeSet.removedSidings.forEach(sidingIndex::remove);
+			dataChangeSet.sidings.forEach(siding -> writeSavedRailIndex(sidingIndex, siding));
+			dataChangeSet.removedRails.forEach(railIndex::remove);
+			dataChangeSet.rails.forEach(rail -> railIndex.put(rail, rail.getPosition1(), rail.getPosition2()));
+
+			mapAreasAndSavedRails(platformIndex, stationIndex, dataChangeSet.platforms, dataChangeSet.removedPlatforms, dataChangeSet.stations, dataChangeSet.removedStations);
+			final ObjectOpenHashSet<Depot> depotsToUpdate = mapAreasAndSavedRails(sidingIndex, depotIndex, dataChangeSet.sidings, dataChangeSet.removedSidings, dataChangeSet.depots, dataChangeSet.removedDepots);
+
+			dataChangeSet.removedPlatforms.forEach(platform -> platformIdToPosition.remove(platform.getId()));
+			dataChangeSet.platforms.forEach(platform -> platformIdToPosition.put(platform.getId(), platform.getMidPosition()));
+
+			// route caches link platforms, routes, and depots together, so rewrite all of them if any of these changed
+			if (!dataChangeSet.platforms.isEmpty() || !dataChangeSet.removedPlatforms.isEmpty() || !dataChangeSet.routes.isEmpty() || !dataChangeSet.removedRoutes.isEmpty() || !dataChangeSet.depots.isEmpty() || !dataChangeSet.removedDepots.isEmpty()) {
+				platforms.forEach(platform -> {
+					platform.routes.clear();
+					platform.routeColors.clear();
+				});
+				routes.forEach(route -> {
+					route.depots.clear();
+					route.getRoutePlatforms().forEach(routePlatformData -> routePlatformData.writePlatformCache(route, platformIdMap));
+					if (route.getRoutePlatforms().removeIf(routePlatformData -> routePlatformData.platform == null)) {
+						route.markDirty();
+					}
+				});
+				depots.forEach(depot -> depot.writeRouteCache(routeIdMap));
+			}
+
+			// rewrite path caches of depots that changed, gained or lost sidings, or have a path through a changed rail
+			depotsToUpdate.addAll(dataChangeSet.depots);
+			if (!railNodePositions.isEmpty()) {
+				depots.forEach(depot -> {
+					if (!depotsToUpdate.contains(depot) && pathContainsPosition(depot, railNodePositions)) {
+						depotsToUpdate.add(depot);
 					}
 				});
+			}
+			depotsToUpdate.forEach(depot -> {
+				if (depotIdMap.get(depot.getId()) == depot) {
+					depot.writePathCache();
+				}
 			});
+
+			updateConnectedStations(dataChangeSet.stations, dataChangeSet.removedStations);
 		} catch (Exception e) {
 			Main.LOGGER.error("", e);
 		}
 	}
 
+	public RailGraph getRailGraph() {
+		if (railGraph == null) {
+			railGraph = new RailGraph(this);
+		}
+		return railGraph;
+	}
+
 	public static <T, U, V, W extends Map<T, X>, X extends Map<U, V>> V tryGet(W map, T key1, U key2, V defaultValue) {
 		final V result = tryGet(map, key1, key2);
 		return result == null ? defaultValue : result;
@@ -183,6 +348,121 @@ public abstract class Data {
 		newInnerMap.put(key2, putValue.apply(newInnerMap.get(key2)));
 	}
 
+	private void removeFromPositionsToRail(Rail rail, Position position1, Position position2) {
+		final Object2ObjectOpenHashMap<Position, Rail> railsAtPosition = positionsToRail.get(position1);
+		// The rail might have already been replaced by a new rail with the same positions
+		if (railsAtPosition != null && railsAtPosition.get(position2) == rail) {
+			railsAtPosition.remove(position2);
+			if (railsAtPosition.isEmpty()) {
+				positionsToRail.remove(position1);
+			}
+		}
+	}
+
+	private void writeRunway(Position position, Rail rail) {
+		if (rail.canConnectRemotely()) {
+			final boolean isPosition1 = rail.getPosition1().equals(position);
+			if (rail.speedLimit1MetersPerMillisecond > 0) {
+				if (isPosition1) {
+					runwaysInbound.put(position, rail);
+				} else {
+					runwaysOutbound.add(position);
+				}
+			}
+			if (rail.speedLimit2MetersPerMillisecond > 0) {
+				if (isPosition1) {
+					runwaysOutbound.add(position);
+				} else {
+					runwaysInbound.put(position, rail);
+				}
+			}
+		}
+	}
+
+	private <U extends SavedRailBase<U, V>, V extends AreaBase<V, U>> void removeInvalidSavedRails(EntityStore<U> savedRails, ObjectArrayList<U> changedSavedRails, ObjectArrayList<U> removedSavedRails, ObjectOpenHashSet<Position> railNodePositions) {
+		if (changedSavedRails.isEmpty() && railNodePositions.isEmpty()) {
+			return;
+		}
+
+		final ObjectOpenHashSet<U> savedRailsToCheck = new ObjectOpenHashSet<>(changedSavedRails);
+		savedRails.removeIf(savedRail -> {
+			// A saved rail can only become invalid if the rail between both of its positions changed, so checking one position is enough
+			if ((savedRailsToCheck.contains(savedRail) || railNodePositions.contains(savedRail.getRandomPosition())) && savedRail.isInvalidSavedRail(this)) {
+				removedSavedRails.add(savedRail);
+				return true;
+			} else {
+				return false;
+			}
+		});
+		changedSavedRails.removeAll(removedSavedRails);
+	}
+
+	private void updateConnectedStations(ObjectArrayList<Station> changedStations, ObjectArrayList<Station> removedStations) {
+		if (changedStations.isEmpty() && removedStations.isEmpty()) {
+			return;
+		}
+
+		final ObjectOpenHashSet<Station> stationsToUpdate = new ObjectOpenHashSet<>(changedStations);
+		stationsToUpdate.addAll(removedStations);
+		final ObjectOpenHashSet<Station> neighbouringStations = new ObjectOpenHashSet<>();
+		stationsToUpdate.forEach(station -> {
+			neighbouringStations.addAll(station.connectedStations);
+			station.connectedStations.clear();
+		});
+		neighbouringStations.removeAll(stationsToUpdate);
+
+		// Connected stations are sorted by name, so rebuild the sets of neighbours rather than removing from them in case a station was renamed
+		neighbouringStations.forEach(station -> {
+			final ObjectArrayList<Station> connectedStations = new ObjectArrayList<>(station.connectedStations);
+			station.connectedStations.clear();
+			connectedStations.forEach(connectedStation -> {
+				if (!stationsToUpdate.contains(connectedStation)) {
+					station.connectedStations.add(connectedStation);
+				}
+			});
+		});
+
+		changedStations.forEach(station1 -> iterateIntersectingStations(station1, station2 -> {
+			station1.connectedStations.add(station2);
+			station2.connectedStations.add(station1);
+		}));
+	}
+
+	private void iterateIntersectingStations(Station station, Consumer<Station> consumer) {
+		if (AreaBase.validCorners(station)) {
+			stationIndex.iterate(station.getMinX(), station.getMinZ(), station.getMaxX(), station.getMaxZ(), intersectingStation -> {
+				if (station != intersectingStation && station.intersecting(intersectingStation)) {
+					consumer.accept(intersectingStation);
+				}
+			});
+		}
+	}
+
+	private static boolean pathContainsPosition(Depot depot, ObjectOpenHashSet<Position> positions) {
+		for (final PathData pathData : depot.getPath()) {
+			if (positions.contains(pathData.getOrderedPosition1()) || positions.contains(pathData.getOrderedPosition2())) {
+				return true;
+			}
+		}
+
+		final boolean[] containsPosition = {false};
+		depot.savedRails.forEach(siding -> siding.iteratePathPositions((position1, position2) -> {
+			if (positions.contains(position1) || positions.contains(position2)) {
+				containsPosition[0] = true;
+			}
+		}));
+		return containsPosition[0];
+	}
+
+	private static <U extends NameColorDataBase> void updateIds(Long2ObjectMap<U> map, ObjectArrayList<U> changedData, ObjectArrayList<U> removedData) {
+		removedData.forEach(data -> {
+			if (map.get(data.getId()) == data) {
+				map.remove(data.getId());
+			}
+		});
+		changedData.forEach(data -> map.put(data.getId(), data));
+	}
+
 	private static <U extends NameColorDataBase> void mapIds(Long2ObjectMap<U> map, ObjectSet<U> source) {
 		map.clear();
 		source.forEach(data -> map.put(data.getId(), data));
@@ -193,18 +473,95 @@ public abstract class Data {
 		source.forEach(data -> map.put(data.getHexId(), data));
 	}
 
-	private static <U extends SavedRailBase<U, V>, V extends AreaBase<V, U>> void mapAreasAndSavedRails(ObjectArraySet<U> savedRails, ObjectArraySet<V> areas) {
+	private static <U extends SavedRailBase<U, V>, V extends AreaBase<V, U>> void mapAreasAndSavedRails(EntityStore<U> savedRails, EntityStore<V> areas, SpatialIndex<V> areaIndex) {
 		areas.forEach(area -> area.savedRails.clear());
-		savedRails.forEach(savedRail -> {
-			savedRail.area = null;
-			final Position pos = savedRail.getMidPosition();
-			for (final V area : areas) {
-				if (area.isTransportMode(savedRail) && area.inArea(pos)) {
-					savedRail.area = area;
-					area.savedRails.add(savedRail);
-					break;
+		savedRails.forEach(savedRail -> mapSavedRail(savedRail, areaIndex));
+	}
+
+	/**
+	 * Find the area containing a saved rail. If there is more than one, the first one in the area set is used.
+	 */
+	private static <U extends SavedRailBase<U, V>, V extends AreaBase<V, U>> void mapSavedRail(U savedRail, SpatialIndex<V> areaIndex) {
+		final Position pos = savedRail.getMidPosition();
+		savedRail.area = areaIndex.getFirst(pos, area -> area.isTransportMode(savedRail) && area.inArea(pos));
+		if (savedRail.area != null) {
+			savedRail.area.savedRails.add(savedRail);
+		}
+	}
+
+	private static <U extends AreaBase<U, V>, V extends SavedRailBase<V, U>> void writeAreaIndex(SpatialIndex<U> areaIndex, EntityStore<U> areas) {
+		areaIndex.clear();
+		areas.forEach(area -> writeAreaIndex(areaIndex, area));
+	}
+
+	private static <U extends AreaBase<U, V>, V extends SavedRailBase<V, U>> void writeAreaIndex(SpatialIndex<U> areaIndex, U area) {
+		if (AreaBase.validCorners(area)) {
+			areaIndex.put(area, area.getMinX(), area.getMinZ(), area.getMaxX(), area.getMaxZ());
+		} else {
+			areaIndex.remove(area);
+		}
+	}
+
+	private static <U extends SavedRailBase<U, V>, V extends AreaBase<V, U>> void writeSavedRailIndex(SpatialIndex<U> savedRailIndex, EntityStore<U> savedRails) {
+		savedRailIndex.clear();
+		savedRails.forEach(savedRail -> writeSavedRailIndex(savedRailIndex, savedRail));
+	}
+
+	private static <U extends SavedRailBase<U, V>, V extends AreaBase<V, U>> void writeSavedRailIndex(SpatialIndex<U> savedRailIndex, U savedRail) {
+		savedRailIndex.put(savedRail, savedRail.getMinX(), savedRail.getMinZ(), savedRail.getMaxX(), savedRail.getMaxZ());
+	}
+
+	/**
+	 * Incrementally remap saved rails to areas, keeping the same "first area wins" order as the full mapping.
+	 *
+	 * @return the areas whose saved rails changed
+	 */
+	private static <U extends SavedRailBase<U, V>, V extends AreaBase<V, U>> ObjectOpenHashSet<V> mapAreasAndSavedRails(SpatialIndex<U> savedRailIndex, SpatialIndex<V> areaIndex, ObjectArrayList<U> changedSavedRails, ObjectArrayList<U> removedSavedRails, ObjectArrayList<V> changedAreas, ObjectArrayList<V> removedAreas) {
+		final ObjectOpenHashSet<V> updatedAreas = new ObjectOpenHashSet<>();
+		final ObjectOpenHashSet<U> savedRailsToMap = new ObjectOpenHashSet<>(changedSavedRails);
+
+		removedSavedRails.forEach(savedRail -> {
+			if (savedRail.area != null) {
+				savedRail.area.savedRails.remove(savedRail);
+				updatedAreas.add(savedRail.area);
+				savedRail.area = null;
+			}
+		});
+
+		removedAreas.forEach(area -> {
+			area.savedRails.forEach(savedRail -> {
+				if (savedRail.area == area) {
+					savedRail.area = null;
+					savedRailsToMap.add(savedRail);
 				}
+			});
+			area.savedRails.clear();
+		});
+
+		changedAreas.forEach(area -> {
+			savedRailsToMap.addAll(area.savedRails);
+			if (AreaBase.validCorners(area)) {
+				savedRailIndex.iterate(area.getMinX(), area.getMinZ(), area.getMaxX(), area.getMaxZ(), savedRail -> {
+					if (area.isTransportMode(savedRail) && area.inArea(savedRail.getMidPosition())) {
+						savedRailsToMap.add(savedRail);
+					}
+				});
 			}
 		});
+
+		removedSavedRails.forEach(savedRailsToMap::remove);
+		savedRailsToMap.forEach(savedRail -> {
+			if (savedRail.area != null) {
+				savedRail.area.savedRails.remove(savedRail);
+				updatedAreas.add(savedRail.area);
+				savedRail.area = null;
+			}
+			mapSavedRail(savedRail, areaIndex);
+			if (savedRail.area != null) {
+				updatedAreas.add(savedRail.area);
+			}
+		});
+
+		return updatedAreas;
 	}
 }
@@ -0,0 +1,27 @@
+package org.mtr.core.data;
+
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * The entities that were added, changed, or removed by a single edit, used by {@link Data#sync(DataChangeSet)} to only recompute the affected caches.
+ * Added and changed entities should already be in the data sets and removed entities should already be removed from them.
+ * A rail replaced by a new rail with the same positions should be listed as both removed (the old instance) and changed (the new instance).
+ */
+public final class DataChangeSet {
+
+	public final ObjectArrayList<Station> stations = new ObjectArrayList<>();
+	public final ObjectArrayList<Platform> platforms = new ObjectArrayList<>();
+	public final ObjectArrayList<Siding> sidings = new ObjectArrayList<>();
+	public final ObjectArrayList<Route> routes = new ObjectArrayList<>();
+	public final ObjectArrayList<Depot> depots = new ObjectArrayList<>();
+	public final ObjectArrayList<Lift> lifts = new ObjectArrayList<>();
+	public final ObjectArrayList<Rail> rails = new ObjectArrayList<>();
+
+	public final ObjectArrayList<Station> removedStations = new ObjectArrayList<>();
+	public final ObjectArrayList<Platform> removedPlatforms = new ObjectArrayList<>();
+	public final ObjectArrayList<Siding> removedSidings = new ObjectArrayList<>();
+	public final ObjectArrayList<Route> removedRoutes = new ObjectArrayList<>();
+	public final ObjectArrayList<Depot> removedDepots = new ObjectArrayList<>();
+	public final ObjectArrayList<Lift> removedLifts = new ObjectArrayList<>();
+	public final ObjectArrayList<Rail> removedRails = new ObjectArrayList<>();
+}
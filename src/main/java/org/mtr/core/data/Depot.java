@@ -5,12 +5,12 @@ import org.mtr.core.generated.data.DepotSchema;
 import org.mtr.core.operation.UpdateDataResponse;
 import org.mtr.core.path.SidingPathFinder;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.serializer.WriterBase;
 import org.mtr.core.simulation.Simulator;
 import org.mtr.core.tool.Angle;
 import org.mtr.core.tool.Utilities;
 import org.mtr.legacy.data.DataFixer;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongAVLTreeSet;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
@@ -26,6 +26,11 @@ public final class Depot extends DepotSchema implements Utilities {
 
 	@Nullable
 	private OnGenerationComplete onGenerationComplete;
+	/**
+	 * The path generation currently running off the simulation thread, if any
+	 */
+	@Nullable
+	private DepotPathGeneration pathGeneration;
 	private long repeatDepartures;
 
 	public final ObjectArrayList<Route> routes = new ObjectArrayList<>();
@@ -36,8 +41,6 @@ public final class Depot extends DepotSchema implements Utilities {
 	 * Repeated platforms are ignored.
 	 */
 	private final ObjectArrayList<ObjectObjectImmutablePair<Platform, Route>> platformsInRoute = new ObjectArrayList<>();
-	private final ObjectArrayList<SidingPathFinder<Station, Platform, Station, Platform>> sidingPathFinders = new ObjectArrayList<>();
-	private final LongAVLTreeSet generatingSidingIds = new LongAVLTreeSet();
 
 	public static final int CONTINUOUS_MOVEMENT_FREQUENCY = 8000;
 	private static final String KEY_PATH = "path";
@@ -55,19 +58,32 @@ public final class Depot extends DepotSchema implements Utilities {
 
 	@Override
 	public void updateData(ReaderBase readerBase) {
-		// If this is serverside, don't update these values from an incoming update packet
+		keepGeneratedStatus(() -> super.updateData(readerBase));
+	}
+
+	@Override
+	public void copyData(DepotSchema source) {
+		keepGeneratedStatus(() -> super.copyData(source));
+	}
+
+	/**
+	 * If this is serverside, don't update the generation status from an incoming update packet.
+	 */
+	private void keepGeneratedStatus(Runnable update) {
 		final long tempLastGeneratedMillis = lastGeneratedMillis;
 		final GeneratedStatus tempLastGeneratedStatus = lastGeneratedStatus;
 		final long tempLastGeneratedFailedStartId = lastGeneratedFailedStartId;
 		final long tempLastGeneratedFailedEndId = lastGeneratedFailedEndId;
 		final long tempLastGeneratedFailedSidingCount = lastGeneratedFailedSidingCount;
-		super.updateData(readerBase);
+		final long tempLastGeneratedProgress = lastGeneratedProgress;
+		update.run();
 		if (data instanceof Simulator) {
 			lastGeneratedMillis = tempLastGeneratedMillis;
 			lastGeneratedStatus = tempLastGeneratedStatus;
 			lastGeneratedFailedStartId = tempLastGeneratedFailedStartId;
 			lastGeneratedFailedEndId = tempLastGeneratedFailedEndId;
 			lastGeneratedFailedSidingCount = tempLastGeneratedFailedSidingCount;
+			lastGeneratedProgress = tempLastGeneratedProgress;
 		}
 	}
 
@@ -90,6 +106,7 @@ public final class Depot extends DepotSchema implements Utilities {
 
 	public void setUseRealTime(boolean useRealTime) {
 		this.useRealTime = useRealTime;
+		markDirty();
 	}
 
 	public void setFrequency(int hour, int frequency) {
@@ -98,15 +115,18 @@ public final class Depot extends DepotSchema implements Utilities {
 				frequencies.add(0);
 			}
 			frequencies.set(hour, Math.max(0, frequency));
+			markDirty();
 		}
 	}
 
 	public void setRepeatInfinitely(boolean repeatInfinitely) {
 		this.repeatInfinitely = repeatInfinitely;
+		markDirty();
 	}
 
 	public void setCruisingAltitude(long cruisingAltitude) {
 		this.cruisingAltitude = cruisingAltitude;
+		markDirty();
 	}
 
 	public LongArrayList getRouteIds() {
@@ -121,6 +141,13 @@ public final class Depot extends DepotSchema implements Utilities {
 		return lastGeneratedStatus;
 	}
 
+	/**
+	 * @return the percentage of paths found so far, only meaningful while the status is {@link GeneratedStatus#GENERATING}
+	 */
+	public long getLastGeneratedProgress() {
+		return lastGeneratedProgress;
+	}
+
 	/**
 	 * @param generationStatusConsumer               if path generation failed between two saved rails, this consumer will be called with the saved rail IDs that path generation failed at
 	 * @param lastGeneratedFailedSidingCountConsumer if path generation failed between the siding and the main path, this consumer will be called with the number of sidings that couldn't connect to the main path
@@ -164,6 +191,7 @@ public final class Depot extends DepotSchema implements Utilities {
 		for (int i = routes.size() - 1; i >= 0; i--) {
 			if (routes.get(i) == null) {
 				routeIds.removeLong(i);
+				markDirty();
 				routes.remove(i);
 			} else {
 				routes.get(i).depots.add(this);
@@ -183,24 +211,43 @@ public final class Depot extends DepotSchema implements Utilities {
 		}
 	}
 
-	public void tick() {
-		SidingPathFinder.findPathTick(path, sidingPathFinders, cruisingAltitude, () -> {
-			if (!platformsInRoute.isEmpty()) {
-				lastGeneratedFailedSidingCount = 0;
-				savedRails.forEach(siding -> {
-					siding.generateRoute(Utilities.getElement(platformsInRoute, 0).left(), repeatInfinitely ? null : Utilities.getElement(platformsInRoute, -1).left(), platformsInRoute.size(), cruisingAltitude);
-					generatingSidingIds.add(siding.getId());
-				});
-			}
-		}, (startSavedRail, endSavedRail) -> updateGenerationStatus(GeneratedStatus.PATH_NOT_FOUND, startSavedRail.getId(), endSavedRail.getId(), "Path not found for %s"));
+	/**
+	 * Called on the simulation thread while paths are being generated.
+	 */
+	void updateGenerationProgress(DepotPathGeneration newPathGeneration, int progress) {
+		if (newPathGeneration == pathGeneration && !newPathGeneration.isCancelled()) {
+			lastGeneratedProgress = progress;
+			markDirty();
+		}
 	}
 
-	public void finishGeneratingPath(long sidingId) {
-		generatingSidingIds.remove(sidingId);
-		if (generatingSidingIds.isEmpty()) {
-			updateGenerationStatus(GeneratedStatus.SUCCESSFUL, 0, 0, "Path generation complete for %s");
-			generatePlatformDirectionsAndWriteDeparturesToSidings();
+	/**
+	 * Called on the simulation thread once all paths have been generated. The old paths are kept until now, so vehicles keep running during generation.
+	 */
+	void finishPathGeneration(DepotPathGeneration newPathGeneration) {
+		if (newPathGeneration != pathGeneration || newPathGeneration.isCancelled() || data.depotIdMap.get(id) != this) {
+			return;
 		}
+		pathGeneration = null;
+
+		final SidingPathFinder<Station, Platform, Station, Platform> failedMainRouteFinder = newPathGeneration.getFailedMainRouteFinder();
+		if (failedMainRouteFinder != null) {
+			path.clear();
+			updateGenerationStatus(GeneratedStatus.PATH_NOT_FOUND, failedMainRouteFinder.startSavedRail.getId(), failedMainRouteFinder.endSavedRail.getId(), "Path not found for %s");
+			return;
+		}
+
+		path.clear();
+		newPathGeneration.getMainRouteSegments().forEach(mainRouteSegment -> SidingPathFinder.appendPath(path, mainRouteSegment));
+		lastGeneratedFailedSidingCount = 0;
+		lastGeneratedProgress = 100;
+		newPathGeneration.forEachSidingPath((siding, sidingToMainRoute, mainRouteToSiding) -> {
+			if (savedRails.contains(siding)) {
+				siding.finishGeneratingPath(sidingToMainRoute, mainRouteToSiding);
+			}
+		});
+		updateGenerationStatus(GeneratedStatus.SUCCESSFUL, 0, 0, "Path generation complete for %s");
+		generatePlatformDirectionsAndWriteDeparturesToSidings();
 	}
 
 	public VehicleExtraData.VehiclePlatformRouteInfo getVehiclePlatformRouteInfo(int stopIndex) {
@@ -334,6 +381,7 @@ public final class Depot extends DepotSchema implements Utilities {
 		this.lastGeneratedStatus = lastGeneratedStatus;
 		this.lastGeneratedFailedStartId = lastGeneratedFailedStartId;
 		this.lastGeneratedFailedEndId = lastGeneratedFailedEndId;
+		markDirty();
 	}
 
 	long getRepeatDepartures() {
@@ -342,27 +390,41 @@ public final class Depot extends DepotSchema implements Utilities {
 
 	void sidingPathGenerationFailed() {
 		lastGeneratedFailedSidingCount++;
+		markDirty();
 	}
 
-	private void generateMainRoute(OnGenerationComplete newOnGenerationComplete) {
+	private void generateMainRoute(Simulator simulator, OnGenerationComplete newOnGenerationComplete) {
 		if (onGenerationComplete != null) {
 			onGenerationComplete.accept(true);
 		}
 		onGenerationComplete = newOnGenerationComplete;
 
+		if (pathGeneration != null) {
+			pathGeneration.cancel();
+			pathGeneration = null;
+		}
+
 		if (savedRails.isEmpty()) {
 			updateGenerationStatus(GeneratedStatus.NO_SIDINGS, 0, 0, "No sidings in %s");
-		} else {
-			Main.LOGGER.info("Starting path generation for {}...", name);
+		} else if (platformsInRoute.size() < 2) {
 			path.clear();
-			sidingPathFinders.clear();
-			generatingSidingIds.clear();
-			for (int i = 0; i < platformsInRoute.size() - 1; i++) {
-				sidingPathFinders.add(new SidingPathFinder<>(data, platformsInRoute.get(i).left(), platformsInRoute.get(i + 1).left(), i));
-			}
-			if (sidingPathFinders.isEmpty()) {
-				updateGenerationStatus(GeneratedStatus.TWO_PLATFORMS_REQUIRED, 0, 0, "At least two platforms are required for path generation");
-			}
+			updateGenerationStatus(GeneratedStatus.TWO_PLATFORMS_REQUIRED, 0, 0, "At least two platforms are required for path generation");
+		} else {
+			final ObjectArrayList<Platform> platforms = new ObjectArrayList<>();
+			platformsInRoute.forEach(platformAndRoute -> platforms.add(platformAndRoute.left()));
+			pathGeneration = new DepotPathGeneration(this, simulator, platforms, new ObjectArrayList<>(savedRails), cruisingAltitude, repeatInfinitely);
+			updateGenerationStatus(System.currentTimeMillis(), GeneratedStatus.GENERATING, 0, 0);
+			lastGeneratedProgress = 0;
+			pathGeneration.start();
+		}
+	}
+
+	private void cancelGeneration() {
+		if (pathGeneration != null) {
+			pathGeneration.cancel();
+			pathGeneration = null;
+			lastGeneratedProgress = 0;
+			updateGenerationStatus(GeneratedStatus.CANCELLED, 0, 0, "Path generation cancelled for %s");
 		}
 	}
 
@@ -375,26 +437,34 @@ public final class Depot extends DepotSchema implements Utilities {
 		Main.LOGGER.info(String.format(message, name));
 	}
 
-	public static void generateDepotsByName(Simulator simulator, String filter, @Nullable Consumer<JsonObject> sendResponse) {
+	public static void generateDepotsByName(Simulator simulator, String filter, @Nullable Consumer<SerializedDataBase> sendResponse) {
 		generateDepots(simulator, getDataByName(simulator.depots, filter), sendResponse);
 	}
 
-	public static void generateDepots(Simulator simulator, ObjectArrayList<Depot> depotsToGenerate, @Nullable Consumer<JsonObject> sendResponse) {
+	public static void generateDepots(Simulator simulator, ObjectArrayList<Depot> depotsToGenerate, @Nullable Consumer<SerializedDataBase> sendResponse) {
 		final LongAVLTreeSet idsToGenerate = new LongAVLTreeSet();
 		final UpdateDataResponse updateDataResponse = new UpdateDataResponse(simulator);
 
 		depotsToGenerate.forEach(depot -> {
 			idsToGenerate.add(depot.getId());
-			depot.generateMainRoute(forceComplete -> {
+			depot.generateMainRoute(simulator, forceComplete -> {
 				idsToGenerate.remove(depot.getId());
 				updateDataResponse.addDepot(depot);
 				if (sendResponse != null && (forceComplete || idsToGenerate.isEmpty())) {
-					sendResponse.accept(Utilities.getJsonObjectFromData(updateDataResponse));
+					sendResponse.accept(updateDataResponse);
 				}
 			});
 		});
 	}
 
+	public static void cancelDepotsByName(Simulator simulator, String filter) {
+		cancelDepots(getDataByName(simulator.depots, filter));
+	}
+
+	public static void cancelDepots(ObjectArrayList<Depot> depotsToCancel) {
+		depotsToCancel.forEach(Depot::cancelGeneration);
+	}
+
 	public static void clearDepotsByName(Simulator simulator, String filter) {
 		clearDepots(getDataByName(simulator.depots, filter));
 	}
@@ -414,6 +484,6 @@ public final class Depot extends DepotSchema implements Utilities {
 	}
 
 	public enum GeneratedStatus {
-		NONE, SUCCESSFUL, NO_SIDINGS, TWO_PLATFORMS_REQUIRED, PATH_NOT_FOUND
+		NONE, SUCCESSFUL, NO_SIDINGS, TWO_PLATFORMS_REQUIRED, PATH_NOT_FOUND, GENERATING, CANCELLED
 	}
 }
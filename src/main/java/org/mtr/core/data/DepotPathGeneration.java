@@ -0,0 +1,167 @@
+package org.mtr.core.data;
+
+import org.mtr.core.Main;
+import org.mtr.core.path.SidingPathFinder;
+import org.mtr.core.simulation.RunTier;
+import org.mtr.core.simulation.Simulator;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One run of path generation for a depot. The path finders are created on the simulation thread and each one is then run as a separate task on the {@link org.mtr.core.simulation.PathGenerationPool}.
+ * Path finders only read the {@link org.mtr.core.path.RailGraph} snapshot, so the simulation can keep running (and the rails can change) while paths are generated.
+ * Progress and the final result are handed back to the depot on the simulation thread with {@link Simulator#run(Runnable, RunTier)}.
+ */
+final class DepotPathGeneration {
+
+	private volatile boolean cancelled;
+
+	private final Depot depot;
+	private final Simulator simulator;
+	private final long cruisingAltitude;
+	private final ObjectArrayList<SidingPathFinder<Station, Platform, Station, Platform>> mainRouteFinders = new ObjectArrayList<>();
+	private final ObjectArrayList<SidingPathFinder<Depot, Siding, Station, Platform>> sidingToMainRouteFinders = new ObjectArrayList<>();
+	/**
+	 * The finders are in the same order as {@link DepotPathGeneration#sidingToMainRouteFinders}, with {@code null} if the depot repeats infinitely
+	 */
+	private final ObjectArrayList<SidingPathFinder<Station, Platform, Depot, Siding>> mainRouteToSidingFinders = new ObjectArrayList<>();
+	/**
+	 * The results of all path finders, indexed by task
+	 */
+	private final AtomicReferenceArray<ObjectArrayList<PathData>> results;
+	private final AtomicInteger remainingTasks;
+	private final AtomicInteger lastProgress = new AtomicInteger();
+	/**
+	 * The first main route segment with no path, or {@link Integer#MAX_VALUE} if none has failed yet
+	 */
+	private final AtomicInteger failedSegmentIndex = new AtomicInteger(Integer.MAX_VALUE);
+
+	DepotPathGeneration(Depot depot, Simulator simulator, ObjectArrayList<Platform> platforms, ObjectArrayList<Siding> sidings, long cruisingAltitude, boolean repeatInfinitely) {
+		this.depot = depot;
+		this.simulator = simulator;
+		this.cruisingAltitude = cruisingAltitude;
+
+		for (int i = 0; i < platforms.size() - 1; i++) {
+			mainRouteFinders.add(new SidingPathFinder<>(simulator, platforms.get(i), platforms.get(i + 1), i));
+		}
+
+		if (!platforms.isEmpty()) {
+			sidings.forEach(siding -> {
+				sidingToMainRouteFinders.add(new SidingPathFinder<>(simulator, siding, platforms.get(0), -1));
+				if (repeatInfinitely) {
+					mainRouteToSidingFinders.add(null);
+				} else {
+					mainRouteToSidingFinders.add(new SidingPathFinder<>(simulator, platforms.get(platforms.size() - 1), siding, platforms.size()));
+				}
+			});
+		}
+
+		final int taskCount = mainRouteFinders.size() + sidingToMainRouteFinders.size() * 2;
+		results = new AtomicReferenceArray<>(taskCount);
+		remainingTasks = new AtomicInteger(taskCount);
+	}
+
+	/**
+	 * Queue all path finders on the pool. Should only be called once.
+	 */
+	void start() {
+		Main.LOGGER.info("Starting path generation for {}...", depot.getName());
+		for (int i = 0; i < mainRouteFinders.size(); i++) {
+			execute(i, mainRouteFinders.get(i), true);
+		}
+		for (int i = 0; i < sidingToMainRouteFinders.size(); i++) {
+			execute(mainRouteFinders.size() + i * 2, sidingToMainRouteFinders.get(i), false);
+			execute(mainRouteFinders.size() + i * 2 + 1, mainRouteToSidingFinders.get(i), false);
+		}
+	}
+
+	/**
+	 * Stop the running path finders. The result is never handed back to the depot.
+	 */
+	void cancel() {
+		cancelled = true;
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return the main route segments in order, each of which is empty if there is no path
+	 */
+	ObjectArrayList<ObjectArrayList<PathData>> getMainRouteSegments() {
+		final ObjectArrayList<ObjectArrayList<PathData>> mainRouteSegments = new ObjectArrayList<>();
+		for (int i = 0; i < mainRouteFinders.size(); i++) {
+			mainRouteSegments.add(results.get(i));
+		}
+		return mainRouteSegments;
+	}
+
+	/**
+	 * @return the saved rails of the first main route segment with no path, or {@code null} if every segment has a path
+	 */
+	@Nullable
+	SidingPathFinder<Station, Platform, Station, Platform> getFailedMainRouteFinder() {
+		final int index = failedSegmentIndex.get();
+		return index < mainRouteFinders.size() ? mainRouteFinders.get(index) : null;
+	}
+
+	/**
+	 * @param consumer called for each siding with the path from the siding to the main route and, unless the depot repeats infinitely, the path from the main route to the siding
+	 */
+	void forEachSidingPath(SidingPathConsumer consumer) {
+		for (int i = 0; i < sidingToMainRouteFinders.size(); i++) {
+			consumer.accept(sidingToMainRouteFinders.get(i).startSavedRail, results.get(mainRouteFinders.size() + i * 2), mainRouteToSidingFinders.get(i) == null ? null : results.get(mainRouteFinders.size() + i * 2 + 1));
+		}
+	}
+
+	private void execute(int index, @Nullable SidingPathFinder<?, ?, ?, ?> sidingPathFinder, boolean isMainRoute) {
+		if (sidingPathFinder == null) {
+			finishTask(index, new ObjectArrayList<>());
+		} else {
+			simulator.getPathGenerationPool().execute(() -> {
+				ObjectArrayList<PathData> path = new ObjectArrayList<>();
+				try {
+					// A failed main route segment fails the whole generation, so only earlier segments (which might fail first) still need to be searched
+					final int lastIndexToSearch = isMainRoute ? index : Integer.MAX_VALUE;
+					path = sidingPathFinder.generatePath(cruisingAltitude, () -> cancelled || Thread.currentThread().isInterrupted() || failedSegmentIndex.get() < lastIndexToSearch);
+					if (isMainRoute && path.isEmpty() && !cancelled) {
+						failedSegmentIndex.accumulateAndGet(index, Math::min);
+					}
+				} catch (Exception e) {
+					Main.LOGGER.error("", e);
+					if (isMainRoute) {
+						failedSegmentIndex.accumulateAndGet(index, Math::min);
+					}
+				}
+				finishTask(index, path);
+			});
+		}
+	}
+
+	private void finishTask(int index, ObjectArrayList<PathData> path) {
+		results.set(index, path);
+		final int remaining = remainingTasks.decrementAndGet();
+		if (cancelled) {
+			return;
+		}
+
+		if (remaining == 0) {
+			simulator.run(() -> depot.finishPathGeneration(this), RunTier.WRITE);
+		} else {
+			final int taskCount = results.length();
+			final int progress = (taskCount - remaining) * 100 / taskCount;
+			if (progress > lastProgress.getAndAccumulate(progress, Math::max)) {
+				simulator.run(() -> depot.updateGenerationProgress(this, progress), RunTier.WRITE);
+			}
+		}
+	}
+
+	@FunctionalInterface
+	interface SidingPathConsumer {
+		void accept(Siding siding, ObjectArrayList<PathData> sidingToMainRoute, @Nullable ObjectArrayList<PathData> mainRouteToSiding);
+	}
+}
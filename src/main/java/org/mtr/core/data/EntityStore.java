@@ -0,0 +1,65 @@
+package org.mtr.core.data;
+
+import org.mtr.core.serializer.SerializedDataBaseWithId;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.AbstractObjectSet;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import javax.annotation.Nullable;
+
+/**
+ * A set of data keyed by hex ID. Like an array set, iteration follows insertion order, but adding, removing, and checking membership take constant time.
+ * Adding an object is ignored if a different object with the same ID is already in the store; remove the existing object first to replace it.
+ */
+public final class EntityStore<T extends SerializedDataBaseWithId> extends AbstractObjectSet<T> {
+
+	private final Object2ObjectLinkedOpenHashMap<String, T> dataMap = new Object2ObjectLinkedOpenHashMap<>();
+
+	@Override
+	public boolean add(T data) {
+		return dataMap.putIfAbsent(data.getHexId(), data) == null;
+	}
+
+	@Override
+	public boolean remove(Object object) {
+		if (contains(object)) {
+			dataMap.remove(((SerializedDataBaseWithId) object).getHexId());
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean contains(Object object) {
+		return object instanceof SerializedDataBaseWithId && dataMap.get(((SerializedDataBaseWithId) object).getHexId()) == object;
+	}
+
+	@Override
+	public ObjectIterator<T> iterator() {
+		return dataMap.values().iterator();
+	}
+
+	@Override
+	public int size() {
+		return dataMap.size();
+	}
+
+	@Override
+	public void clear() {
+		dataMap.clear();
+	}
+
+	@Nullable
+	public T get(String hexId) {
+		return dataMap.get(hexId);
+	}
+
+	/**
+	 * @return the removed object or {@code null} if there was nothing with the ID
+	 */
+	@Nullable
+	public T removeByHexId(String hexId) {
+		return dataMap.remove(hexId);
+	}
+}
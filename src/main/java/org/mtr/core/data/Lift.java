@@ -49,12 +49,24 @@ public class Lift extends LiftSchema {
 		needsUpdate = true;
 	}
 
+	@Override
+	public void copyData(LiftSchema source) {
+		super.copyData(source);
+		setDistances();
+		needsUpdate = true;
+	}
+
 	@Override
 	public boolean isValid() {
 		return !floors.isEmpty();
 	}
 
 	public void tick(long millisElapsed) {
+		// A stationary lift with nothing to do doesn't change any saved fields
+		if (stoppingCoolDown > 0 || speed != 0 || !instructions.isEmpty()) {
+			markDirty();
+		}
+
 		if (stoppingCoolDown > 0) {
 			stoppingCoolDown = Math.max(stoppingCoolDown - millisElapsed, 0);
 			if (stoppingCoolDown == 0) {
@@ -91,7 +103,7 @@ public class Lift extends LiftSchema {
 		}
 
 		if (data instanceof Simulator) {
-			((Simulator) data).clients.values().forEach(client -> {
+			((Simulator) data).clientInterestIndex.iterateClients(minPosition, maxPosition, client -> {
 				if (Utilities.isBetween(client.getPosition(), minPosition, maxPosition, client.getUpdateRadius())) {
 					client.update(this, needsUpdate);
 				}
@@ -143,6 +155,7 @@ public class Lift extends LiftSchema {
 				if (add) {
 					instructions.add(i, liftInstruction);
 					needsUpdate = true;
+					markDirty();
 				}
 				return distance + Math.abs(buttonProgress - tempProgress);
 			}
@@ -156,6 +169,7 @@ public class Lift extends LiftSchema {
 		if (add) {
 			instructions.add(liftInstruction);
 			needsUpdate = true;
+			markDirty();
 		}
 		return distance + Math.abs(buttonProgress - tempProgress);
 	}
@@ -265,18 +279,22 @@ public class Lift extends LiftSchema {
 		this.offsetX = offsetX;
 		this.offsetY = offsetY;
 		this.offsetZ = offsetZ;
+		markDirty();
 	}
 
 	public void setIsDoubleSided(boolean isDoubleSided) {
 		this.isDoubleSided = isDoubleSided;
+		markDirty();
 	}
 
 	public void setStyle(String style) {
 		this.style = style;
+		markDirty();
 	}
 
 	public void setAngle(Angle angle) {
 		this.angle = angle;
+		markDirty();
 	}
 
 	public void setFloors(ObjectArrayList<LiftFloor> liftFloors) {
@@ -285,6 +303,7 @@ public class Lift extends LiftSchema {
 		instructions.clear();
 		setDistances();
 		needsUpdate = true;
+		markDirty();
 	}
 
 	public void setFloors(Lift lift) {
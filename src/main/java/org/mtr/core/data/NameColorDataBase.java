@@ -6,7 +6,6 @@ import org.mtr.core.serializer.ReaderBase;
 import org.mtr.core.serializer.SerializedDataBaseWithId;
 import org.mtr.core.tool.Utilities;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
-import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArraySet;
 
 import java.util.Locale;
 import java.util.stream.Collectors;
@@ -14,6 +13,7 @@ import java.util.stream.Collectors;
 public abstract class NameColorDataBase extends NameColorDataBaseSchema implements SerializedDataBaseWithId, Comparable<NameColorDataBase> {
 
 	private String hexId;
+	private long modificationCount;
 
 	public NameColorDataBase(TransportMode transportMode, Data data) {
 		super(transportMode, data);
@@ -31,6 +31,33 @@ public abstract class NameColorDataBase extends NameColorDataBaseSchema implemen
 		return hexId;
 	}
 
+	@Override
+	public void updateData(ReaderBase readerBase) {
+		super.updateData(readerBase);
+		markDirty();
+	}
+
+	@Override
+	public void copyData(NameColorDataBaseSchema source) {
+		super.copyData(source);
+		markDirty();
+	}
+
+	@Override
+	public final long getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * Should be called whenever a saved field changes, otherwise the change might not be written until the server stops.
+	 */
+	public final void markDirty() {
+		modificationCount++;
+		if (data != null) {
+			data.markModified();
+		}
+	}
+
 	public final long getId() {
 		return id;
 	}
@@ -53,10 +80,12 @@ public abstract class NameColorDataBase extends NameColorDataBaseSchema implemen
 
 	public final void setName(String newName) {
 		name = newName;
+		markDirty();
 	}
 
 	public final void setColor(int newColor) {
 		color = newColor & 0xFFFFFF;
+		markDirty();
 	}
 
 	public final boolean isTransportMode(NameColorDataBase data) {
@@ -75,7 +104,7 @@ public abstract class NameColorDataBase extends NameColorDataBaseSchema implemen
 		return this instanceof StationSchema;
 	}
 
-	public static <T extends NameColorDataBase> ObjectArrayList<T> getDataByName(ObjectArraySet<T> dataSet, String filter) {
+	public static <T extends NameColorDataBase> ObjectArrayList<T> getDataByName(EntityStore<T> dataSet, String filter) {
 		return dataSet.stream().filter(data -> data.getName().toLowerCase(Locale.ENGLISH).contains(filter.toLowerCase(Locale.ENGLISH).trim())).collect(Collectors.toCollection(ObjectArrayList::new));
 	}
 
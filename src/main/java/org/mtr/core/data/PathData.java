@@ -19,6 +19,10 @@ public class PathData extends PathDataSchema implements ConditionalList {
 	@Nullable
 	private Rail rail;
 	public final boolean reversePositions;
+	/**
+	 * Precomputed key for {@link RailOccupancy} lookups
+	 */
+	final long occupancyKey;
 
 	public PathData(Rail rail, long savedRailBaseId, long dwellTime, int stopIndex, Position startPosition, Position endPosition) {
 		this(rail, savedRailBaseId, dwellTime, stopIndex, 0, 0, startPosition, rail.getStartAngle(startPosition), endPosition, rail.getStartAngle(endPosition));
@@ -32,11 +36,13 @@ public class PathData extends PathDataSchema implements ConditionalList {
 		super(savedRailBaseId, dwellTime, stopIndex, startDistance, endDistance, startPosition, startAngle, endPosition, endAngle);
 		this.rail = rail;
 		reversePositions = startPosition.compareTo(endPosition) > 0;
+		occupancyKey = RailOccupancy.getKey(getOrderedPosition1(), getOrderedPosition2());
 	}
 
 	public PathData(ReaderBase readerBase) {
 		super(readerBase);
 		reversePositions = startPosition.compareTo(endPosition) > 0;
+		occupancyKey = RailOccupancy.getKey(getOrderedPosition1(), getOrderedPosition2());
 	}
 
 	@Override
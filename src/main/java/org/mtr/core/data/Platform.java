@@ -31,6 +31,7 @@ public final class Platform extends PlatformSchema {
 
 	public void setDwellTime(long dwellTime) {
 		this.dwellTime = dwellTime;
+		markDirty();
 	}
 
 	public long getDwellTime() {
@@ -45,6 +45,13 @@ public class Position extends PositionSchema implements Comparable<Position> {
 		return Math.abs(position.x - x) + Math.abs(position.y - y) + Math.abs(position.z - z);
 	}
 
+	public double distance(Position position) {
+		final double differenceX = position.x - x;
+		final double differenceY = position.y - y;
+		final double differenceZ = position.z - z;
+		return Math.sqrt(differenceX * differenceX + differenceY * differenceY + differenceZ * differenceZ);
+	}
+
 	@Nullable
 	public static Position getMin(@Nullable Position position1, @Nullable Position position2) {
 		if (position1 == null) {
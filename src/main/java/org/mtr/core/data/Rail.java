@@ -85,6 +85,18 @@ public final class Rail extends RailSchema {
 		updateData(readerBase);
 	}
 
+	@Override
+	public void updateData(ReaderBase readerBase) {
+		super.updateData(readerBase);
+		markDirty();
+	}
+
+	@Override
+	public void copyData(RailSchema source) {
+		super.copyData(source);
+		markDirty();
+	}
+
 	/**
 	 * A rail is valid if all the following conditions are met:
 	 * <ul>
@@ -160,7 +172,7 @@ public final class Rail extends RailSchema {
 
 	public void tick(Simulator simulator) {
 		final boolean needsUpdate = !Utilities.sameItems(blockedVehicleIds.keySet(), blockedVehicleIdsOld.keySet());
-		simulator.clients.values().forEach(client -> {
+		simulator.clientInterestIndex.iterateClients(position1, position2, client -> {
 			if (closeTo(client.getPosition(), client.getUpdateRadius())) {
 				client.update(this, needsUpdate);
 			}
@@ -206,6 +218,7 @@ public final class Rail extends RailSchema {
 				signalColors.removeIf(signalModification.getSignalColorsRemove()::contains);
 			}
 			signalModification.getSignalColorsAdd().forEach(signalColors::add);
+			markDirty();
 		}
 	}
 
@@ -216,6 +229,7 @@ public final class Rail extends RailSchema {
 		if (!stylesMigratedLegacy && styles.isEmpty()) {
 			styles.add("default");
 			stylesMigratedLegacy = true;
+			markDirty();
 		}
 	}
 
@@ -240,6 +254,10 @@ public final class Rail extends RailSchema {
 		writeConnectedRailsCacheFromMap(positionsToRail, position2, connectedRails2);
 	}
 
+	ObjectOpenHashSet<Rail> getConnectedRails(boolean atPosition1) {
+		return atPosition1 ? connectedRails1 : connectedRails2;
+	}
+
 	private void writeConnectedRailsCacheFromMap(Object2ObjectOpenHashMap<Position, Object2ObjectOpenHashMap<Position, Rail>> positionsToRail, Position position, ObjectOpenHashSet<Rail> connectedRails) {
 		connectedRails.clear();
 		positionsToRail.getOrDefault(position, new Object2ObjectOpenHashMap<>()).forEach((connectedPosition, rail) -> {
@@ -0,0 +1,150 @@
+package org.mtr.core.data;
+
+import org.mtr.libraries.it.unimi.dsi.fastutil.HashCommon;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Indicates which portions of each rail are occupied by vehicles during a single tick.
+ * Entries are keyed by the rail's ordered positions (the same positions that make up the rail ID) and stored in an open addressing table with a precomputed primitive key.
+ * Clearing only starts a new generation, so slots and {@link VehiclePosition} instances are reused and lookups don't allocate anything.
+ */
+public final class RailOccupancy {
+
+	private int size;
+	private int generation = 1;
+	private long[] keys;
+	private int[] generations;
+	private Position[] positions1;
+	private Position[] positions2;
+	private VehiclePosition[] vehiclePositions;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	public RailOccupancy() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Remove all entries in constant time.
+	 */
+	public void clear() {
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(generations, 0);
+			generation = 0;
+		}
+		generation++;
+		size = 0;
+	}
+
+	@Nullable
+	public VehiclePosition get(PathData pathData) {
+		final Position position1 = pathData.getOrderedPosition1();
+		final Position position2 = pathData.getOrderedPosition2();
+		final long key = pathData.occupancyKey;
+		final int mask = keys.length - 1;
+		int slot = (int) key & mask;
+
+		while (generations[slot] == generation) {
+			if (keys[slot] == key && positions1[slot].equals(position1) && positions2[slot].equals(position2)) {
+				return vehiclePositions[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return null;
+	}
+
+	public void addSegment(PathData pathData, double startDistance, double endDistance, long vehicleId) {
+		getOrCreate(pathData.getOrderedPosition1(), pathData.getOrderedPosition2(), pathData.occupancyKey).addSegment(startDistance, endDistance, vehicleId);
+	}
+
+	/**
+	 * Copy all entries of another instance into this one.
+	 */
+	public void putAll(RailOccupancy railOccupancy) {
+		for (int i = 0; i < railOccupancy.keys.length; i++) {
+			if (railOccupancy.generations[i] == railOccupancy.generation) {
+				getOrCreate(railOccupancy.positions1[i], railOccupancy.positions2[i], railOccupancy.keys[i]).addAll(railOccupancy.vehiclePositions[i]);
+			}
+		}
+	}
+
+	private VehiclePosition getOrCreate(Position position1, Position position2, long key) {
+		if ((size + 1) * 2 > keys.length) {
+			rehash();
+		}
+
+		final int mask = keys.length - 1;
+		int slot = (int) key & mask;
+
+		while (generations[slot] == generation) {
+			if (keys[slot] == key && positions1[slot].equals(position1) && positions2[slot].equals(position2)) {
+				return vehiclePositions[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		generations[slot] = generation;
+		positions1[slot] = position1;
+		positions2[slot] = position2;
+		size++;
+
+		final VehiclePosition vehiclePosition = vehiclePositions[slot];
+		if (vehiclePosition == null) {
+			final VehiclePosition newVehiclePosition = new VehiclePosition();
+			vehiclePositions[slot] = newVehiclePosition;
+			return newVehiclePosition;
+		} else {
+			vehiclePosition.clear();
+			return vehiclePosition;
+		}
+	}
+
+	private void rehash() {
+		final long[] oldKeys = keys;
+		final int[] oldGenerations = generations;
+		final Position[] oldPositions1 = positions1;
+		final Position[] oldPositions2 = positions2;
+		final VehiclePosition[] oldVehiclePositions = vehiclePositions;
+		allocate(oldKeys.length * 2);
+		final int mask = keys.length - 1;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldGenerations[i] == generation) {
+				int slot = (int) oldKeys[i] & mask;
+				while (generations[slot] == generation) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				generations[slot] = generation;
+				positions1[slot] = oldPositions1[i];
+				positions2[slot] = oldPositions2[i];
+				vehiclePositions[slot] = oldVehiclePositions[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		generations = new int[capacity];
+		positions1 = new Position[capacity];
+		positions2 = new Position[capacity];
+		vehiclePositions = new VehiclePosition[capacity];
+	}
+
+	/**
+	 * @return a well mixed hash of the ordered positions of a rail
+	 */
+	public static long getKey(Position position1, Position position2) {
+		long hash = position1.getX();
+		hash = hash * 31 + position1.getY();
+		hash = hash * 31 + position1.getZ();
+		hash = hash * 31 + position2.getX();
+		hash = hash * 31 + position2.getY();
+		hash = hash * 31 + position2.getZ();
+		return HashCommon.mix(hash);
+	}
+}
@@ -84,18 +84,22 @@ public final class Route extends RouteSchema {
 
 	public void setRouteNumber(String routeNumber) {
 		this.routeNumber = routeNumber;
+		markDirty();
 	}
 
 	public void setHidden(boolean hidden) {
 		this.hidden = hidden;
+		markDirty();
 	}
 
 	public void setCircularState(CircularState circularState) {
 		this.circularState = circularState;
+		markDirty();
 	}
 
 	public void setRouteType(RouteType routeType) {
 		this.routeType = routeType;
+		markDirty();
 	}
 
 	public org.mtr.core.oba.Route getOBARouteElement() {
@@ -23,6 +23,22 @@ public abstract class SavedRailBase<T extends SavedRailBase<T, U>, U extends Are
 		return true;
 	}
 
+	public long getMinX() {
+		return Math.min(position1.getX(), position2.getX());
+	}
+
+	public long getMaxX() {
+		return Math.max(position1.getX(), position2.getX());
+	}
+
+	public long getMinZ() {
+		return Math.min(position1.getZ(), position2.getZ());
+	}
+
+	public long getMaxZ() {
+		return Math.max(position1.getZ(), position2.getZ());
+	}
+
 	public boolean containsPos(Position position) {
 		return position1.equals(position) || position2.equals(position);
 	}
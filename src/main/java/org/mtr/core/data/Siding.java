@@ -22,14 +22,13 @@ import org.mtr.libraries.it.unimi.dsi.fastutil.objects.*;
 import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.Random;
+import java.util.function.BiConsumer;
 
 public final class Siding extends SidingSchema implements Utilities {
 
 	private PathData defaultPathData;
 	private double timeOffsetForRepeating;
 
-	private final ObjectArrayList<SidingPathFinder<Depot, Siding, Station, Platform>> sidingPathFinderSidingToMainRoute = new ObjectArrayList<>();
-	private final ObjectArrayList<SidingPathFinder<Station, Platform, Depot, Siding>> sidingPathFinderMainRouteToSiding = new ObjectArrayList<>();
 	private final ObjectArrayList<PathData> pathMainRoute = new ObjectArrayList<>();
 	private final ObjectArrayList<PathData> pathSidingToMainRoute = new ObjectArrayList<>();
 	private final ObjectArrayList<PathData> pathMainRouteToSiding = new ObjectArrayList<>();
@@ -85,6 +84,12 @@ public final class Siding extends SidingSchema implements Utilities {
 		vehicles.removeIf(vehicle -> !vehicle.getIsOnRoute());
 	}
 
+	@Override
+	public void copyData(SidingSchema source) {
+		super.copyData(source);
+		vehicles.removeIf(vehicle -> !vehicle.getIsOnRoute());
+	}
+
 	@Override
 	public void serializeFullData(WriterBase writerBase) {
 		super.serializeFullData(writerBase);
@@ -161,70 +166,49 @@ public final class Siding extends SidingSchema implements Utilities {
 				break;
 			}
 		}
+		markDirty();
 	}
 
 	public void setIsManual(boolean isManual) {
 		maxVehicles = transportMode.continuousMovement ? 0 : isManual ? -1 : 1;
+		markDirty();
 	}
 
 	public void setUnlimitedVehicles(boolean unlimitedVehicles) {
 		maxVehicles = transportMode.continuousMovement ? 0 : unlimitedVehicles ? 0 : 1;
+		markDirty();
 	}
 
 	public void setMaxVehicles(int newMaxVehicles) {
 		maxVehicles = transportMode.continuousMovement ? 0 : Math.max(1, newMaxVehicles);
+		markDirty();
 	}
 
 	public void setDelayedVehicleSpeedIncreasePercentage(int delayedVehicleSpeedIncreasePercentage) {
 		this.delayedVehicleSpeedIncreasePercentage = Utilities.clamp(delayedVehicleSpeedIncreasePercentage, 0, 100);
+		markDirty();
 	}
 
 	public void setDelayedVehicleReduceDwellTimePercentage(int delayedVehicleReduceDwellTimePercentage) {
 		this.delayedVehicleReduceDwellTimePercentage = Utilities.clamp(delayedVehicleReduceDwellTimePercentage, 0, 100);
+		markDirty();
 	}
 
 	public void setAcceleration(double newAcceleration) {
 		acceleration = transportMode.continuousMovement ? MAX_ACCELERATION : roundAcceleration(newAcceleration);
+		markDirty();
 	}
 
 	public void setDeceleration(double newDeceleration) {
 		deceleration = transportMode.continuousMovement ? MAX_ACCELERATION : roundAcceleration(newDeceleration);
+		markDirty();
 	}
 
 	public void clearVehicles() {
 		vehicles.clear();
 	}
 
-	public void generateRoute(Platform firstPlatform, @Nullable Platform lastPlatform, int stopIndex, long cruisingAltitude) {
-		vehicles.clear();
-		pathSidingToMainRoute.clear();
-		pathMainRouteToSiding.clear();
-		sidingPathFinderSidingToMainRoute.clear();
-		sidingPathFinderSidingToMainRoute.add(new SidingPathFinder<>(data, this, firstPlatform, -1));
-		sidingPathFinderMainRouteToSiding.clear();
-		if (lastPlatform != null) {
-			sidingPathFinderMainRouteToSiding.add(new SidingPathFinder<>(data, lastPlatform, this, stopIndex));
-		}
-	}
-
 	public boolean tick() {
-		// Generate any pending paths
-		SidingPathFinder.findPathTick(pathSidingToMainRoute, sidingPathFinderSidingToMainRoute, area == null ? 0 : area.getCruisingAltitude(), () -> finishGeneratingPath(false), (startSavedRail, endSavedRail) -> {
-			Main.LOGGER.info("Path not found from {} siding {} to main route", getDepotName(), name);
-			finishGeneratingPath(true);
-		});
-		SidingPathFinder.findPathTick(pathMainRouteToSiding, sidingPathFinderMainRouteToSiding, area == null ? 0 : area.getCruisingAltitude(), () -> {
-			if (area != null) {
-				if (SidingPathFinder.overlappingPaths(area.getPath(), pathMainRouteToSiding)) {
-					pathMainRouteToSiding.remove(0);
-				}
-			}
-			finishGeneratingPath(false);
-		}, (startSavedRail, endSavedRail) -> {
-			Main.LOGGER.info("Path not found from main route to {} siding {}", getDepotName(), name);
-			finishGeneratingPath(true);
-		});
-
 		// Attempt to find a corresponding rail for this siding and return true if failed
 		if (defaultPathData == null) {
 			final Rail rail = Data.tryGet(data.positionsToRail, position1, position2);
@@ -237,11 +221,18 @@ public final class Siding extends SidingSchema implements Utilities {
 		}
 	}
 
-	public void initVehiclePositions(Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>> vehiclePositions) {
+	public void initVehiclePositions(RailOccupancy vehiclePositions) {
 		vehicles.forEach(vehicle -> vehicle.initVehiclePositions(vehiclePositions));
 	}
 
-	public void simulateTrain(long millisElapsed, ObjectArrayList<Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>>> vehiclePositions) {
+	public void simulateTrain(long millisElapsed, ObjectArrayList<RailOccupancy> vehiclePositions) {
+		simulateTrain(millisElapsed, vehiclePositions, null);
+	}
+
+	/**
+	 * @param sidingSimulationGroup if not {@code null}, client updates are deferred to the group rather than written directly
+	 */
+	public void simulateTrain(long millisElapsed, ObjectArrayList<RailOccupancy> vehiclePositions, @Nullable SidingSimulationGroup sidingSimulationGroup) {
 		vehicleTimesAlongRoute.clear();
 
 		if (area == null) {
@@ -258,7 +249,7 @@ public final class Siding extends SidingSchema implements Utilities {
 		final ObjectArraySet<Vehicle> trainsToRemove = new ObjectArraySet<>();
 		final LongArrayList visitedDepartureIndices = new LongArrayList();
 		for (final Vehicle vehicle : vehicles) {
-			vehicle.simulate(millisElapsed, vehiclePositions, vehicleTimesAlongRoute);
+			vehicle.simulate(millisElapsed, vehiclePositions, vehicleTimesAlongRoute, sidingSimulationGroup);
 
 			if (vehicle.closeToDepot()) {
 				spawnTrain = false;
@@ -462,6 +453,16 @@ public final class Siding extends SidingSchema implements Utilities {
 		return lastTimeSegment == null ? 0 : (long) Math.ceil(lastTimeSegment.startTime + lastTimeSegment.startSpeed / lastTimeSegment.acceleration);
 	}
 
+	/**
+	 * Iterate through all rail nodes that vehicles of this siding could occupy.
+	 */
+	void iteratePathPositions(BiConsumer<Position, Position> consumer) {
+		consumer.accept(position1, position2);
+		pathSidingToMainRoute.forEach(pathData -> consumer.accept(pathData.getOrderedPosition1(), pathData.getOrderedPosition2()));
+		pathMainRoute.forEach(pathData -> consumer.accept(pathData.getOrderedPosition1(), pathData.getOrderedPosition2()));
+		pathMainRouteToSiding.forEach(pathData -> consumer.accept(pathData.getOrderedPosition1(), pathData.getOrderedPosition2()));
+	}
+
 	void writePathCache() {
 		PathData.writePathCache(pathSidingToMainRoute, data, transportMode);
 		PathData.writePathCache(pathMainRouteToSiding, data, transportMode);
@@ -487,7 +488,7 @@ public final class Siding extends SidingSchema implements Utilities {
 
 	private int matchDeparture() {
 		final long repeatInterval = getRepeatInterval(0);
-		final long offset = departures.isEmpty() || repeatInterval == 0 ? 0 : (System.currentTimeMillis() - departures.getLong(0)) / repeatInterval * repeatInterval;
+		final long offset = departures.isEmpty() || repeatInterval == 0 ? 0 : ((data instanceof Simulator ? ((Simulator) data).getCurrentMillis() : System.currentTimeMillis()) - departures.getLong(0)) / repeatInterval * repeatInterval;
 
 		for (int i = 0; i < departures.size(); i++) {
 			if ((data instanceof Simulator ? ((Simulator) data).matchMillis(departures.getLong(i) + offset) : 0) == 0) {
@@ -500,17 +501,39 @@ public final class Siding extends SidingSchema implements Utilities {
 
 	/**
 	 * Should only be called after a path is generated, whether successful or not.
+	 *
+	 * @param sidingToMainRoute the path from this siding to the first platform, or an empty list if there is none
+	 * @param mainRouteToSiding the path from the last platform to this siding, an empty list if there is none, or {@code null} if the depot repeats infinitely
 	 */
-	private void finishGeneratingPath(boolean failed) {
-		if (failed && area != null) {
-			area.sidingPathGenerationFailed();
-		}
-		if (sidingPathFinderSidingToMainRoute.isEmpty() && sidingPathFinderMainRouteToSiding.isEmpty()) {
-			generatePathDistancesAndTimeSegments();
+	void finishGeneratingPath(ObjectArrayList<PathData> sidingToMainRoute, @Nullable ObjectArrayList<PathData> mainRouteToSiding) {
+		vehicles.clear();
+		pathSidingToMainRoute.clear();
+		pathMainRouteToSiding.clear();
+
+		if (sidingToMainRoute.size() < 2) {
+			Main.LOGGER.info("Path not found from {} siding {} to main route", getDepotName(), name);
 			if (area != null) {
-				area.finishGeneratingPath(id);
+				area.sidingPathGenerationFailed();
+			}
+		} else {
+			pathSidingToMainRoute.addAll(sidingToMainRoute);
+		}
+
+		if (mainRouteToSiding != null) {
+			if (mainRouteToSiding.size() < 2) {
+				Main.LOGGER.info("Path not found from main route to {} siding {}", getDepotName(), name);
+				if (area != null) {
+					area.sidingPathGenerationFailed();
+				}
+			} else {
+				pathMainRouteToSiding.addAll(mainRouteToSiding);
+				if (area != null && SidingPathFinder.overlappingPaths(area.getPath(), pathMainRouteToSiding)) {
+					pathMainRouteToSiding.remove(0);
+				}
 			}
 		}
+
+		generatePathDistancesAndTimeSegments();
 	}
 
 	private BooleanLongImmutablePair getPredictedAndDeviation(long currentMillis, int departureIndex, long departureOffset) {
@@ -615,6 +638,10 @@ public final class Siding extends SidingSchema implements Utilities {
 		platformTripStopTimes.clear();
 		timeSegments.clear();
 
+		if (data instanceof Simulator) {
+			((Simulator) data).invalidateSidingSimulationGroups();
+		}
+
 		if (pathSidingToMainRoute.isEmpty() || area == null || area.getPath().isEmpty() || !area.getRepeatInfinitely() && pathMainRouteToSiding.isEmpty()) {
 			pathSidingToMainRoute.clear();
 			pathMainRouteToSiding.clear();
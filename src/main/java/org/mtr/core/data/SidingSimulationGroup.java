@@ -0,0 +1,145 @@
+package org.mtr.core.data;
+
+import org.mtr.core.operation.VehicleUpdate;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.*;
+
+import javax.annotation.Nullable;
+
+/**
+ * A set of sidings whose vehicles can never interact with vehicles of any other group in the same tick.
+ * Two sidings are placed in the same group if their paths share a node or if their paths are connected by signalled rails (since reserving a signal block floods across connected rails).
+ * Groups can be simulated in parallel; anything that is shared between groups is buffered and written back in {@link SidingSimulationGroup#commit}.
+ */
+public final class SidingSimulationGroup {
+
+	private final ObjectArrayList<Siding> sidings = new ObjectArrayList<>();
+	/**
+	 * Per transport mode, a two element list of the global vehicle positions from the previous tick and the vehicle positions written by this group in the current tick
+	 */
+	private final ObjectImmutableList<ObjectArrayList<RailOccupancy>> vehiclePositions;
+	private final ObjectArrayList<Client> deferredClients = new ObjectArrayList<>();
+	private final LongArrayList deferredVehicleIds = new LongArrayList();
+	private final ObjectArrayList<VehicleUpdate> deferredVehicleUpdates = new ObjectArrayList<>();
+
+	private SidingSimulationGroup() {
+		final ObjectArrayList<ObjectArrayList<RailOccupancy>> tempVehiclePositions = new ObjectArrayList<>();
+		for (int i = 0; i < TransportMode.values().length; i++) {
+			final ObjectArrayList<RailOccupancy> vehiclePositionsForTransportMode = new ObjectArrayList<>();
+			vehiclePositionsForTransportMode.add(null);
+			vehiclePositionsForTransportMode.add(new RailOccupancy());
+			tempVehiclePositions.add(vehiclePositionsForTransportMode);
+		}
+		vehiclePositions = new ObjectImmutableList<>(tempVehiclePositions);
+	}
+
+	/**
+	 * Simulate all sidings in this group. Safe to call concurrently for different groups.
+	 *
+	 * @param globalVehiclePositions the global vehicle positions (only the previous tick is read)
+	 */
+	public void simulate(long millisElapsed, ObjectImmutableList<ObjectArrayList<RailOccupancy>> globalVehiclePositions) {
+		for (int i = 0; i < vehiclePositions.size(); i++) {
+			final ObjectArrayList<RailOccupancy> vehiclePositionsForTransportMode = vehiclePositions.get(i);
+			vehiclePositionsForTransportMode.set(0, globalVehiclePositions.get(i).get(0));
+			vehiclePositionsForTransportMode.get(1).clear();
+		}
+
+		deferredClients.clear();
+		deferredVehicleIds.clear();
+		deferredVehicleUpdates.clear();
+		sidings.forEach(siding -> siding.simulateTrain(millisElapsed, vehiclePositions.get(siding.getTransportModeOrdinal()), this));
+	}
+
+	/**
+	 * Write the results of {@link SidingSimulationGroup#simulate} back to the shared state. Must be called from the simulation thread.
+	 */
+	public void commit(ObjectImmutableList<ObjectArrayList<RailOccupancy>> globalVehiclePositions) {
+		for (int i = 0; i < vehiclePositions.size(); i++) {
+			globalVehiclePositions.get(i).get(1).putAll(vehiclePositions.get(i).get(1));
+		}
+
+		for (int i = 0; i < deferredClients.size(); i++) {
+			deferredClients.get(i).update(deferredVehicleIds.getLong(i), deferredVehicleUpdates.get(i));
+		}
+
+		deferredClients.clear();
+		deferredVehicleIds.clear();
+		deferredVehicleUpdates.clear();
+	}
+
+	void deferClientUpdate(Client client, long vehicleId, @Nullable VehicleUpdate vehicleUpdate) {
+		deferredClients.add(client);
+		deferredVehicleIds.add(vehicleId);
+		deferredVehicleUpdates.add(vehicleUpdate);
+	}
+
+	/**
+	 * Split sidings into independent groups. Sidings are kept in their original order within each group.
+	 */
+	public static ObjectArrayList<SidingSimulationGroup> create(EntityStore<Siding> sidings, EntityStore<Rail> rails) {
+		final Object2ObjectOpenHashMap<Position, Position> parents = new Object2ObjectOpenHashMap<>();
+
+		rails.forEach(rail -> {
+			if (!rail.getSignalColors().isEmpty()) {
+				union(parents, rail.getPosition1(), rail.getPosition2());
+			}
+		});
+
+		final Object2ObjectOpenHashMap<Siding, Position> sidingNodes = new Object2ObjectOpenHashMap<>();
+		sidings.forEach(siding -> siding.iteratePathPositions((position1, position2) -> {
+			union(parents, position1, position2);
+			sidingNodes.put(siding, position1);
+		}));
+
+		final ObjectArrayList<SidingSimulationGroup> sidingSimulationGroups = new ObjectArrayList<>();
+		final Object2ObjectOpenHashMap<Position, SidingSimulationGroup> rootToGroup = new Object2ObjectOpenHashMap<>();
+		sidings.forEach(siding -> {
+			final Position node = sidingNodes.get(siding);
+			final SidingSimulationGroup sidingSimulationGroup;
+			if (node == null) {
+				sidingSimulationGroup = new SidingSimulationGroup();
+				sidingSimulationGroups.add(sidingSimulationGroup);
+			} else {
+				sidingSimulationGroup = rootToGroup.computeIfAbsent(find(parents, node), root -> {
+					final SidingSimulationGroup newSidingSimulationGroup = new SidingSimulationGroup();
+					sidingSimulationGroups.add(newSidingSimulationGroup);
+					return newSidingSimulationGroup;
+				});
+			}
+			sidingSimulationGroup.sidings.add(siding);
+		});
+
+		return sidingSimulationGroups;
+	}
+
+	private static Position find(Object2ObjectOpenHashMap<Position, Position> parents, Position position) {
+		Position root = position;
+		while (true) {
+			final Position parent = parents.get(root);
+			if (parent == null || parent.equals(root)) {
+				break;
+			}
+			root = parent;
+		}
+
+		// Path compression
+		Position current = position;
+		while (!current.equals(root)) {
+			final Position parent = parents.get(current);
+			parents.put(current, root);
+			current = parent;
+		}
+
+		return root;
+	}
+
+	private static void union(Object2ObjectOpenHashMap<Position, Position> parents, Position position1, Position position2) {
+		final Position root1 = find(parents, position1);
+		final Position root2 = find(parents, position2);
+		parents.putIfAbsent(root1, root1);
+		if (!root1.equals(root2)) {
+			parents.put(root2, root1);
+		}
+	}
+}
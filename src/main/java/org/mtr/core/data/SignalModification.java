@@ -36,6 +36,7 @@ public final class SignalModification extends SignalModificationSchema {
 		if (rail != null) {
 			rail.applyModification(this);
 			railsToUpdate.add(rail);
+			data.markModified();
 		}
 	}
 
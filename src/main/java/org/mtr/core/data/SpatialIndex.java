@@ -0,0 +1,238 @@
+package org.mtr.core.data;
+
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.Nullable;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A uniform grid (on the horizontal plane) of the bounding boxes of stations, depots, saved rails, rails, or client update areas, used for range queries instead of checking every object.
+ * Queries only return candidates, so callers should still perform their own exact check.
+ * Each object remembers when it was first added so that lookups depending on the iteration order of the source set give the same result as a linear scan.
+ * Queries don't change the index, so they can be made from multiple threads as long as the index isn't being changed at the same time.
+ */
+public final class SpatialIndex<T> {
+
+	private long nextOrder;
+	private final Object2ObjectOpenHashMap<T, Entry<T>> entries = new Object2ObjectOpenHashMap<>();
+	private final ObjectArrayList<Entry<T>> largeEntries = new ObjectArrayList<>();
+	private final Long2ObjectOpenHashMap<ObjectArrayList<Entry<T>>> cells = new Long2ObjectOpenHashMap<>();
+	/**
+	 * Each cell is {@code 2^cellShift} blocks wide
+	 */
+	private final int cellShift;
+	/**
+	 * Objects covering more cells than this are not added to the grid and are checked for every query instead
+	 */
+	private final int maxCellsPerEntry;
+	/**
+	 * Queries covering more cells than this check every object instead
+	 */
+	private final int maxCellsPerQuery;
+
+	public SpatialIndex() {
+		this(6, 256, 4096);
+	}
+
+	public SpatialIndex(int cellShift, int maxCellsPerEntry, int maxCellsPerQuery) {
+		this.cellShift = cellShift;
+		this.maxCellsPerEntry = maxCellsPerEntry;
+		this.maxCellsPerQuery = maxCellsPerQuery;
+	}
+
+	public void clear() {
+		nextOrder = 0;
+		entries.clear();
+		largeEntries.clear();
+		cells.clear();
+	}
+
+	/**
+	 * Add an object or update the bounds of an existing object. Existing objects keep their original order.
+	 */
+	public void put(T data, long minX, long minZ, long maxX, long maxZ) {
+		final Entry<T> oldEntry = entries.get(data);
+		final Entry<T> entry;
+		if (oldEntry == null) {
+			entry = new Entry<>(data, nextOrder++, minX, minZ, maxX, maxZ, cellShift);
+		} else if (oldEntry.minX == minX && oldEntry.minZ == minZ && oldEntry.maxX == maxX && oldEntry.maxZ == maxZ) {
+			return;
+		} else {
+			removeFromCells(oldEntry);
+			entry = new Entry<>(data, oldEntry.order, minX, minZ, maxX, maxZ, cellShift);
+		}
+
+		entries.put(data, entry);
+		if (isLarge(entry)) {
+			largeEntries.add(entry);
+		} else {
+			for (long cellX = entry.cellMinX; cellX <= entry.cellMaxX; cellX++) {
+				for (long cellZ = entry.cellMinZ; cellZ <= entry.cellMaxZ; cellZ++) {
+					final long cellKey = getCellKey(cellX, cellZ);
+					final ObjectArrayList<Entry<T>> cellEntries = cells.get(cellKey);
+					if (cellEntries == null) {
+						final ObjectArrayList<Entry<T>> newCellEntries = new ObjectArrayList<>();
+						newCellEntries.add(entry);
+						cells.put(cellKey, newCellEntries);
+					} else {
+						cellEntries.add(entry);
+					}
+				}
+			}
+		}
+	}
+
+	public void put(T data, Position position1, Position position2) {
+		put(data, Math.min(position1.getX(), position2.getX()), Math.min(position1.getZ(), position2.getZ()), Math.max(position1.getX(), position2.getX()), Math.max(position1.getZ(), position2.getZ()));
+	}
+
+	public void remove(T data) {
+		final Entry<T> entry = entries.remove(data);
+		if (entry != null) {
+			removeFromCells(entry);
+		}
+	}
+
+	/**
+	 * Iterate through each object whose bounding box overlaps the query exactly once.
+	 */
+	public void iterate(long minX, long minZ, long maxX, long maxZ, Consumer<T> consumer) {
+		final long cellMinX = minX >> cellShift;
+		final long cellMinZ = minZ >> cellShift;
+		final long cellMaxX = maxX >> cellShift;
+		final long cellMaxZ = maxZ >> cellShift;
+
+		if (getCellCount(cellMinX, cellMinZ, cellMaxX, cellMaxZ) > maxCellsPerQuery) {
+			entries.values().forEach(entry -> {
+				if (entry.overlaps(minX, minZ, maxX, maxZ)) {
+					consumer.accept(entry.data);
+				}
+			});
+			return;
+		}
+
+		largeEntries.forEach(entry -> {
+			if (entry.overlaps(minX, minZ, maxX, maxZ)) {
+				consumer.accept(entry.data);
+			}
+		});
+
+		for (long cellX = cellMinX; cellX <= cellMaxX; cellX++) {
+			for (long cellZ = cellMinZ; cellZ <= cellMaxZ; cellZ++) {
+				final ObjectArrayList<Entry<T>> cellEntries = cells.get(getCellKey(cellX, cellZ));
+				if (cellEntries != null) {
+					for (final Entry<T> entry : cellEntries) {
+						// An object can be in more than one cell of the query, so only return it from the cell containing the corner of the overlapping region
+						if (entry.overlaps(minX, minZ, maxX, maxZ) && Math.max(minX, entry.minX) >> cellShift == cellX && Math.max(minZ, entry.minZ) >> cellShift == cellZ) {
+							consumer.accept(entry.data);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public void iterate(Position position1, Position position2, Consumer<T> consumer) {
+		iterate(Math.min(position1.getX(), position2.getX()), Math.min(position1.getZ(), position2.getZ()), Math.max(position1.getX(), position2.getX()), Math.max(position1.getZ(), position2.getZ()), consumer);
+	}
+
+	public void iterate(Position position, double padding, Consumer<T> consumer) {
+		iterate((long) Math.floor(position.getX() - padding), (long) Math.floor(position.getZ() - padding), (long) Math.ceil(position.getX() + padding), (long) Math.ceil(position.getZ() + padding), consumer);
+	}
+
+	/**
+	 * @return the earliest added object containing the position that matches the predicate, which is the same object a linear scan of the source set would find first
+	 */
+	@Nullable
+	public T getFirst(Position position, Predicate<T> predicate) {
+		final long x = position.getX();
+		final long z = position.getZ();
+		Entry<T> firstEntry = null;
+
+		for (final Entry<T> entry : largeEntries) {
+			firstEntry = getEarlierEntry(firstEntry, entry, x, z, predicate);
+		}
+
+		final ObjectArrayList<Entry<T>> cellEntries = cells.get(getCellKey(x >> cellShift, z >> cellShift));
+		if (cellEntries != null) {
+			for (final Entry<T> entry : cellEntries) {
+				firstEntry = getEarlierEntry(firstEntry, entry, x, z, predicate);
+			}
+		}
+
+		return firstEntry == null ? null : firstEntry.data;
+	}
+
+	private void removeFromCells(Entry<T> entry) {
+		if (isLarge(entry)) {
+			largeEntries.remove(entry);
+		} else {
+			for (long cellX = entry.cellMinX; cellX <= entry.cellMaxX; cellX++) {
+				for (long cellZ = entry.cellMinZ; cellZ <= entry.cellMaxZ; cellZ++) {
+					final long cellKey = getCellKey(cellX, cellZ);
+					final ObjectArrayList<Entry<T>> cellEntries = cells.get(cellKey);
+					if (cellEntries != null) {
+						cellEntries.remove(entry);
+						if (cellEntries.isEmpty()) {
+							cells.remove(cellKey);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isLarge(Entry<T> entry) {
+		return getCellCount(entry.cellMinX, entry.cellMinZ, entry.cellMaxX, entry.cellMaxZ) > maxCellsPerEntry;
+	}
+
+	@Nullable
+	private static <T> Entry<T> getEarlierEntry(@Nullable Entry<T> firstEntry, Entry<T> entry, long x, long z, Predicate<T> predicate) {
+		return (firstEntry == null || entry.order < firstEntry.order) && entry.overlaps(x, z, x, z) && predicate.test(entry.data) ? entry : firstEntry;
+	}
+
+	/**
+	 * Uses floating point so that very large bounding boxes don't overflow.
+	 */
+	private static double getCellCount(long cellMinX, long cellMinZ, long cellMaxX, long cellMaxZ) {
+		return (double) (cellMaxX - cellMinX + 1) * (cellMaxZ - cellMinZ + 1);
+	}
+
+	private static long getCellKey(long cellX, long cellZ) {
+		return (cellX << 32) ^ (cellZ & 0xFFFFFFFFL);
+	}
+
+	private static class Entry<T> {
+
+		private final T data;
+		private final long order;
+		private final long minX;
+		private final long minZ;
+		private final long maxX;
+		private final long maxZ;
+		private final long cellMinX;
+		private final long cellMinZ;
+		private final long cellMaxX;
+		private final long cellMaxZ;
+
+		private Entry(T data, long order, long minX, long minZ, long maxX, long maxZ, int cellShift) {
+			this.data = data;
+			this.order = order;
+			this.minX = minX;
+			this.minZ = minZ;
+			this.maxX = maxX;
+			this.maxZ = maxZ;
+			cellMinX = minX >> cellShift;
+			cellMinZ = minZ >> cellShift;
+			cellMaxX = maxX >> cellShift;
+			cellMaxZ = maxZ >> cellShift;
+		}
+
+		private boolean overlaps(long minX, long minZ, long maxX, long maxZ) {
+			return minX <= this.maxX && maxX >= this.minX && minZ <= this.maxZ && maxZ >= this.minZ;
+		}
+	}
+}
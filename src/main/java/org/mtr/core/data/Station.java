@@ -43,14 +43,17 @@ public final class Station extends StationSchema {
 
 	public void setZone1(long zone1) {
 		this.zone1 = zone1;
+		markDirty();
 	}
 
 	public void setZone2(long zone2) {
 		this.zone2 = zone2;
+		markDirty();
 	}
 
 	public void setZone3(long zone3) {
 		this.zone3 = zone3;
+		markDirty();
 	}
 
 	public Object2ObjectAVLTreeMap<Station, Int2ObjectAVLTreeMap<ObjectArrayList<Route>>> getInterchangeStationToColorToRoutesMap(boolean includeConnectingStations) {
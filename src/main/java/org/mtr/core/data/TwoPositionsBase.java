@@ -7,6 +7,7 @@ import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArraySet;
 public abstract class TwoPositionsBase implements SerializedDataBaseWithId {
 
 	private String hexId;
+	private long modificationCount;
 
 	@Override
 	public final String getHexId() {
@@ -16,6 +17,18 @@ public abstract class TwoPositionsBase implements SerializedDataBaseWithId {
 		return hexId;
 	}
 
+	@Override
+	public final long getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * Should be called whenever a saved field changes, otherwise the change might not be written until the server stops.
+	 */
+	public final void markDirty() {
+		modificationCount++;
+	}
+
 	public final void writePositions(ObjectArraySet<Position> positionsToUpdate) {
 		positionsToUpdate.add(getPosition1());
 		positionsToUpdate.add(getPosition2());
@@ -1,15 +1,14 @@
 package org.mtr.core.data;
 
 import org.mtr.core.generated.data.VehicleSchema;
+import org.mtr.core.operation.VehicleUpdate;
 import org.mtr.core.serializer.ReaderBase;
 import org.mtr.core.simulation.Simulator;
 import org.mtr.core.tool.Utilities;
 import org.mtr.core.tool.Vector;
 import org.mtr.libraries.it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-import org.mtr.libraries.it.unimi.dsi.fastutil.doubles.DoubleDoubleImmutablePair;
 import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.Long2LongAVLTreeMap;
-import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectObjectImmutablePair;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
@@ -104,11 +103,15 @@ public class Vehicle extends VehicleSchema implements Utilities {
 		}
 	}
 
-	public void initVehiclePositions(Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>> vehiclePositions) {
-		writeVehiclePositions(Utilities.getIndexFromConditionalList(vehicleExtraData.immutablePath, railProgress), vehiclePositions);
+	public void initVehiclePositions(RailOccupancy vehiclePositions) {
+		writeVehiclePositions(Utilities.getIndexFromConditionalList(vehicleExtraData.immutablePath, railProgress), vehiclePositions, null);
 	}
 
-	public void simulate(long millisElapsed, @Nullable ObjectArrayList<Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>>> vehiclePositions, @Nullable Long2LongAVLTreeMap vehicleTimesAlongRoute) {
+	public void simulate(long millisElapsed, @Nullable ObjectArrayList<RailOccupancy> vehiclePositions, @Nullable Long2LongAVLTreeMap vehicleTimesAlongRoute) {
+		simulate(millisElapsed, vehiclePositions, vehicleTimesAlongRoute, null);
+	}
+
+	void simulate(long millisElapsed, @Nullable ObjectArrayList<RailOccupancy> vehiclePositions, @Nullable Long2LongAVLTreeMap vehicleTimesAlongRoute, @Nullable SidingSimulationGroup sidingSimulationGroup) {
 		final int currentIndex;
 		final double oldElapsedDwellTime = elapsedDwellTime;
 		final double oldSpeed = speed;
@@ -139,7 +142,7 @@ public class Vehicle extends VehicleSchema implements Utilities {
 		stoppingCoolDown = Math.max(0, stoppingCoolDown - millisElapsed);
 
 		if (vehiclePositions != null) {
-			writeVehiclePositions(currentIndex, vehiclePositions.get(1));
+			writeVehiclePositions(currentIndex, vehiclePositions.get(1), sidingSimulationGroup);
 		}
 
 		if (siding != null && vehicleTimesAlongRoute != null) {
@@ -148,7 +151,7 @@ public class Vehicle extends VehicleSchema implements Utilities {
 			vehicleTimesAlongRoute.put(departureIndex, timeAlongRoute);
 			// Calculate deviation every time the vehicle dwells at a platform and when it starts moving
 			if (oldElapsedDwellTime == 0 && elapsedDwellTime > 0 || oldSpeed == 0 && speed > 0) {
-				deviation = transportMode.continuousMovement ? 0 : Utilities.circularDifference(System.currentTimeMillis() - sidingDepartureTime, timeAlongRoute, siding.getRepeatInterval(MILLIS_PER_DAY));
+				deviation = transportMode.continuousMovement ? 0 : Utilities.circularDifference((data instanceof Simulator ? ((Simulator) data).getCurrentMillis() : System.currentTimeMillis()) - sidingDepartureTime, timeAlongRoute, siding.getRepeatInterval(MILLIS_PER_DAY));
 			}
 		}
 
@@ -236,7 +239,7 @@ public class Vehicle extends VehicleSchema implements Utilities {
 		}
 	}
 
-	private void simulateAutomaticStopped(long millisElapsed, @Nullable ObjectArrayList<Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>>> vehiclePositions, int currentIndex) {
+	private void simulateAutomaticStopped(long millisElapsed, @Nullable ObjectArrayList<RailOccupancy> vehiclePositions, int currentIndex) {
 		if (isClientside) {
 			return;
 		}
@@ -299,7 +302,7 @@ public class Vehicle extends VehicleSchema implements Utilities {
 		}
 	}
 
-	private void simulateAutomaticMoving(long millisElapsed, @Nullable ObjectArrayList<Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>>> vehiclePositions, int currentIndex) {
+	private void simulateAutomaticMoving(long millisElapsed, @Nullable ObjectArrayList<RailOccupancy> vehiclePositions, int currentIndex) {
 		final double newAcceleration = vehicleExtraData.getAcceleration() * millisElapsed;
 		final double newDeceleration = vehicleExtraData.getDeceleration() * millisElapsed;
 		final double safeStoppingDistance = 0.5 * speed * speed / vehicleExtraData.getDeceleration();
@@ -381,31 +384,38 @@ public class Vehicle extends VehicleSchema implements Utilities {
 	 * <li>Started moving</li>
 	 * <li>New stopping index or blocked rail</li>
 	 * </ul>
+	 * If a siding simulation group is specified, client updates are created now (while the vehicle state is current) but only written to the clients when the group is committed.
 	 */
-	private void writeVehiclePositions(int currentIndex, Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>> vehiclePositions) {
-		final Position[] minMaxPositions = {null, null};
+	private void writeVehiclePositions(int currentIndex, RailOccupancy vehiclePositions, @Nullable SidingSimulationGroup sidingSimulationGroup) {
+		long minX = Long.MAX_VALUE;
+		long minY = Long.MAX_VALUE;
+		long minZ = Long.MAX_VALUE;
+		long maxX = Long.MIN_VALUE;
+		long maxY = Long.MIN_VALUE;
+		long maxZ = Long.MIN_VALUE;
 		int index = currentIndex;
 
 		while (index >= 0) {
 			final PathData pathData = vehicleExtraData.immutablePath.get(index);
 			final Position position1 = pathData.getOrderedPosition1();
 			final Position position2 = pathData.getOrderedPosition2();
-			minMaxPositions[0] = Position.getMin(minMaxPositions[0], Position.getMin(position1, position2));
-			minMaxPositions[1] = Position.getMax(minMaxPositions[1], Position.getMax(position1, position2));
+			minX = Math.min(minX, Math.min(position1.getX(), position2.getX()));
+			minY = Math.min(minY, Math.min(position1.getY(), position2.getY()));
+			minZ = Math.min(minZ, Math.min(position1.getZ(), position2.getZ()));
+			maxX = Math.max(maxX, Math.max(position1.getX(), position2.getX()));
+			maxY = Math.max(maxY, Math.max(position1.getY(), position2.getY()));
+			maxZ = Math.max(maxZ, Math.max(position1.getZ(), position2.getZ()));
 
 			if (railProgress - vehicleExtraData.getTotalVehicleLength() > pathData.getEndDistance()) {
 				break;
 			}
 
 			if (!transportMode.continuousMovement) {
-				final DoubleDoubleImmutablePair blockedBounds = getBlockedBounds(pathData, railProgress - vehicleExtraData.getTotalVehicleLength(), railProgress - 0.01);
-				if (blockedBounds.rightDouble() - blockedBounds.leftDouble() > 0.01) {
+				final double blockedStart = getBlockedStart(pathData, railProgress - vehicleExtraData.getTotalVehicleLength(), railProgress - 0.01);
+				final double blockedEnd = getBlockedEnd(pathData, railProgress - vehicleExtraData.getTotalVehicleLength(), railProgress - 0.01);
+				if (blockedEnd - blockedStart > 0.01) {
 					if (getIsOnRoute() && index > 0) {
-						Data.put(vehiclePositions, position1, position2, vehiclePosition -> {
-							final VehiclePosition newVehiclePosition = vehiclePosition == null ? new VehiclePosition() : vehiclePosition;
-							newVehiclePosition.addSegment(blockedBounds.leftDouble(), blockedBounds.rightDouble(), id);
-							return newVehiclePosition;
-						}, Object2ObjectAVLTreeMap::new);
+						vehiclePositions.addSegment(pathData, blockedStart, blockedEnd, id);
 						pathData.isSignalBlocked(id, true);
 					}
 				}
@@ -419,13 +429,38 @@ public class Vehicle extends VehicleSchema implements Utilities {
 				final boolean needsUpdate = vehicleExtraData.checkForUpdate();
 				// TODO for continuous movement, maybe only send the path once rather than sending the entire path for each vehicle
 				final int pathUpdateIndex = transportMode.continuousMovement ? 0 : Math.max(0, index + 1);
-				((Simulator) data).clients.values().forEach(client -> {
-					final Position position = client.getPosition();
-					final double updateRadius = client.getUpdateRadius();
-					if ((minMaxPositions[0] == null || minMaxPositions[1] == null) ? siding.area.inArea(position, updateRadius) : Utilities.isBetween(position, minMaxPositions[0], minMaxPositions[1], updateRadius)) {
-						client.update(this, needsUpdate, pathUpdateIndex);
-					}
-				});
+				// Use the rails the vehicle is on, or the whole depot if the vehicle isn't on any rails
+				final boolean hasVehicleBounds = minX <= maxX;
+
+				if (hasVehicleBounds || AreaBase.validCorners(siding.area)) {
+					final long updateMinX = hasVehicleBounds ? minX : siding.area.getMinX();
+					final long updateMinY = hasVehicleBounds ? minY : siding.area.getMinY();
+					final long updateMinZ = hasVehicleBounds ? minZ : siding.area.getMinZ();
+					final long updateMaxX = hasVehicleBounds ? maxX : siding.area.getMaxX();
+					final long updateMaxY = hasVehicleBounds ? maxY : siding.area.getMaxY();
+					final long updateMaxZ = hasVehicleBounds ? maxZ : siding.area.getMaxZ();
+					// The vehicle data is only copied once and the same update is shared by all clients
+					final VehicleUpdate[] vehicleUpdate = {null};
+					((Simulator) data).clientInterestIndex.iterateClients(updateMinX, updateMinZ, updateMaxX, updateMaxZ, client -> {
+						if (Utilities.isBetween(client.getPosition(), updateMinX, updateMinY, updateMinZ, updateMaxX, updateMaxY, updateMaxZ, client.getUpdateRadius())) {
+							final VehicleUpdate clientVehicleUpdate;
+							if (client.needsVehicleUpdate(id, needsUpdate)) {
+								if (vehicleUpdate[0] == null) {
+									vehicleUpdate[0] = new VehicleUpdate(this, vehicleExtraData.copy(pathUpdateIndex));
+								}
+								clientVehicleUpdate = vehicleUpdate[0];
+							} else {
+								clientVehicleUpdate = null;
+							}
+
+							if (sidingSimulationGroup == null) {
+								client.update(id, clientVehicleUpdate);
+							} else {
+								sidingSimulationGroup.deferClientUpdate(client, id, clientVehicleUpdate);
+							}
+						}
+					});
+				}
 			}
 
 			vehicleExtraData.setRoutePlatformInfo(siding.area, currentIndex);
@@ -437,7 +472,7 @@ public class Vehicle extends VehicleSchema implements Utilities {
 	 *
 	 * @return the distance until the rail is blocked or -1 if there is nothing in front
 	 */
-	private double railBlockedDistance(int currentIndex, double checkRailProgress, double checkDistance, @Nullable ObjectArrayList<Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>>> vehiclePositions, boolean reserveRail, boolean secondPass) {
+	private double railBlockedDistance(int currentIndex, double checkRailProgress, double checkDistance, @Nullable ObjectArrayList<RailOccupancy> vehiclePositions, boolean reserveRail, boolean secondPass) {
 		int index = currentIndex;
 
 		while (vehiclePositions != null && index < vehicleExtraData.immutablePath.size()) {
@@ -451,11 +486,12 @@ public class Vehicle extends VehicleSchema implements Utilities {
 			if (checkAndBlockSignal(index, vehiclePositions, reserveRail, secondPass)) {
 				return Math.max(0, pathData.getStartDistance() - checkRailProgress);
 			} else if (Utilities.isIntersecting(pathData.getStartDistance(), pathData.getEndDistance(), checkRailProgress, checkRailProgressEnd)) {
-				final DoubleDoubleImmutablePair blockedBounds = getBlockedBounds(pathData, checkRailProgress, checkRailProgressEnd);
+				final double blockedStart = getBlockedStart(pathData, checkRailProgress, checkRailProgressEnd);
+				final double blockedEnd = getBlockedEnd(pathData, checkRailProgress, checkRailProgressEnd);
 				for (int i = 0; i < 2; i++) {
-					final VehiclePosition vehiclePosition = Data.tryGet(vehiclePositions.get(i), pathData.getOrderedPosition1(), pathData.getOrderedPosition2());
+					final VehiclePosition vehiclePosition = vehiclePositions.get(i).get(pathData);
 					if (vehiclePosition != null) {
-						final double overlap = vehiclePosition.getOverlap(blockedBounds.leftDouble(), blockedBounds.rightDouble(), id);
+						final double overlap = vehiclePosition.getOverlap(blockedStart, blockedEnd, id);
 						if (overlap >= 0) {
 							return Math.max(0, checkDistance - overlap);
 						}
@@ -474,7 +510,7 @@ public class Vehicle extends VehicleSchema implements Utilities {
 	 *
 	 * @return if the vehicle should stop
 	 */
-	private boolean checkAndBlockSignal(int currentIndex, ObjectArrayList<Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>>> vehiclePositions, boolean reserveRail, boolean secondPass) {
+	private boolean checkAndBlockSignal(int currentIndex, ObjectArrayList<RailOccupancy> vehiclePositions, boolean reserveRail, boolean secondPass) {
 		final PathData firstPathData = vehicleExtraData.immutablePath.get(currentIndex);
 
 		if (secondPass) {
@@ -532,9 +568,25 @@ public class Vehicle extends VehicleSchema implements Utilities {
 		return position1 == null || position2 == null ? new ObjectObjectImmutablePair<>(new Vector(value1, 0, 0), new Vector(value2, 0, 0)) : new ObjectObjectImmutablePair<>(position1, position2);
 	}
 
-	private static DoubleDoubleImmutablePair getBlockedBounds(PathData pathData, double lowerRailProgress, double upperRailProgress) {
-		final double distanceFromStart = Utilities.clamp(lowerRailProgress, pathData.getStartDistance(), pathData.getEndDistance()) - pathData.getStartDistance();
-		final double distanceToEnd = pathData.getEndDistance() - Utilities.clamp(upperRailProgress, pathData.getStartDistance(), pathData.getEndDistance());
-		return new DoubleDoubleImmutablePair(pathData.reversePositions ? distanceToEnd : distanceFromStart, pathData.getEndDistance() - pathData.getStartDistance() - (pathData.reversePositions ? distanceFromStart : distanceToEnd));
+	/**
+	 * @return the start of the blocked bounds, relative to the ordered positions of the path data
+	 */
+	private static double getBlockedStart(PathData pathData, double lowerRailProgress, double upperRailProgress) {
+		return pathData.reversePositions ? getDistanceToEnd(pathData, upperRailProgress) : getDistanceFromStart(pathData, lowerRailProgress);
+	}
+
+	/**
+	 * @return the end of the blocked bounds, relative to the ordered positions of the path data
+	 */
+	private static double getBlockedEnd(PathData pathData, double lowerRailProgress, double upperRailProgress) {
+		return pathData.getEndDistance() - pathData.getStartDistance() - (pathData.reversePositions ? getDistanceFromStart(pathData, lowerRailProgress) : getDistanceToEnd(pathData, upperRailProgress));
+	}
+
+	private static double getDistanceFromStart(PathData pathData, double lowerRailProgress) {
+		return Utilities.clamp(lowerRailProgress, pathData.getStartDistance(), pathData.getEndDistance()) - pathData.getStartDistance();
+	}
+
+	private static double getDistanceToEnd(PathData pathData, double upperRailProgress) {
+		return pathData.getEndDistance() - Utilities.clamp(upperRailProgress, pathData.getStartDistance(), pathData.getEndDistance());
 	}
 }
@@ -43,7 +43,8 @@ public class VehicleExtraData extends VehicleExtraDataSchema {
 	}
 
 	public VehicleExtraData copy(int pathUpdateIndex) {
-		final VehicleExtraData newVehicleExtraData = new VehicleExtraData(new JsonReader(Utilities.getJsonObjectFromData(this)));
+		final VehicleExtraData newVehicleExtraData = new VehicleExtraData(sidingId, railLength, totalVehicleLength, repeatIndex1, repeatIndex2, acceleration, deceleration, isManualAllowed, maxManualSpeed, manualToAutomaticTime, totalDistance, defaultPosition, vehicleCars, path);
+		newVehicleExtraData.copyData(this);
 		newVehicleExtraData.path.clear();
 
 		for (int i = pathUpdateIndex; i <= path.size(); i++) {
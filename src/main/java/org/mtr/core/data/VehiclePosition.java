@@ -1,42 +1,51 @@
 package org.mtr.core.data;
 
 import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
 
+/**
+ * The occupied segments of a single rail. Segments are stored in primitive lists so that instances can be cleared and reused every tick.
+ */
 public class VehiclePosition {
 
-	private final ObjectArrayList<BlockedSegment> blockedSegments = new ObjectArrayList<>();
+	private final DoubleArrayList startDistances = new DoubleArrayList();
+	private final DoubleArrayList endDistances = new DoubleArrayList();
+	private final LongArrayList ids = new LongArrayList();
 
 	public void addSegment(double startDistance, double endDistance, long id) {
-		blockedSegments.add(new BlockedSegment(startDistance, endDistance, id));
+		startDistances.add(startDistance);
+		endDistances.add(endDistance);
+		ids.add(id);
 	}
 
 	public double getOverlap(double startDistance, double endDistance, long id) {
 		double maxOverlap = -1;
 
-		for (final BlockedSegment blockedSegment : blockedSegments) {
-			if (id != blockedSegment.id && Utilities.isIntersecting(startDistance, endDistance, blockedSegment.startDistance, blockedSegment.endDistance)) {
-				final boolean startInside = Utilities.isBetween(startDistance, blockedSegment.startDistance, blockedSegment.endDistance);
-				final boolean endInside = Utilities.isBetween(endDistance, blockedSegment.startDistance, blockedSegment.endDistance);
-				final boolean blockedStartInside = Utilities.isBetween(blockedSegment.startDistance, startDistance, endDistance);
-				final boolean blockedEndInside = Utilities.isBetween(blockedSegment.endDistance, startDistance, endDistance);
-				return Math.max(maxOverlap, startInside && endInside || blockedStartInside && blockedEndInside ? endDistance - startDistance : startInside ? blockedSegment.endDistance - startDistance : endInside ? endDistance - blockedSegment.startDistance : -1);
+		for (int i = 0; i < ids.size(); i++) {
+			final double blockedStartDistance = startDistances.getDouble(i);
+			final double blockedEndDistance = endDistances.getDouble(i);
+			if (id != ids.getLong(i) && Utilities.isIntersecting(startDistance, endDistance, blockedStartDistance, blockedEndDistance)) {
+				final boolean startInside = Utilities.isBetween(startDistance, blockedStartDistance, blockedEndDistance);
+				final boolean endInside = Utilities.isBetween(endDistance, blockedStartDistance, blockedEndDistance);
+				final boolean blockedStartInside = Utilities.isBetween(blockedStartDistance, startDistance, endDistance);
+				final boolean blockedEndInside = Utilities.isBetween(blockedEndDistance, startDistance, endDistance);
+				return Math.max(maxOverlap, startInside && endInside || blockedStartInside && blockedEndInside ? endDistance - startDistance : startInside ? blockedEndDistance - startDistance : endInside ? endDistance - blockedStartDistance : -1);
 			}
 		}
 
 		return maxOverlap;
 	}
 
-	private static class BlockedSegment {
-
-		private final double startDistance;
-		private final double endDistance;
-		private final long id;
+	void addAll(VehiclePosition vehiclePosition) {
+		startDistances.addAll(vehiclePosition.startDistances);
+		endDistances.addAll(vehiclePosition.endDistances);
+		ids.addAll(vehiclePosition.ids);
+	}
 
-		private BlockedSegment(double startDistance, double endDistance, long id) {
-			this.startDistance = startDistance;
-			this.endDistance = endDistance;
-			this.id = id;
-		}
+	void clear() {
+		startDistances.clear();
+		endDistances.clear();
+		ids.clear();
 	}
 }
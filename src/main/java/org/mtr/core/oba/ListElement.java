@@ -4,8 +4,6 @@ import org.mtr.core.generated.oba.ListElementSchema;
 import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.serializer.WriterBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 public final class ListElement<T extends SerializedDataBase> extends ListElementSchema {
@@ -27,9 +25,9 @@ public final class ListElement<T extends SerializedDataBase> extends ListElement
 	}
 
 	@Override
-	public JsonObject toJson(Simulator simulator) {
+	public ListElement<T> build(Simulator simulator) {
 		references.build(simulator);
-		return Utilities.getJsonObjectFromData(this);
+		return this;
 	}
 
 	@Override
@@ -3,7 +3,8 @@ package org.mtr.core.oba;
 import org.mtr.core.generated.oba.ReferencesBaseSchema;
 import org.mtr.core.serializer.ReaderBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.libraries.com.google.gson.JsonObject;
+
+import javax.annotation.Nullable;
 
 public abstract class ReferencesBase extends ReferencesBaseSchema {
 
@@ -34,7 +35,13 @@ public abstract class ReferencesBase extends ReferencesBaseSchema {
 		}
 	}
 
-	public abstract JsonObject toJson(Simulator simulator);
+	/**
+	 * Build the references so that this element is ready to be serialized.
+	 *
+	 * @return this element, or {@code null} if there is nothing to send
+	 */
+	@Nullable
+	public abstract ReferencesBase build(Simulator simulator);
 
 	protected abstract boolean isIncludeReferences();
 }
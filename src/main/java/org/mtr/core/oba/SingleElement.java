@@ -3,8 +3,6 @@ package org.mtr.core.oba;
 import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.serializer.WriterBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 
 import javax.annotation.Nullable;
 
@@ -28,12 +26,12 @@ public final class SingleElement<T extends SerializedDataBase> extends Reference
 
 	@Nullable
 	@Override
-	public JsonObject toJson(Simulator simulator) {
+	public SingleElement<T> build(Simulator simulator) {
 		if (entry == null) {
 			return null;
 		} else {
 			references.build(simulator);
-			return Utilities.getJsonObjectFromData(this);
+			return this;
 		}
 	}
 
@@ -0,0 +1,57 @@
+package org.mtr.core.operation;
+
+import org.mtr.core.data.Rail;
+import org.mtr.core.serializer.JsonStreamWriter;
+import org.mtr.core.serializer.MessagePackFieldWriter;
+import org.mtr.core.serializer.SerializedDataBase;
+import org.mtr.core.serializer.WriterBase;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+
+/**
+ * Vehicle, lift and signal block updates are usually sent to many clients at once.
+ * While the updates of a tick are being sent, each update is only serialized once and the same bytes are copied into the response of every client.
+ * Nothing should be modified while the cache is in use, and the cache should be cleared afterwards.
+ */
+public final class ClientUpdateCache {
+
+	/**
+	 * Keyed by instance, since vehicle updates, lifts and signal block updates are shared by all clients
+	 */
+	private final Reference2ObjectOpenHashMap<SerializedDataBase, byte[]> serializedEntries = new Reference2ObjectOpenHashMap<>();
+	private final Reference2ObjectOpenHashMap<SerializedDataBase, MessagePackFieldWriter> serializedFields = new Reference2ObjectOpenHashMap<>();
+	private final Object2ObjectOpenHashMap<String, SignalBlockUpdate> signalBlockUpdates = new Object2ObjectOpenHashMap<>();
+
+	public SignalBlockUpdate getSignalBlockUpdate(Rail rail) {
+		return signalBlockUpdates.computeIfAbsent(rail.getHexId(), railId -> new SignalBlockUpdate(rail));
+	}
+
+	/**
+	 * Only the fields are cached, so the returned fields may be kept after the cache is cleared.
+	 */
+	public MessagePackFieldWriter getFields(SerializedDataBase data) {
+		return serializedFields.computeIfAbsent(data, key -> {
+			final MessagePackFieldWriter messagePackFieldWriter = new MessagePackFieldWriter();
+			data.serializeData(messagePackFieldWriter);
+			return messagePackFieldWriter;
+		});
+	}
+
+	public void clear() {
+		serializedEntries.clear();
+		serializedFields.clear();
+		signalBlockUpdates.clear();
+	}
+
+	void writeDataset(Iterable<? extends SerializedDataBase> dataSet, WriterBase writerBase, String key) {
+		final WriterBase.Array writerBaseArray = writerBase.writeArray(key);
+		dataSet.forEach(data -> {
+			final WriterBase childWriterBase = writerBaseArray.writeChild();
+			if (childWriterBase instanceof JsonStreamWriter) {
+				((JsonStreamWriter) childWriterBase).writeEntries(serializedEntries.computeIfAbsent(data, JsonStreamWriter::serializeEntries));
+			} else {
+				data.serializeData(childWriterBase);
+			}
+		});
+	}
+}
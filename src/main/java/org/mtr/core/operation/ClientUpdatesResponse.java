@@ -0,0 +1,27 @@
+package org.mtr.core.operation;
+
+import org.mtr.core.generated.operation.ClientUpdatesResponseSchema;
+import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.simulation.Simulator;
+
+/**
+ * The reply to a {@link org.mtr.core.simulation.ClientUpdateBatch}, with a {@link PlayerPresentResponse} for each client in the batch.
+ */
+public final class ClientUpdatesResponse extends ClientUpdatesResponseSchema {
+
+	public ClientUpdatesResponse() {
+	}
+
+	public ClientUpdatesResponse(ReaderBase readerBase) {
+		super(readerBase);
+		updateData(readerBase);
+	}
+
+	public void add(PlayerPresentResponse playerPresentResponse) {
+		playerPresentResponses.add(playerPresentResponse);
+	}
+
+	public void verify(Simulator simulator) {
+		playerPresentResponses.forEach(playerPresentResponse -> playerPresentResponse.verify(simulator));
+	}
+}
@@ -4,8 +4,6 @@ import org.mtr.core.data.*;
 import org.mtr.core.generated.operation.DataRequestSchema;
 import org.mtr.core.serializer.ReaderBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongAVLTreeSet;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
@@ -20,13 +18,22 @@ public final class DataRequest extends DataRequestSchema {
 		updateData(readerBase);
 	}
 
-	public JsonObject getData(Simulator simulator) {
-		final DataResponse dataResponse = new DataResponse(simulator);
+	public DataResponse getData(Simulator simulator) {
+		final DataResponse dataResponse = getData((Data) simulator);
+		updateClient(simulator);
+		return dataResponse;
+	}
+
+	/**
+	 * Only reads the data, so it can be called with a {@link org.mtr.core.simulation.ReadSnapshot} on any thread. The client should be updated separately with {@link DataRequest#updateClient(Simulator)}.
+	 */
+	public DataResponse getData(Data data) {
+		final DataResponse dataResponse = new DataResponse(data);
 		final LongAVLTreeSet addedStationIds = new LongAVLTreeSet();
 		final LongAVLTreeSet addedPlatformIds = new LongAVLTreeSet();
 		final LongAVLTreeSet addedRouteIds = new LongAVLTreeSet();
 
-		simulator.stations.forEach(station -> {
+		data.stationIndex.iterate(clientPosition, requestRadius, station -> {
 			if (station.inArea(clientPosition, requestRadius)) {
 				final ObjectArrayList<Station> stationsToAdd = new ObjectArrayList<>();
 				stationsToAdd.add(station);
@@ -45,13 +52,13 @@ public final class DataRequest extends DataRequestSchema {
 			}
 		});
 
-		simulator.platforms.forEach(platform -> {
+		data.platformIndex.iterate(clientPosition, requestRadius, platform -> {
 			if (platform.closeTo(clientPosition, requestRadius)) {
 				addPlatform(platform, dataResponse, addedPlatformIds, addedRouteIds);
 			}
 		});
 
-		simulator.sidings.forEach(siding -> {
+		data.sidingIndex.iterate(clientPosition, requestRadius, siding -> {
 			if (siding.closeTo(clientPosition, requestRadius)) {
 				if (existingSidingIds.contains(siding.getId())) {
 					dataResponse.addSiding(siding.getId());
@@ -61,7 +68,7 @@ public final class DataRequest extends DataRequestSchema {
 			}
 		});
 
-		simulator.depots.forEach(depot -> {
+		data.depotIndex.iterate(clientPosition, requestRadius, depot -> {
 			if (depot.inArea(clientPosition, requestRadius)) {
 				if (existingDepotIds.contains(depot.getId())) {
 					dataResponse.addDepot(depot.getId());
@@ -71,9 +78,9 @@ public final class DataRequest extends DataRequestSchema {
 			}
 		});
 
-		simulator.railIdMap.forEach((railId, rail) -> {
+		data.railIndex.iterate(clientPosition, requestRadius, rail -> {
 			if (rail.closeTo(clientPosition, requestRadius)) {
-				if (existingRailIds.contains(railId)) {
+				if (existingRailIds.contains(rail.getHexId())) {
 					dataResponse.addRail(rail.getHexId());
 				} else {
 					dataResponse.addRail(rail);
@@ -81,8 +88,14 @@ public final class DataRequest extends DataRequestSchema {
 			}
 		});
 
+		return dataResponse;
+	}
+
+	/**
+	 * Must be called on the simulation thread.
+	 */
+	public void updateClient(Simulator simulator) {
 		simulator.clients.computeIfAbsent(clientId, key -> new Client(clientId)).setPositionAndUpdateRadius(clientPosition, requestRadius);
-		return Utilities.getJsonObjectFromData(dataResponse);
 	}
 
 	public void writeExistingIds(ClientData clientData) {
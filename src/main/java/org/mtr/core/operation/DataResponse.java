@@ -3,6 +3,8 @@ package org.mtr.core.operation;
 import org.mtr.core.data.*;
 import org.mtr.core.generated.operation.DataResponseSchema;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
 import javax.annotation.Nonnull;
 
@@ -47,17 +49,22 @@ public final class DataResponse extends DataResponseSchema {
 
 	public void write() {
 		if (data instanceof ClientData && (!stations.isEmpty() || !platforms.isEmpty() || !sidings.isEmpty() || !simplifiedRoutes.isEmpty() || !depots.isEmpty() || !rails.isEmpty())) {
-			data.stations.removeIf(station -> !stationsToKeep.contains(station.getId()));
+			final LongOpenHashSet stationIdsToKeep = new LongOpenHashSet(stationsToKeep);
+			data.stations.removeIf(station -> !stationIdsToKeep.contains(station.getId()));
 			data.stations.addAll(stations);
-			data.platforms.removeIf(platform -> !platformsToKeep.contains(platform.getId()));
+			final LongOpenHashSet platformIdsToKeep = new LongOpenHashSet(platformsToKeep);
+			data.platforms.removeIf(platform -> !platformIdsToKeep.contains(platform.getId()));
 			data.platforms.addAll(platforms);
-			data.sidings.removeIf(siding -> !sidingsToKeep.contains(siding.getId()));
+			final LongOpenHashSet sidingIdsToKeep = new LongOpenHashSet(sidingsToKeep);
+			data.sidings.removeIf(siding -> !sidingIdsToKeep.contains(siding.getId()));
 			data.sidings.addAll(sidings);
 			((ClientData) data).simplifiedRoutes.removeIf(simplifiedRoute -> !simplifiedRoutesToKeep.contains(simplifiedRoute.getId()));
 			((ClientData) data).simplifiedRoutes.addAll(simplifiedRoutes);
-			data.depots.removeIf(depot -> !depotsToKeep.contains(depot.getId()));
+			final LongOpenHashSet depotIdsToKeep = new LongOpenHashSet(depotsToKeep);
+			data.depots.removeIf(depot -> !depotIdsToKeep.contains(depot.getId()));
 			data.depots.addAll(depots);
-			data.rails.removeIf(rail -> !railsToKeep.contains(rail.getHexId()));
+			final ObjectOpenHashSet<String> railIdsToKeep = new ObjectOpenHashSet<>(railsToKeep);
+			data.rails.removeIf(rail -> !railIdsToKeep.contains(rail.getHexId()));
 			data.rails.addAll(rails);
 			data.sync();
 		}
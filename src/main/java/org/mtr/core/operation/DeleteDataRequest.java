@@ -1,5 +1,7 @@
 package org.mtr.core.operation;
 
+import org.mtr.core.data.DataChangeSet;
+import org.mtr.core.data.EntityStore;
 import org.mtr.core.data.NameColorDataBase;
 import org.mtr.core.data.Position;
 import org.mtr.core.data.Rail;
@@ -7,7 +9,6 @@ import org.mtr.core.generated.operation.DeleteDataRequestSchema;
 import org.mtr.core.serializer.ReaderBase;
 import org.mtr.core.simulation.Simulator;
 import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
@@ -65,45 +66,52 @@ public final class DeleteDataRequest extends DeleteDataRequestSchema {
 		return this;
 	}
 
-	public JsonObject delete(Simulator simulator) {
+	public DeleteDataResponse delete(Simulator simulator) {
 		final DeleteDataResponse deleteDataResponse = new DeleteDataResponse();
 		final ObjectArraySet<Position> railNodePositionsToUpdate = new ObjectArraySet<>();
 
-		stationIds.forEach(stationId -> delete(stationId, simulator.stations, deleteDataResponse.getStationIds()));
-		platformIds.forEach(platformId -> delete(platformId, simulator.platforms, deleteDataResponse.getPlatformIds()));
-		sidingIds.forEach(sidingId -> delete(sidingId, simulator.sidings, deleteDataResponse.getSidingIds()));
-		routeIds.forEach(routeId -> delete(routeId, simulator.routes, deleteDataResponse.getRouteIds()));
-		depotIds.forEach(depotId -> delete(depotId, simulator.depots, deleteDataResponse.getDepotIds()));
+		final DataChangeSet dataChangeSet = new DataChangeSet();
+
+		stationIds.forEach(stationId -> delete(stationId, simulator.stations, deleteDataResponse.getStationIds(), dataChangeSet.removedStations));
+		platformIds.forEach(platformId -> delete(platformId, simulator.platforms, deleteDataResponse.getPlatformIds(), dataChangeSet.removedPlatforms));
+		sidingIds.forEach(sidingId -> delete(sidingId, simulator.sidings, deleteDataResponse.getSidingIds(), dataChangeSet.removedSidings));
+		routeIds.forEach(routeId -> delete(routeId, simulator.routes, deleteDataResponse.getRouteIds(), dataChangeSet.removedRoutes));
+		depotIds.forEach(depotId -> delete(depotId, simulator.depots, deleteDataResponse.getDepotIds(), dataChangeSet.removedDepots));
 		liftFloorPositions.forEach(liftPosition -> simulator.lifts.removeIf(lift -> {
 			if (lift.getFloorIndex(liftPosition) >= 0) {
 				deleteDataResponse.getLiftIds().add(lift.getId());
+				dataChangeSet.removedLifts.add(lift);
 				return true;
 			} else {
 				return false;
 			}
 		}));
-		railIds.forEach(railId -> delete(simulator.railIdMap.get(railId), simulator.rails, railId, deleteDataResponse.getRailIds(), railNodePositionsToUpdate));
-		railNodePositions.forEach(railNodePosition -> simulator.positionsToRail.getOrDefault(railNodePosition, new Object2ObjectOpenHashMap<>()).values().forEach(rail -> delete(rail, simulator.rails, rail.getHexId(), deleteDataResponse.getRailIds(), railNodePositionsToUpdate)));
+		railIds.forEach(railId -> delete(simulator.railIdMap.get(railId), simulator.rails, railId, deleteDataResponse.getRailIds(), railNodePositionsToUpdate, dataChangeSet.removedRails));
+		railNodePositions.forEach(railNodePosition -> simulator.positionsToRail.getOrDefault(railNodePosition, new Object2ObjectOpenHashMap<>()).values().forEach(rail -> delete(rail, simulator.rails, rail.getHexId(), deleteDataResponse.getRailIds(), railNodePositionsToUpdate, dataChangeSet.removedRails)));
 
-		simulator.sync();
+		simulator.sync(dataChangeSet);
 		railNodePositionsToUpdate.forEach(railNodePosition -> {
 			if (simulator.positionsToRail.getOrDefault(railNodePosition, new Object2ObjectOpenHashMap<>()).isEmpty()) {
 				deleteDataResponse.getRailNodePositions().add(railNodePosition);
 			}
 		});
 
-		return Utilities.getJsonObjectFromData(deleteDataResponse);
+		return deleteDataResponse;
 	}
 
-	private static <T extends NameColorDataBase> void delete(long id, ObjectArraySet<T> dataSet, LongArrayList dataToUpdate) {
-		if (dataSet.removeIf(data -> data.getId() == id)) {
+	private static <T extends NameColorDataBase> void delete(long id, EntityStore<T> dataSet, LongArrayList dataToUpdate, ObjectArrayList<T> removedData) {
+		final T data = dataSet.removeByHexId(Utilities.numberToPaddedHexString(id));
+		if (data != null) {
+			removedData.add(data);
 			dataToUpdate.add(id);
 		}
 	}
 
-	private static void delete(@Nullable Rail rail, ObjectArraySet<Rail> rails, String railId, ObjectArrayList<String> railsIdsToUpdate, ObjectArraySet<Position> railNodePositionsToUpdate) {
+	private static void delete(@Nullable Rail rail, EntityStore<Rail> rails, String railId, ObjectArrayList<String> railsIdsToUpdate, ObjectArraySet<Position> railNodePositionsToUpdate, ObjectArrayList<Rail> removedRails) {
 		if (rail != null) {
-			rails.remove(rail);
+			if (rails.remove(rail)) {
+				removedRails.add(rail);
+			}
 			railsIdsToUpdate.add(railId);
 			rail.writePositions(railNodePositionsToUpdate);
 		}
@@ -5,6 +5,7 @@ import org.mtr.core.data.Data;
 import org.mtr.core.data.Position;
 import org.mtr.core.generated.operation.DeleteDataResponseSchema;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.tool.Utilities;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
@@ -21,13 +22,13 @@ public final class DeleteDataResponse extends DeleteDataResponseSchema {
 	}
 
 	public void write(Data data) {
-		data.stations.removeIf(station -> stationIds.contains(station.getId()));
-		data.platforms.removeIf(platform -> platformIds.contains(platform.getId()));
-		data.sidings.removeIf(siding -> sidingIds.contains(siding.getId()));
-		data.routes.removeIf(route -> routeIds.contains(route.getId()));
-		data.depots.removeIf(depot -> depotIds.contains(depot.getId()));
-		data.lifts.removeIf(lift -> liftIds.contains(lift.getId()));
-		data.rails.removeIf(rail -> railIds.contains(rail.getHexId()));
+		stationIds.forEach(stationId -> data.stations.removeByHexId(Utilities.numberToPaddedHexString(stationId)));
+		platformIds.forEach(platformId -> data.platforms.removeByHexId(Utilities.numberToPaddedHexString(platformId)));
+		sidingIds.forEach(sidingId -> data.sidings.removeByHexId(Utilities.numberToPaddedHexString(sidingId)));
+		routeIds.forEach(routeId -> data.routes.removeByHexId(Utilities.numberToPaddedHexString(routeId)));
+		depotIds.forEach(depotId -> data.depots.removeByHexId(Utilities.numberToPaddedHexString(depotId)));
+		liftIds.forEach(liftId -> data.lifts.removeByHexId(Utilities.numberToPaddedHexString(liftId)));
+		railIds.forEach(data.rails::removeByHexId);
 		if (data instanceof ClientData) {
 			((ClientData) data).simplifiedRoutes.removeIf(simplifiedRoute -> routeIds.contains(simplifiedRoute.getId()));
 		}
@@ -6,8 +6,8 @@ import org.mtr.core.data.Position;
 import org.mtr.core.data.Station;
 import org.mtr.core.generated.operation.DirectionsRequestSchema;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 import java.util.function.Consumer;
@@ -35,7 +35,7 @@ public final class DirectionsRequest extends DirectionsRequestSchema {
 		return new Position(0, 0, 0);
 	}
 
-	public JsonObject find(Simulator simulator, Consumer<JsonObject> sendResponse) {
+	public void find(Simulator simulator, Consumer<SerializedDataBase> sendResponse) {
 		final String startStationName = findStationName(simulator, startStation, position -> startPosition = position);
 		final String endStationName = findStationName(simulator, endStation, position -> endPosition = position);
 		Main.LOGGER.info(
@@ -44,7 +44,6 @@ public final class DirectionsRequest extends DirectionsRequestSchema {
 				endPosition.getX(), endPosition.getY(), endPosition.getZ(), endStationName
 		);
 		simulator.addDirectionsPathFinder(startPosition, endPosition, maxWalkingDistance, sendResponse);
-		return new JsonObject();
 	}
 
 	private static String findStationName(Simulator simulator, String stationName, Consumer<Position> callback) {
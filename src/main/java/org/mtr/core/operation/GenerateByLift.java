@@ -2,8 +2,9 @@ package org.mtr.core.operation;
 
 import org.mtr.core.data.Data;
 import org.mtr.core.data.Lift;
+import org.mtr.core.serializer.EmptyData;
 import org.mtr.core.serializer.JsonReader;
-import org.mtr.libraries.com.google.gson.JsonObject;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 public final class GenerateByLift {
@@ -16,12 +17,12 @@ public final class GenerateByLift {
 		lift = new Lift(jsonReader, data);
 	}
 
-	public JsonObject generate() {
+	public SerializedDataBase generate() {
 		final ObjectArrayList<Lift> liftsToModify = UpdateDataRequest.getAndRemoveMatchingLifts(data, lift);
 		liftsToModify.add(lift);
 		liftsToModify.get(0).setFloors(lift);
 		data.lifts.add(liftsToModify.get(0));
 		data.sync();
-		return new JsonObject();
+		return EmptyData.INSTANCE;
 	}
 }
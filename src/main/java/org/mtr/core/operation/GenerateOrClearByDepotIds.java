@@ -3,8 +3,8 @@ package org.mtr.core.operation;
 import org.mtr.core.data.Depot;
 import org.mtr.core.generated.operation.GenerateOrClearByDepotIdsSchema;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 import java.util.function.Consumer;
@@ -23,14 +23,16 @@ public final class GenerateOrClearByDepotIds extends GenerateOrClearByDepotIdsSc
 		depotIds.add(depotId);
 	}
 
-	public JsonObject generate(Simulator simulator, Consumer<JsonObject> sendResponse) {
+	public void generate(Simulator simulator, Consumer<SerializedDataBase> sendResponse) {
 		Depot.generateDepots(simulator, getDepots(simulator), sendResponse);
-		return new JsonObject();
 	}
 
-	public JsonObject clear(Simulator simulator) {
+	public void cancel(Simulator simulator) {
+		Depot.cancelDepots(getDepots(simulator));
+	}
+
+	public void clear(Simulator simulator) {
 		Depot.clearDepots(getDepots(simulator));
-		return new JsonObject();
 	}
 
 	private ObjectArrayList<Depot> getDepots(Simulator simulator) {
@@ -3,8 +3,8 @@ package org.mtr.core.operation;
 import org.mtr.core.data.Depot;
 import org.mtr.core.generated.operation.GenerateOrClearByDepotNameSchema;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.libraries.com.google.gson.JsonObject;
 
 import java.util.function.Consumer;
 
@@ -22,13 +22,15 @@ public final class GenerateOrClearByDepotName extends GenerateOrClearByDepotName
 		this.filter = filter;
 	}
 
-	public JsonObject generate(Simulator simulator, Consumer<JsonObject> sendResponse) {
+	public void generate(Simulator simulator, Consumer<SerializedDataBase> sendResponse) {
 		Depot.generateDepotsByName(simulator, filter, sendResponse);
-		return new JsonObject();
 	}
 
-	public JsonObject clear(Simulator simulator) {
+	public void cancel(Simulator simulator) {
+		Depot.cancelDepotsByName(simulator, filter);
+	}
+
+	public void clear(Simulator simulator) {
 		Depot.clearDepotsByName(simulator, filter);
-		return new JsonObject();
 	}
 }
@@ -1,14 +1,12 @@
 package org.mtr.core.operation;
 
 import org.mtr.core.data.AreaBase;
+import org.mtr.core.data.Data;
 import org.mtr.core.data.Position;
 import org.mtr.core.data.SavedRailBase;
+import org.mtr.core.data.SpatialIndex;
 import org.mtr.core.generated.operation.NearbyAreasRequestSchema;
 import org.mtr.core.serializer.ReaderBase;
-import org.mtr.core.simulation.Simulator;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
-import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArraySet;
 
 public final class NearbyAreasRequest<T extends AreaBase<T, U>, U extends SavedRailBase<U, T>> extends NearbyAreasRequestSchema {
 
@@ -21,13 +19,13 @@ public final class NearbyAreasRequest<T extends AreaBase<T, U>, U extends SavedR
 		updateData(readerBase);
 	}
 
-	public JsonObject query(Simulator simulator, ObjectArraySet<T> areaSet) {
-		final NearbyAreasResponse nearbyAreasResponse = new NearbyAreasResponse(simulator);
-		areaSet.forEach(area -> {
+	public NearbyAreasResponse query(Data data, SpatialIndex<T> areaIndex) {
+		final NearbyAreasResponse nearbyAreasResponse = new NearbyAreasResponse(data);
+		areaIndex.iterate(position, radius, area -> {
 			if (area.inArea(position, radius)) {
 				nearbyAreasResponse.add(area);
 			}
 		});
-		return Utilities.getJsonObjectFromData(nearbyAreasResponse);
+		return nearbyAreasResponse;
 	}
 }
@@ -1,8 +1,11 @@
 package org.mtr.core.operation;
 
 import org.mtr.core.Main;
+import org.mtr.core.data.Client;
 import org.mtr.core.generated.operation.PlayerPresentResponseSchema;
+import org.mtr.core.serializer.EmptyData;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
 
 public class PlayerPresentResponse extends PlayerPresentResponseSchema {
@@ -11,17 +14,57 @@ public class PlayerPresentResponse extends PlayerPresentResponseSchema {
 		super(playerDimension);
 	}
 
+	/**
+	 * @param resync whether a {@link VehicleLiftDeltaDecoder} missed a frame and needs the full state to be sent again
+	 */
+	public PlayerPresentResponse(String playerDimension, boolean resync) {
+		super(playerDimension);
+		this.resync = resync;
+	}
+
+	/**
+	 * @param clientId the client the response is for, when it is sent with the {@code player-present} operation or in a {@link ClientUpdatesResponse}
+	 * @param resync   whether a {@link VehicleLiftDeltaDecoder} missed a frame and needs the full state to be sent again
+	 */
+	public PlayerPresentResponse(String playerDimension, String clientId, boolean resync) {
+		super(playerDimension);
+		this.clientId = clientId;
+		this.resync = resync;
+	}
+
 	public PlayerPresentResponse(ReaderBase readerBase) {
 		super(readerBase);
 		updateData(readerBase);
 	}
 
+	public boolean needsResync() {
+		return resync;
+	}
+
+	/**
+	 * Used for the {@code player-present} operation, which the game sends for updates received over the {@link org.mtr.core.servlet.PushChannel}, and for each client in a {@link ClientUpdatesResponse}.
+	 */
+	public SerializedDataBase verify(Simulator simulator) {
+		verify(simulator, clientId);
+		return EmptyData.INSTANCE;
+	}
+
+	/**
+	 * Remove the client if the player is no longer in this dimension or send the full state next time if the client needs a resync.
+	 */
 	public void verify(Simulator simulator, String clientId) {
 		if (!playerDimension.equals(simulator.dimension)) {
 			simulator.run(() -> {
 				simulator.clients.remove(clientId);
 				Main.LOGGER.info("Removing player {}", clientId);
 			});
+		} else if (resync) {
+			simulator.run(() -> {
+				final Client client = simulator.clients.get(clientId);
+				if (client != null) {
+					client.resyncDeltaUpdates();
+				}
+			});
 		}
 	}
 }
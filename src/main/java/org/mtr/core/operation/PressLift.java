@@ -5,9 +5,10 @@ import org.mtr.core.data.LiftDirection;
 import org.mtr.core.data.LiftInstruction;
 import org.mtr.core.data.Position;
 import org.mtr.core.generated.operation.PressLiftSchema;
+import org.mtr.core.serializer.EmptyData;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.libraries.com.google.gson.JsonObject;
 
 public final class PressLift extends PressLiftSchema {
 
@@ -23,7 +24,7 @@ public final class PressLift extends PressLiftSchema {
 		instructions.add(new PressLiftInstruction(position, direction));
 	}
 
-	public JsonObject pressLift(Simulator simulator) {
+	public SerializedDataBase pressLift(Simulator simulator) {
 		double lowestDistance = Double.MAX_VALUE;
 		Lift selectedLift = null;
 		LiftInstruction selectedLiftInstruction = null;
@@ -47,6 +48,6 @@ public final class PressLift extends PressLiftSchema {
 			selectedLift.pressButton(selectedLiftInstruction, true);
 		}
 
-		return new JsonObject();
+		return EmptyData.INSTANCE;
 	}
 }
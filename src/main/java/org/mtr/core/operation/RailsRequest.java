@@ -1,11 +1,9 @@
 package org.mtr.core.operation;
 
+import org.mtr.core.data.Data;
 import org.mtr.core.data.Rail;
 import org.mtr.core.generated.operation.RailsRequestSchema;
 import org.mtr.core.serializer.ReaderBase;
-import org.mtr.core.simulation.Simulator;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 
 public final class RailsRequest extends RailsRequestSchema {
 
@@ -18,15 +16,15 @@ public final class RailsRequest extends RailsRequestSchema {
 		updateData(readerBase);
 	}
 
-	public JsonObject query(Simulator simulator) {
+	public RailsResponse query(Data data) {
 		final RailsResponse railsResponse = new RailsResponse();
 		railIds.forEach(railId -> {
-			final Rail rail = simulator.railIdMap.get(railId);
+			final Rail rail = data.railIdMap.get(railId);
 			if (rail != null) {
 				railsResponse.add(rail);
 			}
 		});
-		return Utilities.getJsonObjectFromData(railsResponse);
+		return railsResponse;
 	}
 
 	public RailsRequest addRailId(String railId) {
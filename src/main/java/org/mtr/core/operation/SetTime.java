@@ -1,9 +1,10 @@
 package org.mtr.core.operation;
 
 import org.mtr.core.generated.operation.SetTimeSchema;
+import org.mtr.core.serializer.EmptyData;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.libraries.com.google.gson.JsonObject;
 
 public final class SetTime extends SetTimeSchema {
 
@@ -16,8 +17,8 @@ public final class SetTime extends SetTimeSchema {
 		updateData(readerBase);
 	}
 
-	public JsonObject setGameTime(Simulator simulator) {
+	public SerializedDataBase setGameTime(Simulator simulator) {
 		simulator.setGameTime(gameMillis, millisPerDay, isTimeMoving);
-		return new JsonObject();
+		return EmptyData.INSTANCE;
 	}
 }
@@ -2,16 +2,14 @@ package org.mtr.core.operation;
 
 import org.mtr.core.data.*;
 import org.mtr.core.generated.operation.UpdateDataRequestSchema;
-import org.mtr.core.serializer.JsonReader;
 import org.mtr.core.serializer.ReaderBase;
 import org.mtr.core.serializer.SerializedDataBase;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectSet;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.function.BiConsumer;
 
 public final class UpdateDataRequest extends UpdateDataRequestSchema {
 
@@ -103,24 +101,34 @@ public final class UpdateDataRequest extends UpdateDataRequestSchema {
 		return this;
 	}
 
-	public JsonObject update() {
+	public UpdateDataResponse update() {
 		final UpdateDataResponse updateDataResponse = new UpdateDataResponse(data);
+		final DataChangeSet dataChangeSet = new DataChangeSet();
 
-		stations.forEach(station -> update(station, true, data.stationIdMap.get(station.getId()), data.stations, updateDataResponse.getStations()));
-		platforms.forEach(platform -> update(platform, false, data.platformIdMap.get(platform.getId()), data.platforms, updateDataResponse.getPlatforms()));
-		sidings.forEach(siding -> update(siding, false, data.sidingIdMap.get(siding.getId()), data.sidings, updateDataResponse.getSidings()));
-		routes.forEach(route -> update(route, true, data.routeIdMap.get(route.getId()), data.routes, updateDataResponse.getRoutes()));
-		depots.forEach(depot -> update(depot, true, data.depotIdMap.get(depot.getId()), data.depots, updateDataResponse.getDepots()));
+		stations.forEach(station -> update(station, true, data.stationIdMap.get(station.getId()), data.stations, updateDataResponse.getStations(), dataChangeSet.removedStations, Station::copyData));
+		platforms.forEach(platform -> update(platform, false, data.platformIdMap.get(platform.getId()), data.platforms, updateDataResponse.getPlatforms(), dataChangeSet.removedPlatforms, Platform::copyData));
+		sidings.forEach(siding -> update(siding, false, data.sidingIdMap.get(siding.getId()), data.sidings, updateDataResponse.getSidings(), dataChangeSet.removedSidings, Siding::copyData));
+		routes.forEach(route -> update(route, true, data.routeIdMap.get(route.getId()), data.routes, updateDataResponse.getRoutes(), dataChangeSet.removedRoutes, Route::copyData));
+		depots.forEach(depot -> update(depot, true, data.depotIdMap.get(depot.getId()), data.depots, updateDataResponse.getDepots(), dataChangeSet.removedDepots, Depot::copyData));
 		lifts.forEach(lift -> {
-			getAndRemoveMatchingLifts(data, lift);
-			update(lift, true, null, data.lifts, ObjectArrayList.of());
+			dataChangeSet.removedLifts.addAll(getAndRemoveMatchingLifts(data, lift));
+			update(lift, true, null, data.lifts, dataChangeSet.lifts, dataChangeSet.removedLifts, Lift::copyData);
 		});
-		rails.forEach(rail -> update(rail, true, data.railIdMap.get(rail.getHexId()), data.rails, updateDataResponse.getRails()));
+		rails.forEach(rail -> update(rail, true, data.railIdMap.get(rail.getHexId()), data.rails, updateDataResponse.getRails(), dataChangeSet.removedRails, Rail::copyData));
 		signalModifications.forEach(signalModification -> signalModification.applyModificationToRail(data, updateDataResponse.getRails()));
 
 		final ObjectArrayList<Siding> sidingsToInit = new ObjectArrayList<>();
 		updateDataResponse.getRails().forEach(rail -> rail.checkOrCreateSavedRail(data, updateDataResponse.getPlatforms(), sidingsToInit));
-		data.sync();
+
+		dataChangeSet.stations.addAll(updateDataResponse.getStations());
+		dataChangeSet.platforms.addAll(updateDataResponse.getPlatforms());
+		dataChangeSet.sidings.addAll(updateDataResponse.getSidings());
+		dataChangeSet.sidings.addAll(sidingsToInit);
+		dataChangeSet.routes.addAll(updateDataResponse.getRoutes());
+		dataChangeSet.depots.addAll(updateDataResponse.getDepots());
+		dataChangeSet.rails.addAll(updateDataResponse.getRails());
+		data.sync(dataChangeSet);
+
 		sidingsToInit.forEach(Siding::init);
 		updateDataResponse.getSidings().addAll(sidingsToInit);
 
@@ -128,7 +136,7 @@ public final class UpdateDataRequest extends UpdateDataRequestSchema {
 		updateDataResponse.getPlatforms().forEach(platform -> platform.routes.forEach(route -> SimplifiedRoute.addToList(updateDataResponse.getSimplifiedRoutes(), route)));
 		updateDataResponse.getRoutes().forEach(route -> SimplifiedRoute.addToList(updateDataResponse.getSimplifiedRoutes(), route));
 
-		return Utilities.getJsonObjectFromData(updateDataResponse);
+		return updateDataResponse;
 	}
 
 	public static ObjectArrayList<Lift> getAndRemoveMatchingLifts(Data data, Lift lift) {
@@ -144,7 +152,7 @@ public final class UpdateDataRequest extends UpdateDataRequestSchema {
 		return liftsToModify;
 	}
 
-	private static <T extends SerializedDataBase> void update(T newData, boolean addNewData, @Nullable T existingData, ObjectSet<T> dataSet, ObjectArrayList<T> dataToUpdate) {
+	private static <T extends SerializedDataBase> void update(T newData, boolean addNewData, @Nullable T existingData, ObjectSet<T> dataSet, ObjectArrayList<T> dataToUpdate, ObjectArrayList<T> dataToRemove, BiConsumer<T, T> copyData) {
 		final boolean isRail = newData instanceof Rail;
 		final boolean isValid = !isRail || ((Rail) newData).isValid();
 
@@ -156,10 +164,11 @@ public final class UpdateDataRequest extends UpdateDataRequestSchema {
 		} else if (isValid) {
 			if (isRail) {
 				dataSet.remove(existingData);
+				dataToRemove.add(existingData);
 				dataSet.add(newData);
 				dataToUpdate.add(newData);
 			} else {
-				existingData.updateData(new JsonReader(Utilities.getJsonObjectFromData(newData)));
+				copyData.accept(existingData, newData);
 				dataToUpdate.add(existingData);
 			}
 		}
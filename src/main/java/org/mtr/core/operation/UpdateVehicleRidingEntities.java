@@ -3,10 +3,10 @@ package org.mtr.core.operation;
 import org.mtr.core.data.Siding;
 import org.mtr.core.data.VehicleRidingEntity;
 import org.mtr.core.generated.operation.UpdateVehicleRidingEntitiesSchema;
+import org.mtr.core.serializer.EmptyData;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 
 public final class UpdateVehicleRidingEntities extends UpdateVehicleRidingEntitiesSchema {
 
@@ -23,13 +23,13 @@ public final class UpdateVehicleRidingEntities extends UpdateVehicleRidingEntiti
 		ridingEntities.add(vehicleRidingEntity);
 	}
 
-	public JsonObject update(Simulator simulator) {
+	public SerializedDataBase update(Simulator simulator) {
 		final Siding siding = simulator.sidingIdMap.get(sidingId);
 		if (siding == null) {
-			return new JsonObject();
+			return EmptyData.INSTANCE;
 		} else {
 			siding.updateVehicleRidingEntities(vehicleId, ridingEntities);
-			return Utilities.getJsonObjectFromData(this);
+			return this;
 		}
 	}
 }
@@ -0,0 +1,126 @@
+package org.mtr.core.operation;
+
+import org.mtr.core.Main;
+import org.mtr.core.data.Data;
+import org.mtr.core.serializer.MessagePackFieldWriter;
+import org.mtr.core.serializer.MessagePackReader;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.mtr.libraries.org.msgpack.core.MessageBufferPacker;
+import org.mtr.libraries.org.msgpack.core.MessagePack;
+import org.mtr.libraries.org.msgpack.core.MessagePacker;
+import org.mtr.libraries.org.msgpack.core.MessageUnpacker;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Rebuilds each {@link VehicleLiftResponse} from the frames packed by {@link VehicleLiftDeltaEncoder}.
+ * A frame that doesn't follow the last decoded frame (because a frame was lost or arrived out of order) is dropped until the full state is sent again.
+ */
+public final class VehicleLiftDeltaDecoder {
+
+	/**
+	 * The sequence number of the last frame decoded or {@code -1} if a frame was missed and the full state is needed
+	 */
+	private long sequence = -1;
+
+	private final Long2ObjectOpenHashMap<MessagePackFieldWriter> vehicles = new Long2ObjectOpenHashMap<>();
+	private final Long2ObjectOpenHashMap<MessagePackFieldWriter> lifts = new Long2ObjectOpenHashMap<>();
+
+	/**
+	 * @return the full response or {@code null} if the frame doesn't follow the last decoded frame, in which case {@link VehicleLiftDeltaDecoder#needsResync()} is {@code true} until a frame with the full state arrives
+	 */
+	@Nullable
+	public VehicleLiftResponse decode(byte[] bytes, Data data) {
+		try (final MessageUnpacker messageUnpacker = MessagePack.newDefaultUnpacker(bytes); final MessageBufferPacker messageBufferPacker = MessagePack.newDefaultBufferPacker()) {
+			// The sequence numbers always come first
+			final int entryCount = messageUnpacker.unpackMapHeader();
+			messageUnpacker.unpackString();
+			final long frameSequence = messageUnpacker.unpackLong();
+			messageUnpacker.unpackString();
+			final long baseSequence = messageUnpacker.unpackLong();
+
+			if (baseSequence < 0) {
+				vehicles.clear();
+				lifts.clear();
+			} else if (baseSequence != sequence) {
+				sequence = -1;
+				return null;
+			}
+
+			final LongOpenHashSet vehicleIds = new LongOpenHashSet();
+			final LongOpenHashSet liftIds = new LongOpenHashSet();
+			messageBufferPacker.packMapHeader(entryCount - 2);
+
+			for (int i = 2; i < entryCount; i++) {
+				final String key = messageUnpacker.unpackString();
+				messageBufferPacker.packString(key);
+				switch (key) {
+					case "vehiclesToUpdate":
+						readDeltas(bytes, messageUnpacker, messageBufferPacker, vehicles, vehicleIds);
+						break;
+					case "vehiclesToKeep":
+						readIds(messageUnpacker, messageBufferPacker, vehicleIds);
+						break;
+					case "liftsToUpdate":
+						readDeltas(bytes, messageUnpacker, messageBufferPacker, lifts, liftIds);
+						break;
+					case "liftsToKeep":
+						readIds(messageUnpacker, messageBufferPacker, liftIds);
+						break;
+					default:
+						final int start = (int) messageUnpacker.getTotalReadBytes();
+						messageUnpacker.skipValue();
+						messageBufferPacker.writePayload(bytes, start, (int) messageUnpacker.getTotalReadBytes() - start);
+						break;
+				}
+			}
+
+			vehicles.keySet().retainAll(vehicleIds);
+			lifts.keySet().retainAll(liftIds);
+			sequence = frameSequence;
+			return new VehicleLiftResponse(new MessagePackReader(ByteBuffer.wrap(messageBufferPacker.toByteArray())), data);
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+			sequence = -1;
+			return null;
+		}
+	}
+
+	public boolean needsResync() {
+		return sequence < 0;
+	}
+
+	/**
+	 * Apply the deltas and pack the full objects.
+	 */
+	private static void readDeltas(byte[] bytes, MessageUnpacker messageUnpacker, MessagePacker messagePacker, Long2ObjectOpenHashMap<MessagePackFieldWriter> objects, LongOpenHashSet ids) throws IOException {
+		final int count = messageUnpacker.unpackArrayHeader();
+		messagePacker.packArrayHeader(count);
+
+		for (int i = 0; i < count; i++) {
+			// Each item is a map of the id followed by the delta
+			messageUnpacker.unpackMapHeader();
+			messageUnpacker.unpackString();
+			final long id = messageUnpacker.unpackLong();
+			messageUnpacker.unpackString();
+			final MessagePackFieldWriter fields = MessagePackFieldWriter.applyDelta(bytes, objects.get(id), messageUnpacker);
+			objects.put(id, fields);
+			ids.add(id);
+			fields.writeFull(messagePacker);
+		}
+	}
+
+	private static void readIds(MessageUnpacker messageUnpacker, MessagePacker messagePacker, LongOpenHashSet ids) throws IOException {
+		final int count = messageUnpacker.unpackArrayHeader();
+		messagePacker.packArrayHeader(count);
+
+		for (int i = 0; i < count; i++) {
+			final long id = messageUnpacker.unpackLong();
+			messagePacker.packLong(id);
+			ids.add(id);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package org.mtr.core.operation;
+
+import org.mtr.core.Main;
+import org.mtr.core.data.Lift;
+import org.mtr.core.serializer.MessagePackFieldWriter;
+import org.mtr.core.serializer.SerializedDataBase;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.org.msgpack.core.MessageBufferPacker;
+import org.mtr.libraries.org.msgpack.core.MessagePack;
+import org.mtr.libraries.org.msgpack.core.MessagePacker;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.function.ToLongFunction;
+
+/**
+ * Packs a {@link VehicleLiftResponse} for one client as MessagePack, where vehicles and lifts only contain the fields that have changed since they were last sent to the client.
+ * For paths, only the new segments are sent. The client rebuilds the full response with {@link VehicleLiftDeltaDecoder}.
+ * <p>
+ * Each frame has a sequence number and the sequence number of the frame it was built on (or {@code -1} if the full state was sent).
+ * If the client misses a frame, it replies with {@link PlayerPresentResponse#needsResync()} and the full state is sent again.
+ */
+public final class VehicleLiftDeltaEncoder {
+
+	private long sequence;
+	private long baseSequence = -1;
+
+	/**
+	 * The fields last sent to the client for each vehicle or lift that the client still has
+	 */
+	private final Long2ObjectOpenHashMap<MessagePackFieldWriter> sentVehicles = new Long2ObjectOpenHashMap<>();
+	private final Long2ObjectOpenHashMap<MessagePackFieldWriter> sentLifts = new Long2ObjectOpenHashMap<>();
+
+	public static final String CONTENT_TYPE = "application/msgpack";
+
+	/**
+	 * @return the packed frame or {@code null} if packing failed, in which case the full state will be sent next time
+	 */
+	@Nullable
+	public byte[] encode(VehicleLiftResponse vehicleLiftResponse, ClientUpdateCache clientUpdateCache) {
+		final ObjectArrayList<VehicleUpdate> vehicleUpdates = new ObjectArrayList<>();
+		final LongArrayList vehiclesToKeep = new LongArrayList();
+		final ObjectArrayList<Lift> liftUpdates = new ObjectArrayList<>();
+		final LongArrayList liftsToKeep = new LongArrayList();
+		final ObjectArrayList<SignalBlockUpdate> signalBlockUpdates = new ObjectArrayList<>();
+		vehicleLiftResponse.iterateVehiclesToUpdate(vehicleUpdates::add);
+		vehicleLiftResponse.iterateVehiclesToKeep(vehiclesToKeep::add);
+		vehicleLiftResponse.iterateLiftsToUpdate(liftUpdates::add);
+		vehicleLiftResponse.iterateLiftsToKeep(liftsToKeep::add);
+		vehicleLiftResponse.iterateSignalBlockUpdates(signalBlockUpdates::add);
+
+		try (final MessageBufferPacker messageBufferPacker = MessagePack.newDefaultBufferPacker()) {
+			messageBufferPacker.packMapHeader(9);
+			messageBufferPacker.packString("sequence");
+			messageBufferPacker.packLong(sequence);
+			messageBufferPacker.packString("baseSequence");
+			messageBufferPacker.packLong(baseSequence);
+			messageBufferPacker.packString("clientId");
+			messageBufferPacker.packString(vehicleLiftResponse.getClientId());
+			messageBufferPacker.packString("dimension");
+			messageBufferPacker.packString(vehicleLiftResponse.getDimension());
+			writeDeltas(messageBufferPacker, "vehiclesToUpdate", vehicleUpdates, vehicleUpdate -> vehicleUpdate.getVehicle().getId(), vehiclesToKeep, sentVehicles, clientUpdateCache);
+			writeIds(messageBufferPacker, "vehiclesToKeep", vehiclesToKeep);
+			writeDeltas(messageBufferPacker, "liftsToUpdate", liftUpdates, Lift::getId, liftsToKeep, sentLifts, clientUpdateCache);
+			writeIds(messageBufferPacker, "liftsToKeep", liftsToKeep);
+			messageBufferPacker.packString("signalBlockUpdates");
+			messageBufferPacker.packArrayHeader(signalBlockUpdates.size());
+			for (final SignalBlockUpdate signalBlockUpdate : signalBlockUpdates) {
+				clientUpdateCache.getFields(signalBlockUpdate).writeFull(messageBufferPacker);
+			}
+
+			baseSequence = sequence;
+			sequence++;
+			return messageBufferPacker.toByteArray();
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+			resync();
+			return null;
+		}
+	}
+
+	/**
+	 * Forget what has been sent, so that the full state is sent in the next frame.
+	 */
+	public void resync() {
+		baseSequence = -1;
+		sentVehicles.clear();
+		sentLifts.clear();
+	}
+
+	/**
+	 * Write the changed fields of each item. Items that aren't updated or kept have been removed from the client, so they are forgotten.
+	 */
+	private static <T extends SerializedDataBase> void writeDeltas(MessagePacker messagePacker, String key, ObjectArrayList<T> dataList, ToLongFunction<T> getId, LongArrayList idsToKeep, Long2ObjectOpenHashMap<MessagePackFieldWriter> sentFields, ClientUpdateCache clientUpdateCache) throws IOException {
+		final Long2ObjectOpenHashMap<MessagePackFieldWriter> newSentFields = new Long2ObjectOpenHashMap<>();
+		messagePacker.packString(key);
+		messagePacker.packArrayHeader(dataList.size());
+
+		for (final T data : dataList) {
+			final long id = getId.applyAsLong(data);
+			final MessagePackFieldWriter fields = clientUpdateCache.getFields(data);
+			messagePacker.packMapHeader(2);
+			messagePacker.packString("id");
+			messagePacker.packLong(id);
+			messagePacker.packString("delta");
+			if (!fields.writeDelta(messagePacker, sentFields.get(id))) {
+				messagePacker.packMapHeader(0);
+			}
+			newSentFields.put(id, fields);
+		}
+
+		idsToKeep.forEach(id -> {
+			final MessagePackFieldWriter fields = sentFields.get(id);
+			if (fields != null) {
+				newSentFields.put(id, fields);
+			}
+		});
+
+		sentFields.clear();
+		sentFields.putAll(newSentFields);
+	}
+
+	private static void writeIds(MessagePacker messagePacker, String key, LongArrayList ids) throws IOException {
+		messagePacker.packString(key);
+		messagePacker.packArrayHeader(ids.size());
+		for (final long id : ids) {
+			messagePacker.packLong(id);
+		}
+	}
+}
@@ -5,24 +5,37 @@ import org.mtr.core.data.Lift;
 import org.mtr.core.data.Rail;
 import org.mtr.core.generated.operation.VehicleLiftResponseSchema;
 import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.WriterBase;
 import org.mtr.core.simulation.Simulator;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.function.Consumer;
 import java.util.function.LongConsumer;
 
 public final class VehicleLiftResponse extends VehicleLiftResponseSchema {
 
 	private final Data data;
+	@Nullable
+	private final ClientUpdateCache clientUpdateCache;
 
 	public VehicleLiftResponse(String clientId, Data data) {
+		this(clientId, data, null);
+	}
+
+	/**
+	 * @param clientUpdateCache if not {@code null}, updates are shared with the responses of other clients and only serialized once
+	 */
+	public VehicleLiftResponse(String clientId, Data data, @Nullable ClientUpdateCache clientUpdateCache) {
 		super(clientId, data instanceof Simulator ? ((Simulator) data).dimension : "");
 		this.data = data;
+		this.clientUpdateCache = clientUpdateCache;
 	}
 
 	public VehicleLiftResponse(ReaderBase readerBase, Data data) {
 		super(readerBase);
 		this.data = data;
+		clientUpdateCache = null;
 		updateData(readerBase);
 	}
 
@@ -32,6 +45,33 @@ public final class VehicleLiftResponse extends VehicleLiftResponseSchema {
 		return data;
 	}
 
+	@Override
+	protected void serializeVehiclesToUpdate(WriterBase writerBase) {
+		if (clientUpdateCache == null) {
+			super.serializeVehiclesToUpdate(writerBase);
+		} else {
+			clientUpdateCache.writeDataset(vehiclesToUpdate, writerBase, "vehiclesToUpdate");
+		}
+	}
+
+	@Override
+	protected void serializeLiftsToUpdate(WriterBase writerBase) {
+		if (clientUpdateCache == null) {
+			super.serializeLiftsToUpdate(writerBase);
+		} else {
+			clientUpdateCache.writeDataset(liftsToUpdate, writerBase, "liftsToUpdate");
+		}
+	}
+
+	@Override
+	protected void serializeSignalBlockUpdates(WriterBase writerBase) {
+		if (clientUpdateCache == null) {
+			super.serializeSignalBlockUpdates(writerBase);
+		} else {
+			clientUpdateCache.writeDataset(signalBlockUpdates, writerBase, "signalBlockUpdates");
+		}
+	}
+
 	public String getClientId() {
 		return clientId;
 	}
@@ -77,6 +117,6 @@ public final class VehicleLiftResponse extends VehicleLiftResponseSchema {
 	}
 
 	public void addSignalBlockUpdate(Rail rail) {
-		signalBlockUpdates.add(new SignalBlockUpdate(rail));
+		signalBlockUpdates.add(clientUpdateCache == null ? new SignalBlockUpdate(rail) : clientUpdateCache.getSignalBlockUpdate(rail));
 	}
 }
@@ -4,9 +4,8 @@ import org.mtr.core.data.Platform;
 import org.mtr.core.data.Position;
 import org.mtr.core.data.Route;
 import org.mtr.core.operation.DirectionsResponse;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.Long2LongAVLTreeMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
@@ -18,11 +17,11 @@ public final class DirectionsPathFinder extends PathFinder<DirectionsPathFinder.
 	private final Simulator simulator;
 	private final long startMillis;
 	private final long maxWalkingDistance;
-	private final Consumer<JsonObject> sendResponse;
+	private final Consumer<SerializedDataBase> sendResponse;
 	private static final int WALKING_MULTIPLIER = 1000; // milliseconds per meter
 
-	public DirectionsPathFinder(Simulator simulator, Position startPosition, Position endPosition, long maxWalkingDistance, Consumer<JsonObject> sendResponse) {
-		super(new PositionAndPlatform(startPosition, 0), new PositionAndPlatform(endPosition, 0));
+	public DirectionsPathFinder(Simulator simulator, Position startPosition, Position endPosition, long maxWalkingDistance, Consumer<SerializedDataBase> sendResponse) {
+		super(new PositionAndPlatform(startPosition, 0, false), new PositionAndPlatform(endPosition, 0, false));
 		this.simulator = simulator;
 		startMillis = System.currentTimeMillis();
 		this.maxWalkingDistance = maxWalkingDistance;
@@ -40,7 +39,7 @@ public final class DirectionsPathFinder extends PathFinder<DirectionsPathFinder.
 				if (departureTime > startMillis + elapsedTime && departureTime < visitedPlatformTimes.getOrDefault(newPlatformId, Long.MAX_VALUE)) {
 					final Position position = simulator.platformIdToPosition.get(newPlatformId);
 					if (position != null) {
-						connections.add(new ConnectionDetails<>(new PositionAndPlatform(position, newPlatformId), duration, departureTime - startMillis - elapsedTime, routeId));
+						connections.add(new ConnectionDetails<>(new PositionAndPlatform(position, newPlatformId, false), duration, departureTime - startMillis - elapsedTime, routeId));
 					}
 					visitedPlatformTimes.put(newPlatformId, departureTime);
 				}
@@ -51,7 +50,7 @@ public final class DirectionsPathFinder extends PathFinder<DirectionsPathFinder.
 			simulator.platformIdToPosition.forEach((newPlatformId, platformPosition) -> {
 				final long distance = data.position.manhattanDistance(platformPosition);
 				if (distance <= maxWalkingDistance) {
-					connections.add(new ConnectionDetails<>(new PositionAndPlatform(platformPosition, newPlatformId), distance * WALKING_MULTIPLIER, 0, 0));
+					connections.add(new ConnectionDetails<>(new PositionAndPlatform(platformPosition, newPlatformId, true), distance * WALKING_MULTIPLIER, 0, 0));
 				}
 			});
 
@@ -64,9 +63,12 @@ public final class DirectionsPathFinder extends PathFinder<DirectionsPathFinder.
 		return connections;
 	}
 
+	/**
+	 * Vehicles can be much faster than walking (and airplanes can cover any distance), so there is no useful lower bound and the search is Dijkstra's algorithm.
+	 */
 	@Override
-	protected long getWeightFromEndNode(PositionAndPlatform node) {
-		return node.position.manhattanDistance(endNode.position);
+	protected long getHeuristic(PositionAndPlatform node) {
+		return 0;
 	}
 
 	public boolean tick() {
@@ -75,7 +77,7 @@ public final class DirectionsPathFinder extends PathFinder<DirectionsPathFinder.
 		if (connectionDetailsList == null) {
 			return false;
 		} else if (connectionDetailsList.isEmpty()) {
-			sendResponse.accept(Utilities.getJsonObjectFromData(new DirectionsResponse(startMillis)));
+			sendResponse.accept(new DirectionsResponse(startMillis));
 			return true;
 		} else {
 			if (!connectionDetailsList.get(0).node.equals(startNode)) {
@@ -98,7 +100,7 @@ public final class DirectionsPathFinder extends PathFinder<DirectionsPathFinder.
 				);
 			}
 
-			sendResponse.accept(Utilities.getJsonObjectFromData(directionsResponse));
+			sendResponse.accept(directionsResponse);
 			return true;
 		}
 	}
@@ -107,16 +109,21 @@ public final class DirectionsPathFinder extends PathFinder<DirectionsPathFinder.
 
 		private final Position position;
 		private final long platformId;
+		/**
+		 * Walking can't be followed by more walking, so a platform reached by walking is a different node from the same platform reached by a vehicle
+		 */
+		private final boolean walked;
 
-		private PositionAndPlatform(Position position, long platformId) {
+		private PositionAndPlatform(Position position, long platformId, boolean walked) {
 			this.position = position;
 			this.platformId = platformId;
+			this.walked = walked;
 		}
 
 		@Override
 		public boolean equals(Object obj) {
 			if (obj instanceof PositionAndPlatform) {
-				return platformId == ((PositionAndPlatform) obj).platformId && position.equals(((PositionAndPlatform) obj).position);
+				return platformId == ((PositionAndPlatform) obj).platformId && walked == ((PositionAndPlatform) obj).walked && position.equals(((PositionAndPlatform) obj).position);
 			} else {
 				return super.equals(obj);
 			}
@@ -124,7 +131,7 @@ public final class DirectionsPathFinder extends PathFinder<DirectionsPathFinder.
 
 		@Override
 		public int hashCode() {
-			return (int) (position.hashCode() ^ platformId);
+			return (int) (position.hashCode() ^ platformId) ^ (walked ? 1 << 16 : 0);
 		}
 	}
 }
@@ -0,0 +1,102 @@
+package org.mtr.core.path;
+
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * A binary min-heap of node ids ordered by a {@code long} priority.
+ * Each node id is in the heap at most once, so adding a node that is already in the heap only lowers its priority.
+ */
+final class NodeHeap {
+
+	private final IntArrayList nodeIds = new IntArrayList();
+	private final LongArrayList priorities = new LongArrayList();
+	/**
+	 * The heap index of each node id or {@code -1} if the node isn't in the heap
+	 */
+	private final IntArrayList heapIndices = new IntArrayList();
+
+	public boolean isEmpty() {
+		return nodeIds.isEmpty();
+	}
+
+	/**
+	 * Add the node or, if it is already in the heap with a higher priority, lower its priority.
+	 */
+	public void add(int nodeId, long priority) {
+		while (heapIndices.size() <= nodeId) {
+			heapIndices.add(-1);
+		}
+
+		final int heapIndex = heapIndices.getInt(nodeId);
+		if (heapIndex < 0) {
+			nodeIds.add(nodeId);
+			priorities.add(priority);
+			heapIndices.set(nodeId, nodeIds.size() - 1);
+			siftUp(nodeIds.size() - 1);
+		} else if (priority < priorities.getLong(heapIndex)) {
+			priorities.set(heapIndex, priority);
+			siftUp(heapIndex);
+		}
+	}
+
+	/**
+	 * Remove the node with the lowest priority. The heap must not be empty.
+	 */
+	public int poll() {
+		final int nodeId = nodeIds.getInt(0);
+		final int lastIndex = nodeIds.size() - 1;
+		swap(0, lastIndex);
+		nodeIds.removeInt(lastIndex);
+		priorities.removeLong(lastIndex);
+		heapIndices.set(nodeId, -1);
+		if (lastIndex > 0) {
+			siftDown(0);
+		}
+		return nodeId;
+	}
+
+	private void siftUp(int index) {
+		while (index > 0) {
+			final int parentIndex = (index - 1) >> 1;
+			if (priorities.getLong(index) < priorities.getLong(parentIndex)) {
+				swap(index, parentIndex);
+				index = parentIndex;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void siftDown(int index) {
+		final int size = nodeIds.size();
+		while (true) {
+			final int childIndex1 = index * 2 + 1;
+			final int childIndex2 = childIndex1 + 1;
+			int smallestIndex = index;
+			if (childIndex1 < size && priorities.getLong(childIndex1) < priorities.getLong(smallestIndex)) {
+				smallestIndex = childIndex1;
+			}
+			if (childIndex2 < size && priorities.getLong(childIndex2) < priorities.getLong(smallestIndex)) {
+				smallestIndex = childIndex2;
+			}
+			if (smallestIndex == index) {
+				return;
+			}
+			swap(index, smallestIndex);
+			index = smallestIndex;
+		}
+	}
+
+	private void swap(int index1, int index2) {
+		final int nodeId1 = nodeIds.getInt(index1);
+		final int nodeId2 = nodeIds.getInt(index2);
+		final long priority1 = priorities.getLong(index1);
+		nodeIds.set(index1, nodeId2);
+		nodeIds.set(index2, nodeId1);
+		priorities.set(index1, priorities.getLong(index2));
+		priorities.set(index2, priority1);
+		heapIndices.set(nodeId1, index2);
+		heapIndices.set(nodeId2, index1);
+	}
+}
@@ -0,0 +1,223 @@
+package org.mtr.core.path;
+
+import org.mtr.core.Main;
+import org.mtr.core.data.Position;
+import org.mtr.core.data.TransportMode;
+import org.mtr.core.path.PathFinder.ConnectionDetails;
+import org.mtr.core.path.SidingPathFinder.PositionAndAngle;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectIterator;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * A bounded least recently used cache of paths found by {@link SidingPathFinder}, shared by all path finders of a {@link org.mtr.core.data.Data} instance.
+ * Many depots share the same consecutive platforms, so the same segments are often searched for again.
+ * Only the rail nodes of a path are cached; the {@link org.mtr.core.data.PathData} (which depends on the stop index and dwell time) is built again for each path finder.
+ * <p>
+ * When rails change, only the paths that the changed rails could affect are removed.
+ * A rail can only be part of a faster path if travelling in a straight line from the start through the rail to the end (at the highest speed limit) is faster than the cached path, so cached paths far away from the changed rails are kept.
+ * Airplanes can jump between runways, so any rail change removes their paths.
+ * <p>
+ * Each change to the rails increments the version. A path found on a {@link RailGraph} of an older version might use rails that no longer exist, so it isn't cached.
+ * Likewise, a path cached at a newer version might use rails that a path finder's older {@link RailGraph} doesn't have, so it isn't returned to that path finder.
+ * All methods can be called from any thread.
+ */
+public final class PathCache {
+
+	private long version;
+	private long hits;
+	private long misses;
+	private long invalidations;
+	private long evictions;
+
+	private final Object2ObjectLinkedOpenHashMap<Key, Entry> entries = new Object2ObjectLinkedOpenHashMap<>();
+
+	static final int MAX_ENTRIES = 4096;
+
+	/**
+	 * @return the version of the rails, which should be passed to {@link RailGraph}
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Remove all paths, for when all rails are reloaded.
+	 */
+	public synchronized void clear() {
+		invalidations += entries.size();
+		entries.clear();
+		version++;
+	}
+
+	/**
+	 * Remove the paths that could be affected by added, changed, or removed rails.
+	 *
+	 * @param railNodePositions the positions of all changed rails
+	 * @param speedLimit        the highest speed limit of the changed rails
+	 */
+	public synchronized void invalidate(ObjectOpenHashSet<Position> railNodePositions, double speedLimit) {
+		if (railNodePositions.isEmpty()) {
+			return;
+		}
+
+		final ObjectIterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isAffected(railNodePositions, speedLimit)) {
+				iterator.remove();
+				invalidations++;
+			}
+		}
+		version++;
+	}
+
+	/**
+	 * Log the statistics since they were last logged.
+	 */
+	public synchronized void logStatistics(String dimension) {
+		final long total = hits + misses;
+		Main.LOGGER.info(
+				"{} path cache: {} path(s), {} hit(s), {} miss(es) ({}% hit rate), {} invalidated, {} evicted",
+				dimension, entries.size(), hits, misses, total == 0 ? 0 : Math.round(hits * 100D / total), invalidations, evictions
+		);
+		hits = 0;
+		misses = 0;
+		invalidations = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * @param railGraphVersion the version of the {@link RailGraph} the path will be used on
+	 * @return the cached nodes, padded to the saved rails, or {@code null} if there is no cached path for the version
+	 */
+	@Nullable
+	synchronized ObjectArrayList<ConnectionDetails<PositionAndAngle>> get(long startSavedRailId, long endSavedRailId, TransportMode transportMode, long railGraphVersion) {
+		final Entry entry = entries.getAndMoveToLast(new Key(startSavedRailId, endSavedRailId, transportMode));
+		if (entry == null || entry.version > railGraphVersion) {
+			misses++;
+			return null;
+		} else {
+			hits++;
+			return entry.connectionDetailsList;
+		}
+	}
+
+	/**
+	 * Cache a path. The list must not be changed afterwards.
+	 *
+	 * @param railGraphVersion the version of the {@link RailGraph} the path was found on
+	 * @param startPositions   both positions of the start saved rail, since the search can start from either
+	 * @param endPositions     both positions of the end saved rail
+	 * @param duration         the total duration of the path
+	 * @param maxSpeedLimit    the highest speed limit of the transport mode when the path was found
+	 */
+	synchronized void put(long startSavedRailId, long endSavedRailId, TransportMode transportMode, long railGraphVersion, ObjectArrayList<ConnectionDetails<PositionAndAngle>> connectionDetailsList, Position[] startPositions, Position[] endPositions, long duration, double maxSpeedLimit) {
+		if (railGraphVersion != version || connectionDetailsList.size() < 2 || maxSpeedLimit <= 0) {
+			return;
+		}
+
+		entries.putAndMoveToLast(new Key(startSavedRailId, endSavedRailId, transportMode), new Entry(connectionDetailsList, transportMode, railGraphVersion, startPositions, endPositions, duration, maxSpeedLimit));
+		while (entries.size() > MAX_ENTRIES) {
+			entries.removeFirst();
+			evictions++;
+		}
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	private static final class Key {
+
+		private final long startSavedRailId;
+		private final long endSavedRailId;
+		private final TransportMode transportMode;
+
+		private Key(long startSavedRailId, long endSavedRailId, TransportMode transportMode) {
+			this.startSavedRailId = startSavedRailId;
+			this.endSavedRailId = endSavedRailId;
+			this.transportMode = transportMode;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (object instanceof Key) {
+				final Key key = (Key) object;
+				return startSavedRailId == key.startSavedRailId && endSavedRailId == key.endSavedRailId && transportMode == key.transportMode;
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(startSavedRailId, endSavedRailId, transportMode);
+		}
+	}
+
+	private static final class Entry {
+
+		private final ObjectArrayList<ConnectionDetails<PositionAndAngle>> connectionDetailsList;
+		private final TransportMode transportMode;
+		/**
+		 * The version of the rails when the path was cached
+		 */
+		private final long version;
+		private final Position[] startPositions;
+		private final Position[] endPositions;
+		private final long duration;
+		private final double maxSpeedLimit;
+
+		private Entry(ObjectArrayList<ConnectionDetails<PositionAndAngle>> connectionDetailsList, TransportMode transportMode, long version, Position[] startPositions, Position[] endPositions, long duration, double maxSpeedLimit) {
+			this.connectionDetailsList = connectionDetailsList;
+			this.transportMode = transportMode;
+			this.version = version;
+			this.startPositions = startPositions;
+			this.endPositions = endPositions;
+			this.duration = duration;
+			this.maxSpeedLimit = maxSpeedLimit;
+		}
+
+		private boolean isAffected(ObjectOpenHashSet<Position> railNodePositions, double speedLimit) {
+			if (transportMode == TransportMode.AIRPLANE) {
+				return true;
+			}
+
+			final double newMaxSpeedLimit = Math.max(maxSpeedLimit, speedLimit);
+			for (final Position position : railNodePositions) {
+				if (isInRange(position, newMaxSpeedLimit)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Every rail on the path itself is always in range, so removed rails on the path are caught here too.
+		 */
+		private boolean isInRange(Position position, double speedLimit) {
+			return (getMinDistance(startPositions, position) + getMinDistance(endPositions, position)) / speedLimit * RailGraph.ROUNDING_FACTOR <= duration;
+		}
+
+		private static double getMinDistance(Position[] positions, Position position) {
+			double minDistance = Double.MAX_VALUE;
+			for (final Position otherPosition : positions) {
+				minDistance = Math.min(minDistance, otherPosition.distance(position));
+			}
+			return minDistance;
+		}
+	}
+}
@@ -1,105 +1,82 @@
 package org.mtr.core.path;
 
-import org.mtr.core.Main;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 import javax.annotation.Nullable;
 
-public abstract class PathFinder<T> {
+/**
+ * A {@link PathSearch} over nodes of any type, which are given ids when they are first reached.
+ */
+public abstract class PathFinder<T> extends PathSearch {
 
-	private long totalTime = Long.MAX_VALUE;
 	private boolean completed;
-	private int iterations;
 
 	protected final T startNode;
 	protected final T endNode;
-	private final Object2LongOpenHashMap<T> globalBlacklist = new Object2LongOpenHashMap<>();
-	private final Object2LongOpenHashMap<T> localBlacklist = new Object2LongOpenHashMap<>();
-	private final ObjectArrayList<ConnectionDetails<T>> tempData;
+	private final Object2IntOpenHashMap<T> nodeIds = new Object2IntOpenHashMap<>();
+	private final ObjectArrayList<T> nodes = new ObjectArrayList<>();
 	private final ObjectArrayList<ConnectionDetails<T>> data = new ObjectArrayList<>();
 
 	public PathFinder(T startNode, T endNode) {
 		this.startNode = startNode;
 		this.endNode = endNode;
-		completed = startNode.equals(endNode);
-		tempData = ObjectArrayList.of(new ConnectionDetails<>(startNode, 0, 0, 0));
+		nodeIds.defaultReturnValue(-1);
 	}
 
+	/**
+	 * @return {@code null} if the search hasn't finished, the connections from the start node to the end node (starting with the start node), or an empty list if there is no path
+	 */
+	@Nullable
 	protected ObjectArrayList<ConnectionDetails<T>> findPath() {
-		if (!completed) {
-			final long elapsedTime = tempData.stream().mapToLong(data -> data.duration + data.waitingTime).sum();
-			final ConnectionDetails<T> prevConnectionDetails = Utilities.getElement(tempData, -1);
-			final T prevNode = prevConnectionDetails == null ? startNode : prevConnectionDetails.node;
-
-			T bestNode = null;
-			long bestIncrease = Long.MIN_VALUE;
-			long bestDuration = 0;
-			long bestWaitingTime = 0;
-			long bestRouteId = 0;
-
-			for (final ConnectionDetails<T> connectionDetails : getConnections(elapsedTime, prevNode, prevConnectionDetails == null ? null : prevConnectionDetails.routeId)) {
-				final T thisNode = connectionDetails.node;
-				final long duration = connectionDetails.duration;
-				final long waitingTime = connectionDetails.waitingTime;
-				final long totalDuration = duration + waitingTime;
-
-				if (verifyTime(thisNode, elapsedTime + totalDuration)) {
-					final long increase = (getWeightFromEndNode(prevNode) - getWeightFromEndNode(thisNode)) / totalDuration;
-					globalBlacklist.put(thisNode, elapsedTime + totalDuration);
-					if (increase > bestIncrease) {
-						bestNode = thisNode;
-						bestIncrease = increase;
-						bestDuration = duration;
-						bestWaitingTime = waitingTime;
-						bestRouteId = connectionDetails.routeId;
-					}
-				}
-			}
-
-			if (bestNode == null || bestDuration == 0) {
-				if (tempData.isEmpty()) {
-					completed = true;
-					Main.LOGGER.debug("Found the best path after {} iteration(s)", iterations);
-				} else {
-					tempData.remove(tempData.size() - 1);
-				}
-			} else {
-				final long totalDuration = elapsedTime + bestDuration + bestWaitingTime;
-				localBlacklist.put(bestNode, totalDuration);
-				tempData.add(new ConnectionDetails<>(bestNode, bestDuration, bestWaitingTime, bestRouteId));
-
-				if (bestNode.equals(endNode)) {
-					if (totalDuration > 0 && (totalDuration < totalTime || totalDuration == totalTime && tempData.size() < data.size())) {
-						if (totalDuration == totalTime) {
-							Main.LOGGER.debug("Found a shorter path!");
-						}
-						totalTime = totalDuration;
-						data.clear();
-						data.addAll(tempData);
-						iterations++;
-					}
-
-					tempData.clear();
-					localBlacklist.clear();
-				}
-			}
+		if (!completed && search()) {
+			completed = true;
+			getPath().forEach(nodeId -> data.add(new ConnectionDetails<>(nodes.get(nodeId), getDuration(nodeId), getWaitingTime(nodeId), getRouteId(nodeId))));
 		}
-
 		return completed ? data : null;
 	}
 
 	protected abstract ObjectArrayList<ConnectionDetails<T>> getConnections(long elapsedTime, T data, @Nullable Long previousRouteId);
 
-	protected abstract long getWeightFromEndNode(T node);
+	protected abstract long getHeuristic(T node);
+
+	protected boolean isEndNode(T node) {
+		return node.equals(endNode);
+	}
+
+	@Override
+	protected final boolean addStartNode() {
+		getNodeId(startNode);
+		return true;
+	}
 
-	private boolean verifyTime(T node, long time) {
-		return time < totalTime && compareBlacklist(localBlacklist, node, time, false) && compareBlacklist(globalBlacklist, node, time, true);
+	@Override
+	protected final void addConnections(int nodeId, long elapsedTime) {
+		for (final ConnectionDetails<T> connectionDetails : getConnections(elapsedTime, nodes.get(nodeId), nodeId == 0 ? null : getRouteId(nodeId))) {
+			connect(getNodeId(connectionDetails.node), connectionDetails.duration, connectionDetails.waitingTime, connectionDetails.routeId);
+		}
 	}
 
-	private static <U> boolean compareBlacklist(Object2LongOpenHashMap<U> blacklist, U node, long time, boolean lessThanOrEqualTo) {
-		return lessThanOrEqualTo ? time <= blacklist.getOrDefault(node, Long.MAX_VALUE) : time < blacklist.getOrDefault(node, Long.MAX_VALUE);
+	@Override
+	protected final long getHeuristic(int nodeId) {
+		return getHeuristic(nodes.get(nodeId));
+	}
+
+	@Override
+	protected final boolean isEndNode(int nodeId) {
+		return isEndNode(nodes.get(nodeId));
+	}
+
+	private int getNodeId(T node) {
+		final int nodeId = nodeIds.getInt(node);
+		if (nodeId < 0) {
+			final int newNodeId = addNode();
+			nodeIds.put(node, newNodeId);
+			nodes.add(node);
+			return newNodeId;
+		} else {
+			return nodeId;
+		}
 	}
 
 	protected static class ConnectionDetails<T> {
@@ -0,0 +1,163 @@
+package org.mtr.core.path;
+
+import org.mtr.core.Main;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * An A* search minimising the total duration and waiting time (and then the number of connections) from the first node to an end node.
+ * Nodes are identified by consecutive ids handed out by {@link PathSearch#addNode()}, so the search itself only works with primitive lists and a {@link NodeHeap}.
+ * With a heuristic of {@code 0}, this is Dijkstra's algorithm.
+ * <p>
+ * The search is incremental: each call to {@link PathSearch#search()} expands a limited number of nodes, so callers can spread a search over several ticks.
+ */
+abstract class PathSearch {
+
+	private boolean completed;
+	private int iterations;
+	/**
+	 * The node being expanded, which is the parent of the nodes passed to {@link PathSearch#connect(int, long, long, long)}
+	 */
+	private int currentNodeId;
+
+	private final LongArrayList costs = new LongArrayList();
+	private final LongArrayList heuristics = new LongArrayList();
+	private final IntArrayList connectionCounts = new IntArrayList();
+	private final IntArrayList parentNodeIds = new IntArrayList();
+	private final LongArrayList durations = new LongArrayList();
+	private final LongArrayList waitingTimes = new LongArrayList();
+	private final LongArrayList routeIds = new LongArrayList();
+	private final NodeHeap openNodes = new NodeHeap();
+	/**
+	 * The node ids from the first node to the end node, or empty if there is no path
+	 */
+	private final IntArrayList path = new IntArrayList();
+
+	private static final int ITERATIONS_PER_CALL = 256;
+
+	/**
+	 * @return {@code true} once the search has finished, after which {@link PathSearch#getPath()} is the result
+	 */
+	protected final boolean search() {
+		if (!completed && costs.isEmpty()) {
+			if (!addStartNode() || isEndNode(0)) {
+				completed = true;
+			} else {
+				costs.set(0, 0);
+				connectionCounts.set(0, 0);
+				openNodes.add(0, getHeuristic(0));
+			}
+		}
+
+		for (int i = 0; i < ITERATIONS_PER_CALL && !completed; i++) {
+			iterate();
+		}
+
+		return completed;
+	}
+
+	/**
+	 * Create the next node id. The node must then be reachable from the subclass's own node lookup.
+	 */
+	protected final int addNode() {
+		final int nodeId = costs.size();
+		costs.add(Long.MAX_VALUE);
+		heuristics.add(-1);
+		connectionCounts.add(Integer.MAX_VALUE);
+		parentNodeIds.add(-1);
+		durations.add(1);
+		waitingTimes.add(0);
+		routeIds.add(0);
+		return nodeId;
+	}
+
+	/**
+	 * Called from {@link PathSearch#addConnections(int, long)} for each node that can be reached from the node being expanded.
+	 */
+	protected final void connect(int nodeId, long duration, long waitingTime, long routeId) {
+		final long newCost = costs.getLong(currentNodeId) + duration + waitingTime;
+		final int connectionCount = connectionCounts.getInt(currentNodeId) + 1;
+		final long oldCost = costs.getLong(nodeId);
+
+		if (newCost < oldCost || newCost == oldCost && connectionCount < connectionCounts.getInt(nodeId)) {
+			long heuristic = heuristics.getLong(nodeId);
+			if (heuristic < 0) {
+				heuristic = getHeuristic(nodeId);
+				heuristics.set(nodeId, heuristic);
+			}
+
+			// a node that was already expanded is added again, in case the heuristic isn't consistent
+			costs.set(nodeId, newCost);
+			connectionCounts.set(nodeId, connectionCount);
+			parentNodeIds.set(nodeId, currentNodeId);
+			durations.set(nodeId, duration);
+			waitingTimes.set(nodeId, waitingTime);
+			routeIds.set(nodeId, routeId);
+			openNodes.add(nodeId, newCost + heuristic);
+		}
+	}
+
+	protected final IntArrayList getPath() {
+		return path;
+	}
+
+	protected final long getDuration(int nodeId) {
+		return durations.getLong(nodeId);
+	}
+
+	protected final long getWaitingTime(int nodeId) {
+		return waitingTimes.getLong(nodeId);
+	}
+
+	protected final long getRouteId(int nodeId) {
+		return routeIds.getLong(nodeId);
+	}
+
+	/**
+	 * Create the start node with {@link PathSearch#addNode()}, which will have the id {@code 0}.
+	 *
+	 * @return {@code false} if there is no start node, in which case there is no path
+	 */
+	protected abstract boolean addStartNode();
+
+	/**
+	 * Call {@link PathSearch#connect(int, long, long, long)} for each connection from the node.
+	 */
+	protected abstract void addConnections(int nodeId, long elapsedTime);
+
+	/**
+	 * @return a lower bound of the duration from the node to the end node, or {@code 0} if there is none
+	 */
+	protected abstract long getHeuristic(int nodeId);
+
+	protected abstract boolean isEndNode(int nodeId);
+
+	/**
+	 * Expand the open node with the lowest estimated total duration.
+	 */
+	private void iterate() {
+		if (openNodes.isEmpty()) {
+			completed = true;
+			Main.LOGGER.debug("Found no path after {} iteration(s)", iterations);
+			return;
+		}
+
+		iterations++;
+		final int nodeId = openNodes.poll();
+
+		if (isEndNode(nodeId)) {
+			for (int pathNodeId = nodeId; pathNodeId >= 0; pathNodeId = parentNodeIds.getInt(pathNodeId)) {
+				path.add(pathNodeId);
+			}
+			for (int i = 0, j = path.size() - 1; i < j; i++, j--) {
+				path.set(i, path.set(j, path.getInt(i)));
+			}
+			completed = true;
+			Main.LOGGER.debug("Found the best path after {} iteration(s)", iterations);
+			return;
+		}
+
+		currentNodeId = nodeId;
+		addConnections(nodeId, costs.getLong(nodeId));
+	}
+}
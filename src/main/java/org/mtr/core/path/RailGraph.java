@@ -0,0 +1,242 @@
+package org.mtr.core.path;
+
+import org.mtr.core.Main;
+import org.mtr.core.data.Data;
+import org.mtr.core.data.Position;
+import org.mtr.core.data.Rail;
+import org.mtr.core.data.TransportMode;
+import org.mtr.core.tool.Angle;
+import org.mtr.libraries.it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable snapshot of the rail network in compressed sparse row form, shared by all {@link SidingPathFinder} instances until the rails change.
+ * Each rail position is a node with an integer id and the edges leaving node {@code n} are the edge ids from {@code getFirstEdge(n)} (inclusive) to {@code getFirstEdge(n + 1)} (exclusive).
+ * <p>
+ * Angles are stored as indices, where {@link RailGraph#NO_ANGLE} is a node that can be left in any direction (such as the start of a path).
+ * Each edge has a bit set of the angles from which it can be entered, so checking whether a rail can be used doesn't need the {@link Rail} itself.
+ * Rails that can't be travelled in a direction are still edges (with no angles set), so that the graph can be used to look up rails without {@link Data#positionsToRail}, which isn't safe to read from other threads.
+ * <p>
+ * A new graph is built whenever the rails change, which also drops its {@link RailLandmarks}.
+ */
+public final class RailGraph {
+
+	private final Object2IntOpenHashMap<Position> nodeIds = new Object2IntOpenHashMap<>();
+	private final Position[] positions;
+	private final int[] edgeOffsets;
+	private final int[] edgeTargets;
+	private final Rail[] edgeRails;
+	/**
+	 * The time in milliseconds to travel along each edge at the speed limit
+	 */
+	private final long[] edgeDurations;
+	private final int[] edgeAngleMasks;
+	/**
+	 * The angle of the train when arriving at the target of each edge
+	 */
+	private final byte[] edgeEndAngles;
+	private final boolean[] runwaysOutbound;
+	private final int[] runwayInboundNodeIds;
+	private final byte[] runwayInboundAngles;
+	private final double[] maxSpeedLimits = new double[TransportMode.values().length];
+	/**
+	 * The {@link PathCache} version of the rails this graph was built from
+	 */
+	private final long version;
+	/**
+	 * Only built once the graph has been queried enough times for the preprocessing to pay off
+	 */
+	@Nullable
+	private RailLandmarks railLandmarks;
+	private int queryCount;
+
+	private static final Angle[] ANGLES = Angle.values();
+	public static final int NO_ANGLE = ANGLES.length;
+	public static final int ANGLE_COUNT = NO_ANGLE + 1;
+	/**
+	 * Each edge duration is rounded and at least {@code 1}, so a path can be faster than the straight line lower bound by up to a third
+	 */
+	static final double ROUNDING_FACTOR = 2D / 3;
+	private static final int LANDMARK_MIN_QUERIES = 32;
+
+	public RailGraph(Data data) {
+		version = data.pathCache.getVersion();
+		positions = data.positionsToRail.keySet().toArray(new Position[0]);
+		nodeIds.defaultReturnValue(-1);
+		for (int i = 0; i < positions.length; i++) {
+			nodeIds.put(positions[i], i);
+		}
+
+		edgeOffsets = new int[positions.length + 1];
+		final IntArrayList targets = new IntArrayList();
+		final ObjectArrayList<Rail> rails = new ObjectArrayList<>();
+		final LongArrayList durations = new LongArrayList();
+		final IntArrayList angleMasks = new IntArrayList();
+		final ByteArrayList endAngles = new ByteArrayList();
+
+		for (int i = 0; i < positions.length; i++) {
+			final Position position = positions[i];
+			final Object2ObjectOpenHashMap<Position, Rail> railConnections = data.positionsToRail.get(position);
+			railConnections.forEach((connectedPosition, rail) -> {
+				final double speedLimit = rail.getSpeedLimitMetersPerMillisecond(position);
+				final int target = nodeIds.getInt(connectedPosition);
+				if (target >= 0) {
+					targets.add(target);
+					rails.add(rail);
+					endAngles.add((byte) rail.getStartAngle(connectedPosition).getOpposite().ordinal());
+					if (speedLimit > 0) {
+						durations.add(Math.max(1, Math.round(rail.railMath.getLength() / speedLimit)));
+						angleMasks.add(rail.canTurnBack() ? (1 << ANGLE_COUNT) - 1 : 1 << rail.getStartAngle(position).ordinal() | 1 << NO_ANGLE);
+						final int transportModeIndex = rail.getTransportMode().ordinal();
+						maxSpeedLimits[transportModeIndex] = Math.max(maxSpeedLimits[transportModeIndex], speedLimit);
+					} else {
+						durations.add(0);
+						angleMasks.add(0);
+					}
+				}
+			});
+			edgeOffsets[i + 1] = targets.size();
+		}
+
+		edgeTargets = targets.toIntArray();
+		edgeRails = rails.toArray(new Rail[0]);
+		edgeDurations = durations.toLongArray();
+		edgeAngleMasks = angleMasks.toIntArray();
+		edgeEndAngles = endAngles.toByteArray();
+
+		runwaysOutbound = new boolean[positions.length];
+		data.runwaysOutbound.forEach(position -> {
+			final int nodeId = nodeIds.getInt(position);
+			if (nodeId >= 0) {
+				runwaysOutbound[nodeId] = true;
+			}
+		});
+
+		final IntArrayList inboundNodeIds = new IntArrayList();
+		final ByteArrayList inboundAngles = new ByteArrayList();
+		data.runwaysInbound.forEach((position, rail) -> {
+			final int nodeId = nodeIds.getInt(position);
+			if (nodeId >= 0) {
+				inboundNodeIds.add(nodeId);
+				inboundAngles.add((byte) rail.getStartAngle(position).ordinal());
+			}
+		});
+		runwayInboundNodeIds = inboundNodeIds.toIntArray();
+		runwayInboundAngles = inboundAngles.toByteArray();
+	}
+
+	/**
+	 * @return the node id or {@code -1} if there are no rails at the position
+	 */
+	public int getNodeId(Position position) {
+		return nodeIds.getInt(position);
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public int getNodeCount() {
+		return positions.length;
+	}
+
+	public Position getPosition(int nodeId) {
+		return positions[nodeId];
+	}
+
+	public int getFirstEdge(int nodeId) {
+		return edgeOffsets[nodeId];
+	}
+
+	/**
+	 * @return the rail between two positions or {@code null} if there is none
+	 */
+	@Nullable
+	public Rail getRail(Position position1, Position position2) {
+		final int nodeId = getNodeId(position1);
+		if (nodeId >= 0) {
+			final int lastEdge = getFirstEdge(nodeId + 1);
+			for (int edge = getFirstEdge(nodeId); edge < lastEdge; edge++) {
+				if (positions[edgeTargets[edge]].equals(position2)) {
+					return edgeRails[edge];
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the edge can be travelled along at all
+	 */
+	public boolean canTraverseEdge(int edge) {
+		return edgeAngleMasks[edge] != 0;
+	}
+
+	/**
+	 * @return whether a train arriving at the start of the edge with the angle can continue along the edge
+	 */
+	public boolean canEnterEdge(int edge, int angle) {
+		return (edgeAngleMasks[edge] & 1 << angle) != 0;
+	}
+
+	public int getEdgeTarget(int edge) {
+		return edgeTargets[edge];
+	}
+
+	public long getEdgeDuration(int edge) {
+		return edgeDurations[edge];
+	}
+
+	public int getEdgeEndAngle(int edge) {
+		return edgeEndAngles[edge];
+	}
+
+	public boolean isRunwayOutbound(int nodeId) {
+		return runwaysOutbound[nodeId];
+	}
+
+	public int getRunwayInboundCount() {
+		return runwayInboundNodeIds.length;
+	}
+
+	public int getRunwayInboundNodeId(int index) {
+		return runwayInboundNodeIds[index];
+	}
+
+	public int getRunwayInboundAngle(int index) {
+		return runwayInboundAngles[index];
+	}
+
+	/**
+	 * @return the highest speed limit of any rail of the transport mode, used for path finding heuristics
+	 */
+	public double getMaxSpeedLimitMetersPerMillisecond(TransportMode transportMode) {
+		return maxSpeedLimits[transportMode.ordinal()];
+	}
+
+	/**
+	 * Count a path query and, once there have been enough queries on this graph, build the landmarks.
+	 *
+	 * @return the landmarks or {@code null} if they haven't been built yet
+	 */
+	@Nullable
+	synchronized RailLandmarks getRailLandmarks() {
+		if (railLandmarks == null && ++queryCount >= LANDMARK_MIN_QUERIES) {
+			final long startMillis = System.currentTimeMillis();
+			railLandmarks = new RailLandmarks(this);
+			Main.LOGGER.debug("Built rail landmarks for {} node(s) in {} ms", positions.length, System.currentTimeMillis() - startMillis);
+		}
+		return railLandmarks;
+	}
+
+	@Nullable
+	public static Angle getAngle(int angle) {
+		return angle == NO_ANGLE ? null : ANGLES[angle];
+	}
+}
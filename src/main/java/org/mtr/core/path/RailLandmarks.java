@@ -0,0 +1,173 @@
+package org.mtr.core.path;
+
+import org.mtr.core.data.Position;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Landmark (ALT) lower bounds for a {@link RailGraph}.
+ * For each landmark, the shortest durations from the landmark to every node and from every node to the landmark are precomputed, ignoring angles.
+ * By the triangle inequality, {@code d(v, L) - d(t, L)} and {@code d(L, t) - d(L, v)} are then lower bounds of the duration from {@code v} to {@code t}.
+ * <p>
+ * Landmarks are picked at the corners and edge midpoints of the bounding box of the network, which spreads them around the edges of the network without any extra searches.
+ */
+final class RailLandmarks {
+
+	private final int[][] durationsFromLandmarks;
+	private final int[][] durationsToLandmarks;
+
+	private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	RailLandmarks(RailGraph railGraph) {
+		final int[] landmarkNodeIds = pickLandmarks(railGraph);
+		final int[] reverseEdgeOffsets = new int[railGraph.getNodeCount() + 1];
+		final int[] reverseEdgeSources = new int[railGraph.getFirstEdge(railGraph.getNodeCount())];
+		final int[] reverseEdges = new int[reverseEdgeSources.length];
+		writeReverseEdges(railGraph, reverseEdgeOffsets, reverseEdgeSources, reverseEdges);
+
+		durationsFromLandmarks = new int[landmarkNodeIds.length][];
+		durationsToLandmarks = new int[landmarkNodeIds.length][];
+		for (int i = 0; i < landmarkNodeIds.length; i++) {
+			durationsFromLandmarks[i] = search(railGraph, landmarkNodeIds[i], null, null, null);
+			durationsToLandmarks[i] = search(railGraph, landmarkNodeIds[i], reverseEdgeOffsets, reverseEdgeSources, reverseEdges);
+		}
+	}
+
+	/**
+	 * @return a lower bound of the duration from one node to another, or {@code 0} if the landmarks don't give one
+	 */
+	long getLowerBound(int nodeId, int endNodeId) {
+		long lowerBound = 0;
+		for (int i = 0; i < durationsFromLandmarks.length; i++) {
+			final int[] durationsFromLandmark = durationsFromLandmarks[i];
+			final int[] durationsToLandmark = durationsToLandmarks[i];
+			if (durationsToLandmark[nodeId] != UNREACHABLE && durationsToLandmark[endNodeId] != UNREACHABLE) {
+				lowerBound = Math.max(lowerBound, (long) durationsToLandmark[nodeId] - durationsToLandmark[endNodeId]);
+			}
+			if (durationsFromLandmark[nodeId] != UNREACHABLE && durationsFromLandmark[endNodeId] != UNREACHABLE) {
+				lowerBound = Math.max(lowerBound, (long) durationsFromLandmark[endNodeId] - durationsFromLandmark[nodeId]);
+			}
+		}
+		return lowerBound;
+	}
+
+	/**
+	 * Dijkstra's algorithm from the landmark along the edges of the rail graph, or against them if reverse edges are given.
+	 */
+	private static int[] search(RailGraph railGraph, int landmarkNodeId, @Nullable int[] reverseEdgeOffsets, @Nullable int[] reverseEdgeSources, @Nullable int[] reverseEdges) {
+		final int[] durations = new int[railGraph.getNodeCount()];
+		final boolean[] visited = new boolean[railGraph.getNodeCount()];
+		final NodeHeap openNodes = new NodeHeap();
+		Arrays.fill(durations, UNREACHABLE);
+		durations[landmarkNodeId] = 0;
+		openNodes.add(landmarkNodeId, 0);
+
+		while (!openNodes.isEmpty()) {
+			final int nodeId = openNodes.poll();
+			visited[nodeId] = true;
+
+			if (reverseEdgeOffsets == null || reverseEdgeSources == null || reverseEdges == null) {
+				final int lastEdge = railGraph.getFirstEdge(nodeId + 1);
+				for (int edge = railGraph.getFirstEdge(nodeId); edge < lastEdge; edge++) {
+					if (railGraph.canTraverseEdge(edge)) {
+						relax(durations, visited, openNodes, railGraph.getEdgeTarget(edge), durations[nodeId] + railGraph.getEdgeDuration(edge));
+					}
+				}
+			} else {
+				for (int i = reverseEdgeOffsets[nodeId]; i < reverseEdgeOffsets[nodeId + 1]; i++) {
+					if (railGraph.canTraverseEdge(reverseEdges[i])) {
+						relax(durations, visited, openNodes, reverseEdgeSources[i], durations[nodeId] + railGraph.getEdgeDuration(reverseEdges[i]));
+					}
+				}
+			}
+		}
+
+		return durations;
+	}
+
+	private static void relax(int[] durations, boolean[] visited, NodeHeap openNodes, int nodeId, long duration) {
+		// durations that don't fit are left unreachable, since a capped duration isn't a valid bound
+		if (!visited[nodeId] && duration < durations[nodeId]) {
+			durations[nodeId] = (int) duration;
+			openNodes.add(nodeId, duration);
+		}
+	}
+
+	/**
+	 * Group the edges of the rail graph by their target node.
+	 */
+	private static void writeReverseEdges(RailGraph railGraph, int[] reverseEdgeOffsets, int[] reverseEdgeSources, int[] reverseEdges) {
+		final int nodeCount = railGraph.getNodeCount();
+		for (int edge = 0; edge < reverseEdges.length; edge++) {
+			reverseEdgeOffsets[railGraph.getEdgeTarget(edge) + 1]++;
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			reverseEdgeOffsets[i + 1] += reverseEdgeOffsets[i];
+		}
+
+		final int[] nextIndices = Arrays.copyOf(reverseEdgeOffsets, nodeCount);
+		for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+			final int lastEdge = railGraph.getFirstEdge(nodeId + 1);
+			for (int edge = railGraph.getFirstEdge(nodeId); edge < lastEdge; edge++) {
+				final int index = nextIndices[railGraph.getEdgeTarget(edge)]++;
+				reverseEdgeSources[index] = nodeId;
+				reverseEdges[index] = edge;
+			}
+		}
+	}
+
+	/**
+	 * Pick the nodes closest to the corners and edge midpoints of the bounding box (in the horizontal plane), without duplicates.
+	 */
+	private static int[] pickLandmarks(RailGraph railGraph) {
+		final int nodeCount = railGraph.getNodeCount();
+		long minX = Long.MAX_VALUE;
+		long maxX = Long.MIN_VALUE;
+		long minZ = Long.MAX_VALUE;
+		long maxZ = Long.MIN_VALUE;
+		for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+			final Position position = railGraph.getPosition(nodeId);
+			minX = Math.min(minX, position.getX());
+			maxX = Math.max(maxX, position.getX());
+			minZ = Math.min(minZ, position.getZ());
+			maxZ = Math.max(maxZ, position.getZ());
+		}
+
+		final long midX = minX / 2 + maxX / 2;
+		final long midZ = minZ / 2 + maxZ / 2;
+		final long[][] targets = {{minX, minZ}, {maxX, maxZ}, {minX, maxZ}, {maxX, minZ}, {midX, minZ}, {midX, maxZ}, {minX, midZ}, {maxX, midZ}};
+		final int[] landmarkNodeIds = new int[Math.min(targets.length, nodeCount)];
+		int landmarkCount = 0;
+
+		for (final long[] target : targets) {
+			if (landmarkCount == landmarkNodeIds.length) {
+				break;
+			}
+
+			int closestNodeId = -1;
+			long closestDistance = Long.MAX_VALUE;
+			for (int nodeId = 0; nodeId < nodeCount; nodeId++) {
+				final Position position = railGraph.getPosition(nodeId);
+				final long distance = Math.abs(position.getX() - target[0]) + Math.abs(position.getZ() - target[1]);
+				if (distance < closestDistance && !contains(landmarkNodeIds, landmarkCount, nodeId)) {
+					closestNodeId = nodeId;
+					closestDistance = distance;
+				}
+			}
+			landmarkNodeIds[landmarkCount] = closestNodeId;
+			landmarkCount++;
+		}
+
+		return landmarkNodeIds;
+	}
+
+	private static boolean contains(int[] array, int length, int value) {
+		for (int i = 0; i < length; i++) {
+			if (array[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
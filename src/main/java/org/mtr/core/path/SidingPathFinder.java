@@ -1,83 +1,182 @@
 package org.mtr.core.path;
 
 import org.mtr.core.data.*;
+import org.mtr.core.path.PathFinder.ConnectionDetails;
 import org.mtr.core.tool.Angle;
 import org.mtr.core.tool.Utilities;
 import org.mtr.core.tool.Vector;
-import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
-import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
 import javax.annotation.Nullable;
-import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 
-public final class SidingPathFinder<T extends AreaBase<T, U>, U extends SavedRailBase<U, T>, V extends AreaBase<V, W>, W extends SavedRailBase<W, V>> extends PathFinder<SidingPathFinder.PositionAndAngle> {
+/**
+ * Finds the fastest path between two saved rails over the shared {@link RailGraph}.
+ * Search nodes are rail graph nodes combined with the angle of arrival, packed into a single {@code int} state.
+ */
+public final class SidingPathFinder<T extends AreaBase<T, U>, U extends SavedRailBase<U, T>, V extends AreaBase<V, W>, W extends SavedRailBase<W, V>> extends PathSearch {
 
 	public final U startSavedRail;
 	public final W endSavedRail;
 	public final int stopIndex;
 	private final TransportMode transportMode;
-	private final Object2ObjectOpenHashMap<Position, Object2ObjectOpenHashMap<Position, Rail>> positionsToRail;
-	private final Object2ObjectOpenHashMap<Position, Rail> runwaysInbound;
-	private final ObjectOpenHashSet<Position> runwaysOutbound;
+	private final RailGraph railGraph;
+	private final int startRailNodeId;
+	private final int endRailNodeId;
+	private final Position endPosition;
+	private final long startSavedRailId;
+	private final long endSavedRailId;
+	private final long endDwellTime;
+	private final PathCache pathCache;
+	private final Position[] startPositions;
+	private final Position[] endPositions;
+	private final double maxSpeedLimit;
+	/**
+	 * Fetched when the search starts, so that building the landmarks happens on the thread running the search
+	 */
+	@Nullable
+	private RailLandmarks railLandmarks;
+	private final Int2IntOpenHashMap stateToNodeId = new Int2IntOpenHashMap();
+	private final IntArrayList nodeStates = new IntArrayList();
 
 	public static final int AIRPLANE_SPEED = 900;
 	private static final int MAX_AIRPLANE_TURN_ARC = 128;
 
 	public SidingPathFinder(Data data, U startSavedRail, W endSavedRail, int stopIndex) {
-		super(new PositionAndAngle(startSavedRail.getRandomPosition(), null), new PositionAndAngle(endSavedRail.getRandomPosition(), null));
 		transportMode = startSavedRail.getTransportMode();
-		positionsToRail = data.positionsToRail;
-		runwaysInbound = data.runwaysInbound;
-		runwaysOutbound = data.runwaysOutbound;
+		railGraph = data.getRailGraph();
+		final Position startPosition = startSavedRail.getRandomPosition();
+		startRailNodeId = railGraph.getNodeId(startPosition);
+		endPosition = endSavedRail.getRandomPosition();
+		endRailNodeId = railGraph.getNodeId(endPosition);
+		startSavedRailId = startSavedRail.getId();
+		endSavedRailId = endSavedRail.getId();
+		pathCache = data.pathCache;
+		startPositions = new Position[]{startPosition, startSavedRail.getOtherPosition(startPosition)};
+		endPositions = new Position[]{endPosition, endSavedRail.getOtherPosition(endPosition)};
+		endDwellTime = endSavedRail instanceof Platform ? ((Platform) endSavedRail).getDwellTime() : 1;
+		maxSpeedLimit = railGraph.getMaxSpeedLimitMetersPerMillisecond(transportMode);
+		stateToNodeId.defaultReturnValue(-1);
 		this.startSavedRail = startSavedRail;
 		this.endSavedRail = endSavedRail;
 		this.stopIndex = stopIndex;
 	}
 
 	@Override
-	protected ObjectArrayList<ConnectionDetails<PositionAndAngle>> getConnections(long elapsedTime, PositionAndAngle node, @Nullable Long previousRouteId) {
-		final ObjectArrayList<ConnectionDetails<PositionAndAngle>> connections = new ObjectArrayList<>();
-		final Object2ObjectOpenHashMap<Position, Rail> railConnections = positionsToRail.get(node.position);
-
-		if (railConnections != null) {
-			railConnections.forEach((position, rail) -> {
-				final double speedLimit = rail.getSpeedLimitMetersPerMillisecond(node.position);
-				if (speedLimit > 0 && (node.angle == null || node.angle == rail.getStartAngle(node.position) || rail.canTurnBack())) {
-					connections.add(new ConnectionDetails<>(new PositionAndAngle(position, rail.getStartAngle(position).getOpposite()), Math.round(rail.railMath.getLength() / speedLimit), 0, 0));
-				}
-			});
+	protected boolean addStartNode() {
+		if (startRailNodeId < 0 || endRailNodeId < 0) {
+			return false;
+		} else {
+			railLandmarks = transportMode == TransportMode.AIRPLANE ? null : railGraph.getRailLandmarks();
+			getNodeId(startRailNodeId, RailGraph.NO_ANGLE);
+			return true;
 		}
+	}
 
-		if (transportMode == TransportMode.AIRPLANE && runwaysOutbound.contains(node.position)) {
-			runwaysInbound.forEach((position, rail) -> connections.add(new ConnectionDetails<>(new PositionAndAngle(position, rail.getStartAngle(position)), 1, 0, 0)));
+	@Override
+	protected void addConnections(int nodeId, long elapsedTime) {
+		final int state = nodeStates.getInt(nodeId);
+		final int railNodeId = state / RailGraph.ANGLE_COUNT;
+		final int angle = state % RailGraph.ANGLE_COUNT;
+		final int lastEdge = railGraph.getFirstEdge(railNodeId + 1);
+
+		for (int edge = railGraph.getFirstEdge(railNodeId); edge < lastEdge; edge++) {
+			if (railGraph.canEnterEdge(edge, angle)) {
+				connect(getNodeId(railGraph.getEdgeTarget(edge), railGraph.getEdgeEndAngle(edge)), railGraph.getEdgeDuration(edge), 0, 0);
+			}
 		}
 
-		return connections;
+		if (transportMode == TransportMode.AIRPLANE && railGraph.isRunwayOutbound(railNodeId)) {
+			for (int i = 0; i < railGraph.getRunwayInboundCount(); i++) {
+				connect(getNodeId(railGraph.getRunwayInboundNodeId(i), railGraph.getRunwayInboundAngle(i)), 1, 0, 0);
+			}
+		}
+	}
+
+	/**
+	 * Rails are never shorter than the straight line between their ends, so the straight line distance at the highest speed limit of the transport mode is a lower bound.
+	 * Edge durations are rounded, so the bound is scaled down by {@link RailGraph#ROUNDING_FACTOR} to stay below the duration of any path.
+	 * If the rail graph has landmarks, the better of the two lower bounds is used.
+	 * Airplanes can jump between any runways in {@code 1} millisecond, so there is no useful lower bound for them.
+	 */
+	@Override
+	protected long getHeuristic(int nodeId) {
+		if (transportMode == TransportMode.AIRPLANE || maxSpeedLimit <= 0) {
+			return 0;
+		} else {
+			final int railNodeId = nodeStates.getInt(nodeId) / RailGraph.ANGLE_COUNT;
+			final long distanceLowerBound = (long) (railGraph.getPosition(railNodeId).distance(endPosition) / maxSpeedLimit * RailGraph.ROUNDING_FACTOR);
+			return railLandmarks == null ? distanceLowerBound : Math.max(distanceLowerBound, railLandmarks.getLowerBound(railNodeId, endRailNodeId));
+		}
 	}
 
+	/**
+	 * The end node is reached from either direction.
+	 */
 	@Override
-	protected long getWeightFromEndNode(PositionAndAngle node) {
-		return node.position.manhattanDistance(endNode.position);
+	protected boolean isEndNode(int nodeId) {
+		return nodeStates.getInt(nodeId) / RailGraph.ANGLE_COUNT == endRailNodeId;
 	}
 
+	/**
+	 * Once the search has finished, the path is padded to cover both saved rails and added to the {@link PathCache}.
+	 *
+	 * @return {@code null} if the search hasn't finished, the nodes from the start to the end, or an empty list if there is no path
+	 */
 	@Nullable
-	private ObjectArrayList<PathData> tick(long cruisingAltitude) {
-		final ObjectArrayList<ConnectionDetails<PositionAndAngle>> connectionDetailsList = findPath();
+	private ObjectArrayList<ConnectionDetails<PositionAndAngle>> findPath() {
+		if (search()) {
+			final ObjectArrayList<ConnectionDetails<PositionAndAngle>> connectionDetailsList = new ObjectArrayList<>();
+			final IntArrayList path = getPath();
+			long duration = 0;
+			for (int i = 0; i < path.size(); i++) {
+				final int nodeId = path.getInt(i);
+				final int state = nodeStates.getInt(nodeId);
+				connectionDetailsList.add(new ConnectionDetails<>(new PositionAndAngle(railGraph.getPosition(state / RailGraph.ANGLE_COUNT), RailGraph.getAngle(state % RailGraph.ANGLE_COUNT)), getDuration(nodeId), 0, 0));
+				if (i > 0) {
+					duration += getDuration(nodeId);
+				}
+			}
 
-		if (connectionDetailsList == null) {
+			if (!connectionDetailsList.isEmpty()) {
+				padConnectionDetailsList(connectionDetailsList, startSavedRail, false);
+				padConnectionDetailsList(connectionDetailsList, endSavedRail, true);
+				pathCache.put(startSavedRailId, endSavedRailId, transportMode, railGraph.getVersion(), connectionDetailsList, startPositions, endPositions, duration, maxSpeedLimit);
+			}
+
+			return connectionDetailsList;
+		} else {
 			return null;
-		} else if (connectionDetailsList.isEmpty()) {
-			return new ObjectArrayList<>();
+		}
+	}
+
+	private int getNodeId(int railNodeId, int angle) {
+		final int state = railNodeId * RailGraph.ANGLE_COUNT + angle;
+		final int nodeId = stateToNodeId.get(state);
+		if (nodeId < 0) {
+			final int newNodeId = addNode();
+			stateToNodeId.put(state, newNodeId);
+			nodeStates.add(state);
+			return newNodeId;
 		} else {
-			padConnectionDetailsList(connectionDetailsList, startSavedRail, false);
-			padConnectionDetailsList(connectionDetailsList, endSavedRail, true);
+			return nodeId;
+		}
+	}
 
+	/**
+	 * @param connectionDetailsList the padded nodes from {@link SidingPathFinder#findPath()} or the {@link PathCache}, which must not be changed
+	 */
+	private ObjectArrayList<PathData> createPath(ObjectArrayList<ConnectionDetails<PositionAndAngle>> connectionDetailsList, long cruisingAltitude) {
+		if (connectionDetailsList.isEmpty()) {
+			return new ObjectArrayList<>();
+		} else {
 			final ObjectArrayList<PathData> path = new ObjectArrayList<>();
 			for (int i = 1; i < connectionDetailsList.size(); i++) {
 				final Position position1 = connectionDetailsList.get(i - 1).node.position;
 				final Position position2 = connectionDetailsList.get(i).node.position;
-				final Rail rail = Data.tryGet(positionsToRail, position1, position2);
+				final Rail rail = railGraph.getRail(position1, position2);
 
 				if (rail == null) {
 					final Angle angle1 = connectionDetailsList.get(i - 1).node.angle;
@@ -106,7 +205,7 @@ public final class SidingPathFinder<T extends AreaBase<T, U>, U extends SavedRai
 					}
 				} else {
 					if (i == connectionDetailsList.size() - 1) {
-						path.add(new PathData(rail, endSavedRail.getId(), endSavedRail instanceof Platform ? ((Platform) endSavedRail).getDwellTime() : 1, stopIndex + 1, position1, position2));
+						path.add(new PathData(rail, endSavedRailId, endDwellTime, stopIndex + 1, position1, position2));
 					} else if (rail.canTurnBack() && connectionDetailsList.get(i + 1).node.position.equals(position1)) {
 						path.add(new PathData(rail, 0, 1, stopIndex, position1, position2));
 					} else {
@@ -119,32 +218,33 @@ public final class SidingPathFinder<T extends AreaBase<T, U>, U extends SavedRai
 		}
 	}
 
-	public static <T extends AreaBase<T, U>, U extends SavedRailBase<U, T>, V extends AreaBase<V, W>, W extends SavedRailBase<W, V>> void findPathTick(ObjectArrayList<PathData> path, ObjectArrayList<SidingPathFinder<T, U, V, W>> sidingPathFinders, long cruisingAltitude, Runnable callbackSuccess, BiConsumer<U, W> callbackFail) {
-		if (!sidingPathFinders.isEmpty()) {
-			final long startMillis = System.currentTimeMillis();
-			while (System.currentTimeMillis() - startMillis < 5) {
-				final SidingPathFinder<T, U, V, W> sidingPathFinder = sidingPathFinders.get(0);
-				final ObjectArrayList<PathData> tempPath = sidingPathFinder.tick(cruisingAltitude);
-
-				if (tempPath != null) {
-					if (tempPath.size() < 2) {
-						sidingPathFinders.clear();
-						path.clear();
-						callbackFail.accept(sidingPathFinder.startSavedRail, sidingPathFinder.endSavedRail);
-						return;
-					} else {
-						if (overlappingPaths(path, tempPath)) {
-							tempPath.remove(0);
-						}
-						path.addAll(tempPath);
-						sidingPathFinders.remove(0);
-						if (sidingPathFinders.isEmpty()) {
-							callbackSuccess.run();
-							return;
-						}
-					}
-				}
+	/**
+	 * Run the whole search on the calling thread, unless the path is already in the {@link PathCache}.
+	 * Only immutable data (the {@link RailGraph} snapshot and the saved rail positions) is read, so this is safe to call from any thread.
+	 *
+	 * @param isCancelled checked between batches of the search
+	 * @return the path, or an empty list if there is no path or the search was cancelled
+	 */
+	public ObjectArrayList<PathData> generatePath(long cruisingAltitude, BooleanSupplier isCancelled) {
+		ObjectArrayList<ConnectionDetails<PositionAndAngle>> connectionDetailsList = pathCache.get(startSavedRailId, endSavedRailId, transportMode, railGraph.getVersion());
+		while (connectionDetailsList == null) {
+			if (isCancelled.getAsBoolean()) {
+				return new ObjectArrayList<>();
 			}
+			connectionDetailsList = findPath();
+		}
+		final ObjectArrayList<PathData> path = createPath(connectionDetailsList, cruisingAltitude);
+		return path.size() < 2 ? new ObjectArrayList<>() : path;
+	}
+
+	/**
+	 * Add a path segment to the end of a path, skipping the first rail of the segment if the path already ends with it.
+	 */
+	public static void appendPath(ObjectArrayList<PathData> path, ObjectArrayList<PathData> newPath) {
+		if (overlappingPaths(path, newPath)) {
+			path.addAll(newPath.subList(1, newPath.size()));
+		} else {
+			path.addAll(newPath);
 		}
 	}
 
@@ -171,10 +271,16 @@ public final class SidingPathFinder<T extends AreaBase<T, U>, U extends SavedRai
 	private <X extends AreaBase<X, Y>, Y extends SavedRailBase<Y, X>> void padConnectionDetailsList(ObjectArrayList<ConnectionDetails<PositionAndAngle>> connectionDetailsList, SavedRailBase<Y, X> savedRail, boolean isEnd) {
 		final Position lastPosition = Utilities.getElement(connectionDetailsList, isEnd ? -1 : 0).node.position;
 		if (!savedRail.containsPos(lastPosition)) {
-			positionsToRail.get(lastPosition).keySet().stream().filter(savedRail::containsPos).findFirst().ifPresent(newPosition -> {
-				connectionDetailsList.add(isEnd ? connectionDetailsList.size() : 0, new ConnectionDetails<>(new PositionAndAngle(newPosition, null), 0, 0, 0));
-				connectionDetailsList.add(isEnd ? connectionDetailsList.size() : 0, new ConnectionDetails<>(new PositionAndAngle(savedRail.getOtherPosition(newPosition), null), 0, 0, 0));
-			});
+			final int railNodeId = railGraph.getNodeId(lastPosition);
+			final int lastEdge = railGraph.getFirstEdge(railNodeId + 1);
+			for (int edge = railGraph.getFirstEdge(railNodeId); edge < lastEdge; edge++) {
+				final Position newPosition = railGraph.getPosition(railGraph.getEdgeTarget(edge));
+				if (savedRail.containsPos(newPosition)) {
+					connectionDetailsList.add(isEnd ? connectionDetailsList.size() : 0, new ConnectionDetails<>(new PositionAndAngle(newPosition, null), 0, 0, 0));
+					connectionDetailsList.add(isEnd ? connectionDetailsList.size() : 0, new ConnectionDetails<>(new PositionAndAngle(savedRail.getOtherPosition(newPosition), null), 0, 0, 0));
+					break;
+				}
+			}
 		} else if (!savedRail.containsPos(Utilities.getElement(connectionDetailsList, isEnd ? -2 : 1).node.position)) {
 			connectionDetailsList.add(isEnd ? connectionDetailsList.size() : 0, new ConnectionDetails<>(new PositionAndAngle(savedRail.getOtherPosition(lastPosition), null), 0, 0, 0));
 		}
@@ -226,19 +332,5 @@ public final class SidingPathFinder<T extends AreaBase<T, U>, U extends SavedRai
 			this.position = position;
 			this.angle = angle;
 		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (obj instanceof PositionAndAngle) {
-				return position.equals(((PositionAndAngle) obj).position) && (angle == null || ((PositionAndAngle) obj).angle == null || angle == ((PositionAndAngle) obj).angle);
-			} else {
-				return super.equals(obj);
-			}
-		}
-
-		@Override
-		public int hashCode() {
-			return position.hashCode() ^ ((angle == null ? 0 : angle.ordinal() + 1) << 8);
-		}
 	}
 }
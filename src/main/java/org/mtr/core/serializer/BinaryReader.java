@@ -0,0 +1,347 @@
+package org.mtr.core.serializer;
+
+import org.mtr.core.Main;
+import org.mtr.libraries.it.unimi.dsi.fastutil.booleans.BooleanConsumer;
+import org.mtr.libraries.it.unimi.dsi.fastutil.doubles.DoubleConsumer;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntConsumer;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongConsumer;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Reads data written by {@link BinaryWriter}.
+ * When created, the field ids and offsets of an object are indexed without decoding any values. Values are only decoded when they are requested.
+ * Like the other readers, a value with a different type than requested is treated as missing.
+ */
+public final class BinaryReader extends ReaderBase {
+
+	private final ByteBuffer buffer;
+	/**
+	 * Pairs of field ids and the offset of the value type
+	 */
+	private int[] entries;
+	private int entryCount;
+	/**
+	 * Set by {@link BinaryReader#find(String, byte)} to the offset of the value that was found
+	 */
+	private int foundOffset;
+	@Nullable
+	private ObjectArrayList<BinaryReader> mergedReaders;
+
+	public BinaryReader(ByteBuffer buffer) {
+		this(buffer.slice(), 0);
+	}
+
+	private BinaryReader(ByteBuffer buffer, int lengthOffset) {
+		this.buffer = buffer;
+		entries = new int[16];
+
+		try {
+			final int end = lengthOffset + BinaryWriter.LENGTH_BYTES + buffer.getInt(lengthOffset);
+			int offset = lengthOffset + BinaryWriter.LENGTH_BYTES;
+			while (offset < end) {
+				if (entryCount * 2 == entries.length) {
+					entries = Arrays.copyOf(entries, entries.length * 2);
+				}
+				final int nextOffset = skip(offset + 4);
+				entries[entryCount * 2] = buffer.getInt(offset);
+				entries[entryCount * 2 + 1] = offset + 4;
+				entryCount++;
+				offset = nextOffset;
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
+	}
+
+	private BinaryReader() {
+		buffer = ByteBuffer.allocate(0);
+		entries = new int[0];
+	}
+
+	@Override
+	public void unpackBoolean(String key, BooleanConsumer ifExists) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_BOOLEAN);
+		if (binaryReader != null) {
+			final boolean value = binaryReader.getBoolean(binaryReader.foundOffset);
+			try {
+				ifExists.accept(value);
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		}
+	}
+
+	@Override
+	public boolean getBoolean(String key, boolean defaultValue) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_BOOLEAN);
+		return binaryReader == null ? defaultValue : binaryReader.getBoolean(binaryReader.foundOffset);
+	}
+
+	@Override
+	public void iterateBooleanArray(String key, Runnable clearList, BooleanConsumer ifExists) {
+		iterateArray(key, clearList, BinaryWriter.TYPE_BOOLEAN, (binaryReader, offset) -> ifExists.accept(binaryReader.getBoolean(offset)));
+	}
+
+	@Override
+	public void unpackInt(String key, IntConsumer ifExists) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_NUMBER);
+		if (binaryReader != null) {
+			final int value = (int) binaryReader.getNumber(binaryReader.foundOffset);
+			try {
+				ifExists.accept(value);
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		}
+	}
+
+	@Override
+	public int getInt(String key, int defaultValue) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_NUMBER);
+		return binaryReader == null ? defaultValue : (int) binaryReader.getNumber(binaryReader.foundOffset);
+	}
+
+	@Override
+	public void iterateIntArray(String key, Runnable clearList, IntConsumer ifExists) {
+		iterateArray(key, clearList, BinaryWriter.TYPE_NUMBER, (binaryReader, offset) -> ifExists.accept((int) binaryReader.getNumber(offset)));
+	}
+
+	@Override
+	public void unpackLong(String key, LongConsumer ifExists) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_NUMBER);
+		if (binaryReader != null) {
+			final long value = binaryReader.getNumber(binaryReader.foundOffset);
+			try {
+				ifExists.accept(value);
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		}
+	}
+
+	@Override
+	public long getLong(String key, long defaultValue) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_NUMBER);
+		return binaryReader == null ? defaultValue : binaryReader.getNumber(binaryReader.foundOffset);
+	}
+
+	@Override
+	public void iterateLongArray(String key, Runnable clearList, LongConsumer ifExists) {
+		iterateArray(key, clearList, BinaryWriter.TYPE_NUMBER, (binaryReader, offset) -> ifExists.accept(binaryReader.getNumber(offset)));
+	}
+
+	@Override
+	public void unpackDouble(String key, DoubleConsumer ifExists) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_DOUBLE);
+		if (binaryReader != null) {
+			final double value = binaryReader.buffer.getDouble(binaryReader.foundOffset);
+			try {
+				ifExists.accept(value);
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		}
+	}
+
+	@Override
+	public double getDouble(String key, double defaultValue) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_DOUBLE);
+		return binaryReader == null ? defaultValue : binaryReader.buffer.getDouble(binaryReader.foundOffset);
+	}
+
+	@Override
+	public void iterateDoubleArray(String key, Runnable clearList, DoubleConsumer ifExists) {
+		iterateArray(key, clearList, BinaryWriter.TYPE_DOUBLE, (binaryReader, offset) -> ifExists.accept(binaryReader.buffer.getDouble(offset)));
+	}
+
+	@Override
+	public void unpackString(String key, Consumer<String> ifExists) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_STRING);
+		if (binaryReader != null) {
+			unpackValue(binaryReader.getString(binaryReader.foundOffset), ifExists);
+		}
+	}
+
+	@Override
+	public String getString(String key, String defaultValue) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_STRING);
+		return binaryReader == null ? defaultValue : binaryReader.getString(binaryReader.foundOffset);
+	}
+
+	@Override
+	public void iterateStringArray(String key, Runnable clearList, Consumer<String> ifExists) {
+		iterateArray(key, clearList, BinaryWriter.TYPE_STRING, (binaryReader, offset) -> ifExists.accept(binaryReader.getString(offset)));
+	}
+
+	@Override
+	public void iterateReaderArray(String key, Runnable clearList, Consumer<ReaderBase> ifExists) {
+		iterateArray(key, clearList, BinaryWriter.TYPE_OBJECT, (binaryReader, offset) -> ifExists.accept(new BinaryReader(binaryReader.buffer, offset)));
+	}
+
+	@Override
+	public ReaderBase getChild(String key) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_OBJECT);
+		return binaryReader == null ? new BinaryReader() : new BinaryReader(binaryReader.buffer, binaryReader.foundOffset);
+	}
+
+	@Override
+	public void unpackChild(String key, Consumer<ReaderBase> ifExists) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_OBJECT);
+		if (binaryReader != null) {
+			unpackValue(new BinaryReader(binaryReader.buffer, binaryReader.foundOffset), ifExists);
+		}
+	}
+
+	@Override
+	public void merge(ReaderBase readerBase) {
+		if (readerBase instanceof BinaryReader) {
+			if (mergedReaders == null) {
+				mergedReaders = new ObjectArrayList<>();
+			}
+			mergedReaders.add((BinaryReader) readerBase);
+		}
+	}
+
+	/**
+	 * Merged readers are checked first, newest first. If a key is repeated in an object, the last value is used.
+	 *
+	 * @return the reader containing the value, with {@link BinaryReader#foundOffset} set to the offset of the value, or {@code null} if the value is missing or has a different type
+	 */
+	@Nullable
+	private BinaryReader find(String key, byte type) {
+		final int fieldId = key.hashCode();
+
+		if (mergedReaders != null) {
+			for (int i = mergedReaders.size() - 1; i >= 0; i--) {
+				final BinaryReader binaryReader = mergedReaders.get(i).find(key, type);
+				if (binaryReader != null) {
+					return binaryReader;
+				}
+			}
+		}
+
+		for (int i = entryCount - 1; i >= 0; i--) {
+			if (entries[i * 2] == fieldId) {
+				final int offset = entries[i * 2 + 1];
+				if (buffer.get(offset) == type) {
+					foundOffset = offset + 1;
+					return this;
+				} else {
+					return null;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private void iterateArray(String key, Runnable clearList, byte type, ArrayValueConsumer arrayValueConsumer) {
+		final BinaryReader binaryReader = find(key, BinaryWriter.TYPE_ARRAY);
+		if (binaryReader != null) {
+			final int arrayOffset = binaryReader.foundOffset;
+			try {
+				clearList.run();
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+
+			try {
+				final int end = arrayOffset + BinaryWriter.LENGTH_BYTES + binaryReader.buffer.getInt(arrayOffset);
+				int offset = arrayOffset + BinaryWriter.LENGTH_BYTES;
+				while (offset < end) {
+					final int valueOffset = offset;
+					offset = binaryReader.skip(offset);
+					if (binaryReader.buffer.get(valueOffset) == type) {
+						try {
+							arrayValueConsumer.accept(binaryReader, valueOffset + 1);
+						} catch (Exception ignored) {
+						}
+					}
+				}
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		}
+	}
+
+	private boolean getBoolean(int offset) {
+		return buffer.get(offset) != 0;
+	}
+
+	private long getNumber(int offset) {
+		long value = 0;
+		int shift = 0;
+		int currentOffset = offset;
+		while (true) {
+			final byte currentByte = buffer.get(currentOffset++);
+			value |= (long) (currentByte & 0x7F) << shift;
+			if ((currentByte & 0x80) == 0) {
+				return (value >>> 1) ^ -(value & 1);
+			}
+			shift += 7;
+		}
+	}
+
+	private String getString(int offset) {
+		final int length = (int) getNumber(offset);
+		final int stringOffset = skipNumber(offset);
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + stringOffset, length, StandardCharsets.UTF_8);
+		} else {
+			final byte[] bytes = new byte[length];
+			final ByteBuffer duplicateBuffer = buffer.duplicate();
+			duplicateBuffer.position(stringOffset);
+			duplicateBuffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * @param offset the offset of the value type
+	 * @return the offset after the value
+	 */
+	private int skip(int offset) {
+		final int nextOffset = skipValue(offset);
+		if (nextOffset > buffer.limit()) {
+			throw new IndexOutOfBoundsException("Value at offset " + offset + " ends after the end of the data");
+		}
+		return nextOffset;
+	}
+
+	private int skipValue(int offset) {
+		final int valueOffset = offset + 1;
+		switch (buffer.get(offset)) {
+			case BinaryWriter.TYPE_BOOLEAN:
+				return valueOffset + 1;
+			case BinaryWriter.TYPE_NUMBER:
+				return skipNumber(valueOffset);
+			case BinaryWriter.TYPE_DOUBLE:
+				return valueOffset + 8;
+			case BinaryWriter.TYPE_STRING:
+				return skipNumber(valueOffset) + (int) getNumber(valueOffset);
+			case BinaryWriter.TYPE_ARRAY:
+			case BinaryWriter.TYPE_OBJECT:
+				return valueOffset + BinaryWriter.LENGTH_BYTES + buffer.getInt(valueOffset);
+			default:
+				throw new IllegalStateException("Unknown value type at offset " + offset);
+		}
+	}
+
+	private int skipNumber(int offset) {
+		int currentOffset = offset;
+		while ((buffer.get(currentOffset++) & 0x80) != 0) {
+		}
+		return currentOffset;
+	}
+
+	@FunctionalInterface
+	private interface ArrayValueConsumer {
+		void accept(BinaryReader binaryReader, int offset);
+	}
+}
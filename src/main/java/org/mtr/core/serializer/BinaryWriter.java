@@ -0,0 +1,315 @@
+package org.mtr.core.serializer;
+
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Writes data in a compact binary format that can be read with {@link BinaryReader}.
+ * Each key is replaced by a four byte field id (the hash code of the key) and values are written straight into one growable buffer, so writing a primitive doesn't allocate anything.
+ * Objects and arrays are prefixed with their length in bytes, which is filled in once the next value of an enclosing object is written.
+ * Because of this, children have to be written completely before their parent is written to again, which is always the case for {@link SerializedDataBase#serializeData(WriterBase)}.
+ * <p>
+ * The schema generator rejects keys with the same field id, but keys written by hand (for example in {@code serializeFullData}) aren't part of a schema, so every key is also checked against the other keys of its object when it is written.
+ * The format is only used for in-memory snapshots, so field ids don't have to stay stable between versions. Saves, client updates, and HTTP responses still use MessagePack and JSON.
+ */
+public final class BinaryWriter extends WriterBase {
+
+	private final Output output;
+	/**
+	 * The offset of the length of the object written by this writer
+	 */
+	private final int lengthOffset;
+	private final int depth;
+
+	static final byte TYPE_BOOLEAN = 1;
+	static final byte TYPE_NUMBER = 2;
+	static final byte TYPE_DOUBLE = 3;
+	static final byte TYPE_STRING = 4;
+	static final byte TYPE_ARRAY = 5;
+	static final byte TYPE_OBJECT = 6;
+	static final int LENGTH_BYTES = 4;
+
+	public BinaryWriter() {
+		this(new Output(), 0);
+	}
+
+	private BinaryWriter(Output output, int depth) {
+		this.output = output;
+		lengthOffset = output.openContainer();
+		this.depth = depth;
+	}
+
+	@Override
+	public void writeBoolean(String key, boolean value) {
+		writeKey(key, TYPE_BOOLEAN);
+		output.writeBoolean(value);
+	}
+
+	@Override
+	public void writeInt(String key, int value) {
+		writeKey(key, TYPE_NUMBER);
+		output.writeNumber(value);
+	}
+
+	@Override
+	public void writeLong(String key, long value) {
+		writeKey(key, TYPE_NUMBER);
+		output.writeNumber(value);
+	}
+
+	@Override
+	public void writeDouble(String key, double value) {
+		writeKey(key, TYPE_DOUBLE);
+		output.writeDouble(value);
+	}
+
+	@Override
+	public void writeString(String key, String value) {
+		writeKey(key, TYPE_STRING);
+		output.writeString(value);
+	}
+
+	@Override
+	public Array writeArray(String key) {
+		writeKey(key, TYPE_ARRAY);
+		return new BinaryArrayWriter(output, depth + 1);
+	}
+
+	@Override
+	public WriterBase writeChild(String key) {
+		writeKey(key, TYPE_OBJECT);
+		return new BinaryWriter(output, depth + 1);
+	}
+
+	/**
+	 * Finish writing and copy the written bytes. Nothing should be written after this is called.
+	 */
+	public byte[] toByteArray() {
+		output.closeContainers(0);
+		return Arrays.copyOf(output.bytes, output.size);
+	}
+
+	private void writeKey(String key, byte type) {
+		output.prepare(depth, lengthOffset);
+		output.checkKey(depth, key);
+		output.writeInt(key.hashCode());
+		output.writeByte(type);
+	}
+
+	private static final class BinaryArrayWriter extends Array {
+
+		private final Output output;
+		private final int lengthOffset;
+		private final int depth;
+
+		private BinaryArrayWriter(Output output, int depth) {
+			this.output = output;
+			lengthOffset = output.openContainer();
+			this.depth = depth;
+		}
+
+		@Override
+		public void writeBoolean(boolean value) {
+			writeType(TYPE_BOOLEAN);
+			output.writeBoolean(value);
+		}
+
+		@Override
+		public void writeInt(int value) {
+			writeType(TYPE_NUMBER);
+			output.writeNumber(value);
+		}
+
+		@Override
+		public void writeLong(long value) {
+			writeType(TYPE_NUMBER);
+			output.writeNumber(value);
+		}
+
+		@Override
+		public void writeDouble(double value) {
+			writeType(TYPE_DOUBLE);
+			output.writeDouble(value);
+		}
+
+		@Override
+		public void writeString(String value) {
+			writeType(TYPE_STRING);
+			output.writeString(value);
+		}
+
+		@Override
+		public WriterBase writeChild() {
+			writeType(TYPE_OBJECT);
+			return new BinaryWriter(output, depth + 1);
+		}
+
+		private void writeType(byte type) {
+			output.prepare(depth, lengthOffset);
+			output.writeByte(type);
+		}
+	}
+
+	/**
+	 * The buffer shared by a writer and all of its children.
+	 */
+	private static final class Output {
+
+		private byte[] bytes = new byte[256];
+		private int size;
+		/**
+		 * The length offsets of the objects and arrays that are still being written, outermost first
+		 */
+		private final IntArrayList openLengthOffsets = new IntArrayList();
+		/**
+		 * The keys written to each open object, indexed by depth and reused for later objects at the same depth
+		 */
+		private final ObjectArrayList<ObjectArrayList<String>> openKeys = new ObjectArrayList<>();
+
+		private int openContainer() {
+			ensureCapacity(LENGTH_BYTES);
+			final int lengthOffset = size;
+			size += LENGTH_BYTES;
+			if (openKeys.size() == openLengthOffsets.size()) {
+				openKeys.add(new ObjectArrayList<>());
+			} else {
+				openKeys.get(openLengthOffsets.size()).clear();
+			}
+			openLengthOffsets.add(lengthOffset);
+			return lengthOffset;
+		}
+
+		/**
+		 * Repeating a key is allowed (the last value is read), but two different keys with the same field id would be read as the same key.
+		 */
+		private void checkKey(int depth, String key) {
+			final ObjectArrayList<String> keys = openKeys.get(depth);
+			for (final String existingKey : keys) {
+				if (existingKey.hashCode() == key.hashCode()) {
+					if (existingKey.equals(key)) {
+						return;
+					} else {
+						throw new IllegalStateException(String.format("Keys \"%s\" and \"%s\" in the same object have the same field id", existingKey, key));
+					}
+				}
+			}
+			keys.add(key);
+		}
+
+		/**
+		 * Close any children of the container about to be written to.
+		 */
+		private void prepare(int depth, int lengthOffset) {
+			closeContainers(depth + 1);
+			if (openLengthOffsets.size() != depth + 1 || openLengthOffsets.getInt(depth) != lengthOffset) {
+				throw new IllegalStateException("Writing to an object or array that has already been closed");
+			}
+		}
+
+		private void closeContainers(int depth) {
+			while (openLengthOffsets.size() > depth) {
+				final int lengthOffset = openLengthOffsets.removeInt(openLengthOffsets.size() - 1);
+				putInt(lengthOffset, size - lengthOffset - LENGTH_BYTES);
+			}
+		}
+
+		private void writeBoolean(boolean value) {
+			writeByte(value ? 1 : 0);
+		}
+
+		/**
+		 * Zigzag and variable length encoding, so that small numbers (positive or negative) take up less space.
+		 */
+		private void writeNumber(long value) {
+			ensureCapacity(10);
+			long remaining = (value << 1) ^ (value >> 63);
+			while ((remaining & ~0x7FL) != 0) {
+				bytes[size++] = (byte) ((remaining & 0x7F) | 0x80);
+				remaining >>>= 7;
+			}
+			bytes[size++] = (byte) remaining;
+		}
+
+		private void writeDouble(double value) {
+			final long bits = Double.doubleToLongBits(value);
+			writeInt((int) (bits >>> 32));
+			writeInt((int) bits);
+		}
+
+		/**
+		 * Encoded as UTF-8 without creating a temporary byte array. Unpaired surrogates are replaced with {@code ?}, the same as {@link String#getBytes(java.nio.charset.Charset)}.
+		 */
+		private void writeString(String value) {
+			final int length = value.length();
+			int byteLength = 0;
+			for (int i = 0; i < length; i++) {
+				final char character = value.charAt(i);
+				if (character < 0x80) {
+					byteLength++;
+				} else if (character < 0x800) {
+					byteLength += 2;
+				} else if (isSurrogatePair(value, i)) {
+					byteLength += 4;
+					i++;
+				} else {
+					byteLength += Character.isSurrogate(character) ? 1 : 3;
+				}
+			}
+
+			writeNumber(byteLength);
+			ensureCapacity(byteLength);
+
+			for (int i = 0; i < length; i++) {
+				final char character = value.charAt(i);
+				if (character < 0x80) {
+					bytes[size++] = (byte) character;
+				} else if (character < 0x800) {
+					bytes[size++] = (byte) (0xC0 | (character >> 6));
+					bytes[size++] = (byte) (0x80 | (character & 0x3F));
+				} else if (isSurrogatePair(value, i)) {
+					final int codePoint = Character.toCodePoint(character, value.charAt(++i));
+					bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+					bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else if (Character.isSurrogate(character)) {
+					bytes[size++] = '?';
+				} else {
+					bytes[size++] = (byte) (0xE0 | (character >> 12));
+					bytes[size++] = (byte) (0x80 | ((character >> 6) & 0x3F));
+					bytes[size++] = (byte) (0x80 | (character & 0x3F));
+				}
+			}
+		}
+
+		private void writeInt(int value) {
+			ensureCapacity(4);
+			putInt(size, value);
+			size += 4;
+		}
+
+		private void writeByte(int value) {
+			ensureCapacity(1);
+			bytes[size++] = (byte) value;
+		}
+
+		private void putInt(int offset, int value) {
+			bytes[offset] = (byte) (value >>> 24);
+			bytes[offset + 1] = (byte) (value >>> 16);
+			bytes[offset + 2] = (byte) (value >>> 8);
+			bytes[offset + 3] = (byte) value;
+		}
+
+		private void ensureCapacity(int extraBytes) {
+			if (size + extraBytes > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extraBytes));
+			}
+		}
+
+		private static boolean isSurrogatePair(String value, int index) {
+			return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1));
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package org.mtr.core.serializer;
+
+/**
+ * Data that is always written as an empty object, used for responses that don't contain anything.
+ */
+public final class EmptyData implements SerializedDataBase {
+
+	public static final EmptyData INSTANCE = new EmptyData();
+
+	private EmptyData() {
+	}
+
+	@Override
+	public void updateData(ReaderBase readerBase) {
+	}
+
+	@Override
+	public void serializeData(WriterBase writerBase) {
+	}
+}
@@ -0,0 +1,373 @@
+package org.mtr.core.serializer;
+
+import org.mtr.libraries.it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes UTF-8 encoded JSON straight into a byte array, without building a {@link org.mtr.libraries.com.google.gson.JsonObject} tree first.
+ * The output is the same as calling {@code toString()} on the tree built by {@link JsonWriter}, except that repeated keys are written more than once.
+ * Children have to be written completely before their parent is written to again, which is always the case for {@link SerializedDataBase#serializeData(WriterBase)}.
+ * <p>
+ * The byte arrays are pooled, so {@link JsonStreamWriter#release()} should be called once the output is no longer needed.
+ */
+public final class JsonStreamWriter extends WriterBase {
+
+	private final Output output;
+	private final int depth;
+	private final int containerId;
+
+	private static final int MAX_POOLED_BUFFERS = 8;
+	private static final int MAX_POOLED_BUFFER_BYTES = 16 * 1024 * 1024;
+	private static final ConcurrentLinkedQueue<byte[]> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+	public JsonStreamWriter() {
+		this(new Output(), 0);
+	}
+
+	private JsonStreamWriter(Output output, int depth) {
+		this.output = output;
+		this.depth = depth;
+		containerId = output.open('{');
+	}
+
+	@Override
+	public void writeBoolean(String key, boolean value) {
+		writeKey(key);
+		output.writeAscii(value ? "true" : "false");
+	}
+
+	@Override
+	public void writeInt(String key, int value) {
+		writeKey(key);
+		output.writeLong(value);
+	}
+
+	@Override
+	public void writeLong(String key, long value) {
+		writeKey(key);
+		output.writeLong(value);
+	}
+
+	@Override
+	public void writeDouble(String key, double value) {
+		writeKey(key);
+		output.writeAscii(Double.toString(value));
+	}
+
+	@Override
+	public void writeString(String key, String value) {
+		writeKey(key);
+		output.writeString(value);
+	}
+
+	@Override
+	public Array writeArray(String key) {
+		writeKey(key);
+		return new JsonStreamArrayWriter(output, depth + 1);
+	}
+
+	@Override
+	public WriterBase writeChild(String key) {
+		writeKey(key);
+		return new JsonStreamWriter(output, depth + 1);
+	}
+
+	/**
+	 * Write entries serialized earlier by {@link JsonStreamWriter#serializeEntries(SerializedDataBase)}, as if the data was serialized again.
+	 */
+	public void writeEntries(byte[] entries) {
+		if (entries.length > 0) {
+			output.prepare(depth, containerId);
+			output.writeBytes(entries);
+		}
+	}
+
+	/**
+	 * Finish writing. Nothing should be written after this is called.
+	 *
+	 * @return the byte array containing the output, which may be longer than {@link JsonStreamWriter#getLength()}
+	 */
+	public byte[] getBytes() {
+		output.closeContainers(0);
+		return output.bytes;
+	}
+
+	public int getLength() {
+		output.closeContainers(0);
+		return output.size;
+	}
+
+	/**
+	 * Return the byte array to the pool. The array returned by {@link JsonStreamWriter#getBytes()} must not be used after this is called.
+	 */
+	public void release() {
+		if (output.bytes.length <= MAX_POOLED_BUFFER_BYTES && BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+			BUFFER_POOL.add(output.bytes);
+		}
+		output.bytes = new byte[0];
+	}
+
+	/**
+	 * Serialize data so that it can be copied into many outputs with {@link JsonStreamWriter#writeEntries(byte[])}.
+	 *
+	 * @return the entries of the serialized object, without the surrounding braces
+	 */
+	public static byte[] serializeEntries(SerializedDataBase data) {
+		final JsonStreamWriter jsonStreamWriter = new JsonStreamWriter();
+		data.serializeData(jsonStreamWriter);
+		final byte[] entries = Arrays.copyOfRange(jsonStreamWriter.getBytes(), 1, jsonStreamWriter.getLength() - 1);
+		jsonStreamWriter.release();
+		return entries;
+	}
+
+	private void writeKey(String key) {
+		output.prepare(depth, containerId);
+		output.writeString(key);
+		output.writeByte(':');
+	}
+
+	private static final class JsonStreamArrayWriter extends Array {
+
+		private final Output output;
+		private final int depth;
+		private final int containerId;
+
+		private JsonStreamArrayWriter(Output output, int depth) {
+			this.output = output;
+			this.depth = depth;
+			containerId = output.open('[');
+		}
+
+		@Override
+		public void writeBoolean(boolean value) {
+			output.prepare(depth, containerId);
+			output.writeAscii(value ? "true" : "false");
+		}
+
+		@Override
+		public void writeInt(int value) {
+			output.prepare(depth, containerId);
+			output.writeLong(value);
+		}
+
+		@Override
+		public void writeLong(long value) {
+			output.prepare(depth, containerId);
+			output.writeLong(value);
+		}
+
+		@Override
+		public void writeDouble(double value) {
+			output.prepare(depth, containerId);
+			output.writeAscii(Double.toString(value));
+		}
+
+		@Override
+		public void writeString(String value) {
+			output.prepare(depth, containerId);
+			output.writeString(value);
+		}
+
+		@Override
+		public WriterBase writeChild() {
+			output.prepare(depth, containerId);
+			return new JsonStreamWriter(output, depth + 1);
+		}
+	}
+
+	/**
+	 * The buffer shared by a writer and all of its children.
+	 */
+	private static final class Output {
+
+		private byte[] bytes;
+		private int size;
+		/**
+		 * The closing brackets of the objects and arrays that are still being written, outermost first
+		 */
+		private final StringBuilder closingBrackets = new StringBuilder();
+		/**
+		 * Whether anything has been written to each open object or array, used to add commas
+		 */
+		private final BooleanArrayList hasEntries = new BooleanArrayList();
+		/**
+		 * The ids of the objects and arrays that are still being written, so that writing to a closed one can be detected
+		 */
+		private final IntArrayList openContainerIds = new IntArrayList();
+		private int containersOpened;
+
+		private Output() {
+			final byte[] pooledBytes = BUFFER_POOL.poll();
+			bytes = pooledBytes == null ? new byte[8192] : pooledBytes;
+		}
+
+		private int open(char openingBracket) {
+			writeByte(openingBracket);
+			closingBrackets.append(openingBracket == '{' ? '}' : ']');
+			hasEntries.add(false);
+			openContainerIds.add(++containersOpened);
+			return containersOpened;
+		}
+
+		/**
+		 * Close any children of the container about to be written to and add a comma if needed.
+		 */
+		private void prepare(int depth, int containerId) {
+			closeContainers(depth + 1);
+			if (openContainerIds.size() != depth + 1 || openContainerIds.getInt(depth) != containerId) {
+				throw new IllegalStateException("Writing to an object or array that has already been closed");
+			}
+			if (hasEntries.getBoolean(depth)) {
+				writeByte(',');
+			} else {
+				hasEntries.set(depth, true);
+			}
+		}
+
+		private void closeContainers(int depth) {
+			while (closingBrackets.length() > depth) {
+				final int index = closingBrackets.length() - 1;
+				writeByte(closingBrackets.charAt(index));
+				closingBrackets.setLength(index);
+				hasEntries.removeBoolean(index);
+				openContainerIds.removeInt(index);
+			}
+		}
+
+		private void writeLong(long value) {
+			if (value == Long.MIN_VALUE) {
+				writeAscii(Long.toString(value));
+			} else {
+				ensureCapacity(20);
+				long remaining = value;
+				if (remaining < 0) {
+					bytes[size++] = '-';
+					remaining = -remaining;
+				}
+				final int start = size;
+				do {
+					bytes[size++] = (byte) ('0' + remaining % 10);
+					remaining /= 10;
+				} while (remaining > 0);
+				for (int i = start, j = size - 1; i < j; i++, j--) {
+					final byte temp = bytes[i];
+					bytes[i] = bytes[j];
+					bytes[j] = temp;
+				}
+			}
+		}
+
+		/**
+		 * Escaped the same way as Gson, so that the output doesn't change.
+		 */
+		private void writeString(String value) {
+			final int length = value.length();
+			ensureCapacity(length + 2);
+			bytes[size++] = '"';
+
+			for (int i = 0; i < length; i++) {
+				final char character = value.charAt(i);
+				if (character < 0x80) {
+					switch (character) {
+						case '"':
+							writeEscaped('"');
+							break;
+						case '\\':
+							writeEscaped('\\');
+							break;
+						case '\t':
+							writeEscaped('t');
+							break;
+						case '\b':
+							writeEscaped('b');
+							break;
+						case '\n':
+							writeEscaped('n');
+							break;
+						case '\r':
+							writeEscaped('r');
+							break;
+						case '\f':
+							writeEscaped('f');
+							break;
+						default:
+							if (character < 0x20) {
+								writeUnicodeEscaped(character);
+							} else {
+								writeByte(character);
+							}
+							break;
+					}
+				} else if (character < 0x800) {
+					ensureCapacity(2);
+					bytes[size++] = (byte) (0xC0 | (character >> 6));
+					bytes[size++] = (byte) (0x80 | (character & 0x3F));
+				} else if (character == 0x2028 || character == 0x2029) {
+					writeUnicodeEscaped(character);
+				} else if (Character.isHighSurrogate(character) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					final int codePoint = Character.toCodePoint(character, value.charAt(++i));
+					ensureCapacity(4);
+					bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+					bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else if (Character.isSurrogate(character)) {
+					writeByte('?');
+				} else {
+					ensureCapacity(3);
+					bytes[size++] = (byte) (0xE0 | (character >> 12));
+					bytes[size++] = (byte) (0x80 | ((character >> 6) & 0x3F));
+					bytes[size++] = (byte) (0x80 | (character & 0x3F));
+				}
+			}
+
+			writeByte('"');
+		}
+
+		private void writeEscaped(char character) {
+			ensureCapacity(2);
+			bytes[size++] = '\\';
+			bytes[size++] = (byte) character;
+		}
+
+		private void writeUnicodeEscaped(char character) {
+			ensureCapacity(6);
+			bytes[size++] = '\\';
+			bytes[size++] = 'u';
+			bytes[size++] = HEX_DIGITS[(character >> 12) & 0xF];
+			bytes[size++] = HEX_DIGITS[(character >> 8) & 0xF];
+			bytes[size++] = HEX_DIGITS[(character >> 4) & 0xF];
+			bytes[size++] = HEX_DIGITS[character & 0xF];
+		}
+
+		private void writeAscii(String value) {
+			final int length = value.length();
+			ensureCapacity(length);
+			for (int i = 0; i < length; i++) {
+				bytes[size++] = (byte) value.charAt(i);
+			}
+		}
+
+		private void writeBytes(byte[] value) {
+			ensureCapacity(value.length);
+			System.arraycopy(value, 0, bytes, size, value.length);
+			size += value.length;
+		}
+
+		private void writeByte(int value) {
+			ensureCapacity(1);
+			bytes[size++] = (byte) value;
+		}
+
+		private void ensureCapacity(int extraBytes) {
+			if (size + extraBytes > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extraBytes));
+			}
+		}
+	}
+}
@@ -0,0 +1,441 @@
+package org.mtr.core.serializer;
+
+import org.mtr.core.Main;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.org.msgpack.core.MessagePack;
+import org.mtr.libraries.org.msgpack.core.MessagePacker;
+import org.mtr.libraries.org.msgpack.core.MessageUnpacker;
+import org.mtr.libraries.org.msgpack.core.buffer.ArrayBufferOutput;
+import org.mtr.libraries.org.msgpack.value.ValueType;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Packs each field of an object separately as MessagePack, so that the fields can be compared with the fields of an earlier version of the object.
+ * Child objects are split into fields as well and arrays are split into elements.
+ * <p>
+ * A delta written by {@link MessagePackFieldWriter#writeDelta(MessagePacker, MessagePackFieldWriter)} is a map containing only the changed fields, where
+ * <ul>
+ * <li>{@code nil} means the field was removed</li>
+ * <li>a map is the delta of a child object</li>
+ * <li>an array is the delta of an array, written as an array of indices (with {@code -1} for new elements) followed by an array of the new elements</li>
+ * <li>anything else is the new value</li>
+ * </ul>
+ * All values of a writer and its children are packed one after another into a single buffer, and each field only keeps the range of its value.
+ */
+public final class MessagePackFieldWriter extends WriterBase {
+
+	/**
+	 * Each value is either a {@link Value}, a child {@link MessagePackFieldWriter} or an {@link ElementWriter}
+	 */
+	private final Object2ObjectLinkedOpenHashMap<String, Object> fields = new Object2ObjectLinkedOpenHashMap<>();
+	private final Buffer buffer;
+
+	private static final int BUFFER_SIZE = 512;
+	private static final Value NIL = new Value(new Buffer(new byte[]{(byte) 0xC0}), 0, 1);
+
+	public MessagePackFieldWriter() {
+		this(new Buffer());
+	}
+
+	private MessagePackFieldWriter(Buffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public void writeBoolean(String key, boolean value) {
+		fields.put(key, buffer.pack(messagePacker -> messagePacker.packBoolean(value)));
+	}
+
+	@Override
+	public void writeInt(String key, int value) {
+		fields.put(key, buffer.pack(messagePacker -> messagePacker.packInt(value)));
+	}
+
+	@Override
+	public void writeLong(String key, long value) {
+		fields.put(key, buffer.pack(messagePacker -> messagePacker.packLong(value)));
+	}
+
+	@Override
+	public void writeDouble(String key, double value) {
+		fields.put(key, buffer.pack(messagePacker -> messagePacker.packDouble(value)));
+	}
+
+	@Override
+	public void writeString(String key, String value) {
+		fields.put(key, buffer.pack(messagePacker -> messagePacker.packString(value)));
+	}
+
+	@Override
+	public Array writeArray(String key) {
+		final ElementWriter elementWriter = new ElementWriter(buffer);
+		fields.put(key, elementWriter);
+		return elementWriter;
+	}
+
+	@Override
+	public WriterBase writeChild(String key) {
+		final MessagePackFieldWriter messagePackFieldWriter = new MessagePackFieldWriter(buffer);
+		fields.put(key, messagePackFieldWriter);
+		return messagePackFieldWriter;
+	}
+
+	/**
+	 * Pack all fields as a single map, which can be read by {@link MessagePackReader}.
+	 */
+	public void writeFull(MessagePacker messagePacker) throws IOException {
+		messagePacker.packMapHeader(fields.size());
+		for (final Object2ObjectMap.Entry<String, Object> entry : fields.object2ObjectEntrySet()) {
+			messagePacker.packString(entry.getKey());
+			final Object value = entry.getValue();
+			if (value instanceof ElementWriter) {
+				final ObjectArrayList<Object> elements = ((ElementWriter) value).elements;
+				messagePacker.packArrayHeader(elements.size());
+				for (final Object element : elements) {
+					writeElement(messagePacker, element);
+				}
+			} else {
+				writeElement(messagePacker, value);
+			}
+		}
+	}
+
+	/**
+	 * Pack the fields that are different from the previous version of the object.
+	 * The changed fields are counted first, so that the delta can be packed directly without packing the entries separately.
+	 *
+	 * @param previous the previous version of the object or {@code null} to pack every field
+	 * @return {@code false} if nothing has changed since the previous version, in which case nothing is packed
+	 */
+	public boolean writeDelta(MessagePacker messagePacker, @Nullable MessagePackFieldWriter previous) throws IOException {
+		final int changedFields = countChangedFields(previous);
+		if (changedFields == 0 && previous != null) {
+			return false;
+		}
+
+		messagePacker.packMapHeader(changedFields);
+		for (final Object2ObjectMap.Entry<String, Object> entry : fields.object2ObjectEntrySet()) {
+			final Object value = entry.getValue();
+			final Object previousValue = previous == null ? null : previous.fields.get(entry.getKey());
+			if (previous == null || isChanged(value, previousValue)) {
+				messagePacker.packString(entry.getKey());
+				if (value instanceof MessagePackFieldWriter) {
+					((MessagePackFieldWriter) value).writeDelta(messagePacker, previousValue instanceof MessagePackFieldWriter ? (MessagePackFieldWriter) previousValue : null);
+				} else if (value instanceof ElementWriter) {
+					writeElementsDelta(messagePacker, ((ElementWriter) value).elements, previousValue instanceof ElementWriter ? ((ElementWriter) previousValue).elements : null);
+				} else {
+					((Value) value).write(messagePacker);
+				}
+			}
+		}
+
+		if (previous != null) {
+			for (final String key : previous.fields.keySet()) {
+				if (!fields.containsKey(key)) {
+					messagePacker.packString(key);
+					messagePacker.packNil();
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Apply a delta written by {@link MessagePackFieldWriter#writeDelta(MessagePacker, MessagePackFieldWriter)}. The previous version is not modified and unchanged children are shared with it.
+	 *
+	 * @param bytes           the array the unpacker is reading from, starting at index 0, so that values can be copied without packing them again
+	 * @param previous        the version of the object that the delta was written against or {@code null} if every field was packed
+	 * @param messageUnpacker an unpacker positioned at the delta
+	 * @return the new version of the object
+	 */
+	public static MessagePackFieldWriter applyDelta(byte[] bytes, @Nullable MessagePackFieldWriter previous, MessageUnpacker messageUnpacker) throws IOException {
+		final MessagePackFieldWriter messagePackFieldWriter = new MessagePackFieldWriter();
+		if (previous != null) {
+			messagePackFieldWriter.fields.putAll(previous.fields);
+		}
+
+		final int changedFields = messageUnpacker.unpackMapHeader();
+		for (int i = 0; i < changedFields; i++) {
+			final String key = messageUnpacker.unpackString();
+			final ValueType valueType = messageUnpacker.getNextFormat().getValueType();
+			final Object previousValue = messagePackFieldWriter.fields.get(key);
+
+			if (valueType == ValueType.NIL) {
+				messageUnpacker.unpackNil();
+				messagePackFieldWriter.fields.remove(key);
+			} else if (valueType == ValueType.MAP) {
+				messagePackFieldWriter.fields.put(key, applyDelta(bytes, previousValue instanceof MessagePackFieldWriter ? (MessagePackFieldWriter) previousValue : null, messageUnpacker));
+			} else if (valueType == ValueType.ARRAY) {
+				final ObjectArrayList<Object> previousElements = previousValue instanceof ElementWriter ? ((ElementWriter) previousValue).elements : new ObjectArrayList<>();
+				final ElementWriter elementWriter = new ElementWriter(messagePackFieldWriter.buffer);
+				messageUnpacker.unpackArrayHeader();
+				final IntArrayList indices = new IntArrayList();
+				final int elementCount = messageUnpacker.unpackArrayHeader();
+				for (int j = 0; j < elementCount; j++) {
+					indices.add(messageUnpacker.unpackInt());
+				}
+				messageUnpacker.unpackArrayHeader();
+				for (int j = 0; j < elementCount; j++) {
+					final int index = indices.getInt(j);
+					elementWriter.elements.add(index < 0 ? readValue(bytes, messageUnpacker) : previousElements.get(index));
+				}
+				messagePackFieldWriter.fields.put(key, elementWriter);
+			} else {
+				messagePackFieldWriter.fields.put(key, readValue(bytes, messageUnpacker));
+			}
+		}
+
+		return messagePackFieldWriter;
+	}
+
+	/**
+	 * Fields are compared by value, so that an element of an array can be matched with an equal element of the previous version.
+	 */
+	@Override
+	public boolean equals(Object object) {
+		return object instanceof MessagePackFieldWriter && fields.equals(((MessagePackFieldWriter) object).fields);
+	}
+
+	@Override
+	public int hashCode() {
+		return fields.hashCode();
+	}
+
+	private int countChangedFields(@Nullable MessagePackFieldWriter previous) {
+		if (previous == null) {
+			return fields.size();
+		}
+
+		int changedFields = 0;
+		for (final Object2ObjectMap.Entry<String, Object> entry : fields.object2ObjectEntrySet()) {
+			if (isChanged(entry.getValue(), previous.fields.get(entry.getKey()))) {
+				changedFields++;
+			}
+		}
+		for (final String key : previous.fields.keySet()) {
+			if (!fields.containsKey(key)) {
+				changedFields++;
+			}
+		}
+		return changedFields;
+	}
+
+	private static boolean isChanged(Object value, @Nullable Object previousValue) {
+		if (value instanceof MessagePackFieldWriter) {
+			return !(previousValue instanceof MessagePackFieldWriter) || ((MessagePackFieldWriter) value).countChangedFields((MessagePackFieldWriter) previousValue) > 0;
+		} else {
+			return !value.equals(previousValue);
+		}
+	}
+
+	private static void writeElementsDelta(MessagePacker messagePacker, ObjectArrayList<Object> elements, @Nullable ObjectArrayList<Object> previousElements) throws IOException {
+		final Object2IntOpenHashMap<Object> previousIndices = new Object2IntOpenHashMap<>();
+		previousIndices.defaultReturnValue(-1);
+		if (previousElements != null) {
+			for (int i = previousElements.size() - 1; i >= 0; i--) {
+				previousIndices.put(previousElements.get(i), i);
+			}
+		}
+
+		int newElementCount = 0;
+		messagePacker.packArrayHeader(2);
+		messagePacker.packArrayHeader(elements.size());
+		for (final Object element : elements) {
+			final int index = previousIndices.getInt(element);
+			messagePacker.packInt(index);
+			if (index < 0) {
+				newElementCount++;
+			}
+		}
+
+		messagePacker.packArrayHeader(newElementCount);
+		for (final Object element : elements) {
+			if (!previousIndices.containsKey(element)) {
+				writeElement(messagePacker, element);
+			}
+		}
+	}
+
+	private static void writeElement(MessagePacker messagePacker, Object element) throws IOException {
+		if (element instanceof MessagePackFieldWriter) {
+			((MessagePackFieldWriter) element).writeFull(messagePacker);
+		} else {
+			((Value) element).write(messagePacker);
+		}
+	}
+
+	private static Value readValue(byte[] bytes, MessageUnpacker messageUnpacker) throws IOException {
+		final int start = (int) messageUnpacker.getTotalReadBytes();
+		messageUnpacker.skipValue();
+		final int end = (int) messageUnpacker.getTotalReadBytes();
+		return new Value(new Buffer(Arrays.copyOfRange(bytes, start, end)), 0, end - start);
+	}
+
+	/**
+	 * Each element is either a {@link Value} or a child {@link MessagePackFieldWriter}.
+	 */
+	private static final class ElementWriter extends Array {
+
+		private final ObjectArrayList<Object> elements = new ObjectArrayList<>();
+		private final Buffer buffer;
+
+		private ElementWriter(Buffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void writeBoolean(boolean value) {
+			elements.add(buffer.pack(messagePacker -> messagePacker.packBoolean(value)));
+		}
+
+		@Override
+		public void writeInt(int value) {
+			elements.add(buffer.pack(messagePacker -> messagePacker.packInt(value)));
+		}
+
+		@Override
+		public void writeLong(long value) {
+			elements.add(buffer.pack(messagePacker -> messagePacker.packLong(value)));
+		}
+
+		@Override
+		public void writeDouble(double value) {
+			elements.add(buffer.pack(messagePacker -> messagePacker.packDouble(value)));
+		}
+
+		@Override
+		public void writeString(String value) {
+			elements.add(buffer.pack(messagePacker -> messagePacker.packString(value)));
+		}
+
+		@Override
+		public WriterBase writeChild() {
+			final MessagePackFieldWriter messagePackFieldWriter = new MessagePackFieldWriter(buffer);
+			elements.add(messagePackFieldWriter);
+			return messagePackFieldWriter;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof ElementWriter && elements.equals(((ElementWriter) object).elements);
+		}
+
+		@Override
+		public int hashCode() {
+			return elements.hashCode();
+		}
+	}
+
+	/**
+	 * The packed values of a writer and all of its children. The packer is only created when the first value is packed.
+	 */
+	private static final class Buffer {
+
+		@Nullable
+		private ArrayBufferOutput arrayBufferOutput;
+		@Nullable
+		private MessagePacker messagePacker;
+		private byte[] bytes;
+
+		private Buffer() {
+			bytes = new byte[0];
+		}
+
+		private Buffer(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		private Value pack(Pack pack) {
+			try {
+				if (messagePacker == null) {
+					arrayBufferOutput = new ArrayBufferOutput(BUFFER_SIZE);
+					messagePacker = MessagePack.newDefaultPacker(arrayBufferOutput);
+				}
+				final int start = (int) messagePacker.getTotalWrittenBytes();
+				pack.pack(messagePacker);
+				return new Value(this, start, (int) messagePacker.getTotalWrittenBytes() - start);
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+				return NIL;
+			}
+		}
+
+		/**
+		 * The values are usually all packed before any of them are read, so the packed bytes are only copied once.
+		 */
+		private byte[] getBytes() {
+			if (arrayBufferOutput != null && messagePacker != null && bytes.length != messagePacker.getTotalWrittenBytes()) {
+				try {
+					messagePacker.flush();
+				} catch (IOException e) {
+					Main.LOGGER.error("", e);
+				}
+				bytes = arrayBufferOutput.toByteArray();
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * A range of a {@link Buffer} holding a single packed value. Values are compared by their bytes.
+	 */
+	private static final class Value {
+
+		private final Buffer buffer;
+		private final int offset;
+		private final int length;
+
+		private Value(Buffer buffer, int offset, int length) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		private void write(MessagePacker messagePacker) throws IOException {
+			messagePacker.writePayload(buffer.getBytes(), offset, length);
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (object instanceof Value) {
+				final Value value = (Value) object;
+				if (length != value.length) {
+					return false;
+				}
+				final byte[] bytes1 = buffer.getBytes();
+				final byte[] bytes2 = value.buffer.getBytes();
+				for (int i = 0; i < length; i++) {
+					if (bytes1[offset + i] != bytes2[value.offset + i]) {
+						return false;
+					}
+				}
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			final byte[] bytes = buffer.getBytes();
+			int hash = 1;
+			for (int i = 0; i < length; i++) {
+				hash = 31 * hash + bytes[offset + i];
+			}
+			return hash;
+		}
+	}
+
+	@FunctionalInterface
+	private interface Pack {
+		void pack(MessagePacker messagePacker) throws IOException;
+	}
+}
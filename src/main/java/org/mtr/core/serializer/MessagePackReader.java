@@ -6,133 +6,287 @@ import org.mtr.libraries.it.unimi.dsi.fastutil.booleans.BooleanConsumer;
 import org.mtr.libraries.it.unimi.dsi.fastutil.doubles.DoubleConsumer;
 import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntConsumer;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongConsumer;
-import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2IntArrayMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.org.msgpack.core.MessageBufferPacker;
+import org.mtr.libraries.org.msgpack.core.MessagePack;
 import org.mtr.libraries.org.msgpack.core.MessageUnpacker;
 import org.mtr.libraries.org.msgpack.value.Value;
+import org.mtr.libraries.org.msgpack.value.ValueType;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.function.Function;
 
+/**
+ * Reads a MessagePack map straight from a buffer without decoding it into {@link Value} objects first.
+ * <p>
+ * Entries are decoded in stream order as they are requested. If a key further ahead is requested, the entries before it are skipped and the offsets of their values are kept,
+ * so that keys requested out of order or more than once are decoded from the buffer again.
+ * Child readers share the cursor of their parent while they are being read and are detached from it as soon as the parent is read again.
+ */
 public final class MessagePackReader extends ReaderBase {
 
-	private final Object2ObjectArrayMap<String, Value> map;
+	@Nullable
+	private Cursor cursor;
+	/**
+	 * Whether the cursor belongs to the parent, in which case the rest of this map has to be skipped before the parent can continue
+	 */
+	private boolean sharedCursor;
+	/**
+	 * Where to continue reading with a new cursor after being detached from the parent
+	 */
+	private int resumeOffset;
+	private int remainingEntries;
+	@Nullable
+	private MessagePackReader attachedChild;
+	@Nullable
+	private ObjectArrayList<MessagePackReader> mergedReaders;
+
+	private final ByteBuffer buffer;
+	/**
+	 * The offsets of the values of all entries that the cursor has passed
+	 */
+	private final Object2IntArrayMap<String> valueOffsets = new Object2IntArrayMap<>();
 
 	public MessagePackReader() {
-		this.map = new Object2ObjectArrayMap<>();
+		buffer = ByteBuffer.allocate(0);
+		valueOffsets.defaultReturnValue(-1);
 	}
 
-	public MessagePackReader(MessageUnpacker messageUnpacker) {
-		map = new Object2ObjectArrayMap<>();
+	/**
+	 * @param buffer a buffer containing a map from its position to its limit, which must not be modified while this reader (or any child reader) is still in use
+	 */
+	public MessagePackReader(ByteBuffer buffer) {
+		this.buffer = buffer.slice();
+		valueOffsets.defaultReturnValue(-1);
 		try {
-			final int size = messageUnpacker.unpackMapHeader();
-			for (int i = 0; i < size; i++) {
-				DataFixer.readerBaseConvertKey(messageUnpacker.unpackString(), messageUnpacker.unpackValue(), map);
-			}
+			final Cursor newCursor = new Cursor(this.buffer, 0);
+			remainingEntries = newCursor.messageUnpacker.unpackMapHeader();
+			cursor = newCursor;
 		} catch (Exception e) {
 			Main.LOGGER.error("", e);
 		}
 	}
 
-	private MessagePackReader(Value value) {
-		map = new Object2ObjectArrayMap<>();
-		iterateMap(value, (mapKey, mapValue) -> DataFixer.readerBaseConvertKey(mapKey, mapValue, map));
+	/**
+	 * Reads the next map of an unpacker. Prefer {@link MessagePackReader#MessagePackReader(ByteBuffer)}, since the map has to be decoded and packed again here.
+	 */
+	public MessagePackReader(MessageUnpacker messageUnpacker) {
+		this(repack(messageUnpacker));
+	}
+
+	private MessagePackReader(ByteBuffer buffer, Cursor cursor, int entries) {
+		this.buffer = buffer;
+		this.cursor = cursor;
+		sharedCursor = true;
+		remainingEntries = entries;
+		valueOffsets.defaultReturnValue(-1);
 	}
 
 	@Override
 	public void unpackBoolean(String key, BooleanConsumer ifExists) {
-		unpack(key, value -> ifExists.accept(getBoolean(value)));
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.BOOLEAN);
+			if (messageUnpacker != null) {
+				ifExists.accept(messageUnpacker.unpackBoolean());
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
 	}
 
 	@Override
 	public boolean getBoolean(String key, boolean defaultValue) {
-		return getOrDefault(key, defaultValue, MessagePackReader::getBoolean);
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.BOOLEAN);
+			return messageUnpacker == null ? defaultValue : messageUnpacker.unpackBoolean();
+		} catch (Exception ignored) {
+			return defaultValue;
+		}
 	}
 
 	@Override
 	public void iterateBooleanArray(String key, Runnable clearList, BooleanConsumer ifExists) {
-		unpack(key, value -> iterateArray(value, clearList, arrayValue -> ifExists.accept(getBoolean(arrayValue))));
+		iterateArray(key, clearList, ValueType.BOOLEAN, messageUnpacker -> ifExists.accept(messageUnpacker.unpackBoolean()));
 	}
 
 	@Override
 	public void unpackInt(String key, IntConsumer ifExists) {
-		unpack(key, value -> ifExists.accept(getInt(value)));
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.INTEGER);
+			if (messageUnpacker != null) {
+				ifExists.accept(messageUnpacker.unpackInt());
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
 	}
 
 	@Override
 	public int getInt(String key, int defaultValue) {
-		return getOrDefault(key, defaultValue, MessagePackReader::getInt);
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.INTEGER);
+			return messageUnpacker == null ? defaultValue : messageUnpacker.unpackInt();
+		} catch (Exception ignored) {
+			return defaultValue;
+		}
 	}
 
 	@Override
 	public void iterateIntArray(String key, Runnable clearList, IntConsumer ifExists) {
-		unpack(key, value -> iterateArray(value, clearList, arrayValue -> ifExists.accept(getInt(arrayValue))));
+		iterateArray(key, clearList, ValueType.INTEGER, messageUnpacker -> ifExists.accept(messageUnpacker.unpackInt()));
 	}
 
 	@Override
 	public void unpackLong(String key, LongConsumer ifExists) {
-		unpack(key, value -> ifExists.accept(getLong(value)));
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.INTEGER);
+			if (messageUnpacker != null) {
+				ifExists.accept(messageUnpacker.unpackLong());
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
 	}
 
 	@Override
 	public long getLong(String key, long defaultValue) {
-		return getOrDefault(key, defaultValue, MessagePackReader::getLong);
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.INTEGER);
+			return messageUnpacker == null ? defaultValue : messageUnpacker.unpackLong();
+		} catch (Exception ignored) {
+			return defaultValue;
+		}
 	}
 
 	@Override
 	public void iterateLongArray(String key, Runnable clearList, LongConsumer ifExists) {
-		unpack(key, value -> iterateArray(value, clearList, arrayValue -> ifExists.accept(getLong(arrayValue))));
+		iterateArray(key, clearList, ValueType.INTEGER, messageUnpacker -> ifExists.accept(messageUnpacker.unpackLong()));
 	}
 
 	@Override
 	public void unpackDouble(String key, DoubleConsumer ifExists) {
-		unpack(key, value -> ifExists.accept(getDouble(value)));
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.FLOAT);
+			if (messageUnpacker != null) {
+				ifExists.accept(messageUnpacker.unpackDouble());
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
 	}
 
 	@Override
 	public double getDouble(String key, double defaultValue) {
-		return getOrDefault(key, defaultValue, MessagePackReader::getDouble);
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.FLOAT);
+			return messageUnpacker == null ? defaultValue : messageUnpacker.unpackDouble();
+		} catch (Exception ignored) {
+			return defaultValue;
+		}
 	}
 
 	@Override
 	public void iterateDoubleArray(String key, Runnable clearList, DoubleConsumer ifExists) {
-		unpack(key, value -> iterateArray(value, clearList, arrayValue -> ifExists.accept(getDouble(arrayValue))));
+		iterateArray(key, clearList, ValueType.FLOAT, messageUnpacker -> ifExists.accept(messageUnpacker.unpackDouble()));
 	}
 
 	@Override
 	public void unpackString(String key, Consumer<String> ifExists) {
-		unpack(key, value -> ifExists.accept(getString(value)));
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.STRING);
+			if (messageUnpacker != null) {
+				ifExists.accept(messageUnpacker.unpackString());
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
 	}
 
 	@Override
 	public String getString(String key, String defaultValue) {
-		return getOrDefault(key, defaultValue, MessagePackReader::getString);
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.STRING);
+			return messageUnpacker == null ? defaultValue : messageUnpacker.unpackString();
+		} catch (Exception ignored) {
+			return defaultValue;
+		}
 	}
 
 	@Override
 	public void iterateStringArray(String key, Runnable clearList, Consumer<String> ifExists) {
-		unpack(key, value -> iterateArray(value, clearList, arrayValue -> ifExists.accept(getString(arrayValue))));
+		iterateArray(key, clearList, ValueType.STRING, messageUnpacker -> ifExists.accept(messageUnpacker.unpackString()));
 	}
 
 	@Override
 	public void iterateReaderArray(String key, Runnable clearList, Consumer<ReaderBase> ifExists) {
-		unpack(key, value -> iterateArray(value, clearList, arrayValue -> ifExists.accept(new MessagePackReader(arrayValue))));
+		try {
+			final Cursor valueCursor = find(key, ValueType.ARRAY);
+			if (valueCursor != null) {
+				final int size = valueCursor.messageUnpacker.unpackArrayHeader();
+				clearList.run();
+				for (int i = 0; i < size; i++) {
+					if (valueCursor.messageUnpacker.getNextFormat().getValueType() == ValueType.MAP) {
+						final MessagePackReader childReader = new MessagePackReader(buffer, valueCursor, valueCursor.messageUnpacker.unpackMapHeader());
+						try {
+							ifExists.accept(childReader);
+						} catch (Exception ignored) {
+						}
+						// The consumer might keep the child, so it has to be able to continue on its own
+						childReader.detach();
+					} else {
+						valueCursor.messageUnpacker.skipValue();
+					}
+				}
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
 	}
 
 	@Override
 	public ReaderBase getChild(String key) {
-		return getOrDefault(key, new MessagePackReader(), MessagePackReader::new);
+		try {
+			final MessagePackReader childReader = findChild(key);
+			return childReader == null ? new MessagePackReader() : childReader;
+		} catch (Exception ignored) {
+			return new MessagePackReader();
+		}
 	}
 
 	@Override
 	public void unpackChild(String key, Consumer<ReaderBase> ifExists) {
-		unpack(key, value -> ifExists.accept(new MessagePackReader(value)));
+		try {
+			final MessagePackReader childReader = findChild(key);
+			if (childReader != null) {
+				ifExists.accept(childReader);
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
 	}
 
+	/**
+	 * Entries of merged readers take priority over existing entries, with the last merged reader first.
+	 */
 	@Override
 	public void merge(ReaderBase readerBase) {
 		if (readerBase instanceof MessagePackReader) {
-			map.putAll(((MessagePackReader) readerBase).map);
+			final MessagePackReader messagePackReader = (MessagePackReader) readerBase;
+			try {
+				// Only read from the offsets from now on, so that lookups never move the cursor of the merged reader
+				messagePackReader.find("", null);
+				messagePackReader.detach();
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+			if (mergedReaders == null) {
+				mergedReaders = new ObjectArrayList<>();
+			}
+			mergedReaders.add(messagePackReader);
 		}
 	}
 
@@ -141,56 +295,188 @@ public final class MessagePackReader extends ReaderBase {
 	 */
 	@Deprecated
 	public void iterateMap(String key, BiConsumer<String, Value> consumer) {
-		final Value value = map.get(key);
-		if (value != null) {
-			iterateMap(value, consumer);
+		try {
+			final Cursor valueCursor = find(key, ValueType.MAP);
+			if (valueCursor != null) {
+				valueCursor.messageUnpacker.unpackValue().asMapValue().entrySet().forEach(entry -> {
+					try {
+						consumer.accept(entry.getKey().asStringValue().asString(), entry.getValue());
+					} catch (Exception ignored) {
+					}
+				});
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
 		}
 	}
 
-	private void unpack(String key, Consumer<Value> consumer) {
-		unpackValue(map.get(key), consumer);
+	@Nullable
+	private MessageUnpacker findValue(String key, ValueType valueType) throws IOException {
+		final Cursor valueCursor = find(key, valueType);
+		return valueCursor == null ? null : valueCursor.messageUnpacker;
+	}
+
+	@Nullable
+	private MessagePackReader findChild(String key) throws IOException {
+		final Cursor valueCursor = find(key, ValueType.MAP);
+		if (valueCursor == null) {
+			return null;
+		} else {
+			final MessagePackReader childReader = new MessagePackReader(buffer, valueCursor, valueCursor.messageUnpacker.unpackMapHeader());
+			if (valueCursor == cursor) {
+				attachedChild = childReader;
+			} else {
+				// The cursor was only created for this child
+				childReader.sharedCursor = false;
+			}
+			return childReader;
+		}
 	}
 
-	private <T> T getOrDefault(String key, T defaultValue, Function<Value, T> function) {
-		return getValueOrDefault(map.get(key), defaultValue, function);
+	/**
+	 * Find the value of a key, either by moving the cursor forward or from the offset of an entry that has already been passed.
+	 * Values of a different type are skipped and treated as missing.
+	 *
+	 * @param valueType the expected type of the value, or {@code null} to move the cursor to the end of the map without reading anything
+	 * @return a cursor positioned at the value or {@code null} if the key doesn't exist
+	 */
+	@Nullable
+	private Cursor find(String key, @Nullable ValueType valueType) throws IOException {
+		if (valueType != null && mergedReaders != null) {
+			for (int i = mergedReaders.size() - 1; i >= 0; i--) {
+				final Cursor valueCursor = mergedReaders.get(i).find(key, valueType);
+				if (valueCursor != null) {
+					return valueCursor;
+				}
+			}
+		}
+
+		final int valueOffset = valueOffsets.getInt(key);
+		if (valueOffset >= 0) {
+			return checkType(new Cursor(buffer, valueOffset), valueType);
+		}
+
+		final Cursor currentCursor = getCursor();
+		while (remainingEntries > 0 && currentCursor != null) {
+			final String entryKey = currentCursor.messageUnpacker.unpackString();
+			final int entryValueOffset = currentCursor.getOffset();
+			remainingEntries--;
+			valueOffsets.put(entryKey, entryValueOffset);
+			boolean matches = entryKey.equals(key);
+
+			if (entryKey.indexOf('_') >= 0) {
+				final String convertedKey = DataFixer.readerBaseConvertKey(entryKey);
+				valueOffsets.put(convertedKey, entryValueOffset);
+				matches |= convertedKey.equals(key);
+			}
+
+			if (matches && valueType != null) {
+				return checkType(currentCursor, valueType);
+			} else {
+				currentCursor.messageUnpacker.skipValue();
+			}
+		}
+
+		return null;
 	}
 
-	private static boolean getBoolean(Value value) {
-		return value.asBooleanValue().getBoolean();
+	/**
+	 * Before using the cursor, any child still reading from it is detached, and a new cursor is created if this reader was detached from its parent.
+	 */
+	@Nullable
+	private Cursor getCursor() throws IOException {
+		if (attachedChild != null) {
+			attachedChild.detach();
+			attachedChild = null;
+		}
+		if (cursor == null && remainingEntries > 0) {
+			cursor = new Cursor(buffer, resumeOffset);
+		}
+		return cursor;
 	}
 
-	private static int getInt(Value value) {
-		return value.asIntegerValue().asInt();
+	/**
+	 * If the cursor is shared with the parent, skip the rest of this map so that the parent can continue reading. This reader will continue with its own cursor.
+	 */
+	private void detach() throws IOException {
+		if (sharedCursor) {
+			final Cursor currentCursor = getCursor();
+			if (currentCursor != null) {
+				resumeOffset = currentCursor.getOffset();
+				for (int i = 0; i < remainingEntries * 2; i++) {
+					currentCursor.messageUnpacker.skipValue();
+				}
+			}
+			cursor = null;
+			sharedCursor = false;
+		}
 	}
 
-	private static long getLong(Value value) {
-		return value.asIntegerValue().asLong();
+	private void iterateArray(String key, Runnable clearList, ValueType valueType, UnpackArrayValue unpackArrayValue) {
+		try {
+			final MessageUnpacker messageUnpacker = findValue(key, ValueType.ARRAY);
+			if (messageUnpacker != null) {
+				final int size = messageUnpacker.unpackArrayHeader();
+				clearList.run();
+				for (int i = 0; i < size; i++) {
+					if (messageUnpacker.getNextFormat().getValueType() == valueType) {
+						try {
+							unpackArrayValue.unpack(messageUnpacker);
+						} catch (Exception ignored) {
+						}
+					} else {
+						messageUnpacker.skipValue();
+					}
+				}
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
 	}
 
-	private static double getDouble(Value value) {
-		return value.asFloatValue().toDouble();
+	@Nullable
+	private static Cursor checkType(Cursor valueCursor, @Nullable ValueType valueType) throws IOException {
+		if (valueCursor.messageUnpacker.getNextFormat().getValueType() == valueType) {
+			return valueCursor;
+		} else {
+			valueCursor.messageUnpacker.skipValue();
+			return null;
+		}
 	}
 
-	private static String getString(Value value) {
-		return value.asStringValue().asString();
+	private static ByteBuffer repack(MessageUnpacker messageUnpacker) {
+		try (final MessageBufferPacker messageBufferPacker = MessagePack.newDefaultBufferPacker()) {
+			messageBufferPacker.packValue(messageUnpacker.unpackValue());
+			return ByteBuffer.wrap(messageBufferPacker.toByteArray());
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+			// An empty map
+			return ByteBuffer.wrap(new byte[]{(byte) 0x80});
+		}
 	}
 
-	private static void iterateArray(Value value, Runnable clearList, Consumer<Value> consumer) {
-		clearList.run();
-		value.asArrayValue().forEach(arrayValue -> {
-			try {
-				consumer.accept(arrayValue);
-			} catch (Exception ignored) {
-			}
-		});
+	private static final class Cursor {
+
+		private final MessageUnpacker messageUnpacker;
+		private final int startOffset;
+
+		private Cursor(ByteBuffer buffer, int startOffset) {
+			final ByteBuffer newBuffer = buffer.duplicate();
+			newBuffer.position(startOffset);
+			messageUnpacker = MessagePack.newDefaultUnpacker(newBuffer);
+			this.startOffset = startOffset;
+		}
+
+		/**
+		 * @return the offset of the next value in the buffer
+		 */
+		private int getOffset() {
+			return startOffset + (int) messageUnpacker.getTotalReadBytes();
+		}
 	}
 
-	private static void iterateMap(Value value, BiConsumer<String, Value> consumer) {
-		value.asMapValue().entrySet().forEach(entry -> {
-			try {
-				consumer.accept(getString(entry.getKey()), entry.getValue());
-			} catch (Exception ignored) {
-			}
-		});
+	@FunctionalInterface
+	private interface UnpackArrayValue {
+		void unpack(MessageUnpacker messageUnpacker) throws Exception;
 	}
 }
@@ -5,4 +5,9 @@ public interface SerializedDataBaseWithId extends SerializedDataBase {
 	String getHexId();
 
 	boolean isValid();
+
+	/**
+	 * @return a counter that changes whenever data written by {@link SerializedDataBase#serializeData(WriterBase)} might have changed, so that unchanged data doesn't have to be serialized again to be saved
+	 */
+	long getModificationCount();
 }
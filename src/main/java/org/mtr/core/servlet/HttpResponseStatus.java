@@ -5,6 +5,7 @@ public enum HttpResponseStatus {
 	OK(200, "OK"),
 	BAD_REQUEST(400, "Bad Request"),
 	NOT_FOUND(404, "Not Found"),
+	CONFLICT(409, "Conflict"),
 	INTERNAL_SERVER_ERROR(500, "Internal Server Error");
 
 	public final int code;
@@ -3,10 +3,10 @@ package org.mtr.core.servlet;
 import org.mtr.core.data.Platform;
 import org.mtr.core.data.Siding;
 import org.mtr.core.oba.*;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
 import org.mtr.core.tool.LatLon;
 import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
 import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongAVLTreeSet;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
@@ -22,23 +22,23 @@ public final class OBAResponse extends ResponseBase<Object> {
 		includeReferences = !("false".equals(parameters.get("includeReferences")));
 	}
 
-	public JsonObject getAgenciesWithCoverage() {
+	public SerializedDataBase getAgenciesWithCoverage() {
 		final ListElement<AgencyWithCoverage> listElement = ListElement.create(includeReferences, AGENCY);
 		listElement.add(new AgencyWithCoverage());
-		return listElement.toJson(simulator);
+		return listElement.build(simulator);
 	}
 
-	public JsonObject getAgency() {
+	public SerializedDataBase getAgency() {
 		if (data.equals("1")) {
 			final SingleElement<Agency> singleElement = SingleElement.create(includeReferences, AGENCY);
 			singleElement.set(AGENCY);
-			return singleElement.toJson(simulator);
+			return singleElement.build(simulator);
 		} else {
 			return null;
 		}
 	}
 
-	public JsonObject getArrivalsAndDeparturesForStop() {
+	public SerializedDataBase getArrivalsAndDeparturesForStop() {
 		try {
 			final long platformId = Long.parseUnsignedLong(data, 16);
 			final Platform platform = simulator.platformIdMap.get(platformId);
@@ -71,18 +71,18 @@ public final class OBAResponse extends ResponseBase<Object> {
 				}
 			})));
 
-			return singleElement.toJson(simulator);
+			return singleElement.build(simulator);
 		} catch (Exception ignored) {
 		}
 
 		return null;
 	}
 
-	public JsonObject getStopsForLocation() {
+	public SerializedDataBase getStopsForLocation() {
 		final LatLon latLon = getLatLonParameter();
 
 		if (latLon == null) {
-			return ListElement.create(includeReferences, AGENCY).toJson(simulator);
+			return ListElement.create(includeReferences, AGENCY).build(simulator);
 		} else {
 			final double latSpan;
 			final double lonSpan;
@@ -109,11 +109,11 @@ public final class OBAResponse extends ResponseBase<Object> {
 				}
 			}
 
-			return listElement.toJson(simulator);
+			return listElement.build(simulator);
 		}
 	}
 
-	public JsonObject getTripDetails() {
+	public SerializedDataBase getTripDetails() {
 		final String[] tripIdSplit = data.split("_");
 		if (tripIdSplit.length == 4) {
 			try {
@@ -121,7 +121,7 @@ public final class OBAResponse extends ResponseBase<Object> {
 				if (siding != null) {
 					final SingleElement<TripDetails> singleElement = SingleElement.create(includeReferences, AGENCY);
 					siding.getOBATripDetailsWithDataUsed(singleElement, currentMillis, Integer.parseInt(tripIdSplit[1]), Integer.parseInt(tripIdSplit[2]), Long.parseLong(tripIdSplit[3]));
-					return singleElement.toJson(simulator);
+					return singleElement.build(simulator);
 				}
 			} catch (Exception ignored) {
 			}
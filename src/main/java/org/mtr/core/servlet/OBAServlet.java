@@ -1,8 +1,9 @@
 package org.mtr.core.servlet;
 
+import org.mtr.core.serializer.EmptyData;
 import org.mtr.core.serializer.JsonReader;
+import org.mtr.core.serializer.SerializedDataBase;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectImmutableList;
 
@@ -15,7 +16,7 @@ public final class OBAServlet extends ServletBase {
 	}
 
 	@Override
-	public void getContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, Simulator simulator, Consumer<JsonObject> sendResponse) {
+	public void getContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, Simulator simulator, Consumer<SerializedDataBase> sendResponse) {
 		final OBAResponse obaResponse = new OBAResponse(data, parameters, currentMillis, simulator);
 		switch (endpoint) {
 			case "agencies-with-coverage":
@@ -25,82 +26,82 @@ public final class OBAServlet extends ServletBase {
 				sendResponse.accept(obaResponse.getAgency());
 				break;
 			case "arrival-and-departure-for-stop":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "arrivals-and-departures-for-stop":
 				sendResponse.accept(obaResponse.getArrivalsAndDeparturesForStop());
 				break;
 			case "arrivals-and-departures-for-location":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "block":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "cancel-alarm":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "current-time":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "register-alarm-for-arrival-and-departure-at-stop":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "report-problem-with-stop":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "report-problem-with-trip":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "route-ids-for-agency":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "route":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "routes-for-agency":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "routes-for-location":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "schedule-for-route":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "schedule-for-stop":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "shape":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "stop-ids-for-agency":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "stop":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "stops-for-location":
 				sendResponse.accept(obaResponse.getStopsForLocation());
 				break;
 			case "stops-for-route":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "trip-details":
 				sendResponse.accept(obaResponse.getTripDetails());
 				break;
 			case "trip-for-vehicle":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "trip":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "trips-for-location":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "trips-for-route":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			case "vehicles-for-agency":
-				sendResponse.accept(new JsonObject());
+				sendResponse.accept(EmptyData.INSTANCE);
 				break;
 			default:
 				sendResponse.accept(null);
@@ -6,8 +6,10 @@ import org.mtr.core.data.Siding;
 import org.mtr.core.data.Station;
 import org.mtr.core.operation.*;
 import org.mtr.core.serializer.JsonReader;
+import org.mtr.core.serializer.SerializedDataBase;
+import org.mtr.core.simulation.ReadSnapshot;
+import org.mtr.core.simulation.RunTier;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectImmutableList;
 
@@ -20,7 +22,7 @@ public final class OperationServlet extends ServletBase {
 	}
 
 	@Override
-	protected void getContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, Simulator simulator, Consumer<JsonObject> sendResponse) {
+	protected void getContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, Simulator simulator, Consumer<SerializedDataBase> sendResponse) {
 		switch (endpoint) {
 			case "get-data":
 				sendResponse.accept(new DataRequest(jsonReader).getData(simulator));
@@ -47,10 +49,10 @@ public final class OperationServlet extends ServletBase {
 				sendResponse.accept(new PressLift(jsonReader).pressLift(simulator));
 				break;
 			case "nearby-stations":
-				sendResponse.accept(new NearbyAreasRequest<Station, Platform>(jsonReader).query(simulator, simulator.stations));
+				sendResponse.accept(new NearbyAreasRequest<Station, Platform>(jsonReader).query(simulator, simulator.stationIndex));
 				break;
 			case "nearby-depots":
-				sendResponse.accept(new NearbyAreasRequest<Depot, Siding>(jsonReader).query(simulator, simulator.depots));
+				sendResponse.accept(new NearbyAreasRequest<Depot, Siding>(jsonReader).query(simulator, simulator.depotIndex));
 				break;
 			case "rails":
 				sendResponse.accept(new RailsRequest(jsonReader).query(simulator));
@@ -64,6 +66,12 @@ public final class OperationServlet extends ServletBase {
 			case "generate-by-lift":
 				sendResponse.accept(new GenerateByLift(jsonReader, simulator).generate());
 				break;
+			case "cancel-by-depot-ids":
+				new GenerateOrClearByDepotIds(jsonReader).cancel(simulator);
+				break;
+			case "cancel-by-depot-name":
+				new GenerateOrClearByDepotName(jsonReader).cancel(simulator);
+				break;
 			case "clear-by-depot-ids":
 				new GenerateOrClearByDepotIds(jsonReader).clear(simulator);
 				break;
@@ -73,9 +81,74 @@ public final class OperationServlet extends ServletBase {
 			case "directions":
 				new DirectionsRequest(jsonReader).find(simulator, sendResponse);
 				break;
+			case "player-present":
+				sendResponse.accept(new PlayerPresentResponse(jsonReader).verify(simulator));
+				break;
 			default:
 				sendResponse.accept(null);
 				break;
 		}
 	}
+
+	@Override
+	protected boolean getSnapshotContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, ReadSnapshot readSnapshot, Simulator simulator, Consumer<SerializedDataBase> sendResponse) {
+		switch (endpoint) {
+			case "get-data":
+				if (!isUpToDate(readSnapshot, simulator)) {
+					return false;
+				}
+				final DataRequest dataRequest = new DataRequest(jsonReader);
+				sendResponse.accept(dataRequest.getData(readSnapshot));
+				simulator.run(() -> dataRequest.updateClient(simulator), RunTier.WRITE);
+				return true;
+			case "list-data":
+				if (!isUpToDate(readSnapshot, simulator)) {
+					return false;
+				}
+				sendResponse.accept(new ListDataResponse(jsonReader, readSnapshot).list());
+				return true;
+			case "nearby-stations":
+				sendResponse.accept(new NearbyAreasRequest<Station, Platform>(jsonReader).query(readSnapshot, readSnapshot.stationIndex));
+				return true;
+			case "nearby-depots":
+				sendResponse.accept(new NearbyAreasRequest<Depot, Siding>(jsonReader).query(readSnapshot, readSnapshot.depotIndex));
+				return true;
+			case "rails":
+				sendResponse.accept(new RailsRequest(jsonReader).query(readSnapshot));
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	@Override
+	protected RunTier getRunTier(String endpoint) {
+		switch (endpoint) {
+			case "update-riding-entities":
+			case "press-lift":
+			case "player-present":
+			case "cancel-by-depot-ids":
+			case "cancel-by-depot-name":
+				return RunTier.WRITE;
+			case "update-data":
+			case "delete-data":
+			case "set-time":
+			case "generate-by-depot-ids":
+			case "generate-by-depot-name":
+			case "generate-by-lift":
+			case "clear-by-depot-ids":
+			case "clear-by-depot-name":
+				return RunTier.BULK;
+			default:
+				return RunTier.READ;
+		}
+	}
+
+	/**
+	 * A client that has just changed data with {@code update-data} or {@code delete-data} expects to get the changed data back,
+	 * so until the snapshot has caught up, {@code get-data} and {@code list-data} are answered by the simulator instead.
+	 */
+	private static boolean isUpToDate(ReadSnapshot readSnapshot, Simulator simulator) {
+		return readSnapshot.simulatorModificationCount >= simulator.getModificationCount();
+	}
 }
@@ -0,0 +1,213 @@
+package org.mtr.core.servlet;
+
+import org.mtr.core.Main;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import org.mtr.libraries.javax.servlet.AsyncContext;
+import org.mtr.libraries.javax.servlet.ServletOutputStream;
+import org.mtr.libraries.javax.servlet.WriteListener;
+import org.mtr.libraries.javax.servlet.http.HttpServletResponse;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A long-lived response that the game subscribes to once with a {@code GET} request to {@code /mtr/api/push}, instead of receiving a {@code POST} request for every client update batch.
+ * The client update batches of all dimensions are written to it as frames containing
+ * <ul>
+ * <li>the length of the rest of the frame as a 4-byte big-endian integer</li>
+ * <li>the dimension and endpoint, each written with {@link DataOutputStream#writeUTF(String)}</li>
+ * <li>the content, which is the same as the body of the {@code POST} request that would have been sent to the endpoint</li>
+ * </ul>
+ * Frames aren't replied to. The game reports missing players and delta resync requests with the {@code player-present} operation instead.
+ * <p>
+ * For flow control, a dimension only gets a new frame once its previous frame has been written, so a slow subscriber delays updates (which are merged in the meantime) instead of queueing them up.
+ * At most one frame per dimension is queued, so if the subscriber stops reading completely, a frame stays pending instead of the queue growing.
+ * Once a frame has been pending for too long, the subscriber is disconnected and updates are sent as {@code POST} requests again until the game subscribes again.
+ * <p>
+ * Only one subscriber is allowed at a time. Any other subscription is rejected while it is connected, so that another client of the webserver can't take the updates away from the game.
+ */
+public final class PushChannel {
+
+	@Nullable
+	private Subscriber subscriber;
+
+	private final long maxPendingMillis;
+
+	private static final int WRITE_CHUNK_BYTES = 8192;
+	private static final long MAX_PENDING_MILLIS = 10000;
+
+	public PushChannel() {
+		this(MAX_PENDING_MILLIS);
+	}
+
+	/**
+	 * @param maxPendingMillis how long a frame can be waiting to be written before the subscriber is disconnected
+	 */
+	PushChannel(long maxPendingMillis) {
+		this.maxPendingMillis = maxPendingMillis;
+	}
+
+	/**
+	 * Should be called every tick before sending. If the previous frame of the dimension has been pending for too long, the subscriber is disconnected here.
+	 *
+	 * @return {@code false} if the previous frame of the dimension still hasn't been written
+	 */
+	public synchronized boolean canSend(String dimension) {
+		if (subscriber == null || !subscriber.pendingDimensions.containsKey(dimension)) {
+			return true;
+		} else if (System.currentTimeMillis() - subscriber.pendingDimensions.getLong(dimension) > maxPendingMillis) {
+			Main.LOGGER.warn("Push channel subscriber is not reading updates, disconnecting");
+			unsubscribe(subscriber);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * @return {@code false} if there is no subscriber, in which case the update should be sent as a {@code POST} request
+	 */
+	public boolean send(String dimension, String endpoint, byte[] content) {
+		final byte[] frame;
+		try (final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(content.length + 64); final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
+			dataOutputStream.writeInt(0);
+			dataOutputStream.writeUTF(dimension);
+			dataOutputStream.writeUTF(endpoint);
+			dataOutputStream.write(content);
+			dataOutputStream.flush();
+			frame = byteArrayOutputStream.toByteArray();
+			ByteBuffer.wrap(frame).putInt(0, frame.length - 4);
+		} catch (IOException e) {
+			Main.LOGGER.error("", e);
+			return false;
+		}
+
+		synchronized (this) {
+			if (subscriber == null) {
+				return false;
+			} else {
+				subscriber.frames.enqueue(new Frame(dimension, frame));
+				subscriber.pendingDimensions.putIfAbsent(dimension, System.currentTimeMillis());
+				subscriber.write();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return {@code false} if there is already a subscriber, in which case nothing is written to the response
+	 */
+	synchronized boolean subscribe(HttpServletResponse httpServletResponse, AsyncContext asyncContext) throws IOException {
+		if (subscriber != null) {
+			Main.LOGGER.warn("Push channel already has a subscriber, rejecting the new subscription");
+			return false;
+		}
+
+		httpServletResponse.setStatus(HttpResponseStatus.OK.code);
+		httpServletResponse.addHeader("Content-Type", "application/octet-stream");
+		final Subscriber newSubscriber = new Subscriber(httpServletResponse.getOutputStream(), asyncContext);
+		subscriber = newSubscriber;
+		newSubscriber.servletOutputStream.setWriteListener(newSubscriber);
+		Main.LOGGER.info("Push channel subscribed");
+		return true;
+	}
+
+	private void unsubscribe(Subscriber oldSubscriber) {
+		if (subscriber == oldSubscriber) {
+			subscriber = null;
+			try {
+				oldSubscriber.asyncContext.complete();
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+			Main.LOGGER.info("Push channel unsubscribed");
+		}
+	}
+
+	private final class Subscriber implements WriteListener {
+
+		/**
+		 * Set when the queue runs out, so that the end of the last frame (or the headers, for a new subscriber) doesn't sit in the response buffer
+		 */
+		private boolean needsFlush = true;
+
+		private final ServletOutputStream servletOutputStream;
+		private final AsyncContext asyncContext;
+		private final ObjectArrayFIFOQueue<Frame> frames = new ObjectArrayFIFOQueue<>();
+		/**
+		 * The dimensions that have a frame which hasn't been completely written yet, and when the oldest of these frames was sent
+		 */
+		private final Object2LongOpenHashMap<String> pendingDimensions = new Object2LongOpenHashMap<>();
+
+		private Subscriber(ServletOutputStream servletOutputStream, AsyncContext asyncContext) {
+			this.servletOutputStream = servletOutputStream;
+			this.asyncContext = asyncContext;
+		}
+
+		@Override
+		public void onWritePossible() {
+			synchronized (PushChannel.this) {
+				write();
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			synchronized (PushChannel.this) {
+				unsubscribe(this);
+			}
+		}
+
+		/**
+		 * Write as much as possible without blocking. If the output stream isn't ready, this is called again by {@link Subscriber#onWritePossible()} once it is.
+		 */
+		private void write() {
+			if (subscriber != this) {
+				return;
+			}
+
+			try {
+				while (servletOutputStream.isReady()) {
+					if (frames.isEmpty()) {
+						if (needsFlush) {
+							needsFlush = false;
+							servletOutputStream.flush();
+						}
+						return;
+					}
+
+					final Frame frame = frames.first();
+					final int chunkBytes = Math.min(WRITE_CHUNK_BYTES, frame.bytes.length - frame.position);
+					servletOutputStream.write(frame.bytes, frame.position, chunkBytes);
+					frame.position += chunkBytes;
+
+					if (frame.position == frame.bytes.length) {
+						frames.dequeue();
+						pendingDimensions.removeLong(frame.dimension);
+						needsFlush = true;
+					}
+				}
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+				unsubscribe(this);
+			}
+		}
+	}
+
+	private static final class Frame {
+
+		private int position;
+
+		private final String dimension;
+		private final byte[] bytes;
+
+		private Frame(String dimension, byte[] bytes) {
+			this.dimension = dimension;
+			this.bytes = bytes;
+		}
+	}
+}
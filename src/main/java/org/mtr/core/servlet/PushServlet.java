@@ -0,0 +1,35 @@
+package org.mtr.core.servlet;
+
+import org.mtr.core.Main;
+import org.mtr.libraries.javax.servlet.AsyncContext;
+import org.mtr.libraries.javax.servlet.http.HttpServlet;
+import org.mtr.libraries.javax.servlet.http.HttpServletRequest;
+import org.mtr.libraries.javax.servlet.http.HttpServletResponse;
+
+/**
+ * Subscribes the game to the {@link PushChannel}. The response is kept open until the game disconnects.
+ * If the channel already has a subscriber, the request is rejected with {@link HttpResponseStatus#CONFLICT}.
+ */
+public final class PushServlet extends HttpServlet {
+
+	private final PushChannel pushChannel;
+
+	public PushServlet(PushChannel pushChannel) {
+		this.pushChannel = pushChannel;
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) {
+		final AsyncContext asyncContext = httpServletRequest.startAsync();
+		asyncContext.setTimeout(0);
+		try {
+			if (!pushChannel.subscribe(httpServletResponse, asyncContext)) {
+				httpServletResponse.setStatus(HttpResponseStatus.CONFLICT.code);
+				asyncContext.complete();
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+			asyncContext.complete();
+		}
+	}
+}
@@ -3,6 +3,10 @@ package org.mtr.core.servlet;
 import org.mtr.core.Main;
 import org.mtr.core.integration.Response;
 import org.mtr.core.serializer.JsonReader;
+import org.mtr.core.serializer.JsonStreamWriter;
+import org.mtr.core.serializer.SerializedDataBase;
+import org.mtr.core.simulation.ReadSnapshot;
+import org.mtr.core.simulation.RunTier;
 import org.mtr.core.simulation.Simulator;
 import org.mtr.libraries.com.google.gson.JsonElement;
 import org.mtr.libraries.com.google.gson.JsonObject;
@@ -27,6 +31,8 @@ public abstract class ServletBase extends HttpServlet {
 
 	private final ObjectImmutableList<Simulator> simulators;
 
+	private static final int WRITE_CHUNK_BYTES = 8192;
+
 	protected ServletBase(ObjectImmutableList<Simulator> simulators) {
 		this.simulators = simulators;
 	}
@@ -66,7 +72,24 @@ public abstract class ServletBase extends HttpServlet {
 		}
 	}
 
-	protected abstract void getContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, Simulator simulator, Consumer<JsonObject> sendResponse);
+	protected abstract void getContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, Simulator simulator, Consumer<SerializedDataBase> sendResponse);
+
+	/**
+	 * Answer a read-only request from the latest {@link ReadSnapshot} on the servlet thread instead of queueing it on the simulation thread.
+	 * Anything that changes the simulator must still be queued with {@link Simulator#run(Runnable, RunTier)}.
+	 *
+	 * @return {@code false} if the endpoint can't be answered from a snapshot, in which case {@link ServletBase#getContent} is queued instead
+	 */
+	protected boolean getSnapshotContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, ReadSnapshot readSnapshot, Simulator simulator, Consumer<SerializedDataBase> sendResponse) {
+		return false;
+	}
+
+	/**
+	 * @return the tier that requests to the endpoint are queued in, which is {@link RunTier#READ} unless the endpoint changes data
+	 */
+	protected RunTier getRunTier(String endpoint) {
+		return RunTier.READ;
+	}
 
 	private void run(HttpServletRequest httpServletRequest, @Nullable HttpServletResponse httpServletResponse, @Nullable AsyncContext asyncContext, JsonReader jsonReader, long currentMillis, Simulator simulator) {
 		final String endpoint;
@@ -88,17 +111,33 @@ public abstract class ServletBase extends HttpServlet {
 			}
 		});
 
-		simulator.run(() -> getContent(endpoint, data, parameters, jsonReader, currentMillis, simulator, jsonObject -> {
+		final Consumer<SerializedDataBase> sendResponse = responseData -> {
 			if (httpServletResponse != null && asyncContext != null) {
-				buildResponseObject(httpServletResponse, asyncContext, currentMillis, jsonObject, jsonObject == null ? HttpResponseStatus.NOT_FOUND : HttpResponseStatus.OK, endpoint, data);
+				buildResponseObject(httpServletResponse, asyncContext, currentMillis, responseData, responseData == null ? HttpResponseStatus.NOT_FOUND : HttpResponseStatus.OK, endpoint, data);
 			}
-		}));
+		};
+
+		final ReadSnapshot readSnapshot = simulator.getReadSnapshot();
+		if (readSnapshot == null || !getSnapshotContent(endpoint, data, parameters, jsonReader, currentMillis, readSnapshot, simulator, sendResponse)) {
+			simulator.run(() -> getContent(endpoint, data, parameters, jsonReader, currentMillis, simulator, sendResponse), getRunTier(endpoint));
+		}
 	}
 
 	public static void sendResponse(HttpServletResponse httpServletResponse, AsyncContext asyncContext, String content, String contentType, HttpResponseStatus httpResponseStatus) {
+		final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		sendResponse(httpServletResponse, asyncContext, bytes, bytes.length, contentType, httpResponseStatus, () -> {
+		});
+	}
+
+	/**
+	 * Write the bytes in chunks whenever the output stream is ready.
+	 *
+	 * @param onFinished called once the bytes are no longer needed, even if writing failed
+	 */
+	public static void sendResponse(HttpServletResponse httpServletResponse, AsyncContext asyncContext, byte[] bytes, int length, String contentType, HttpResponseStatus httpResponseStatus, Runnable onFinished) {
 		try {
 			final ServletOutputStream servletOutputStream = httpServletResponse.getOutputStream();
-			final ByteBuffer byteBuffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+			final ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, 0, length);
 			httpServletResponse.addHeader("Content-Type", contentType);
 			httpServletResponse.addHeader("Access-Control-Allow-Origin", "*");
 			servletOutputStream.setWriteListener(new WriteListener() {
@@ -109,9 +148,12 @@ public abstract class ServletBase extends HttpServlet {
 							if (!byteBuffer.hasRemaining()) {
 								httpServletResponse.setStatus(httpResponseStatus.code);
 								asyncContext.complete();
+								onFinished.run();
 								return;
 							}
-							servletOutputStream.write(byteBuffer.get());
+							final int chunkBytes = Math.min(WRITE_CHUNK_BYTES, byteBuffer.remaining());
+							servletOutputStream.write(bytes, byteBuffer.position(), chunkBytes);
+							byteBuffer.position(byteBuffer.position() + chunkBytes);
 						}
 					} catch (Exception e) {
 						Main.LOGGER.error("", e);
@@ -121,10 +163,12 @@ public abstract class ServletBase extends HttpServlet {
 				@Override
 				public void onError(Throwable throwable) {
 					asyncContext.complete();
+					onFinished.run();
 				}
 			});
 		} catch (Exception e) {
 			Main.LOGGER.error("", e);
+			onFinished.run();
 		}
 	}
 
@@ -151,13 +195,22 @@ public abstract class ServletBase extends HttpServlet {
 		}
 	}
 
-	private static void buildResponseObject(HttpServletResponse httpServletResponse, AsyncContext asyncContext, long currentMillis, @Nullable JsonObject data, HttpResponseStatus httpResponseStatus, String... parameters) {
+	/**
+	 * The response is streamed straight into a pooled byte array instead of building a {@link JsonObject} and converting it to a string first.
+	 */
+	private static void buildResponseObject(HttpServletResponse httpServletResponse, AsyncContext asyncContext, long currentMillis, @Nullable SerializedDataBase data, HttpResponseStatus httpResponseStatus, String... parameters) {
 		final StringBuilder reasonPhrase = new StringBuilder(httpResponseStatus.description);
 		final String trimmedParameters = Arrays.stream(parameters).filter(parameter -> !parameter.isEmpty()).collect(Collectors.joining(", "));
 		if (!trimmedParameters.isEmpty()) {
 			reasonPhrase.append(" - ").append(trimmedParameters);
 		}
-		sendResponse(httpServletResponse, asyncContext, new Response(httpResponseStatus.code, currentMillis, reasonPhrase.toString(), data).getJson().toString(), getMimeType("json"), httpResponseStatus);
+
+		final JsonStreamWriter jsonStreamWriter = new JsonStreamWriter();
+		new Response(httpResponseStatus.code, currentMillis, reasonPhrase.toString(), null).serializeData(jsonStreamWriter);
+		if (data != null) {
+			data.serializeData(jsonStreamWriter.writeChild("data"));
+		}
+		sendResponse(httpServletResponse, asyncContext, jsonStreamWriter.getBytes(), jsonStreamWriter.getLength(), getMimeType("json"), httpResponseStatus, jsonStreamWriter::release);
 	}
 
 	private static String tryGetParameter(HttpServletRequest httpServletRequest, String parameter) {
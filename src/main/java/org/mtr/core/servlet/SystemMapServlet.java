@@ -1,10 +1,11 @@
 package org.mtr.core.servlet;
 
+import org.mtr.core.data.Data;
 import org.mtr.core.map.StationAndRoutes;
 import org.mtr.core.serializer.JsonReader;
+import org.mtr.core.serializer.SerializedDataBase;
+import org.mtr.core.simulation.ReadSnapshot;
 import org.mtr.core.simulation.Simulator;
-import org.mtr.core.tool.Utilities;
-import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectImmutableList;
 
@@ -17,10 +18,20 @@ public final class SystemMapServlet extends ServletBase {
 	}
 
 	@Override
-	public void getContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, Simulator simulator, Consumer<JsonObject> sendResponse) {
-		final StationAndRoutes stationAndRoutes = new StationAndRoutes(simulator.dimensions);
-		simulator.stations.forEach(stationAndRoutes::addStation);
-		simulator.routes.forEach(stationAndRoutes::addRoute);
-		sendResponse.accept(Utilities.getJsonObjectFromData(stationAndRoutes));
+	public void getContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, Simulator simulator, Consumer<SerializedDataBase> sendResponse) {
+		sendResponse.accept(getStationAndRoutes(simulator, simulator.dimensions));
+	}
+
+	@Override
+	protected boolean getSnapshotContent(String endpoint, String data, Object2ObjectAVLTreeMap<String, String> parameters, JsonReader jsonReader, long currentMillis, ReadSnapshot readSnapshot, Simulator simulator, Consumer<SerializedDataBase> sendResponse) {
+		sendResponse.accept(getStationAndRoutes(readSnapshot, readSnapshot.dimensions));
+		return true;
+	}
+
+	private static StationAndRoutes getStationAndRoutes(Data data, String[] dimensions) {
+		final StationAndRoutes stationAndRoutes = new StationAndRoutes(dimensions);
+		data.stations.forEach(stationAndRoutes::addStation);
+		data.routes.forEach(stationAndRoutes::addRoute);
+		return stationAndRoutes;
 	}
 }
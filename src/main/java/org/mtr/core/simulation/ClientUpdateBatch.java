@@ -0,0 +1,94 @@
+package org.mtr.core.simulation;
+
+import org.mtr.core.Main;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Collects the updates of all clients in a dimension that are due in a tick, so that they are delivered with one request to the {@code client-updates} endpoint.
+ * A batch contains the dimension, written with {@link DataOutputStream#writeUTF(String)}, followed by a section for each update containing
+ * <ul>
+ * <li>the client ID and endpoint, each written with {@link DataOutputStream#writeUTF(String)}</li>
+ * <li>the length of the content as a 4-byte big-endian integer</li>
+ * <li>the content, which is the same as the body of the request that would have been sent to the endpoint</li>
+ * </ul>
+ */
+public final class ClientUpdateBatch {
+
+	private int sectionCount;
+
+	private final String dimension;
+	private final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+	private final DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+
+	public static final String ENDPOINT = "client-updates";
+	public static final String CONTENT_TYPE = "application/octet-stream";
+
+	public ClientUpdateBatch(String dimension) {
+		this.dimension = dimension;
+		writeHeader();
+	}
+
+	public void add(String clientId, String endpoint, byte[] content) {
+		try {
+			dataOutputStream.writeUTF(clientId);
+			dataOutputStream.writeUTF(endpoint);
+			dataOutputStream.writeInt(content.length);
+			dataOutputStream.write(content);
+			sectionCount++;
+		} catch (IOException e) {
+			Main.LOGGER.error("", e);
+		}
+	}
+
+	public boolean isEmpty() {
+		return sectionCount == 0;
+	}
+
+	/**
+	 * @return the encoded batch, after which the batch is empty again
+	 */
+	public byte[] take() {
+		final byte[] bytes = byteArrayOutputStream.toByteArray();
+		byteArrayOutputStream.reset();
+		sectionCount = 0;
+		writeHeader();
+		return bytes;
+	}
+
+	private void writeHeader() {
+		try {
+			dataOutputStream.writeUTF(dimension);
+		} catch (IOException e) {
+			Main.LOGGER.error("", e);
+		}
+	}
+
+	/**
+	 * Split an encoded batch into its sections.
+	 *
+	 * @return the dimension of the batch
+	 */
+	public static String read(byte[] bytes, SectionConsumer sectionConsumer) throws IOException {
+		try (final DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			final String dimension = dataInputStream.readUTF();
+			while (dataInputStream.available() > 0) {
+				final String clientId = dataInputStream.readUTF();
+				final String endpoint = dataInputStream.readUTF();
+				final byte[] content = new byte[dataInputStream.readInt()];
+				dataInputStream.readFully(content);
+				sectionConsumer.accept(clientId, endpoint, content);
+			}
+			return dimension;
+		}
+	}
+
+	@FunctionalInterface
+	public interface SectionConsumer {
+		void accept(String clientId, String endpoint, byte[] content);
+	}
+}
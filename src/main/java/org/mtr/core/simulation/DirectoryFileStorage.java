@@ -0,0 +1,98 @@
+package org.mtr.core.simulation;
+
+import org.mtr.core.Main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * The original layout with one file per entry, spread over 256 folders named after the last two characters of the key.
+ */
+public class DirectoryFileStorage implements FileStorage {
+
+	private final Path path;
+
+	public DirectoryFileStorage(Path path) {
+		this.path = path;
+	}
+
+	@Override
+	public void read(BiConsumer<String, Callable<ByteBuffer>> consumer) {
+		if (!Files.isDirectory(path)) {
+			return;
+		}
+
+		try (final Stream<Path> pathStream = Files.list(path)) {
+			pathStream.forEach(idFolder -> {
+				try (final Stream<Path> folderStream = Files.list(idFolder)) {
+					folderStream.forEach(idFile -> consumer.accept(idFile.getFileName().toString(), () -> ByteBuffer.wrap(Files.readAllBytes(idFile))));
+				} catch (Exception e) {
+					Main.LOGGER.error("", e);
+				}
+
+				deleteIfEmpty(idFolder);
+			});
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
+	}
+
+	@Override
+	public void write(String key, byte[] bytes) throws IOException {
+		final Path parentPath = path.resolve(getParent(key));
+		if (!Files.exists(parentPath)) {
+			Files.createDirectories(parentPath);
+		}
+		Files.write(parentPath.resolve(key), bytes);
+	}
+
+	@Override
+	public boolean delete(String key) throws IOException {
+		return Files.deleteIfExists(path.resolve(getParent(key)).resolve(key));
+	}
+
+	/**
+	 * Every write is already a separate file, so there is nothing to commit.
+	 */
+	@Override
+	public void commit() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Delete all files and folders, used after migrating to another storage.
+	 */
+	public void deleteAll() {
+		read((key, readBytes) -> {
+			try {
+				delete(key);
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		}); // Each folder is deleted once it has been emptied
+		deleteIfEmpty(path);
+	}
+
+	private static String getParent(String key) {
+		return key.substring(Math.max(0, key.length() - 2));
+	}
+
+	private static void deleteIfEmpty(Path folder) {
+		try {
+			Files.deleteIfExists(folder);
+			Main.LOGGER.debug("Deleted empty folder: {}", folder);
+		} catch (DirectoryNotEmptyException ignored) {
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
+	}
+}
@@ -9,93 +9,168 @@ import org.mtr.libraries.it.unimi.dsi.fastutil.objects.*;
 import org.mtr.libraries.org.msgpack.core.MessageBufferPacker;
 import org.mtr.libraries.org.msgpack.core.MessagePack;
 import org.mtr.libraries.org.msgpack.core.MessagePacker;
-import org.mtr.libraries.org.msgpack.core.MessageUnpacker;
 
-import java.io.InputStream;
-import java.nio.file.DirectoryNotEmptyException;
-import java.nio.file.Files;
+import javax.annotation.Nullable;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Stream;
 
 public class FileLoader<T extends SerializedDataBaseWithId> {
 
 	public final String key;
 	private final ObjectSet<T> dataSet;
-	private final Path path;
+	private final FileStorage fileStorage;
+	/**
+	 * Read and written by the writer threads, so always synchronize on this map
+	 */
 	private final Object2IntAVLTreeMap<String> fileHashes = new Object2IntAVLTreeMap<>();
+	/**
+	 * The modification count of each object when it was last saved, used to skip serializing unchanged objects
+	 */
+	private final Reference2LongOpenHashMap<T> savedModificationCounts = new Reference2LongOpenHashMap<>();
+	@Nullable
+	private Future<?> saveFuture;
+
+	private static final int SNAPSHOTS_PER_WRITE = 256;
 
 	public FileLoader(ObjectSet<T> dataSet, Function<MessagePackReader, T> getData, Path rootPath, String key) {
+		this(dataSet, getData, rootPath, key, false);
+	}
+
+	/**
+	 * @param useLogStorage if {@code true}, store the data in a {@link LogFileStorage} instead of one file per object, migrating any existing files
+	 */
+	public FileLoader(ObjectSet<T> dataSet, Function<MessagePackReader, T> getData, Path rootPath, String key, boolean useLogStorage) {
 		this.key = key;
 		this.dataSet = dataSet;
-		path = rootPath.resolve(key);
-		createDirectory(path);
+		final DirectoryFileStorage directoryFileStorage = new DirectoryFileStorage(rootPath.resolve(key));
+		if (useLogStorage) {
+			final LogFileStorage logFileStorage = new LogFileStorage(rootPath, key);
+			logFileStorage.migrate(directoryFileStorage);
+			fileStorage = logFileStorage;
+		} else {
+			fileStorage = directoryFileStorage;
+		}
 		readMessagePackFromFile(getData);
 	}
 
-	public IntIntImmutablePair save(boolean useReducedHash) {
-		final ObjectArrayList<T> dirtyData = new ObjectArrayList<>(dataSet);
-		final ObjectImmutableList<ObjectArrayList<String>> checkFilesToDelete = createEmptyList256();
-		fileHashes.keySet().forEach(fileName -> checkFilesToDelete.get(getParentInt(fileName)).add(fileName));
+	/**
+	 * Serialize all data on the calling thread, then hash and write the changed files on the writer pool.
+	 * The snapshot is complete when this method returns, so the data can be modified straight away.
+	 * For reduced saves, objects that haven't been modified since the last save are skipped without being serialized.
+	 *
+	 * @param onComplete called on a writer thread with the number of files written and deleted
+	 * @return {@code false} if the previous save is still in progress, in which case nothing is saved
+	 */
+	public boolean save(FileWriterPool fileWriterPool, boolean useReducedHash, Consumer<IntIntImmutablePair> onComplete) {
+		if (isSaving()) {
+			return false;
+		}
+
+		final ObjectOpenHashSet<String> fileNames = new ObjectOpenHashSet<>();
+		final ObjectArrayList<Future<Integer>> writeFutures = new ObjectArrayList<>();
+		final Reference2LongOpenHashMap<T> newSavedModificationCounts = new Reference2LongOpenHashMap<>();
+		ObjectArrayList<Snapshot> snapshots = new ObjectArrayList<>();
+		int reservedKilobytes = 0;
 
-		final int filesWritten = writeDirtyDataToFile(checkFilesToDelete, dirtyData, SerializedDataBaseWithId::getHexId, useReducedHash);
-		int filesDeleted = 0;
+		for (final T data : dataSet) {
+			if (data != null && data.isValid()) {
+				final String fileName = data.getHexId();
+				fileNames.add(fileName);
 
-		for (final ObjectArrayList<String> checkFilesToDeleteForParent : checkFilesToDelete) {
-			for (final String fileName : checkFilesToDeleteForParent) {
-				try {
-					if (Files.deleteIfExists(path.resolve(fileName))) {
-						filesDeleted++;
+				final long modificationCount = data.getModificationCount();
+				final boolean unchanged = useReducedHash && savedModificationCounts.containsKey(data) && savedModificationCounts.getLong(data) == modificationCount;
+				if (useReducedHash) {
+					newSavedModificationCounts.put(data, modificationCount);
+				}
+
+				final byte[] bytes = unchanged ? null : pack(data, useReducedHash);
+				if (bytes != null) {
+					final int kilobytes = FileWriterPool.getKilobytes(bytes.length);
+					if (!fileWriterPool.tryReserve(kilobytes)) {
+						// Hand over the pending snapshots before waiting, otherwise the space they reserved would never be freed
+						writeFutures.add(submitWrite(fileWriterPool, snapshots, reservedKilobytes));
+						snapshots = new ObjectArrayList<>();
+						reservedKilobytes = 0;
+						fileWriterPool.reserve(kilobytes);
+					}
+
+					snapshots.add(new Snapshot(fileName, bytes));
+					reservedKilobytes += kilobytes;
+
+					if (snapshots.size() >= SNAPSHOTS_PER_WRITE) {
+						writeFutures.add(submitWrite(fileWriterPool, snapshots, reservedKilobytes));
+						snapshots = new ObjectArrayList<>();
+						reservedKilobytes = 0;
 					}
-				} catch (Exception e) {
-					Main.LOGGER.error("", e);
 				}
-				fileHashes.removeInt(fileName);
 			}
 		}
 
-		return new IntIntImmutablePair(filesWritten, filesDeleted);
+		if (!snapshots.isEmpty()) {
+			writeFutures.add(submitWrite(fileWriterPool, snapshots, reservedKilobytes));
+		}
+
+		// Full saves are not comparable with reduced saves, so the next reduced save has to check everything again
+		savedModificationCounts.clear();
+		savedModificationCounts.putAll(newSavedModificationCounts);
+
+		// Queued after all writes, so the writes it waits for have already been picked up by other threads
+		saveFuture = fileWriterPool.submit(() -> {
+			int filesWritten = 0;
+			for (final Future<Integer> writeFuture : writeFutures) {
+				filesWritten += writeFuture.get();
+			}
+			final int filesDeleted = deleteFiles(fileNames);
+			fileStorage.commit();
+			onComplete.accept(new IntIntImmutablePair(filesWritten, filesDeleted));
+			return null;
+		});
+
+		return true;
+	}
+
+	public boolean isSaving() {
+		return saveFuture != null && !saveFuture.isDone();
+	}
+
+	/**
+	 * Block until the last save has been written to disk.
+	 */
+	public void waitForSave() {
+		if (saveFuture != null) {
+			try {
+				saveFuture.get();
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		}
+	}
+
+	/**
+	 * Wait for the last save and release the storage.
+	 */
+	public void close() {
+		waitForSave();
+		fileStorage.close();
 	}
 
 	private void readMessagePackFromFile(Function<MessagePackReader, T> getData) {
-		final Object2ObjectArrayMap<String, Future<T>> futureDataMap = new Object2ObjectArrayMap<>();
+		final Object2ObjectLinkedOpenHashMap<String, Future<T>> futureDataMap = new Object2ObjectLinkedOpenHashMap<>();
 		final ExecutorService executorService = Executors.newCachedThreadPool();
 
-		try (final Stream<Path> pathStream = Files.list(path)) {
-			pathStream.forEach(idFolder -> {
-				try (final Stream<Path> folderStream = Files.list(idFolder)) {
-					folderStream.forEach(idFile -> futureDataMap.put(combineAsPath(idFolder, idFile), executorService.submit(() -> {
-						try (final InputStream inputStream = Files.newInputStream(idFile)) {
-							try (final MessageUnpacker messageUnpacker = MessagePack.newDefaultUnpacker(inputStream)) {
-								return getData.apply(new MessagePackReader(messageUnpacker));
-							} catch (Exception e) {
-								Main.LOGGER.error("", e);
-							}
-						} catch (Exception e) {
-							Main.LOGGER.error("", e);
-						}
-						return null;
-					})));
-				} catch (Exception e) {
-					Main.LOGGER.error("", e);
-				}
-
-				try {
-					Files.deleteIfExists(idFolder);
-					Main.LOGGER.debug("Deleted empty folder: {}", idFolder);
-				} catch (DirectoryNotEmptyException ignored) {
-				} catch (Exception e) {
-					Main.LOGGER.error("", e);
-				}
-			});
-		} catch (Exception e) {
-			Main.LOGGER.error("", e);
-		}
+		fileStorage.read((fileName, readBytes) -> futureDataMap.put(fileName, executorService.submit(() -> {
+			try {
+				return getData.apply(new MessagePackReader(readBytes.call()));
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+			return null;
+		})));
 
 		futureDataMap.forEach((fileName, futureData) -> {
 			try {
@@ -103,6 +178,7 @@ public class FileLoader<T extends SerializedDataBaseWithId> {
 				if (data != null) {
 					if (data.isValid()) {
 						dataSet.add(data);
+						savedModificationCounts.put(data, data.getModificationCount());
 					} else {
 						Main.LOGGER.warn("Skipping invalid data: {}", data);
 					}
@@ -112,77 +188,86 @@ public class FileLoader<T extends SerializedDataBaseWithId> {
 				Main.LOGGER.error("", e);
 			}
 		});
+
+		executorService.shutdown();
+		fileStorage.finishReading();
 	}
 
-	private int writeDirtyDataToFile(ObjectImmutableList<ObjectArrayList<String>> checkFilesToDelete, ObjectArrayList<T> dirtyData, Function<T, String> getFileName, boolean useReducedHash) {
-		int filesWritten = 0;
-		while (!dirtyData.isEmpty()) {
-			final T data = dirtyData.remove(0);
+	private Future<Integer> submitWrite(FileWriterPool fileWriterPool, ObjectArrayList<Snapshot> snapshots, int reservedKilobytes) {
+		return fileWriterPool.submit(() -> {
+			try {
+				return writeSnapshots(snapshots);
+			} finally {
+				fileWriterPool.release(reservedKilobytes);
+			}
+		});
+	}
 
-			if (data != null && data.isValid()) {
-				final String fileName = getFileName.apply(data);
-				final String parentFolderName = getParent(fileName);
-				final String parentAndFileName = combineAsPath(parentFolderName, fileName);
-				final int hash = getHash(data, useReducedHash);
-
-				if (!fileHashes.containsKey(parentAndFileName) || hash != fileHashes.getInt(parentAndFileName)) {
-					createDirectory(path.resolve(parentFolderName));
-
-					try (final MessagePacker messagePacker = MessagePack.newDefaultPacker(Files.newOutputStream(path.resolve(parentAndFileName), StandardOpenOption.CREATE))) {
-						packMessage(messagePacker, data, useReducedHash);
-					} catch (Exception e) {
-						Main.LOGGER.error("", e);
-					}
+	private int writeSnapshots(ObjectArrayList<Snapshot> snapshots) {
+		int filesWritten = 0;
+		for (final Snapshot snapshot : snapshots) {
+			final int hash = Arrays.hashCode(snapshot.bytes);
+			final boolean changed;
+			synchronized (fileHashes) {
+				changed = !fileHashes.containsKey(snapshot.fileName) || hash != fileHashes.getInt(snapshot.fileName);
+			}
 
-					fileHashes.put(parentAndFileName, hash);
-					filesWritten++;
+			if (changed) {
+				try {
+					fileStorage.write(snapshot.fileName, snapshot.bytes);
+				} catch (Exception e) {
+					Main.LOGGER.error("", e);
 				}
 
-				checkFilesToDelete.get(getParentInt(fileName)).remove(parentAndFileName);
+				synchronized (fileHashes) {
+					fileHashes.put(snapshot.fileName, hash);
+				}
+				filesWritten++;
 			}
 		}
-
 		return filesWritten;
 	}
 
-	private static String getParent(String fileName) {
-		return fileName.substring(Math.max(0, fileName.length() - 2));
-	}
-
-	private static int getParentInt(String fileName) {
-		try {
-			return Integer.parseInt(getParent(fileName), 16);
-		} catch (Exception e) {
-			Main.LOGGER.error("", e);
-			return 0;
+	private int deleteFiles(ObjectOpenHashSet<String> fileNamesToKeep) {
+		final ObjectArrayList<String> fileNamesToDelete = new ObjectArrayList<>();
+		synchronized (fileHashes) {
+			fileHashes.keySet().forEach(fileName -> {
+				if (!fileNamesToKeep.contains(fileName)) {
+					fileNamesToDelete.add(fileName);
+				}
+			});
 		}
-	}
 
-	private static ObjectImmutableList<ObjectArrayList<String>> createEmptyList256() {
-		final ObjectArrayList<ObjectArrayList<String>> list = new ObjectArrayList<>();
-		for (int i = 0; i <= 0xFF; i++) {
-			list.add(new ObjectArrayList<>());
+		int filesDeleted = 0;
+		for (final String fileName : fileNamesToDelete) {
+			try {
+				if (fileStorage.delete(fileName)) {
+					filesDeleted++;
+				}
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+			synchronized (fileHashes) {
+				fileHashes.removeInt(fileName);
+			}
 		}
-		return new ObjectImmutableList<>(list);
-	}
-
-	private static String combineAsPath(Path parentFolderPath, Path filePath) {
-		return combineAsPath(parentFolderPath.getFileName().toString(), filePath.getFileName().toString());
+		return filesDeleted;
 	}
 
-	private static String combineAsPath(String parentFolderName, String fileName) {
-		return String.format("%s/%s", parentFolderName, fileName);
+	private static int getHash(SerializedDataBaseWithId data, boolean useReducedHash) {
+		final byte[] bytes = pack(data, useReducedHash);
+		return bytes == null ? 0 : Arrays.hashCode(bytes);
 	}
 
-	private static int getHash(SerializedDataBaseWithId data, boolean useReducedHash) {
-		int hash = 0;
+	@Nullable
+	private static byte[] pack(SerializedDataBaseWithId data, boolean useReducedHash) {
 		try (final MessageBufferPacker messageBufferPacker = MessagePack.newDefaultBufferPacker()) {
 			packMessage(messageBufferPacker, data, useReducedHash);
-			hash = Arrays.hashCode(messageBufferPacker.toByteArray());
+			return messageBufferPacker.toByteArray();
 		} catch (Exception e) {
 			Main.LOGGER.error("", e);
+			return null;
 		}
-		return hash;
 	}
 
 	private static void packMessage(MessagePacker messagePacker, SerializedDataBaseWithId data, boolean useReducedHash) {
@@ -195,13 +280,14 @@ public class FileLoader<T extends SerializedDataBaseWithId> {
 		messagePackWriter.serialize();
 	}
 
-	private static void createDirectory(Path path) {
-		if (!Files.exists(path)) {
-			try {
-				Files.createDirectories(path);
-			} catch (Exception e) {
-				Main.LOGGER.error("", e);
-			}
+	private static class Snapshot {
+
+		private final String fileName;
+		private final byte[] bytes;
+
+		private Snapshot(String fileName, byte[] bytes) {
+			this.fileName = fileName;
+			this.bytes = bytes;
 		}
 	}
 }
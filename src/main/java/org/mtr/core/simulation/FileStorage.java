@@ -0,0 +1,37 @@
+package org.mtr.core.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+
+/**
+ * Where a {@link FileLoader} keeps the serialized data of one type, keyed by hex ID.
+ * Writes and deletions may come from several writer threads at once and are only guaranteed to survive a crash after {@link FileStorage#commit()}.
+ */
+public interface FileStorage {
+
+	/**
+	 * Called once on startup.
+	 *
+	 * @param consumer called on the calling thread with the key of each stored entry and a task reading its bytes, which is safe to run on another thread
+	 */
+	void read(BiConsumer<String, Callable<ByteBuffer>> consumer);
+
+	/**
+	 * Called once all tasks returned by {@link FileStorage#read(BiConsumer)} have finished, so that any buffers kept for reading can be released.
+	 */
+	default void finishReading() {
+	}
+
+	void write(String key, byte[] bytes) throws IOException;
+
+	/**
+	 * @return whether anything was deleted
+	 */
+	boolean delete(String key) throws IOException;
+
+	void commit() throws IOException;
+
+	void close();
+}
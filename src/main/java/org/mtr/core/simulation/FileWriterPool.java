@@ -0,0 +1,66 @@
+package org.mtr.core.simulation;
+
+import org.mtr.core.tool.Utilities;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.*;
+
+/**
+ * Background threads for hashing and writing snapshots taken by {@link FileLoader}.
+ * The total size of snapshots waiting to be written is bounded; if the writers fall behind, taking a snapshot blocks until enough data has been written.
+ * Threads are only created on the first save.
+ */
+public final class FileWriterPool {
+
+	@Nullable
+	private ExecutorService executorService;
+	private final int threadCount;
+	private final Semaphore pendingKilobytes = new Semaphore(MAX_PENDING_KILOBYTES);
+
+	private static final int MAX_PENDING_KILOBYTES = 64 * 1024;
+
+	public FileWriterPool(int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	public synchronized <T> Future<T> submit(Callable<T> callable) {
+		if (executorService == null) {
+			executorService = Executors.newFixedThreadPool(threadCount, runnable -> {
+				final Thread thread = new Thread(runnable, "File Writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executorService.submit(callable);
+	}
+
+	/**
+	 * Wait for all queued writes to finish and stop the threads.
+	 */
+	public synchronized void shutdown() {
+		if (executorService != null) {
+			executorService.shutdown();
+			Utilities.awaitTermination(executorService);
+			executorService = null;
+		}
+	}
+
+	/**
+	 * @return the number of kilobytes to reserve for a snapshot, capped so that a single very large snapshot can always be reserved
+	 */
+	static int getKilobytes(int bytes) {
+		return Math.min(MAX_PENDING_KILOBYTES, (bytes >> 10) + 1);
+	}
+
+	boolean tryReserve(int kilobytes) {
+		return pendingKilobytes.tryAcquire(kilobytes);
+	}
+
+	void reserve(int kilobytes) {
+		pendingKilobytes.acquireUninterruptibly(kilobytes);
+	}
+
+	void release(int kilobytes) {
+		pendingKilobytes.release(kilobytes);
+	}
+}
@@ -0,0 +1,582 @@
+package org.mtr.core.simulation;
+
+import org.mtr.core.Main;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.Int2ObjectAVLTreeMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectObjectImmutablePair;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Stores every entry of one type in a few large append-only segment files instead of one file per entry.
+ * <p>
+ * Writes and deletions are appended as records. {@link LogFileStorage#commit()} appends a footer with the number of records and a checksum of the batch, then flushes the segment to disk.
+ * A batch never grows a segment past its size limit. Like a compaction, a larger batch is split over several segments, each part ending with its own footer, so a crash can keep the earlier parts of a batch.
+ * On startup, a batch without a valid footer (left behind by a crash in the middle of a save) is ignored and new records are appended to a new segment.
+ * The location of the latest record of each key is kept in memory, and the log is compacted into new segments once most of it is outdated.
+ * <p>
+ * Segments are memory-mapped on startup, so entries are read straight from the page cache without being copied onto the heap.
+ */
+public class LogFileStorage implements FileStorage {
+
+	private int currentSegmentNumber;
+	private long currentSegmentSize;
+	private long totalBytes;
+	private long liveBytes;
+	private int batchRecords;
+	/**
+	 * Segments before this one were replaced by a compaction
+	 */
+	private int firstLiveSegmentNumber;
+	/**
+	 * Only kept until all entries have been read on startup
+	 */
+	@Nullable
+	private Int2ObjectAVLTreeMap<ByteBuffer> mappedSegments = new Int2ObjectAVLTreeMap<>();
+
+	private final Path rootPath;
+	private final String key;
+	/**
+	 * A new segment is started before a record would make the current one larger than this, which keeps each segment well below the size limit of a mapped buffer
+	 */
+	private final long segmentBytes;
+	private final Object2ObjectLinkedOpenHashMap<String, Location> index = new Object2ObjectLinkedOpenHashMap<>();
+	private final Int2ObjectAVLTreeMap<FileChannel> segmentChannels = new Int2ObjectAVLTreeMap<>();
+	private final CRC32 batchChecksum = new CRC32();
+
+	private static final byte RECORD_PUT = 1;
+	private static final byte RECORD_DELETE = 2;
+	private static final byte RECORD_FOOTER = 3;
+	/**
+	 * Written at the start of a compaction to drop everything in earlier segments, in case they can't be deleted
+	 */
+	private static final byte RECORD_CLEAR = 4;
+	private static final int FOOTER_MAGIC = 0x54534346;
+	private static final int FOOTER_SIZE = 1 + Integer.BYTES + Long.BYTES + Integer.BYTES;
+	private static final long SEGMENT_BYTES = 64 << 20;
+	/**
+	 * Small logs aren't worth compacting even if most of the records are outdated
+	 */
+	private static final long MIN_COMPACTION_BYTES = 4 << 20;
+
+	public LogFileStorage(Path rootPath, String key) {
+		this(rootPath, key, SEGMENT_BYTES);
+	}
+
+	LogFileStorage(Path rootPath, String key, long segmentBytes) {
+		this.rootPath = rootPath;
+		this.key = key;
+		this.segmentBytes = segmentBytes;
+		final Pattern segmentPattern = Pattern.compile(Pattern.quote(key) + "-([0-9a-f]{8})\\.log");
+		final Pattern compactionPattern = Pattern.compile(Pattern.quote(key) + "-([0-9a-f]{8})\\.tmp");
+
+		try {
+			Files.createDirectories(rootPath);
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
+
+		try (final Stream<Path> pathStream = Files.list(rootPath)) {
+			pathStream.forEach(path -> {
+				final String fileName = path.getFileName().toString();
+				final Matcher matcher = segmentPattern.matcher(fileName);
+				try {
+					if (matcher.matches()) {
+						segmentChannels.put(Integer.parseInt(matcher.group(1), 16), FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+					} else if (compactionPattern.matcher(fileName).matches()) {
+						// Left behind by an interrupted compaction
+						Files.delete(path);
+					}
+				} catch (Exception e) {
+					Main.LOGGER.error("", e);
+				}
+			});
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
+
+		// Later segments override earlier ones
+		final boolean[] hasUncommittedRecords = {false};
+		segmentChannels.forEach((segmentNumber, channel) -> {
+			try {
+				currentSegmentNumber = segmentNumber;
+				currentSegmentSize = channel.size();
+				hasUncommittedRecords[0] = scanSegment(segmentNumber, channel) < currentSegmentSize;
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		});
+
+		deleteSegmentsBefore(firstLiveSegmentNumber);
+		segmentChannels.values().forEach(channel -> {
+			try {
+				totalBytes += channel.size();
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		});
+
+		// Never append after uncommitted records, otherwise they would become part of the next batch and make its checksum invalid
+		if (hasUncommittedRecords[0]) {
+			currentSegmentNumber++;
+			currentSegmentSize = 0;
+		}
+	}
+
+	/**
+	 * Entries are returned as read-only views of the mapped segments until {@link LogFileStorage#finishReading()} is called.
+	 */
+	@Override
+	public void read(BiConsumer<String, Callable<ByteBuffer>> consumer) {
+		index.forEach((key, location) -> consumer.accept(key, () -> readValue(location)));
+	}
+
+	@Override
+	public synchronized void finishReading() {
+		mappedSegments = null;
+	}
+
+	@Override
+	public synchronized void write(String key, byte[] bytes) throws IOException {
+		final ByteBuffer buffer = createPutRecord(key, ByteBuffer.wrap(bytes));
+		final long offset = appendRecord(buffer);
+		updateIndex(key, new Location(currentSegmentNumber, offset + buffer.capacity() - bytes.length, bytes.length, buffer.capacity()));
+	}
+
+	@Override
+	public synchronized boolean delete(String key) throws IOException {
+		if (index.containsKey(key)) {
+			final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+			final ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES + keyBytes.length);
+			buffer.put(RECORD_DELETE).putInt(keyBytes.length).put(keyBytes);
+			appendRecord(buffer);
+			updateIndex(key, null);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized void commit() throws IOException {
+		if (batchRecords == 0) {
+			return;
+		}
+
+		writeFooter();
+		if (currentSegmentSize >= segmentBytes) {
+			currentSegmentNumber++;
+			currentSegmentSize = 0;
+		}
+
+		if (totalBytes >= MIN_COMPACTION_BYTES && liveBytes * 2 < totalBytes) {
+			compact();
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		mappedSegments = null;
+		segmentChannels.values().forEach(LogFileStorage::closeChannel);
+		segmentChannels.clear();
+	}
+
+	/**
+	 * Copy the entries of another storage that aren't already in this log, then delete them from the other storage once committed.
+	 * Entries already in the log are newer, so they are kept.
+	 */
+	public void migrate(DirectoryFileStorage directoryFileStorage) {
+		final int[] migratedCount = {0};
+		final boolean[] failed = {false};
+		directoryFileStorage.read((key, readBytes) -> {
+			if (!index.containsKey(key)) {
+				try {
+					final ByteBuffer buffer = readBytes.call();
+					final byte[] bytes = new byte[buffer.remaining()];
+					buffer.get(bytes);
+					write(key, bytes);
+					migratedCount[0]++;
+				} catch (Exception e) {
+					Main.LOGGER.error("", e);
+					failed[0] = true;
+				}
+			}
+		});
+
+		try {
+			commit();
+			if (migratedCount[0] > 0) {
+				Main.LOGGER.info("Migrated {} {} to {}", migratedCount[0], key, rootPath);
+			}
+			// Keep the old files if anything couldn't be copied so that the migration can be retried
+			if (!failed[0]) {
+				directoryFileStorage.deleteAll();
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
+	}
+
+	/**
+	 * Map a segment and add its committed records to the index. Anything after the last valid footer is ignored.
+	 *
+	 * @return the number of bytes up to and including the last valid footer
+	 */
+	private long scanSegment(int segmentNumber, FileChannel channel) throws IOException {
+		final ByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		if (mappedSegments != null) {
+			mappedSegments.put(segmentNumber, mappedBuffer);
+		}
+
+		final ByteBuffer buffer = mappedBuffer.duplicate();
+		final CRC32 checksum = new CRC32();
+		final ObjectArrayList<ObjectObjectImmutablePair<String, Location>> pendingChanges = new ObjectArrayList<>();
+		boolean pendingClear = false;
+		int committedEnd = 0;
+
+		try {
+			while (buffer.hasRemaining()) {
+				final int recordStart = buffer.position();
+				final byte recordType = buffer.get();
+
+				if (recordType == RECORD_PUT || recordType == RECORD_DELETE) {
+					final byte[] keyBytes = new byte[buffer.getInt()];
+					buffer.get(keyBytes);
+					final String key = new String(keyBytes, StandardCharsets.UTF_8);
+					if (recordType == RECORD_PUT) {
+						final int valueLength = buffer.getInt();
+						final int valueOffset = buffer.position();
+						buffer.position(valueOffset + valueLength);
+						pendingChanges.add(new ObjectObjectImmutablePair<>(key, new Location(segmentNumber, valueOffset, valueLength, buffer.position() - recordStart)));
+					} else {
+						pendingChanges.add(new ObjectObjectImmutablePair<>(key, null));
+					}
+					updateChecksum(checksum, mappedBuffer, recordStart, buffer.position());
+				} else if (recordType == RECORD_CLEAR) {
+					pendingClear = true;
+					updateChecksum(checksum, mappedBuffer, recordStart, buffer.position());
+				} else if (recordType == RECORD_FOOTER) {
+					final int recordCount = buffer.getInt();
+					final long batchChecksum = buffer.getLong();
+					if (buffer.getInt() != FOOTER_MAGIC || recordCount != pendingChanges.size() + (pendingClear ? 1 : 0) || batchChecksum != checksum.getValue()) {
+						break;
+					}
+					if (pendingClear) {
+						index.clear();
+						liveBytes = 0;
+						firstLiveSegmentNumber = segmentNumber;
+					}
+					pendingChanges.forEach(change -> updateIndex(change.left(), change.right()));
+					pendingChanges.clear();
+					pendingClear = false;
+					checksum.reset();
+					committedEnd = buffer.position();
+				} else {
+					break;
+				}
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException ignored) {
+			// The last record was only partially written
+		}
+
+		if (committedEnd < buffer.limit()) {
+			Main.LOGGER.warn("Ignoring {} uncommitted byte(s) in {}", buffer.limit() - committedEnd, getSegmentPath(segmentNumber));
+		}
+
+		return committedEnd;
+	}
+
+	/**
+	 * Rewrite the latest record of each key into new segments and delete all older segments.
+	 * The first new segment starts with a {@link LogFileStorage#RECORD_CLEAR} record and is renamed last, so if this is interrupted, the old segments are still used.
+	 */
+	private void compact() {
+		final int firstSegmentNumber = currentSegmentNumber + 1;
+		final ObjectArrayList<ObjectObjectImmutablePair<String, Location>> newLocations = new ObjectArrayList<>();
+		final ObjectArrayList<Path> compactionPaths = new ObjectArrayList<>();
+		final IntArrayList movedSegmentNumbers = new IntArrayList();
+		final CRC32 checksum = new CRC32();
+		int segmentNumber = firstSegmentNumber;
+		FileChannel channel = null;
+		int records = 0;
+		long size = 0;
+
+		try {
+			channel = createCompactionSegment(segmentNumber, compactionPaths);
+			final ByteBuffer clearBuffer = ByteBuffer.allocate(1);
+			clearBuffer.put(RECORD_CLEAR);
+			checksum.update(clearBuffer.array(), 0, 1);
+			writeFully(channel, clearBuffer, 0);
+			records++;
+			size++;
+
+			for (final Object2ObjectMap.Entry<String, Location> entry : index.object2ObjectEntrySet()) {
+				if (channel == null) {
+					segmentNumber++;
+					channel = createCompactionSegment(segmentNumber, compactionPaths);
+				}
+
+				final int valueLength = entry.getValue().valueLength;
+				final ByteBuffer buffer = createPutRecord(entry.getKey(), readValue(entry.getValue()));
+				checksum.update(buffer.array(), 0, buffer.capacity());
+				writeFully(channel, buffer, size);
+				newLocations.add(new ObjectObjectImmutablePair<>(entry.getKey(), new Location(segmentNumber, size + buffer.capacity() - valueLength, valueLength, buffer.capacity())));
+				size += buffer.capacity();
+				records++;
+
+				if (size >= segmentBytes) {
+					finishCompactionSegment(channel, records, checksum, size);
+					channel = null;
+					records = 0;
+					size = 0;
+				}
+			}
+
+			if (channel == null) {
+				// The last segment is full, so start appending to a new one
+				segmentNumber++;
+			} else {
+				finishCompactionSegment(channel, records, checksum, size);
+				channel = null;
+				size += FOOTER_SIZE;
+			}
+
+			for (int i = compactionPaths.size() - 1; i >= 0; i--) {
+				Files.move(compactionPaths.get(i), getSegmentPath(firstSegmentNumber + i), StandardCopyOption.ATOMIC_MOVE);
+				movedSegmentNumbers.add(firstSegmentNumber + i);
+			}
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+			if (channel != null) {
+				closeChannel(channel);
+			}
+			// Moved segments would override anything appended to the current segment later on
+			compactionPaths.forEach(LogFileStorage::deleteIfExists);
+			movedSegmentNumbers.forEach(movedSegmentNumber -> deleteIfExists(getSegmentPath(movedSegmentNumber)));
+			return;
+		}
+
+		deleteSegmentsBefore(firstSegmentNumber);
+		firstLiveSegmentNumber = firstSegmentNumber;
+		totalBytes = 0;
+		for (int i = 0; i < compactionPaths.size(); i++) {
+			try {
+				final FileChannel newChannel = FileChannel.open(getSegmentPath(firstSegmentNumber + i), StandardOpenOption.READ, StandardOpenOption.WRITE);
+				segmentChannels.put(firstSegmentNumber + i, newChannel);
+				totalBytes += newChannel.size();
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		}
+
+		newLocations.forEach(newLocation -> index.put(newLocation.left(), newLocation.right()));
+		liveBytes = totalBytes - compactionPaths.size() * FOOTER_SIZE - 1;
+		currentSegmentNumber = segmentNumber;
+		currentSegmentSize = size;
+		Main.LOGGER.debug("Compacted {} to {} byte(s)", key, totalBytes);
+	}
+
+	private FileChannel createCompactionSegment(int segmentNumber, ObjectArrayList<Path> compactionPaths) throws IOException {
+		final Path compactionPath = rootPath.resolve(String.format("%s-%08x.tmp", key, segmentNumber));
+		compactionPaths.add(compactionPath);
+		return FileChannel.open(compactionPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * On some systems, a file can't be deleted while it is still mapped. Such segments are ignored and deleted again on the next startup.
+	 */
+	private void deleteSegmentsBefore(int segmentNumber) {
+		final IntArrayList oldSegmentNumbers = new IntArrayList();
+		segmentChannels.forEach((oldSegmentNumber, channel) -> {
+			if (oldSegmentNumber < segmentNumber) {
+				oldSegmentNumbers.add((int) oldSegmentNumber);
+			}
+		});
+
+		oldSegmentNumbers.forEach(oldSegmentNumber -> {
+			closeChannel(segmentChannels.remove(oldSegmentNumber));
+			if (mappedSegments != null) {
+				mappedSegments.remove(oldSegmentNumber);
+			}
+			deleteIfExists(getSegmentPath(oldSegmentNumber));
+		});
+	}
+
+	private long appendRecord(ByteBuffer buffer) throws IOException {
+		if (currentSegmentSize > 0 && currentSegmentSize + buffer.capacity() + FOOTER_SIZE > segmentBytes) {
+			// Finish the part of the batch in the full segment so that each segment can be read on its own
+			if (batchRecords > 0) {
+				writeFooter();
+			}
+			currentSegmentNumber++;
+			currentSegmentSize = 0;
+		}
+
+		final FileChannel channel = getCurrentChannel();
+		final long offset = currentSegmentSize;
+		batchChecksum.update(buffer.array(), 0, buffer.capacity());
+		writeFully(channel, buffer, offset);
+		currentSegmentSize += buffer.capacity();
+		totalBytes += buffer.capacity();
+		batchRecords++;
+		return offset;
+	}
+
+	private void writeFooter() throws IOException {
+		final FileChannel channel = getCurrentChannel();
+		writeFully(channel, createFooter(batchRecords, batchChecksum), currentSegmentSize);
+		channel.force(false);
+		currentSegmentSize += FOOTER_SIZE;
+		totalBytes += FOOTER_SIZE;
+		batchRecords = 0;
+		batchChecksum.reset();
+	}
+
+	private void updateIndex(String key, @Nullable Location location) {
+		final Location oldLocation = location == null ? index.remove(key) : index.put(key, location);
+		if (oldLocation != null) {
+			liveBytes -= oldLocation.recordLength;
+		}
+		if (location != null) {
+			liveBytes += location.recordLength;
+		}
+	}
+
+	/**
+	 * @return a view of the mapped segment if it is still mapped, otherwise a copy read from the file
+	 */
+	private ByteBuffer readValue(Location location) throws IOException {
+		final Int2ObjectAVLTreeMap<ByteBuffer> currentMappedSegments = mappedSegments;
+		final ByteBuffer mappedBuffer = currentMappedSegments == null ? null : currentMappedSegments.get(location.segmentNumber);
+
+		if (mappedBuffer == null) {
+			final ByteBuffer buffer = ByteBuffer.allocate(location.valueLength);
+			readFully(getChannel(location.segmentNumber), buffer, location.valueOffset);
+			buffer.flip();
+			return buffer;
+		} else {
+			final ByteBuffer buffer = mappedBuffer.duplicate();
+			buffer.position((int) location.valueOffset);
+			buffer.limit((int) location.valueOffset + location.valueLength);
+			return buffer.slice();
+		}
+	}
+
+	private synchronized FileChannel getChannel(int segmentNumber) throws IOException {
+		final FileChannel channel = segmentChannels.get(segmentNumber);
+		if (channel == null) {
+			throw new IOException("Missing segment " + getSegmentPath(segmentNumber));
+		}
+		return channel;
+	}
+
+	private FileChannel getCurrentChannel() throws IOException {
+		final FileChannel channel = segmentChannels.get(currentSegmentNumber);
+		if (channel == null) {
+			final FileChannel newChannel = FileChannel.open(getSegmentPath(currentSegmentNumber), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			segmentChannels.put(currentSegmentNumber, newChannel);
+			return newChannel;
+		} else {
+			return channel;
+		}
+	}
+
+	private Path getSegmentPath(int segmentNumber) {
+		return rootPath.resolve(String.format("%s-%08x.log", key, segmentNumber));
+	}
+
+	private static ByteBuffer createPutRecord(String key, ByteBuffer value) {
+		final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES + keyBytes.length + Integer.BYTES + value.remaining());
+		buffer.put(RECORD_PUT).putInt(keyBytes.length).put(keyBytes).putInt(value.remaining()).put(value);
+		return buffer;
+	}
+
+	private static ByteBuffer createFooter(int records, CRC32 checksum) {
+		final ByteBuffer buffer = ByteBuffer.allocate(FOOTER_SIZE);
+		buffer.put(RECORD_FOOTER).putInt(records).putLong(checksum.getValue()).putInt(FOOTER_MAGIC);
+		return buffer;
+	}
+
+	private static void finishCompactionSegment(FileChannel channel, int records, CRC32 checksum, long size) throws IOException {
+		writeFully(channel, createFooter(records, checksum), size);
+		checksum.reset();
+		channel.force(true);
+		channel.close();
+	}
+
+	private static void updateChecksum(CRC32 checksum, ByteBuffer mappedBuffer, int start, int end) {
+		final ByteBuffer buffer = mappedBuffer.duplicate();
+		buffer.position(start);
+		buffer.limit(end);
+		checksum.update(buffer);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	private static void closeChannel(FileChannel channel) {
+		try {
+			channel.close();
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
+	}
+
+	private static void deleteIfExists(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+		}
+	}
+
+	private static class Location {
+
+		private final int segmentNumber;
+		private final long valueOffset;
+		private final int valueLength;
+		/**
+		 * The size of the whole record, used to work out how much of the log is outdated
+		 */
+		private final int recordLength;
+
+		private Location(int segmentNumber, long valueOffset, int valueLength, int recordLength) {
+			this.segmentNumber = segmentNumber;
+			this.valueOffset = valueOffset;
+			this.valueLength = valueLength;
+			this.recordLength = recordLength;
+		}
+	}
+}
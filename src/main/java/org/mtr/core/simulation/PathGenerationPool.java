@@ -0,0 +1,53 @@
+package org.mtr.core.simulation;
+
+import org.mtr.core.tool.Utilities;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Background threads for depot path generation, so that generating a large network doesn't stall the tick.
+ * Tasks must only read immutable data and hand their results back with {@link Simulator#run(Runnable, RunTier)}.
+ * Threads are only created on the first generation.
+ * One pool is normally shared by the simulators of all dimensions, so the number of threads doesn't grow with the number of dimensions.
+ */
+public final class PathGenerationPool {
+
+	@Nullable
+	private ExecutorService executorService;
+	private final int threadCount;
+
+	/**
+	 * Create a pool that leaves one core free for the simulation threads.
+	 */
+	public PathGenerationPool() {
+		this(Runtime.getRuntime().availableProcessors() - 1);
+	}
+
+	public PathGenerationPool(int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	public synchronized void execute(Runnable runnable) {
+		if (executorService == null) {
+			executorService = Executors.newFixedThreadPool(threadCount, newRunnable -> {
+				final Thread thread = new Thread(newRunnable, "Path Generation");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		executorService.execute(runnable);
+	}
+
+	/**
+	 * Interrupt any running generation and stop the threads. Unfinished results are discarded.
+	 */
+	public synchronized void shutdown() {
+		if (executorService != null) {
+			executorService.shutdownNow();
+			Utilities.awaitTermination(executorService);
+			executorService = null;
+		}
+	}
+}
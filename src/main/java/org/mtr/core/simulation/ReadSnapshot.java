@@ -0,0 +1,34 @@
+package org.mtr.core.simulation;
+
+import org.mtr.core.data.Data;
+
+/**
+ * A copy of the stations, platforms, sidings, routes, depots and rails of a {@link Simulator} with all caches and indexes built,
+ * so that read-only requests can be answered on servlet threads instead of being queued on the simulation thread.
+ * Lifts and vehicles move every tick, so they aren't included.
+ * <p>
+ * A published snapshot must never be changed. When the data changes, a new snapshot is built with a higher version.
+ */
+public final class ReadSnapshot extends Data {
+
+	/**
+	 * Increases with every snapshot of the same simulator
+	 */
+	public final long version;
+	/**
+	 * When the data was copied from the simulator
+	 */
+	public final long createdMillis;
+	/**
+	 * The {@link Data#getModificationCount()} of the simulator when the data was copied. If the simulator's count is higher, the snapshot is missing some changes.
+	 */
+	public final long simulatorModificationCount;
+	public final String[] dimensions;
+
+	ReadSnapshot(long version, long createdMillis, long simulatorModificationCount, String[] dimensions) {
+		this.version = version;
+		this.createdMillis = createdMillis;
+		this.simulatorModificationCount = simulatorModificationCount;
+		this.dimensions = dimensions;
+	}
+}
@@ -0,0 +1,159 @@
+package org.mtr.core.simulation;
+
+import org.mtr.core.Main;
+import org.mtr.core.data.*;
+import org.mtr.core.serializer.BinaryReader;
+import org.mtr.core.serializer.BinaryWriter;
+import org.mtr.core.serializer.ReaderBase;
+import org.mtr.core.serializer.SerializedDataBaseWithId;
+import org.mtr.core.tool.Utilities;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectSet;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Builds a new {@link ReadSnapshot} whenever the data of a {@link Simulator} changes.
+ * Only serializing the data happens on the simulation thread, and entities that haven't changed since the last snapshot aren't serialized again.
+ * The snapshot is then built and its caches are synced on a background thread before it is published.
+ */
+final class ReadSnapshotPublisher {
+
+	private long version;
+	private long lastBuildMillis;
+	private long lastModificationCount;
+	/**
+	 * Set when the simulator is synced, in which case entities may have been added or removed
+	 */
+	private boolean synced = true;
+	private volatile boolean building;
+	@Nullable
+	private volatile ReadSnapshot readSnapshot;
+	@Nullable
+	private ExecutorService executorService;
+	private Reference2ObjectOpenHashMap<SerializedDataBaseWithId, SerializedEntity> serializedEntities = new Reference2ObjectOpenHashMap<>();
+
+	/**
+	 * Changes that don't sync the simulator (such as signal changes) are published at most this often
+	 */
+	private static final int MIN_BUILD_INTERVAL_MILLIS = 1000;
+
+	@Nullable
+	ReadSnapshot getReadSnapshot() {
+		return readSnapshot;
+	}
+
+	void markSynced() {
+		synced = true;
+	}
+
+	/**
+	 * @return the bytes the entity was serialized to for the latest snapshot or {@code null} if it isn't in the snapshot
+	 */
+	@Nullable
+	byte[] getSerializedBytes(SerializedDataBaseWithId data) {
+		final SerializedEntity serializedEntity = serializedEntities.get(data);
+		return serializedEntity == null ? null : serializedEntity.bytes;
+	}
+
+	/**
+	 * Should be called on the simulation thread once per tick.
+	 */
+	void tick(Simulator simulator, long currentMillis) {
+		if (building) {
+			return;
+		}
+
+		final long modificationCount = simulator.getModificationCount();
+		if (!synced && (modificationCount == lastModificationCount || currentMillis - lastBuildMillis < MIN_BUILD_INTERVAL_MILLIS)) {
+			return;
+		}
+
+		synced = false;
+		lastModificationCount = modificationCount;
+		lastBuildMillis = currentMillis;
+
+		final Reference2ObjectOpenHashMap<SerializedDataBaseWithId, SerializedEntity> newSerializedEntities = new Reference2ObjectOpenHashMap<>();
+		final ObjectArrayList<byte[]> stations = serialize(simulator.stations, newSerializedEntities);
+		final ObjectArrayList<byte[]> platforms = serialize(simulator.platforms, newSerializedEntities);
+		final ObjectArrayList<byte[]> sidings = serialize(simulator.sidings, newSerializedEntities);
+		final ObjectArrayList<byte[]> routes = serialize(simulator.routes, newSerializedEntities);
+		final ObjectArrayList<byte[]> depots = serialize(simulator.depots, newSerializedEntities);
+		final ObjectArrayList<byte[]> rails = serialize(simulator.rails, newSerializedEntities);
+		serializedEntities = newSerializedEntities;
+
+		final ReadSnapshot newReadSnapshot = new ReadSnapshot(++version, currentMillis, modificationCount, simulator.dimensions);
+		building = true;
+		getExecutorService().execute(() -> {
+			try {
+				deserialize(stations, newReadSnapshot.stations, readerBase -> new Station(readerBase, newReadSnapshot));
+				deserialize(platforms, newReadSnapshot.platforms, readerBase -> new Platform(readerBase, newReadSnapshot));
+				deserialize(sidings, newReadSnapshot.sidings, readerBase -> new Siding(readerBase, newReadSnapshot));
+				deserialize(routes, newReadSnapshot.routes, readerBase -> new Route(readerBase, newReadSnapshot));
+				deserialize(depots, newReadSnapshot.depots, readerBase -> new Depot(readerBase, newReadSnapshot));
+				deserialize(rails, newReadSnapshot.rails, Rail::new);
+				newReadSnapshot.sync();
+				readSnapshot = newReadSnapshot;
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			} finally {
+				building = false;
+			}
+		});
+	}
+
+	void shutdown() {
+		if (executorService != null) {
+			executorService.shutdown();
+			Utilities.awaitTermination(executorService);
+			executorService = null;
+		}
+	}
+
+	private ExecutorService getExecutorService() {
+		if (executorService == null) {
+			executorService = Executors.newSingleThreadExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "Read Snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executorService;
+	}
+
+	private <T extends SerializedDataBaseWithId> ObjectArrayList<byte[]> serialize(ObjectSet<T> dataSet, Reference2ObjectOpenHashMap<SerializedDataBaseWithId, SerializedEntity> newSerializedEntities) {
+		final ObjectArrayList<byte[]> serializedDataList = new ObjectArrayList<>(dataSet.size());
+		dataSet.forEach(data -> {
+			final long modificationCount = data.getModificationCount();
+			SerializedEntity serializedEntity = serializedEntities.get(data);
+			if (serializedEntity == null || serializedEntity.modificationCount != modificationCount) {
+				final BinaryWriter binaryWriter = new BinaryWriter();
+				data.serializeData(binaryWriter);
+				serializedEntity = new SerializedEntity(modificationCount, binaryWriter.toByteArray());
+			}
+			newSerializedEntities.put(data, serializedEntity);
+			serializedDataList.add(serializedEntity.bytes);
+		});
+		return serializedDataList;
+	}
+
+	private static <T> void deserialize(ObjectArrayList<byte[]> serializedDataList, ObjectSet<T> dataSet, Function<ReaderBase, T> newInstance) {
+		serializedDataList.forEach(bytes -> dataSet.add(newInstance.apply(new BinaryReader(ByteBuffer.wrap(bytes)))));
+	}
+
+	private static final class SerializedEntity {
+
+		private final long modificationCount;
+		private final byte[] bytes;
+
+		private SerializedEntity(long modificationCount, byte[] bytes) {
+			this.modificationCount = modificationCount;
+			this.bytes = bytes;
+		}
+	}
+}
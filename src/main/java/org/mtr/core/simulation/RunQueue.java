@@ -0,0 +1,131 @@
+package org.mtr.core.simulation;
+
+import org.mtr.core.Main;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free queue that any thread can add to, but only the simulation thread can run from.
+ * Adding only swaps the tail, so servlet threads never wait for each other or for the simulation thread.
+ * The statistics are written by the simulation thread and can be read from any thread.
+ */
+public final class RunQueue {
+
+	/**
+	 * Only accessed by the simulation thread. This is always a node that has already been run (or the initial empty node).
+	 */
+	private Node head;
+	private volatile int peakDepth;
+	private volatile long runCount;
+	private volatile long totalWaitNanos;
+	private volatile long maxWaitNanos;
+
+	private final AtomicReference<Node> tail;
+	private final AtomicInteger depth = new AtomicInteger();
+
+	public RunQueue() {
+		head = new Node(null);
+		tail = new AtomicReference<>(head);
+	}
+
+	/**
+	 * Can be called from any thread.
+	 */
+	public void add(Runnable runnable) {
+		depth.incrementAndGet();
+		final Node node = new Node(runnable);
+		tail.getAndSet(node).next = node;
+	}
+
+	/**
+	 * Must only be called from the simulation thread. At least one queued request is run (if any), then requests are run until the deadline.
+	 * A request added while it's being linked into the queue might only be run on the next call.
+	 *
+	 * @param deadlineMillis stop running requests after this time
+	 */
+	public void run(long deadlineMillis) {
+		final int currentDepth = depth.get();
+		if (currentDepth > peakDepth) {
+			peakDepth = currentDepth;
+		}
+
+		do {
+			final Node next = head.next;
+			if (next == null) {
+				return;
+			}
+
+			head = next;
+			final Runnable runnable = next.runnable;
+			next.runnable = null;
+			depth.decrementAndGet();
+
+			final long waitNanos = System.nanoTime() - next.queuedNanos;
+			runCount++;
+			totalWaitNanos += waitNanos;
+			if (waitNanos > maxWaitNanos) {
+				maxWaitNanos = waitNanos;
+			}
+
+			try {
+				if (runnable != null) {
+					runnable.run();
+				}
+			} catch (Exception e) {
+				Main.LOGGER.error("", e);
+			}
+		} while (System.currentTimeMillis() < deadlineMillis);
+	}
+
+	/**
+	 * @return the number of requests waiting to be run
+	 */
+	public int getDepth() {
+		return Math.max(0, depth.get());
+	}
+
+	/**
+	 * @return the highest number of requests waiting at the start of a tick since the statistics were last reset
+	 */
+	public int getPeakDepth() {
+		return peakDepth;
+	}
+
+	public long getRunCount() {
+		return runCount;
+	}
+
+	public double getAverageWaitMillis() {
+		final long currentRunCount = runCount;
+		return currentRunCount == 0 ? 0 : totalWaitNanos / 1E6 / currentRunCount;
+	}
+
+	public double getMaxWaitMillis() {
+		return maxWaitNanos / 1E6;
+	}
+
+	/**
+	 * Only the simulation thread writes the statistics, so this should be queued with {@link Simulator#run(Runnable)} instead of being called directly.
+	 */
+	void resetStatistics() {
+		peakDepth = 0;
+		runCount = 0;
+		totalWaitNanos = 0;
+		maxWaitNanos = 0;
+	}
+
+	private static final class Node {
+
+		@Nullable
+		private Runnable runnable;
+		@Nullable
+		private volatile Node next;
+		private final long queuedNanos = System.nanoTime();
+
+		private Node(@Nullable Runnable runnable) {
+			this.runnable = runnable;
+		}
+	}
+}
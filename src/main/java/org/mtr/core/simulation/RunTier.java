@@ -0,0 +1,20 @@
+package org.mtr.core.simulation;
+
+/**
+ * Requests queued with {@link Simulator#run(Runnable, RunTier)} are run in this order each tick, so that cheap requests aren't stuck behind expensive ones.
+ * Requests in the same tier are run in the order they were queued.
+ */
+public enum RunTier {
+	/**
+	 * Requests that only read data, such as arrivals or nearby stations
+	 */
+	READ,
+	/**
+	 * Small changes, such as pressing a lift button
+	 */
+	WRITE,
+	/**
+	 * Requests that change or regenerate a lot of data, such as updating data or generating depots
+	 */
+	BULK
+}
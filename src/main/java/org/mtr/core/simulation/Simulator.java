@@ -3,10 +3,15 @@ package org.mtr.core.simulation;
 import org.mtr.core.Main;
 import org.mtr.core.data.*;
 import org.mtr.core.integration.Response;
+import org.mtr.core.operation.ClientUpdateCache;
+import org.mtr.core.operation.ClientUpdatesResponse;
+import org.mtr.core.operation.PlayerPresentResponse;
 import org.mtr.core.path.DirectionsPathFinder;
+import org.mtr.core.serializer.JsonReader;
+import org.mtr.core.serializer.JsonStreamWriter;
 import org.mtr.core.serializer.SerializedDataBase;
-import org.mtr.core.serializer.SerializedDataBaseWithId;
 import org.mtr.core.servlet.HttpResponseStatus;
+import org.mtr.core.servlet.PushChannel;
 import org.mtr.core.tool.RequestHelper;
 import org.mtr.core.tool.Utilities;
 import org.mtr.legacy.data.LegacyRailLoader;
@@ -16,7 +21,12 @@ import org.mtr.libraries.it.unimi.dsi.fastutil.objects.*;
 
 import javax.annotation.Nullable;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class Simulator extends Data implements Utilities {
@@ -30,39 +40,96 @@ public class Simulator extends Data implements Utilities {
 	private long lastSetGameMillisMidnight;
 
 	public final Object2ObjectOpenHashMap<String, Client> clients = new Object2ObjectOpenHashMap<>();
+	/**
+	 * Rebuilt at the start of each tick if any client has moved
+	 */
+	public final ClientInterestIndex clientInterestIndex = new ClientInterestIndex();
 	public final String dimension;
 	public final String[] dimensions;
 
 	private final int clientWebserverPort;
-	private final FileLoader<Station> fileLoaderStations;
-	private final FileLoader<Platform> fileLoaderPlatforms;
-	private final FileLoader<Siding> fileLoaderSidings;
-	private final FileLoader<Route> fileLoaderRoutes;
-	private final FileLoader<Depot> fileLoaderDepots;
-	private final FileLoader<Lift> fileLoaderLifts;
-	private final FileLoader<Rail> fileLoaderRails;
-	private final ObjectArrayList<Runnable> queuedRuns = new ObjectArrayList<>();
-	private final ObjectImmutableList<ObjectArrayList<Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>>>> vehiclePositions;
+	private final boolean deltaClientUpdates;
+	private final boolean batchClientUpdates;
+	/**
+	 * If not {@code null}, client update batches are sent over this channel when the game is subscribed to it. Only used if client updates are batched.
+	 */
+	@Nullable
+	private final PushChannel pushChannel;
+	private final ObjectImmutableList<FileLoader<?>> fileLoaders;
+	/**
+	 * Hashes and writes save snapshots so that saving doesn't stall the tick
+	 */
+	private final FileWriterPool fileWriterPool = new FileWriterPool(FILE_WRITER_THREADS);
+	/**
+	 * Generates depot paths off the tick thread, usually shared by the simulators of all dimensions
+	 */
+	private final PathGenerationPool pathGenerationPool;
+	/**
+	 * Whether this simulator created its own path generation pool, which it then has to shut down
+	 */
+	private final boolean ownsPathGenerationPool;
+	/**
+	 * Requests from other threads, indexed by {@link RunTier}
+	 */
+	private final ObjectImmutableList<RunQueue> runQueues;
+	private final ObjectImmutableList<ObjectArrayList<RailOccupancy>> vehiclePositions;
 	private final Object2LongOpenHashMap<UUID> ridingVehicleIds = new Object2LongOpenHashMap<>();
 	private final ObjectOpenHashSet<DirectionsPathFinder> directionsPathFinders = new ObjectOpenHashSet<>();
+	/**
+	 * If not {@code null}, independent groups of sidings are simulated in parallel on this pool
+	 */
+	@Nullable
+	private final ForkJoinPool forkJoinPool;
+	private final ObjectArrayList<SidingSimulationGroup> sidingSimulationGroups = new ObjectArrayList<>();
+	private boolean sidingSimulationGroupsDirty = true;
+	/**
+	 * Only used while sending client updates and cleared afterwards
+	 */
+	private final ClientUpdateCache clientUpdateCache = new ClientUpdateCache();
+	/**
+	 * The updates of all clients in a tick, sent together with one request if client updates are batched
+	 */
+	private final ClientUpdateBatch clientUpdateBatch;
+	private final ReadSnapshotPublisher readSnapshotPublisher = new ReadSnapshotPublisher();
 
 	public static final RequestHelper REQUEST_HELPER = new RequestHelper(false);
+	private static final int FILE_WRITER_THREADS = 2;
 
 	public Simulator(String dimension, String[] dimensions, Path rootPath, int clientWebserverPort) {
+		this(dimension, dimensions, rootPath, clientWebserverPort, new SimulatorOptions());
+	}
+
+	public Simulator(String dimension, String[] dimensions, Path rootPath, int clientWebserverPort, SimulatorOptions simulatorOptions) {
 		this.dimension = dimension;
 		this.dimensions = dimensions;
 		this.clientWebserverPort = clientWebserverPort;
+		deltaClientUpdates = simulatorOptions.getDeltaClientUpdates();
+		batchClientUpdates = simulatorOptions.getBatchClientUpdates();
+		pushChannel = batchClientUpdates ? simulatorOptions.getPushChannel() : null;
+		final ForkJoinPool optionsForkJoinPool = simulatorOptions.getForkJoinPool();
+		forkJoinPool = simulatorOptions.getParallelSidingSimulation() ? (optionsForkJoinPool == null ? ForkJoinPool.commonPool() : optionsForkJoinPool) : null;
+		final PathGenerationPool optionsPathGenerationPool = simulatorOptions.getPathGenerationPool();
+		ownsPathGenerationPool = optionsPathGenerationPool == null;
+		pathGenerationPool = optionsPathGenerationPool == null ? new PathGenerationPool() : optionsPathGenerationPool;
+		clientUpdateBatch = new ClientUpdateBatch(dimension);
+		final ObjectArrayList<RunQueue> tempRunQueues = new ObjectArrayList<>();
+		for (int i = 0; i < RunTier.values().length; i++) {
+			tempRunQueues.add(new RunQueue());
+		}
+		runQueues = new ObjectImmutableList<>(tempRunQueues);
 		final long startMillis = System.currentTimeMillis();
 
 		final Path savePath = rootPath.resolve(dimension);
 		LegacyRailLoader.load(savePath, rails);
-		fileLoaderStations = new FileLoader<>(stations, messagePackHelper -> new Station(messagePackHelper, this), savePath, "stations");
-		fileLoaderPlatforms = new FileLoader<>(platforms, messagePackHelper -> new Platform(messagePackHelper, this), savePath, "platforms");
-		fileLoaderSidings = new FileLoader<>(sidings, messagePackHelper -> new Siding(messagePackHelper, this), savePath, "sidings");
-		fileLoaderRoutes = new FileLoader<>(routes, messagePackHelper -> new Route(messagePackHelper, this), savePath, "routes");
-		fileLoaderDepots = new FileLoader<>(depots, messagePackHelper -> new Depot(messagePackHelper, this), savePath, "depots");
-		fileLoaderLifts = new FileLoader<>(lifts, messagePackHelper -> new Lift(messagePackHelper, this), savePath, "lifts");
-		fileLoaderRails = new FileLoader<>(rails, Rail::new, savePath, "rails");
+		final ObjectArrayList<FileLoader<?>> tempFileLoaders = new ObjectArrayList<>();
+		tempFileLoaders.add(new FileLoader<>(stations, messagePackHelper -> new Station(messagePackHelper, this), savePath, "stations", simulatorOptions.getUseLogStorage()));
+		tempFileLoaders.add(new FileLoader<>(platforms, messagePackHelper -> new Platform(messagePackHelper, this), savePath, "platforms", simulatorOptions.getUseLogStorage()));
+		tempFileLoaders.add(new FileLoader<>(sidings, messagePackHelper -> new Siding(messagePackHelper, this), savePath, "sidings", simulatorOptions.getUseLogStorage()));
+		tempFileLoaders.add(new FileLoader<>(routes, messagePackHelper -> new Route(messagePackHelper, this), savePath, "routes", simulatorOptions.getUseLogStorage()));
+		tempFileLoaders.add(new FileLoader<>(depots, messagePackHelper -> new Depot(messagePackHelper, this), savePath, "depots", simulatorOptions.getUseLogStorage()));
+		tempFileLoaders.add(new FileLoader<>(lifts, messagePackHelper -> new Lift(messagePackHelper, this), savePath, "lifts", simulatorOptions.getUseLogStorage()));
+		tempFileLoaders.add(new FileLoader<>(rails, Rail::new, savePath, "rails", simulatorOptions.getUseLogStorage()));
+		fileLoaders = new ObjectImmutableList<>(tempFileLoaders);
 
 		currentMillis = System.currentTimeMillis();
 		Main.LOGGER.info("Data loading complete for {} in {} second(s)", dimension, (float) (currentMillis - startMillis) / MILLIS_PER_SECOND);
@@ -71,11 +138,11 @@ public class Simulator extends Data implements Utilities {
 		depots.forEach(Depot::init);
 		rails.forEach(Rail::checkMigrationStatus);
 
-		final ObjectArrayList<ObjectArrayList<Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>>>> tempVehiclePositions = new ObjectArrayList<>();
+		final ObjectArrayList<ObjectArrayList<RailOccupancy>> tempVehiclePositions = new ObjectArrayList<>();
 		for (int i = 0; i < TransportMode.values().length; i++) {
-			final ObjectArrayList<Object2ObjectAVLTreeMap<Position, Object2ObjectAVLTreeMap<Position, VehiclePosition>>> vehiclePositionsForTransportMode = new ObjectArrayList<>();
-			vehiclePositionsForTransportMode.add(new Object2ObjectAVLTreeMap<>());
-			vehiclePositionsForTransportMode.add(new Object2ObjectAVLTreeMap<>());
+			final ObjectArrayList<RailOccupancy> vehiclePositionsForTransportMode = new ObjectArrayList<>();
+			vehiclePositionsForTransportMode.add(new RailOccupancy());
+			vehiclePositionsForTransportMode.add(new RailOccupancy());
 			tempVehiclePositions.add(vehiclePositionsForTransportMode);
 		}
 		vehiclePositions = new ObjectImmutableList<>(tempVehiclePositions);
@@ -83,17 +150,28 @@ public class Simulator extends Data implements Utilities {
 	}
 
 	public void tick() {
+		tick(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param newCurrentMillis the time of this tick, which vehicles and departures use instead of the system time so that the whole tick sees the same time
+	 */
+	void tick(long newCurrentMillis) {
+		// Directions and queued requests only use what is left of the tick, so that they don't delay the next tick
+		final long tickDeadlineMillis = System.currentTimeMillis() + Main.MILLISECONDS_PER_TICK;
 		try {
 			lastMillis = currentMillis;
-			currentMillis = System.currentTimeMillis();
+			currentMillis = newCurrentMillis;
 
+			// Reuse the vehicle positions from two ticks ago for the current tick
 			vehiclePositions.forEach(vehiclePositionsForTransportMode -> {
-				vehiclePositionsForTransportMode.remove(0);
-				vehiclePositionsForTransportMode.add(new Object2ObjectAVLTreeMap<>());
+				final RailOccupancy railOccupancy = vehiclePositionsForTransportMode.remove(0);
+				railOccupancy.clear();
+				vehiclePositionsForTransportMode.add(railOccupancy);
 			});
 
+			clientInterestIndex.update(clients.values());
 			rails.forEach(rail -> rail.tick(this));
-			depots.forEach(Depot::tick);
 
 			// Try setting a siding's default path data
 			// If a siding doesn't have a rail associated with it, it should be removed from the data set
@@ -101,42 +179,82 @@ public class Simulator extends Data implements Utilities {
 				sync();
 			}
 
-			sidings.forEach(siding -> siding.simulateTrain(currentMillis - lastMillis, vehiclePositions.get(siding.getTransportModeOrdinal())));
-			clients.forEach((clientId, client) -> client.sendUpdates(this));
+			if (forkJoinPool == null) {
+				sidings.forEach(siding -> siding.simulateTrain(currentMillis - lastMillis, vehiclePositions.get(siding.getTransportModeOrdinal())));
+			} else {
+				simulateSidingsInParallel(currentMillis - lastMillis, forkJoinPool);
+			}
+
+			// If the previous batch is still being written to the push channel, keep collecting updates and send them together later
+			if (pushChannel == null || pushChannel.canSend(dimension)) {
+				clients.forEach((clientId, client) -> client.sendUpdates(this, clientUpdateCache));
+				sendClientUpdateBatch();
+				clientUpdateCache.clear();
+			}
 
-			if (autoSave) {
-				save(true);
+			// If the previous save is still being written, try again next tick
+			if (autoSave && save(true)) {
 				autoSave = false;
 			}
 
 			lifts.forEach(lift -> lift.tick(currentMillis - lastMillis));
 
-			// Process directions requests
-			final long startMillis = System.currentTimeMillis();
-			while (!directionsPathFinders.isEmpty() && System.currentTimeMillis() - startMillis < 400) {
-				directionsPathFinders.removeIf(DirectionsPathFinder::tick);
+			// Process directions requests, stepping each of them at least once even if the tick has run over
+			if (!directionsPathFinders.isEmpty()) {
+				do {
+					directionsPathFinders.removeIf(DirectionsPathFinder::tick);
+				} while (!directionsPathFinders.isEmpty() && System.currentTimeMillis() < tickDeadlineMillis);
 			}
 
-			while (!queuedRuns.isEmpty()) {
-				final Runnable runnable = queuedRuns.remove(0);
-				if (runnable != null) {
-					runnable.run();
-				}
-			}
+			// Cheap requests are run first, but each tier runs at least one request (even if the tick has run over) so that expensive requests aren't starved
+			runQueues.forEach(runQueue -> runQueue.run(tickDeadlineMillis));
+
+			readSnapshotPublisher.tick(this, currentMillis);
 		} catch (Throwable e) {
 			Main.LOGGER.fatal("", e);
 		}
 	}
 
+	@Override
+	public void sync() {
+		super.sync();
+		invalidateSidingSimulationGroups();
+		readSnapshotPublisher.markSynced();
+	}
+
+	@Override
+	public void sync(DataChangeSet dataChangeSet) {
+		super.sync(dataChangeSet);
+		invalidateSidingSimulationGroups();
+		readSnapshotPublisher.markSynced();
+	}
+
 	public void save() {
 		autoSave = true;
 	}
 
+	/**
+	 * Should be called whenever the rails a siding's vehicles could occupy change.
+	 */
+	public void invalidateSidingSimulationGroups() {
+		sidingSimulationGroupsDirty = true;
+	}
+
+	/**
+	 * Write a full save and block until it is on disk.
+	 */
 	public void stop() {
+		fileLoaders.forEach(FileLoader::waitForSave);
 		save(false);
+		fileLoaders.forEach(FileLoader::close);
+		fileWriterPool.shutdown();
+		if (ownsPathGenerationPool) {
+			pathGenerationPool.shutdown();
+		}
+		readSnapshotPublisher.shutdown();
 	}
 
-	public void addDirectionsPathFinder(Position position1, Position position2, long maxWalkingDistance, Consumer<JsonObject> sendResponse) {
+	public void addDirectionsPathFinder(Position position1, Position position2, long maxWalkingDistance, Consumer<SerializedDataBase> sendResponse) {
 		directionsPathFinders.add(new DirectionsPathFinder(this, position1, position2, maxWalkingDistance, sendResponse));
 	}
 
@@ -165,6 +283,13 @@ public class Simulator extends Data implements Utilities {
 		depots.forEach(Depot::generatePlatformDirectionsAndWriteDeparturesToSidings);
 	}
 
+	/**
+	 * @return the time of the current tick
+	 */
+	public long getCurrentMillis() {
+		return currentMillis;
+	}
+
 	public long getGameMillisPerDay() {
 		return gameMillisPerDay;
 	}
@@ -187,8 +312,52 @@ public class Simulator extends Data implements Utilities {
 		return gameMillisPerDay > 0 ? (int) (gameMillis * HOURS_PER_DAY / gameMillisPerDay) : 0;
 	}
 
+	/**
+	 * Run something on the next tick. Can be called from any thread.
+	 */
 	public void run(Runnable runnable) {
-		queuedRuns.add(runnable);
+		run(runnable, RunTier.WRITE);
+	}
+
+	/**
+	 * Run something on the next tick, after requests in lower tiers. Can be called from any thread.
+	 */
+	public void run(Runnable runnable, RunTier runTier) {
+		runQueues.get(runTier.ordinal()).add(runnable);
+	}
+
+	/**
+	 * Can be called from any thread.
+	 *
+	 * @return the latest snapshot of the data for read-only requests or {@code null} if the first snapshot hasn't been built yet
+	 */
+	@Nullable
+	public ReadSnapshot getReadSnapshot() {
+		return readSnapshotPublisher.getReadSnapshot();
+	}
+
+	public PathGenerationPool getPathGenerationPool() {
+		return pathGenerationPool;
+	}
+
+	public RunQueue getRunQueue(RunTier runTier) {
+		return runQueues.get(runTier.ordinal());
+	}
+
+	/**
+	 * Log the statistics of each request tier since they were last logged.
+	 */
+	public void logRunQueueStatistics() {
+		run(() -> {
+			for (final RunTier runTier : RunTier.values()) {
+				final RunQueue runQueue = getRunQueue(runTier);
+				Main.LOGGER.info(
+						"{} {} requests: {} queued (peak {}), {} run, {} ms average wait, {} ms max wait",
+						dimension, runTier, runQueue.getDepth(), runQueue.getPeakDepth(), runQueue.getRunCount(), Math.round(runQueue.getAverageWaitMillis()), Math.round(runQueue.getMaxWaitMillis())
+				);
+				runQueue.resetStatistics();
+			}
+		}, RunTier.READ);
 	}
 
 	public boolean isRiding(UUID uuid, long vehicleId) {
@@ -203,22 +372,47 @@ public class Simulator extends Data implements Utilities {
 		ridingVehicleIds.removeLong(uuid);
 	}
 
-	private void save(boolean useReducedHash) {
-		final long startMillis = System.currentTimeMillis();
-		final boolean changed1 = save(fileLoaderStations, useReducedHash);
-		final boolean changed2 = save(fileLoaderPlatforms, useReducedHash);
-		final boolean changed3 = save(fileLoaderSidings, useReducedHash);
-		final boolean changed4 = save(fileLoaderRoutes, useReducedHash);
-		final boolean changed5 = save(fileLoaderDepots, useReducedHash);
-		final boolean changed6 = save(fileLoaderLifts, useReducedHash);
-		final boolean changed7 = save(fileLoaderRails, useReducedHash);
-		if (changed1 || changed2 || changed3 || changed4 || changed5 || changed6 || changed7 || !useReducedHash) {
-			Main.LOGGER.info("Save complete for {} in {} second(s)", dimension, (System.currentTimeMillis() - startMillis) / 1000F);
+	/**
+	 * Each group only reads the previous tick's vehicle positions and writes to its own buffers, so the result is the same as simulating all sidings in order.
+	 */
+	private void simulateSidingsInParallel(long millisElapsed, ForkJoinPool forkJoinPool) {
+		if (sidingSimulationGroupsDirty) {
+			sidingSimulationGroups.clear();
+			sidingSimulationGroups.addAll(SidingSimulationGroup.create(sidings, rails));
+			sidingSimulationGroupsDirty = false;
 		}
+
+		final ObjectArrayList<ForkJoinTask<?>> tasks = new ObjectArrayList<>();
+		sidingSimulationGroups.forEach(sidingSimulationGroup -> tasks.add(forkJoinPool.submit(() -> sidingSimulationGroup.simulate(millisElapsed, vehiclePositions))));
+		tasks.forEach(ForkJoinTask::join);
+		sidingSimulationGroups.forEach(sidingSimulationGroup -> sidingSimulationGroup.commit(vehiclePositions));
 	}
 
-	private <T extends SerializedDataBaseWithId> boolean save(FileLoader<T> fileLoader, boolean useReducedHash) {
-		final IntIntImmutablePair saveCounts = fileLoader.save(useReducedHash);
+	/**
+	 * Take a snapshot of all data on the tick thread and write it in the background.
+	 *
+	 * @return {@code false} if the previous save is still in progress, in which case nothing is saved
+	 */
+	private boolean save(boolean useReducedHash) {
+		if (fileLoaders.stream().anyMatch(FileLoader::isSaving)) {
+			return false;
+		}
+
+		final long startMillis = System.currentTimeMillis();
+		final AtomicInteger remainingFileLoaders = new AtomicInteger(fileLoaders.size());
+		final AtomicBoolean changed = new AtomicBoolean(!useReducedHash);
+		fileLoaders.forEach(fileLoader -> fileLoader.save(fileWriterPool, useReducedHash, saveCounts -> {
+			if (logSaveCounts(fileLoader, saveCounts)) {
+				changed.set(true);
+			}
+			if (remainingFileLoaders.decrementAndGet() == 0 && changed.get()) {
+				Main.LOGGER.info("Save complete for {} in {} second(s)", dimension, (System.currentTimeMillis() - startMillis) / 1000F);
+			}
+		}));
+		return true;
+	}
+
+	private static boolean logSaveCounts(FileLoader<?> fileLoader, IntIntImmutablePair saveCounts) {
 		final int changedCount = saveCounts.leftInt();
 		if (changedCount > 0) {
 			Main.LOGGER.info("- Changed {}: {}", fileLoader.key, changedCount);
@@ -230,7 +424,61 @@ public class Simulator extends Data implements Utilities {
 		return changedCount > 0 || deletedCount > 0;
 	}
 
+	/**
+	 * The request is serialized straight into bytes instead of building a {@link JsonObject} first.
+	 */
 	public void sendHttpRequest(String endpoint, SerializedDataBase data, @Nullable Consumer<JsonObject> consumer) {
-		REQUEST_HELPER.sendPostRequest(String.format("http://localhost:%s/%s", clientWebserverPort, endpoint), new Response(HttpResponseStatus.OK.code, System.currentTimeMillis(), "Success", Utilities.getJsonObjectFromData(data)).getJson(), consumer);
+		sendHttpRequest(endpoint, serializeRequest(data), "application/json", consumer);
+	}
+
+	public void sendHttpRequest(String endpoint, byte[] content, String contentType, @Nullable Consumer<JsonObject> consumer) {
+		REQUEST_HELPER.sendPostRequest(String.format("http://localhost:%s/%s", clientWebserverPort, endpoint), content, contentType, consumer);
+	}
+
+	/**
+	 * Add the update to the batch sent at the end of the tick if client updates are batched, or send it as a {@code POST} request to the endpoint otherwise.
+	 */
+	public void sendClientUpdate(String clientId, String endpoint, SerializedDataBase data) {
+		sendClientUpdate(clientId, endpoint, serializeRequest(data), "application/json");
+	}
+
+	/**
+	 * Add the update to the batch sent at the end of the tick if client updates are batched, or send it as a {@code POST} request to the endpoint otherwise.
+	 */
+	public void sendClientUpdate(String clientId, String endpoint, byte[] content, String contentType) {
+		if (batchClientUpdates) {
+			clientUpdateBatch.add(clientId, endpoint, content);
+		} else {
+			sendHttpRequest(endpoint, content, contentType, responseObject -> new PlayerPresentResponse(new JsonReader(responseObject)).verify(this, clientId));
+		}
+	}
+
+	/**
+	 * @return whether vehicle and lift updates are sent to clients as deltas with {@link org.mtr.core.operation.VehicleLiftDeltaEncoder}
+	 */
+	public boolean useDeltaClientUpdates() {
+		return deltaClientUpdates;
+	}
+
+	/**
+	 * Send the batch over the push channel if the game is subscribed to it or as a {@code POST} request otherwise.
+	 */
+	private void sendClientUpdateBatch() {
+		if (!clientUpdateBatch.isEmpty()) {
+			final byte[] content = clientUpdateBatch.take();
+			if (pushChannel == null || !pushChannel.send(dimension, ClientUpdateBatch.ENDPOINT, content)) {
+				sendHttpRequest(ClientUpdateBatch.ENDPOINT, content, ClientUpdateBatch.CONTENT_TYPE, responseObject -> new ClientUpdatesResponse(new JsonReader(responseObject)).verify(this));
+			}
+		}
+	}
+
+	private static byte[] serializeRequest(SerializedDataBase data) {
+		final JsonStreamWriter jsonStreamWriter = new JsonStreamWriter();
+		new Response(HttpResponseStatus.OK.code, System.currentTimeMillis(), "Success", null).serializeData(jsonStreamWriter);
+		data.serializeData(jsonStreamWriter.writeChild("data"));
+		// The request is sent on another thread, so copy the bytes out of the pooled array
+		final byte[] content = Arrays.copyOf(jsonStreamWriter.getBytes(), jsonStreamWriter.getLength());
+		jsonStreamWriter.release();
+		return content;
 	}
 }
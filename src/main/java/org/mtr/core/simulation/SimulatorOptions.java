@@ -0,0 +1,110 @@
+package org.mtr.core.simulation;
+
+import org.mtr.core.servlet.PushChannel;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Optional features of a {@link Simulator}, which are all turned off by default.
+ */
+public final class SimulatorOptions {
+
+	private boolean parallelSidingSimulation;
+	@Nullable
+	private ForkJoinPool forkJoinPool;
+	private boolean useLogStorage;
+	private boolean deltaClientUpdates;
+	private boolean batchClientUpdates;
+	@Nullable
+	private PushChannel pushChannel;
+	@Nullable
+	private PathGenerationPool pathGenerationPool;
+
+	/**
+	 * @param parallelSidingSimulation if {@code true}, sidings which can't interact with each other are simulated in parallel
+	 */
+	public SimulatorOptions setParallelSidingSimulation(boolean parallelSidingSimulation) {
+		this.parallelSidingSimulation = parallelSidingSimulation;
+		return this;
+	}
+
+	/**
+	 * @param forkJoinPool if not {@code null}, sidings are simulated in parallel on this pool, which is shut down by the caller; otherwise the common pool is used
+	 */
+	public SimulatorOptions setForkJoinPool(@Nullable ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+		return this;
+	}
+
+	/**
+	 * @param useLogStorage if {@code true}, data is saved in append-only log files instead of one file per object, and existing files are migrated on startup
+	 */
+	public SimulatorOptions setUseLogStorage(boolean useLogStorage) {
+		this.useLogStorage = useLogStorage;
+		return this;
+	}
+
+	/**
+	 * @param deltaClientUpdates if {@code true}, vehicle and lift updates are sent to the {@code vehicles-lifts-delta} endpoint as MessagePack deltas instead of sending the full JSON to {@code vehicles-lifts}
+	 */
+	public SimulatorOptions setDeltaClientUpdates(boolean deltaClientUpdates) {
+		this.deltaClientUpdates = deltaClientUpdates;
+		return this;
+	}
+
+	/**
+	 * @param batchClientUpdates if {@code true}, the updates of all clients in a tick are sent together to the {@code client-updates} endpoint instead of sending a {@code POST} request for each client
+	 */
+	public SimulatorOptions setBatchClientUpdates(boolean batchClientUpdates) {
+		this.batchClientUpdates = batchClientUpdates;
+		return this;
+	}
+
+	/**
+	 * @param pushChannel if not {@code null} and client updates are batched, the batches are sent over this channel instead of as {@code POST} requests while the game is subscribed to it
+	 */
+	public SimulatorOptions setPushChannel(@Nullable PushChannel pushChannel) {
+		this.pushChannel = pushChannel;
+		return this;
+	}
+
+	/**
+	 * @param pathGenerationPool if not {@code null}, depot paths are generated on this pool, which is shut down by the caller; otherwise each simulator creates its own
+	 */
+	public SimulatorOptions setPathGenerationPool(@Nullable PathGenerationPool pathGenerationPool) {
+		this.pathGenerationPool = pathGenerationPool;
+		return this;
+	}
+
+	public boolean getParallelSidingSimulation() {
+		return parallelSidingSimulation;
+	}
+
+	@Nullable
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	public boolean getUseLogStorage() {
+		return useLogStorage;
+	}
+
+	public boolean getDeltaClientUpdates() {
+		return deltaClientUpdates;
+	}
+
+	public boolean getBatchClientUpdates() {
+		return batchClientUpdates;
+	}
+
+	@Nullable
+	public PushChannel getPushChannel() {
+		return pushChannel;
+	}
+
+	@Nullable
+	public PathGenerationPool getPathGenerationPool() {
+		return pathGenerationPool;
+	}
+}
@@ -24,13 +24,26 @@ public final class RequestHelper {
 		sendRequest(url, contentObject.toString(), consumer == null ? null : response -> consumer.accept(Utilities.parseJson(response)));
 	}
 
+	/**
+	 * @param content     the encoded request body
+	 * @param contentType the media type of the content, such as {@code application/json} for JSON encoded as UTF-8
+	 * @param consumer    receives the response, which is always JSON
+	 */
+	public void sendPostRequest(String url, byte[] content, String contentType, @Nullable Consumer<JsonObject> consumer) {
+		sendRequest(url, RequestBody.create(content, MediaType.get(contentType)), consumer == null ? null : response -> consumer.accept(Utilities.parseJson(response)));
+	}
+
 	public void sendRequest(String url, @Nullable String content, @Nullable Consumer<String> consumer) {
+		sendRequest(url, content == null ? null : RequestBody.create(content, MediaType.get("application/json")), consumer);
+	}
+
+	private void sendRequest(String url, @Nullable RequestBody requestBody, @Nullable Consumer<String> consumer) {
 		final Request.Builder requestBuilder = new Request.Builder().url(url);
 		final Request request;
-		if (content == null) {
+		if (requestBody == null) {
 			request = requestBuilder.get().build();
 		} else {
-			request = requestBuilder.post(RequestBody.create(content, MediaType.get("application/json"))).build();
+			request = requestBuilder.post(requestBody).build();
 		}
 
 		if (canInterrupt && call != null) {
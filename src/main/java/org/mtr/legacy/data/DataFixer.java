@@ -14,9 +14,8 @@ import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.mtr.libraries.org.msgpack.core.MessageBufferPacker;
 import org.mtr.libraries.org.msgpack.core.MessagePack;
-import org.mtr.libraries.org.msgpack.core.MessageUnpacker;
-import org.mtr.libraries.org.msgpack.value.Value;
 
+import java.nio.ByteBuffer;
 import java.util.Locale;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -196,12 +195,14 @@ public final class DataFixer {
 		return readerBase;
 	}
 
-	public static void readerBaseConvertKey(String key, Value value, Object2ObjectArrayMap<String, Value> map) {
-		map.put(key, value);
+	/**
+	 * @return the key converted from snake case to camel case
+	 */
+	public static String readerBaseConvertKey(String key) {
 		final String[] keySplit = key.split("_");
 
 		if (keySplit.length == 0) {
-			return;
+			return key;
 		}
 
 		final StringBuilder stringBuilder = new StringBuilder(keySplit[0]);
@@ -213,7 +214,7 @@ public final class DataFixer {
 			}
 		}
 
-		map.put(stringBuilder.toString(), value);
+		return stringBuilder.toString();
 	}
 
 	private static Position convertPosition(long packedPosition) {
@@ -229,9 +230,7 @@ public final class DataFixer {
 			final MessagePackWriter messagePackWriter = new MessagePackWriter(messageBufferPacker);
 			consumer.accept(messagePackWriter);
 			messagePackWriter.serialize();
-			try (final MessageUnpacker messageUnpacker = MessagePack.newDefaultUnpacker(messageBufferPacker.toByteArray())) {
-				readerBase.merge(new MessagePackReader(messageUnpacker));
-			}
+			readerBase.merge(new MessagePackReader(ByteBuffer.wrap(messageBufferPacker.toByteArray())));
 		} catch (Exception e) {
 			Main.LOGGER.error("", e);
 		}
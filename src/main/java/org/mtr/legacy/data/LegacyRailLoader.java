@@ -1,5 +1,6 @@
 package org.mtr.legacy.data;
 
+import org.mtr.core.data.EntityStore;
 import org.mtr.core.data.Position;
 import org.mtr.core.data.Rail;
 import org.mtr.core.data.SignalModification;
@@ -15,7 +16,7 @@ import java.util.UUID;
 
 public final class LegacyRailLoader {
 
-	public static void load(Path savePath, ObjectArraySet<Rail> rails) {
+	public static void load(Path savePath, EntityStore<Rail> rails) {
 		final ObjectArraySet<LegacyRailNode> legacyRailNodes = new ObjectArraySet<>();
 		final ObjectArraySet<LegacySignalBlock> legacySignalBlocks = new ObjectArraySet<>();
 		new FileLoader<>(legacyRailNodes, LegacyRailNode::new, savePath, "rails");
@@ -0,0 +1,355 @@
+package org.mtr.core.data;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.simulation.Simulator;
+import org.mtr.core.tool.Angle;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongAVLTreeSet;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.*;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Applies random edits to a data set and checks that {@link Data#sync(DataChangeSet)} produces the same caches as a full {@link Data#sync()}.
+ */
+@ParametersAreNonnullByDefault
+public class DataSyncTests implements TestUtilities {
+
+	private static final int GRID_SIZE = 5;
+	private static final int GRID_SPACING = 16;
+	private static final int EDITS = 500;
+
+	@Test
+	public void incrementalSyncMatchesFullSync() {
+		final ClientData data = new ClientData();
+		populate(data);
+
+		for (int i = 0; i < EDITS; i++) {
+			data.sync(applyRandomEdit(data));
+			final String incrementalState = getCacheState(data);
+			data.sync();
+			Assertions.assertEquals(getCacheState(data), incrementalState);
+		}
+	}
+
+	/**
+	 * Errors in an incremental sync can be hidden if a full sync runs after every edit, so only compare at the end.
+	 */
+	@Test
+	public void consecutiveIncrementalSyncsMatchFullSync() {
+		final ClientData data = new ClientData();
+		populate(data);
+		checkConsecutiveIncrementalSyncs(data);
+	}
+
+	/**
+	 * The simulator also removes saved rails that no longer have a matching rail.
+	 */
+	@Test
+	public void consecutiveIncrementalSyncsMatchFullSyncInSimulator() throws IOException {
+		final Path rootPath = TEST_DIRECTORY.resolve("data-sync");
+		FileUtils.deleteDirectory(rootPath.toFile());
+		final Simulator simulator = new Simulator("test", new String[]{"test"}, rootPath, 0);
+		populate(simulator);
+		checkConsecutiveIncrementalSyncs(simulator);
+		simulator.stop();
+	}
+
+	/**
+	 * Routes that lose a platform must be saved again.
+	 */
+	@Test
+	public void removingPlatformMarksRouteDirty() {
+		final ClientData data = new ClientData();
+		final Platform platform1 = new Platform(new Position(0, 0, 0), new Position(GRID_SPACING, 0, 0), TransportMode.TRAIN, data);
+		final Platform platform2 = new Platform(new Position(0, 0, GRID_SPACING), new Position(GRID_SPACING, 0, GRID_SPACING), TransportMode.TRAIN, data);
+		final Route route = new Route(TransportMode.TRAIN, data);
+		route.getRoutePlatforms().add(new RoutePlatformData(platform1.getId()));
+		route.getRoutePlatforms().add(new RoutePlatformData(platform2.getId()));
+		data.platforms.add(platform1);
+		data.platforms.add(platform2);
+		data.routes.add(route);
+		data.sync();
+		Assertions.assertEquals(2, route.getRoutePlatforms().size());
+
+		final long modificationCount1 = route.getModificationCount();
+		final DataChangeSet dataChangeSet = new DataChangeSet();
+		data.platforms.remove(platform1);
+		dataChangeSet.removedPlatforms.add(platform1);
+		data.sync(dataChangeSet);
+		Assertions.assertEquals(1, route.getRoutePlatforms().size());
+		Assertions.assertTrue(route.getModificationCount() > modificationCount1);
+
+		final long modificationCount2 = route.getModificationCount();
+		data.platforms.remove(platform2);
+		data.sync();
+		Assertions.assertTrue(route.getRoutePlatforms().isEmpty());
+		Assertions.assertTrue(route.getModificationCount() > modificationCount2);
+
+		final long modificationCount3 = route.getModificationCount();
+		data.sync();
+		Assertions.assertEquals(modificationCount3, route.getModificationCount());
+	}
+
+	private static void populate(Data data) {
+		for (int i = 0; i < GRID_SIZE * GRID_SIZE; i++) {
+			addRail(data, new DataChangeSet());
+		}
+		for (int i = 0; i < 4; i++) {
+			addStation(data, new DataChangeSet());
+			addDepot(data, new DataChangeSet());
+		}
+		data.sync();
+	}
+
+	private static void checkConsecutiveIncrementalSyncs(Data data) {
+		for (int i = 0; i < EDITS; i++) {
+			data.sync(applyRandomEdit(data));
+		}
+		final String incrementalState = getCacheState(data);
+		data.sync();
+		Assertions.assertEquals(getCacheState(data), incrementalState);
+	}
+
+	/**
+	 * Apply one random edit to the data without syncing.
+	 *
+	 * @return the changes to pass to {@link Data#sync(DataChangeSet)}
+	 */
+	private static DataChangeSet applyRandomEdit(Data data) {
+		final DataChangeSet dataChangeSet = new DataChangeSet();
+		switch (RANDOM.nextInt(12)) {
+			case 0:
+			case 1:
+				addRail(data, dataChangeSet);
+				break;
+			case 2:
+				removeRandom(data.rails, dataChangeSet.removedRails);
+				break;
+			case 3:
+				addStation(data, dataChangeSet);
+				break;
+			case 4:
+				changeRandom(data.stations, dataChangeSet.stations, station -> {
+					station.setName(TestUtilities.randomString());
+					station.setCorners(randomAreaPosition(), randomAreaPosition());
+				});
+				break;
+			case 5:
+				removeRandom(data.stations, dataChangeSet.removedStations);
+				break;
+			case 6:
+				addSavedRail(data, dataChangeSet);
+				break;
+			case 7:
+				removeRandom(data.platforms, dataChangeSet.removedPlatforms);
+				removeRandom(data.sidings, dataChangeSet.removedSidings);
+				break;
+			case 8:
+				addDepot(data, dataChangeSet);
+				break;
+			case 9:
+				changeRandom(data.depots, dataChangeSet.depots, depot -> depot.setCorners(randomAreaPosition(), randomAreaPosition()));
+				removeRandom(data.depots, dataChangeSet.removedDepots);
+				break;
+			case 10:
+				addRoute(data, dataChangeSet);
+				break;
+			case 11:
+				changeRandom(data.routes, dataChangeSet.routes, route -> {
+					route.setName(TestUtilities.randomString());
+					route.setColor(RANDOM.nextInt());
+				});
+				removeRandom(data.routes, dataChangeSet.removedRoutes);
+				break;
+		}
+
+		return dataChangeSet;
+	}
+
+	/**
+	 * Adds a rail between two neighbouring grid positions, replacing the existing rail if there is one.
+	 */
+	private static void addRail(Data data, DataChangeSet dataChangeSet) {
+		final Position position1 = randomGridPosition();
+		final boolean alongX = RANDOM.nextBoolean();
+		final Position position2 = position1.offset(alongX ? GRID_SPACING : 0, 0, alongX ? 0 : GRID_SPACING);
+		final ObjectObjectImmutablePair<Angle, Angle> angles = Rail.getAngles(position1, alongX ? 0 : 90, position2, alongX ? 0 : 90);
+		final Rail rail = Rail.newRail(
+				position1, angles.left(), position2, angles.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(),
+				RANDOM.nextBoolean() ? 80 : 0, RANDOM.nextBoolean() ? 80 : 0, RANDOM.nextBoolean(), RANDOM.nextBoolean(), true, RANDOM.nextBoolean(), false, TransportMode.TRAIN
+		);
+
+		final Rail existingRail = data.railIdMap.get(rail.getHexId());
+		if (existingRail != null) {
+			data.rails.remove(existingRail);
+			dataChangeSet.removedRails.add(existingRail);
+		}
+		data.rails.add(rail);
+		dataChangeSet.rails.add(rail);
+	}
+
+	private static void addSavedRail(Data data, DataChangeSet dataChangeSet) {
+		final Rail rail = randomElement(data.rails);
+		if (rail != null) {
+			if (RANDOM.nextBoolean()) {
+				final Platform platform = new Platform(rail.getPosition1(), rail.getPosition2(), TransportMode.TRAIN, data);
+				data.platforms.add(platform);
+				dataChangeSet.platforms.add(platform);
+			} else {
+				final Siding siding = new Siding(rail.getPosition1(), rail.getPosition2(), GRID_SPACING, TransportMode.TRAIN, data);
+				data.sidings.add(siding);
+				dataChangeSet.sidings.add(siding);
+			}
+		}
+	}
+
+	private static void addStation(Data data, DataChangeSet dataChangeSet) {
+		final Station station = new Station(data);
+		station.setName(TestUtilities.randomString());
+		station.setCorners(randomAreaPosition(), randomAreaPosition());
+		data.stations.add(station);
+		dataChangeSet.stations.add(station);
+	}
+
+	private static void addDepot(Data data, DataChangeSet dataChangeSet) {
+		final Depot depot = new Depot(TransportMode.TRAIN, data);
+		depot.setCorners(randomAreaPosition(), randomAreaPosition());
+		final Route route = randomElement(data.routes);
+		if (route != null) {
+			depot.getRouteIds().add(route.getId());
+		}
+		data.depots.add(depot);
+		dataChangeSet.depots.add(depot);
+	}
+
+	private static void addRoute(Data data, DataChangeSet dataChangeSet) {
+		final Route route = new Route(TransportMode.TRAIN, data);
+		route.setName(TestUtilities.randomString());
+		TestUtilities.randomLoop(() -> {
+			final Platform platform = randomElement(data.platforms);
+			if (platform != null) {
+				route.getRoutePlatforms().add(new RoutePlatformData(platform.getId()));
+			}
+		});
+		data.routes.add(route);
+		dataChangeSet.routes.add(route);
+	}
+
+	private static <T> void changeRandom(ObjectSet<T> dataSet, ObjectArrayList<T> changedData, Consumer<T> consumer) {
+		final T data = randomElement(dataSet);
+		if (data != null) {
+			consumer.accept(data);
+			changedData.add(data);
+		}
+	}
+
+	private static <T> void removeRandom(ObjectSet<T> dataSet, ObjectArrayList<T> removedData) {
+		final T data = randomElement(dataSet);
+		if (data != null) {
+			dataSet.remove(data);
+			removedData.add(data);
+		}
+	}
+
+	@Nullable
+	private static <T> T randomElement(ObjectSet<T> dataSet) {
+		return dataSet.isEmpty() ? null : new ObjectArrayList<>(dataSet).get(RANDOM.nextInt(dataSet.size()));
+	}
+
+	private static Position randomGridPosition() {
+		return new Position(RANDOM.nextInt(GRID_SIZE - 1) * GRID_SPACING, 0, RANDOM.nextInt(GRID_SIZE - 1) * GRID_SPACING);
+	}
+
+	private static Position randomAreaPosition() {
+		return new Position(RANDOM.nextInt(GRID_SIZE * GRID_SPACING), RANDOM.nextInt(5) - 2, RANDOM.nextInt(GRID_SIZE * GRID_SPACING));
+	}
+
+	/**
+	 * @return a description of every cache written by {@link Data#sync()}, where objects are also identified by reference so that stale instances are detected
+	 */
+	private static String getCacheState(Data data) {
+		final StringBuilder stringBuilder = new StringBuilder();
+
+		new ObjectAVLTreeSet<>(data.positionsToRail.keySet()).forEach(position1 -> {
+			final Object2ObjectOpenHashMap<Position, Rail> railsAtPosition = data.positionsToRail.get(position1);
+			new ObjectAVLTreeSet<>(railsAtPosition.keySet()).forEach(position2 -> append(stringBuilder, "rail", describe(position1), describe(position2), describe(railsAtPosition.get(position2))));
+		});
+		new ObjectAVLTreeSet<>(data.rails.stream().map(DataSyncTests::describe).iterator()).forEach(rail -> append(stringBuilder, "rails", rail));
+		data.rails.forEach(rail -> {
+			append(stringBuilder, "connected1", describe(rail), describeSorted(rail.getConnectedRails(true)));
+			append(stringBuilder, "connected2", describe(rail), describeSorted(rail.getConnectedRails(false)));
+		});
+		new ObjectAVLTreeSet<>(data.runwaysInbound.keySet()).forEach(position -> append(stringBuilder, "runwayInbound", describe(position), describe(data.runwaysInbound.get(position))));
+		new ObjectAVLTreeSet<>(data.runwaysOutbound).forEach(position -> append(stringBuilder, "runwayOutbound", describe(position)));
+
+		appendIds(stringBuilder, "station", data.stationIdMap);
+		appendIds(stringBuilder, "platform", data.platformIdMap);
+		appendIds(stringBuilder, "siding", data.sidingIdMap);
+		appendIds(stringBuilder, "route", data.routeIdMap);
+		appendIds(stringBuilder, "depot", data.depotIdMap);
+		appendIds(stringBuilder, "lift", data.liftIdMap);
+		new ObjectAVLTreeSet<>(data.railIdMap.keySet()).forEach(railId -> append(stringBuilder, "railId", railId, describe(data.railIdMap.get(railId))));
+
+		data.platforms.forEach(platform -> append(stringBuilder, "platformArea", describe(platform), describe(platform.area)));
+		data.stations.forEach(station -> append(stringBuilder, "stationPlatforms", describe(station), describeSorted(station.savedRails)));
+		data.sidings.forEach(siding -> append(stringBuilder, "sidingArea", describe(siding), describe(siding.area)));
+		data.depots.forEach(depot -> append(stringBuilder, "depotSidings", describe(depot), describeSorted(depot.savedRails)));
+
+		new LongAVLTreeSet(data.platformIdToPosition.keySet()).forEach(platformId -> append(stringBuilder, "platformPosition", String.valueOf(platformId), describe(data.platformIdToPosition.get(platformId))));
+		data.platforms.forEach(platform -> {
+			final ObjectArrayList<String> routes = new ObjectArrayList<>();
+			platform.routes.forEach(route -> routes.add(describe(route)));
+			append(stringBuilder, "platformRoutes", describe(platform), routes.toString(), platform.routeColors.toString());
+		});
+		data.routes.forEach(route -> {
+			final ObjectArrayList<String> platforms = new ObjectArrayList<>();
+			route.getRoutePlatforms().forEach(routePlatformData -> platforms.add(describe(routePlatformData.platform)));
+			final ObjectArrayList<String> depots = new ObjectArrayList<>();
+			route.depots.forEach(depot -> depots.add(describe(depot)));
+			append(stringBuilder, "routePlatforms", describe(route), platforms.toString(), depots.toString());
+		});
+
+		// Connected stations are compared in iteration order to also check that they are sorted correctly
+		data.stations.forEach(station -> {
+			final ObjectArrayList<String> connectedStations = new ObjectArrayList<>();
+			station.connectedStations.forEach(connectedStation -> connectedStations.add(describe(connectedStation)));
+			append(stringBuilder, "connectedStations", describe(station), connectedStations.toString());
+		});
+
+		return stringBuilder.toString();
+	}
+
+	private static <T extends NameColorDataBase> void appendIds(StringBuilder stringBuilder, String type, Long2ObjectOpenHashMap<T> idMap) {
+		new LongAVLTreeSet(idMap.keySet()).forEach(id -> append(stringBuilder, type, String.valueOf(id), describe(idMap.get(id))));
+	}
+
+	private static void append(StringBuilder stringBuilder, String... values) {
+		stringBuilder.append(String.join(" ", values)).append('\n');
+	}
+
+	private static String describeSorted(ObjectSet<?> objects) {
+		return new ObjectAVLTreeSet<>(objects.stream().map(DataSyncTests::describe).iterator()).toString();
+	}
+
+	private static String describe(@Nullable Object object) {
+		if (object == null) {
+			return "null";
+		} else if (object instanceof Position) {
+			final Position position = (Position) object;
+			return String.format("(%s,%s,%s)", position.getX(), position.getY(), position.getZ());
+		} else if (object instanceof Rail) {
+			return String.format("%s@%s", ((Rail) object).getHexId(), System.identityHashCode(object));
+		} else if (object instanceof NameColorDataBase) {
+			return String.format("%s@%s", ((NameColorDataBase) object).getHexId(), System.identityHashCode(object));
+		} else {
+			return object.toString();
+		}
+	}
+}
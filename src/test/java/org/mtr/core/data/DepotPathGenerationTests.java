@@ -0,0 +1,172 @@
+package org.mtr.core.data;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.path.SidingPathFinder;
+import org.mtr.core.simulation.PathGenerationPool;
+import org.mtr.core.simulation.RunTier;
+import org.mtr.core.simulation.Simulator;
+import org.mtr.core.simulation.SimulatorOptions;
+import org.mtr.core.tool.Utilities;
+import org.mtr.libraries.com.google.gson.JsonArray;
+import org.mtr.libraries.com.google.gson.JsonObject;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Paths generated on the {@link PathGenerationPool} should be the same as running each path finder directly, and results of old generations should never be used.
+ */
+@ParametersAreNonnullByDefault
+public class DepotPathGenerationTests implements TestUtilities {
+
+	private static final Path ROOT_PATH = TEST_DIRECTORY.resolve("depot-path-generation");
+	private static final String DIMENSION = "test";
+	private static final int PLATFORM_COUNT = 5;
+	private static final long TIMEOUT_MILLIS = 30000;
+
+	@Test
+	public void generationMatchesDirectSearch() throws IOException {
+		final PathGenerationPool pathGenerationPool = new PathGenerationPool();
+		final Simulator simulator = createSimulator(pathGenerationPool);
+		final Depot depot = addDepot(simulator);
+		final ObjectArrayList<Depot> depots = new ObjectArrayList<>();
+		depots.add(depot);
+
+		final LongArrayList progressList = new LongArrayList();
+		Depot.generateDepots(simulator, depots, null);
+		tickUntil(simulator, () -> {
+			if (progressList.isEmpty() || progressList.getLong(progressList.size() - 1) != depot.getLastGeneratedProgress()) {
+				progressList.add(depot.getLastGeneratedProgress());
+			}
+			return depot.getLastGeneratedStatus() != Depot.GeneratedStatus.GENERATING;
+		});
+
+		Assertions.assertEquals(Depot.GeneratedStatus.SUCCESSFUL, depot.getLastGeneratedStatus());
+		for (int i = 1; i < progressList.size(); i++) {
+			Assertions.assertTrue(progressList.getLong(i) > progressList.getLong(i - 1));
+		}
+		Assertions.assertEquals(100, progressList.getLong(progressList.size() - 1));
+
+		final JsonArray depotPath = getPathArray(depot.getPath());
+		final Siding siding = depot.savedRails.iterator().next();
+		final JsonObject sidingObject = Utilities.getJsonObjectFromData(siding);
+
+		// Run the same path finders one by one on this thread, without any cached paths
+		simulator.pathCache.clear();
+		final ObjectArrayList<Platform> platforms = new ObjectArrayList<>();
+		depot.routes.forEach(route -> route.getRoutePlatforms().forEach(routePlatformData -> platforms.add(routePlatformData.platform)));
+		final ObjectArrayList<PathData> expectedDepotPath = new ObjectArrayList<>();
+		for (int i = 0; i < platforms.size() - 1; i++) {
+			SidingPathFinder.appendPath(expectedDepotPath, new SidingPathFinder<>(simulator, platforms.get(i), platforms.get(i + 1), i).generatePath(depot.getCruisingAltitude(), () -> false));
+		}
+		Assertions.assertEquals(getPathArray(expectedDepotPath), depotPath);
+
+		siding.finishGeneratingPath(
+				new SidingPathFinder<>(simulator, siding, platforms.get(0), -1).generatePath(depot.getCruisingAltitude(), () -> false),
+				new SidingPathFinder<>(simulator, platforms.get(platforms.size() - 1), siding, platforms.size()).generatePath(depot.getCruisingAltitude(), () -> false)
+		);
+		final JsonObject expectedSidingObject = Utilities.getJsonObjectFromData(siding);
+		Assertions.assertEquals(expectedSidingObject.get("pathSidingToMainRoute"), sidingObject.get("pathSidingToMainRoute"));
+		Assertions.assertEquals(expectedSidingObject.get("pathMainRouteToSiding"), sidingObject.get("pathMainRouteToSiding"));
+		Assertions.assertFalse(sidingObject.getAsJsonArray("pathSidingToMainRoute").isEmpty());
+
+		simulator.stop();
+		pathGenerationPool.shutdown();
+	}
+
+	@Test
+	public void cancelledGenerationIsNotCommitted() throws IOException {
+		final PathGenerationPool pathGenerationPool = new PathGenerationPool(1);
+		final Simulator simulator = createSimulator(pathGenerationPool);
+		final Depot depot = addDepot(simulator);
+		final ObjectArrayList<Depot> depots = new ObjectArrayList<>();
+		depots.add(depot);
+
+		Depot.generateDepots(simulator, depots, null);
+		Depot.cancelDepots(depots);
+		Assertions.assertEquals(Depot.GeneratedStatus.CANCELLED, depot.getLastGeneratedStatus());
+
+		// The pool runs tasks in order, so once a later task has run, every task of the cancelled generation has finished
+		waitForPool(simulator, pathGenerationPool);
+		Assertions.assertEquals(Depot.GeneratedStatus.CANCELLED, depot.getLastGeneratedStatus());
+		Assertions.assertEquals(0, depot.getLastGeneratedProgress());
+		Assertions.assertTrue(depot.getPath().isEmpty());
+
+		simulator.stop();
+		pathGenerationPool.shutdown();
+	}
+
+	/**
+	 * The first generation still finds a path on the old rails, but it finishes after it has been replaced by a generation that can't find a path between the first two platforms.
+	 */
+	@Test
+	public void supersededGenerationIsNotCommitted() throws IOException {
+		final PathGenerationPool pathGenerationPool = new PathGenerationPool(1);
+		final Simulator simulator = createSimulator(pathGenerationPool);
+		final Depot depot = addDepot(simulator);
+		final ObjectArrayList<Depot> depots = new ObjectArrayList<>();
+		depots.add(depot);
+
+		Depot.generateDepots(simulator, depots, null);
+		final Rail rail = Data.tryGet(simulator.positionsToRail, new Position(4 * TEST_LINE_SPACING, 0, 0), new Position(5 * TEST_LINE_SPACING, 0, 0));
+		Assertions.assertNotNull(rail);
+		simulator.rails.remove(rail);
+		simulator.sync();
+		Depot.generateDepots(simulator, depots, null);
+
+		tickUntil(simulator, () -> {
+			Assertions.assertNotEquals(Depot.GeneratedStatus.SUCCESSFUL, depot.getLastGeneratedStatus());
+			Assertions.assertTrue(depot.getPath().isEmpty());
+			return depot.getLastGeneratedStatus() != Depot.GeneratedStatus.GENERATING;
+		});
+
+		Assertions.assertEquals(Depot.GeneratedStatus.PATH_NOT_FOUND, depot.getLastGeneratedStatus());
+		waitForPool(simulator, pathGenerationPool);
+		Assertions.assertEquals(Depot.GeneratedStatus.PATH_NOT_FOUND, depot.getLastGeneratedStatus());
+		Assertions.assertTrue(depot.getPath().isEmpty());
+
+		simulator.stop();
+		pathGenerationPool.shutdown();
+	}
+
+	private static Simulator createSimulator(PathGenerationPool pathGenerationPool) throws IOException {
+		FileUtils.deleteDirectory(ROOT_PATH.toFile());
+		return new Simulator(DIMENSION, new String[]{DIMENSION}, ROOT_PATH, 0, new SimulatorOptions().setPathGenerationPool(pathGenerationPool));
+	}
+
+	private static Depot addDepot(Simulator simulator) {
+		final Depot depot = TestUtilities.addTestLine(simulator, 0, PLATFORM_COUNT);
+		simulator.sync();
+		depot.init();
+		return depot;
+	}
+
+	private static void tickUntil(Simulator simulator, BooleanSupplier condition) {
+		final long endMillis = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			Assertions.assertTrue(System.currentTimeMillis() < endMillis);
+			simulator.tick();
+		}
+	}
+
+	/**
+	 * Run one more task on the pool and tick until its result has been handed back, after which everything queued before it has been handed back too.
+	 */
+	private static void waitForPool(Simulator simulator, PathGenerationPool pathGenerationPool) {
+		final boolean[] finished = {false};
+		pathGenerationPool.execute(() -> simulator.run(() -> finished[0] = true, RunTier.WRITE));
+		tickUntil(simulator, () -> finished[0]);
+	}
+
+	private static JsonArray getPathArray(ObjectArrayList<PathData> path) {
+		final JsonArray jsonArray = new JsonArray();
+		path.forEach(pathData -> jsonArray.add(Utilities.getJsonObjectFromData(pathData)));
+		return jsonArray;
+	}
+}
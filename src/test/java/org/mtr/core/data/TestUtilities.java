@@ -16,16 +16,19 @@ import org.mtr.core.tool.Angle;
 import org.mtr.core.tool.Utilities;
 import org.mtr.libraries.com.google.gson.JsonObject;
 import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectObjectImmutablePair;
 import org.mtr.libraries.org.msgpack.core.MessageBufferPacker;
 import org.mtr.libraries.org.msgpack.core.MessagePack;
-import org.mtr.libraries.org.msgpack.core.MessageUnpacker;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Random;
 import java.util.UUID;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -35,6 +38,7 @@ public interface TestUtilities {
 	Path TEST_DIRECTORY = Paths.get("build/test-data");
 	int PORT = 8889; // We don't want to conflict with Minecraft Transit Railway using port 8888 by default
 	Random RANDOM = new Random();
+	int TEST_LINE_SPACING = 16;
 
 	static <T extends SerializedDataBase> T getDataFromJsonObject(JsonObject jsonObject, Function<ReaderBase, T> newInstance) {
 		return newInstance.apply(new JsonReader(jsonObject));
@@ -86,18 +90,134 @@ public interface TestUtilities {
 		Main.LOGGER.info(prettyPrint(jsonObject));
 		compareObjects(data, getDataFromJsonObject(jsonObject, newInstance));
 
+		final JsonStreamWriter jsonStreamWriter = new JsonStreamWriter();
+		data.serializeData(jsonStreamWriter);
+		Assertions.assertEquals(jsonObject.toString(), new String(jsonStreamWriter.getBytes(), 0, jsonStreamWriter.getLength(), StandardCharsets.UTF_8));
+		jsonStreamWriter.release();
+
+		final JsonStreamWriter entriesJsonStreamWriter = new JsonStreamWriter();
+		entriesJsonStreamWriter.writeEntries(JsonStreamWriter.serializeEntries(data));
+		Assertions.assertEquals(jsonObject.toString(), new String(entriesJsonStreamWriter.getBytes(), 0, entriesJsonStreamWriter.getLength(), StandardCharsets.UTF_8));
+		entriesJsonStreamWriter.release();
+
 		try (final MessageBufferPacker messageBufferPacker = MessagePack.newDefaultBufferPacker()) {
 			final MessagePackWriter messagePackWriter = new MessagePackWriter(messageBufferPacker);
 			data.serializeData(messagePackWriter);
 			messagePackWriter.serialize();
-			try (final MessageUnpacker messageUnpacker = MessagePack.newDefaultUnpacker(messageBufferPacker.toByteArray())) {
-				compareObjects(data, newInstance.apply(new MessagePackReader(messageUnpacker)));
-			}
+			compareObjects(data, newInstance.apply(new MessagePackReader(ByteBuffer.wrap(messageBufferPacker.toByteArray()))));
 		} catch (Exception e) {
 			Main.LOGGER.error("", e);
 		}
 	}
 
+	/**
+	 * The binary format should read back the same data as the keyed formats, and writing the read data again should give exactly the same bytes.
+	 */
+	static <T extends SerializedDataBase> void serializeAndDeserializeBinary(T data, Function<ReaderBase, T> newInstance) {
+		final BinaryWriter binaryWriter = new BinaryWriter();
+		data.serializeData(binaryWriter);
+		final byte[] bytes = binaryWriter.toByteArray();
+		final T newData = newInstance.apply(new BinaryReader(ByteBuffer.wrap(bytes)));
+		compareObjects(data, newData);
+
+		final BinaryWriter newBinaryWriter = new BinaryWriter();
+		newData.serializeData(newBinaryWriter);
+		Assertions.assertArrayEquals(bytes, newBinaryWriter.toByteArray());
+	}
+
+	/**
+	 * Copying the fields directly should give the same result as updating with the serialized data.
+	 */
+	static <T extends SerializedDataBase> void copyAndUpdate(T data, T otherData, Function<ReaderBase, T> newInstance, BiConsumer<T, T> copyData) {
+		final JsonObject otherJsonObject = Utilities.getJsonObjectFromData(otherData);
+		final T updatedData = getDataFromJsonObject(otherJsonObject, newInstance);
+		updatedData.updateData(new JsonReader(Utilities.getJsonObjectFromData(data)));
+		final T copiedData = getDataFromJsonObject(otherJsonObject, newInstance);
+		copyData.accept(copiedData, data);
+		compareObjects(updatedData, copiedData);
+	}
+
+	/**
+	 * Add a straight train line along the x-axis with a siding at the start and evenly spaced platforms, served by one depot and one route.
+	 * The data should be synced afterwards.
+	 *
+	 * @return the depot of the line
+	 */
+	static Depot addTestLine(Data data, int z, int platformCount) {
+		final Route route = new Route(TransportMode.TRAIN, data);
+		route.setName(String.format("Line %s", z));
+		final Depot depot = new Depot(TransportMode.TRAIN, data);
+		depot.setName(String.format("Depot %s", z));
+		depot.setFrequency(0, 40);
+		depot.getRouteIds().add(route.getId());
+
+		final int segmentCount = 1 + platformCount * 3;
+		for (int i = 0; i < segmentCount; i++) {
+			final Position position1 = new Position((long) i * TEST_LINE_SPACING, 0, z);
+			final Position position2 = new Position((long) (i + 1) * TEST_LINE_SPACING, 0, z);
+			final ObjectObjectImmutablePair<Angle, Angle> angles = Rail.getAngles(position1, 0, position2, 0);
+			if (i == 0) {
+				data.rails.add(Rail.newSidingRail(position1, angles.left(), position2, angles.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(), TransportMode.TRAIN));
+				final Siding siding = new Siding(position1, position2, TEST_LINE_SPACING, TransportMode.TRAIN, data);
+				final ObjectArrayList<VehicleCar> vehicleCars = new ObjectArrayList<>();
+				vehicleCars.add(new VehicleCar("test", 12, 2, -4, 4, 0, 0));
+				siding.setVehicleCars(vehicleCars);
+				siding.setMaxVehicles(2);
+				data.sidings.add(siding);
+			} else if (i % 3 == 0) {
+				data.rails.add(Rail.newPlatformRail(position1, angles.left(), position2, angles.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(), TransportMode.TRAIN));
+				final Platform platform = new Platform(position1, position2, TransportMode.TRAIN, data);
+				data.platforms.add(platform);
+				route.getRoutePlatforms().add(new RoutePlatformData(platform.getId()));
+			} else {
+				data.rails.add(Rail.newRail(position1, angles.left(), position2, angles.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(), 80, 80, false, false, true, false, false, TransportMode.TRAIN));
+			}
+		}
+
+		depot.setCorners(new Position(-1, -1, z - 1), new Position((long) segmentCount * TEST_LINE_SPACING + 1, 1, z + 1));
+		data.routes.add(route);
+		data.depots.add(depot);
+		return depot;
+	}
+
+	/**
+	 * Add a square grid of straight rails with random speed limits. Some rails are missing, some are one way, and some are turn back rails.
+	 *
+	 * @return the positions of the grid, indexed by x and then z
+	 */
+	static Position[][] addTestRailGrid(Data data, int gridSize, int spacing, long... speedLimits) {
+		final Position[][] positions = new Position[gridSize][gridSize];
+		for (int x = 0; x < gridSize; x++) {
+			for (int z = 0; z < gridSize; z++) {
+				positions[x][z] = new Position((long) x * spacing, 0, (long) z * spacing);
+			}
+		}
+
+		for (int x = 0; x < gridSize; x++) {
+			for (int z = 0; z < gridSize; z++) {
+				if (x + 1 < gridSize) {
+					addTestGridRail(data, positions[x][z], positions[x + 1][z], 0, speedLimits);
+				}
+				if (z + 1 < gridSize) {
+					addTestGridRail(data, positions[x][z], positions[x][z + 1], 90, speedLimits);
+				}
+			}
+		}
+
+		return positions;
+	}
+
+	static void addTestGridRail(Data data, Position position1, Position position2, float angle, long... speedLimits) {
+		final ObjectObjectImmutablePair<Angle, Angle> angles = Rail.getAngles(position1, angle, position2, angle);
+		final int type = RANDOM.nextInt(10);
+		if (type < 7) {
+			final long speedLimit = speedLimits[RANDOM.nextInt(speedLimits.length)];
+			data.rails.add(Rail.newRail(position1, angles.left(), position2, angles.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(), speedLimit, type < 5 ? speedLimit : 0, false, false, true, false, false, TransportMode.TRAIN));
+		} else if (type < 8) {
+			data.rails.add(Rail.newTurnBackRail(position1, angles.left(), position2, angles.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(), TransportMode.TRAIN));
+		}
+	}
+
 	static String randomString() {
 		return Utilities.numberToPaddedHexString(RANDOM.nextLong());
 	}
@@ -0,0 +1,93 @@
+package org.mtr.core.operation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.Lift;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.core.data.Vehicle;
+import org.mtr.core.simulation.Simulator;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks that {@link VehicleLiftDeltaDecoder} rebuilds the same responses that were packed by {@link VehicleLiftDeltaEncoder}.
+ */
+@ParametersAreNonnullByDefault
+public class VehicleLiftDeltaTests implements TestUtilities {
+
+	private static final int FRAMES = 20;
+
+	@Test
+	public void decodeFrames() {
+		final Simulator simulator = TestUtilities.getDefaultSimulator();
+		final ObjectArrayList<Vehicle> vehicles = TestUtilities.randomList(TestUtilities::randomVehicle);
+		final ObjectArrayList<Lift> lifts = TestUtilities.randomList(TestUtilities::randomLift);
+		final ClientUpdateCache clientUpdateCache = new ClientUpdateCache();
+		final VehicleLiftDeltaEncoder vehicleLiftDeltaEncoder = new VehicleLiftDeltaEncoder();
+		final VehicleLiftDeltaDecoder vehicleLiftDeltaDecoder = new VehicleLiftDeltaDecoder();
+
+		for (int i = 0; i < FRAMES; i++) {
+			final VehicleLiftResponse vehicleLiftResponse = randomResponse(simulator, vehicles, lifts, clientUpdateCache);
+			final byte[] content = vehicleLiftDeltaEncoder.encode(vehicleLiftResponse, clientUpdateCache);
+			Assertions.assertNotNull(content);
+			final VehicleLiftResponse decodedVehicleLiftResponse = vehicleLiftDeltaDecoder.decode(content, simulator);
+			Assertions.assertNotNull(decodedVehicleLiftResponse);
+			TestUtilities.compareObjects(vehicleLiftResponse, decodedVehicleLiftResponse);
+			Assertions.assertFalse(vehicleLiftDeltaDecoder.needsResync());
+			clientUpdateCache.clear();
+		}
+	}
+
+	@Test
+	public void resyncAfterMissedFrame() {
+		final Simulator simulator = TestUtilities.getDefaultSimulator();
+		final ObjectArrayList<Vehicle> vehicles = TestUtilities.randomList(TestUtilities::randomVehicle);
+		final ObjectArrayList<Lift> lifts = TestUtilities.randomList(TestUtilities::randomLift);
+		final ClientUpdateCache clientUpdateCache = new ClientUpdateCache();
+		final VehicleLiftDeltaEncoder vehicleLiftDeltaEncoder = new VehicleLiftDeltaEncoder();
+		final VehicleLiftDeltaDecoder vehicleLiftDeltaDecoder = new VehicleLiftDeltaDecoder();
+
+		Assertions.assertNotNull(vehicleLiftDeltaDecoder.decode(vehicleLiftDeltaEncoder.encode(randomResponse(simulator, vehicles, lifts, clientUpdateCache), clientUpdateCache), simulator));
+		vehicleLiftDeltaEncoder.encode(randomResponse(simulator, vehicles, lifts, clientUpdateCache), clientUpdateCache);
+
+		// The second frame was never decoded, so the third frame can't be applied
+		Assertions.assertNull(vehicleLiftDeltaDecoder.decode(vehicleLiftDeltaEncoder.encode(randomResponse(simulator, vehicles, lifts, clientUpdateCache), clientUpdateCache), simulator));
+		Assertions.assertTrue(vehicleLiftDeltaDecoder.needsResync());
+
+		vehicleLiftDeltaEncoder.resync();
+		final VehicleLiftResponse vehicleLiftResponse = randomResponse(simulator, vehicles, lifts, clientUpdateCache);
+		final VehicleLiftResponse decodedVehicleLiftResponse = vehicleLiftDeltaDecoder.decode(vehicleLiftDeltaEncoder.encode(vehicleLiftResponse, clientUpdateCache), simulator);
+		Assertions.assertNotNull(decodedVehicleLiftResponse);
+		TestUtilities.compareObjects(vehicleLiftResponse, decodedVehicleLiftResponse);
+		Assertions.assertFalse(vehicleLiftDeltaDecoder.needsResync());
+	}
+
+	/**
+	 * Each vehicle and lift is randomly updated, kept or removed. Updated vehicles get new extra data, so that some fields change and some don't.
+	 */
+	private static VehicleLiftResponse randomResponse(Simulator simulator, ObjectArrayList<Vehicle> vehicles, ObjectArrayList<Lift> lifts, ClientUpdateCache clientUpdateCache) {
+		final VehicleLiftResponse vehicleLiftResponse = new VehicleLiftResponse("test", simulator, clientUpdateCache);
+		vehicles.forEach(vehicle -> {
+			switch (RANDOM.nextInt(3)) {
+				case 0:
+					vehicleLiftResponse.addVehicleToUpdate(new VehicleUpdate(vehicle, TestUtilities.randomVehicleExtraData()));
+					break;
+				case 1:
+					vehicleLiftResponse.addVehicleToKeep(vehicle.getId());
+					break;
+			}
+		});
+		lifts.forEach(lift -> {
+			switch (RANDOM.nextInt(3)) {
+				case 0:
+					vehicleLiftResponse.addLiftToUpdate(lift);
+					break;
+				case 1:
+					vehicleLiftResponse.addLiftToKeep(lift.getId());
+					break;
+			}
+		});
+		return vehicleLiftResponse;
+	}
+}
@@ -0,0 +1,69 @@
+package org.mtr.core.path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.Platform;
+import org.mtr.core.data.Position;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.core.data.TransportMode;
+import org.mtr.core.serializer.SerializedDataBase;
+import org.mtr.core.simulation.Simulator;
+import org.mtr.core.tool.Utilities;
+import org.mtr.libraries.com.google.gson.JsonArray;
+import org.mtr.libraries.com.google.gson.JsonObject;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.file.Path;
+
+@ParametersAreNonnullByDefault
+public class DirectionsPathFinderTests implements TestUtilities {
+
+	private static final Path ROOT_PATH = TEST_DIRECTORY.resolve("directions-path-finder");
+	private static final String DIMENSION = "test";
+	private static final long MAX_WALKING_DISTANCE = 100;
+
+	@Test
+	public void walkToEnd() throws IOException {
+		final Simulator simulator = createSimulator();
+		final JsonArray directionsSegments = findDirections(simulator, new Position(0, 0, 0), new Position(30, 0, 40));
+		Assertions.assertEquals(1, directionsSegments.size());
+		Assertions.assertEquals(70 * 1000, directionsSegments.get(0).getAsJsonObject().get("duration").getAsLong());
+		simulator.stop();
+	}
+
+	/**
+	 * Both ends are close to a platform, but walking to a platform can't be followed by walking away from it again.
+	 */
+	@Test
+	public void noWalkingAfterWalking() throws IOException {
+		final Simulator simulator = createSimulator();
+		final JsonArray directionsSegments = findDirections(simulator, new Position(0, 0, 0), new Position(1016, 0, 0));
+		Assertions.assertEquals(0, directionsSegments.size());
+		simulator.stop();
+	}
+
+	private static Simulator createSimulator() throws IOException {
+		FileUtils.deleteDirectory(ROOT_PATH.toFile());
+		final Simulator simulator = new Simulator(DIMENSION, new String[]{DIMENSION}, ROOT_PATH, 0);
+		simulator.platforms.add(new Platform(new Position(0, 0, 0), new Position(16, 0, 0), TransportMode.TRAIN, simulator));
+		simulator.platforms.add(new Platform(new Position(1000, 0, 0), new Position(1016, 0, 0), TransportMode.TRAIN, simulator));
+		simulator.sync();
+		return simulator;
+	}
+
+	private static JsonArray findDirections(Simulator simulator, Position startPosition, Position endPosition) {
+		final SerializedDataBase[] response = {null};
+		final DirectionsPathFinder directionsPathFinder = new DirectionsPathFinder(simulator, startPosition, endPosition, MAX_WALKING_DISTANCE, serializedDataBase -> response[0] = serializedDataBase);
+
+		boolean completed = false;
+		while (!completed) {
+			completed = directionsPathFinder.tick();
+		}
+
+		Assertions.assertNotNull(response[0]);
+		final JsonObject jsonObject = Utilities.getJsonObjectFromData(response[0]);
+		return jsonObject.has("directionsSegments") ? jsonObject.getAsJsonArray("directionsSegments") : new JsonArray();
+	}
+}
@@ -0,0 +1,161 @@
+package org.mtr.core.path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.*;
+import org.mtr.core.path.PathFinder.ConnectionDetails;
+import org.mtr.core.path.SidingPathFinder.PositionAndAngle;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+public class PathCacheTests implements TestUtilities {
+
+	private static final Position[] START_POSITIONS = {new Position(0, 0, 0), new Position(16, 0, 0)};
+	private static final Position[] END_POSITIONS = {new Position(1000, 0, 0), new Position(1016, 0, 0)};
+	/**
+	 * One meter per millisecond along the straight line between the saved rails
+	 */
+	private static final long DURATION = 1016;
+	private static final double MAX_SPEED_LIMIT = 1;
+
+	@Test
+	public void leastRecentlyUsedPathsAreEvicted() {
+		final PathCache pathCache = new PathCache();
+		for (int i = 0; i < PathCache.MAX_ENTRIES; i++) {
+			put(pathCache, i, TransportMode.TRAIN);
+		}
+		Assertions.assertEquals(PathCache.MAX_ENTRIES, pathCache.size());
+
+		// Using the oldest path makes the second oldest path the next one to be evicted
+		Assertions.assertNotNull(get(pathCache, 0, TransportMode.TRAIN));
+		put(pathCache, PathCache.MAX_ENTRIES, TransportMode.TRAIN);
+		Assertions.assertEquals(PathCache.MAX_ENTRIES, pathCache.size());
+		Assertions.assertNotNull(get(pathCache, 0, TransportMode.TRAIN));
+		Assertions.assertNull(get(pathCache, 1, TransportMode.TRAIN));
+		Assertions.assertNotNull(get(pathCache, 2, TransportMode.TRAIN));
+		Assertions.assertNotNull(get(pathCache, PathCache.MAX_ENTRIES, TransportMode.TRAIN));
+	}
+
+	@Test
+	public void hitsAndMissesAreCounted() {
+		final PathCache pathCache = new PathCache();
+		Assertions.assertNull(get(pathCache, 0, TransportMode.TRAIN));
+		put(pathCache, 0, TransportMode.TRAIN);
+		Assertions.assertNotNull(get(pathCache, 0, TransportMode.TRAIN));
+		Assertions.assertNotNull(get(pathCache, 0, TransportMode.TRAIN));
+		Assertions.assertNull(get(pathCache, 0, TransportMode.BOAT));
+		Assertions.assertEquals(2, pathCache.getHits());
+		Assertions.assertEquals(2, pathCache.getMisses());
+
+		pathCache.logStatistics("test");
+		Assertions.assertEquals(0, pathCache.getHits());
+		Assertions.assertEquals(0, pathCache.getMisses());
+	}
+
+	@Test
+	public void pathsAreOnlyUsedOnTheSameOrNewerVersions() {
+		final PathCache pathCache = new PathCache();
+		final long oldVersion = pathCache.getVersion();
+		put(pathCache, 0, TransportMode.TRAIN);
+
+		// A rail change far away keeps the path but increments the version
+		invalidate(pathCache, new Position(500, 0, 100000), 0);
+		final long newVersion = pathCache.getVersion();
+		Assertions.assertTrue(newVersion > oldVersion);
+		Assertions.assertNotNull(pathCache.get(0, 0, TransportMode.TRAIN, newVersion));
+
+		// A path found on an old rail graph isn't cached, and a path cached at the new version isn't used on an old rail graph
+		pathCache.put(1, 1, TransportMode.TRAIN, oldVersion, createConnectionDetailsList(), START_POSITIONS, END_POSITIONS, DURATION, MAX_SPEED_LIMIT);
+		Assertions.assertNull(pathCache.get(1, 1, TransportMode.TRAIN, newVersion));
+		put(pathCache, 2, TransportMode.TRAIN);
+		Assertions.assertNull(pathCache.get(2, 2, TransportMode.TRAIN, oldVersion));
+		Assertions.assertNotNull(pathCache.get(2, 2, TransportMode.TRAIN, newVersion));
+		Assertions.assertNotNull(pathCache.get(0, 0, TransportMode.TRAIN, oldVersion));
+	}
+
+	@Test
+	public void onlyPathsInRangeAreInvalidated() {
+		final PathCache pathCache = new PathCache();
+
+		// Any rail between the saved rails is in range
+		put(pathCache, 0, TransportMode.TRAIN);
+		invalidate(pathCache, new Position(500, 0, 0), 0);
+		Assertions.assertNull(get(pathCache, 0, TransportMode.TRAIN));
+
+		// A slow rail far away can't make the path faster
+		put(pathCache, 0, TransportMode.TRAIN);
+		invalidate(pathCache, new Position(500, 0, 5000), MAX_SPEED_LIMIT);
+		Assertions.assertNotNull(get(pathCache, 0, TransportMode.TRAIN));
+
+		// A fast rail the same distance away could
+		invalidate(pathCache, new Position(500, 0, 5000), MAX_SPEED_LIMIT * 100);
+		Assertions.assertNull(get(pathCache, 0, TransportMode.TRAIN));
+
+		// Airplanes can fly to any runway, so every change removes their paths
+		put(pathCache, 0, TransportMode.AIRPLANE);
+		invalidate(pathCache, new Position(500, 0, 100000), 0);
+		Assertions.assertNull(get(pathCache, 0, TransportMode.AIRPLANE));
+	}
+
+	@Test
+	public void removedRailOnPathInvalidatesPath() {
+		final ClientData data = new ClientData();
+		final Depot depot1 = TestUtilities.addTestLine(data, 0, 2);
+		final Depot depot2 = TestUtilities.addTestLine(data, 100000, 2);
+		data.sync();
+
+		final Route route1 = depot1.routes.get(0);
+		final Route route2 = depot2.routes.get(0);
+		Assertions.assertFalse(generatePath(data, route1).isEmpty());
+		Assertions.assertFalse(generatePath(data, route2).isEmpty());
+		Assertions.assertEquals(2, data.pathCache.size());
+		Assertions.assertEquals(0, data.pathCache.getHits());
+
+		Assertions.assertFalse(generatePath(data, route1).isEmpty());
+		Assertions.assertEquals(1, data.pathCache.getHits());
+
+		// Remove a rail between the two platforms of the first line
+		final Rail rail = Data.tryGet(data.positionsToRail, new Position(4 * TEST_LINE_SPACING, 0, 0), new Position(5 * TEST_LINE_SPACING, 0, 0));
+		Assertions.assertNotNull(rail);
+		data.rails.remove(rail);
+		final DataChangeSet dataChangeSet = new DataChangeSet();
+		dataChangeSet.removedRails.add(rail);
+		data.sync(dataChangeSet);
+
+		Assertions.assertEquals(1, data.pathCache.size());
+		Assertions.assertTrue(generatePath(data, route1).isEmpty());
+		Assertions.assertFalse(generatePath(data, route2).isEmpty());
+		Assertions.assertEquals(2, data.pathCache.getHits());
+	}
+
+	private static ObjectArrayList<PathData> generatePath(Data data, Route route) {
+		return new SidingPathFinder<>(data, route.getRoutePlatforms().get(0).platform, route.getRoutePlatforms().get(1).platform, 0).generatePath(0, () -> false);
+	}
+
+	private static void put(PathCache pathCache, long id, TransportMode transportMode) {
+		pathCache.put(id, id, transportMode, pathCache.getVersion(), createConnectionDetailsList(), START_POSITIONS, END_POSITIONS, DURATION, MAX_SPEED_LIMIT);
+	}
+
+	private static ObjectArrayList<ConnectionDetails<PositionAndAngle>> get(PathCache pathCache, long id, TransportMode transportMode) {
+		return pathCache.get(id, id, transportMode, pathCache.getVersion());
+	}
+
+	private static void invalidate(PathCache pathCache, Position position, double speedLimit) {
+		final ObjectOpenHashSet<Position> railNodePositions = new ObjectOpenHashSet<>();
+		railNodePositions.add(position);
+		pathCache.invalidate(railNodePositions, speedLimit);
+	}
+
+	/**
+	 * The cache never reads the nodes of a path, only how many there are.
+	 */
+	private static ObjectArrayList<ConnectionDetails<PositionAndAngle>> createConnectionDetailsList() {
+		final ObjectArrayList<ConnectionDetails<PositionAndAngle>> connectionDetailsList = new ObjectArrayList<>();
+		connectionDetailsList.add(null);
+		connectionDetailsList.add(null);
+		return connectionDetailsList;
+	}
+}
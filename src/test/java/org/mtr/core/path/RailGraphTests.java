@@ -0,0 +1,84 @@
+package org.mtr.core.path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.ClientData;
+import org.mtr.core.data.Position;
+import org.mtr.core.data.Rail;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.core.data.TransportMode;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+public class RailGraphTests implements TestUtilities {
+
+	private static final int GRID_SIZE = 8;
+
+	@Test
+	public void edgesMatchRails() {
+		for (int i = 0; i < 10; i++) {
+			final ClientData data = new ClientData();
+			TestUtilities.addTestRailGrid(data, GRID_SIZE, 16, 20, 40, 80, 2500);
+			data.sync();
+
+			final RailGraph railGraph = data.getRailGraph();
+			Assertions.assertEquals(data.positionsToRail.size(), railGraph.getNodeCount());
+			Assertions.assertEquals(-1, railGraph.getNodeId(new Position(-1, -1, -1)));
+			double maxSpeedLimit = 0;
+
+			for (int nodeId = 0; nodeId < railGraph.getNodeCount(); nodeId++) {
+				final Position position = railGraph.getPosition(nodeId);
+				Assertions.assertEquals(nodeId, railGraph.getNodeId(position));
+				final Object2ObjectOpenHashMap<Position, Rail> railConnections = data.positionsToRail.get(position);
+				Assertions.assertNotNull(railConnections);
+				Assertions.assertEquals(railConnections.size(), railGraph.getFirstEdge(nodeId + 1) - railGraph.getFirstEdge(nodeId));
+				final ObjectOpenHashSet<Position> targetPositions = new ObjectOpenHashSet<>();
+
+				for (int edge = railGraph.getFirstEdge(nodeId); edge < railGraph.getFirstEdge(nodeId + 1); edge++) {
+					final Position targetPosition = railGraph.getPosition(railGraph.getEdgeTarget(edge));
+					Assertions.assertTrue(targetPositions.add(targetPosition));
+					final Rail rail = railConnections.get(targetPosition);
+					Assertions.assertNotNull(rail);
+					Assertions.assertSame(rail, railGraph.getRail(position, targetPosition));
+					Assertions.assertEquals(rail.getStartAngle(targetPosition).getOpposite().ordinal(), railGraph.getEdgeEndAngle(edge));
+
+					final double speedLimit = rail.getSpeedLimitMetersPerMillisecond(position);
+					Assertions.assertEquals(speedLimit > 0, railGraph.canTraverseEdge(edge));
+					if (speedLimit > 0) {
+						maxSpeedLimit = Math.max(maxSpeedLimit, speedLimit);
+						Assertions.assertEquals(Math.max(1, Math.round(rail.railMath.getLength() / speedLimit)), railGraph.getEdgeDuration(edge));
+					}
+
+					// Only a turn back rail can be entered from any angle, otherwise a train has to be facing along the rail or be at the start of its path
+					for (int angle = 0; angle < RailGraph.ANGLE_COUNT; angle++) {
+						final boolean canEnter = speedLimit > 0 && (rail.canTurnBack() || angle == RailGraph.NO_ANGLE || angle == rail.getStartAngle(position).ordinal());
+						Assertions.assertEquals(canEnter, railGraph.canEnterEdge(edge, angle));
+					}
+				}
+			}
+
+			Assertions.assertEquals(maxSpeedLimit, railGraph.getMaxSpeedLimitMetersPerMillisecond(TransportMode.TRAIN));
+			Assertions.assertEquals(0, railGraph.getMaxSpeedLimitMetersPerMillisecond(TransportMode.BOAT));
+		}
+	}
+
+	@Test
+	public void graphIsRebuiltWhenRailsChange() {
+		final ClientData data = new ClientData();
+		TestUtilities.addTestRailGrid(data, GRID_SIZE, 16, 80);
+		data.sync();
+
+		final RailGraph railGraph = data.getRailGraph();
+		Assertions.assertSame(railGraph, data.getRailGraph());
+
+		final Position position = railGraph.getPosition(0);
+		data.positionsToRail.get(position).values().forEach(data.rails::remove);
+		data.sync();
+		Assertions.assertEquals(-1, data.getRailGraph().getNodeId(position));
+		Assertions.assertNotSame(railGraph, data.getRailGraph());
+		Assertions.assertEquals(data.positionsToRail.size(), data.getRailGraph().getNodeCount());
+	}
+}
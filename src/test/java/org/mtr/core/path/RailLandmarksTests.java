@@ -0,0 +1,81 @@
+package org.mtr.core.path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.ClientData;
+import org.mtr.core.data.TestUtilities;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
+
+/**
+ * The ALT search is only optimal if the landmark bounds never exceed the real duration.
+ */
+@ParametersAreNonnullByDefault
+public class RailLandmarksTests implements TestUtilities {
+
+	private static final int GRID_SIZE = 8;
+
+	@Test
+	public void lowerBoundsAreAdmissible() {
+		for (int i = 0; i < 10; i++) {
+			checkLowerBounds(16, 20, 40, 80, 120, 160);
+			checkLowerBounds(1, 2500, 2000, 80);
+		}
+	}
+
+	private static void checkLowerBounds(int spacing, long... speedLimits) {
+		final ClientData data = new ClientData();
+		TestUtilities.addTestRailGrid(data, GRID_SIZE, spacing, speedLimits);
+		data.sync();
+
+		final RailGraph railGraph = data.getRailGraph();
+		final RailLandmarks railLandmarks = new RailLandmarks(railGraph);
+		boolean hasLowerBound = false;
+
+		for (int nodeId = 0; nodeId < railGraph.getNodeCount(); nodeId++) {
+			final long[] durations = getShortestDurations(railGraph, nodeId);
+			for (int endNodeId = 0; endNodeId < railGraph.getNodeCount(); endNodeId++) {
+				final long lowerBound = railLandmarks.getLowerBound(nodeId, endNodeId);
+				Assertions.assertTrue(lowerBound >= 0);
+				if (durations[endNodeId] != Long.MAX_VALUE) {
+					Assertions.assertTrue(lowerBound <= durations[endNodeId], String.format("Lower bound %s from %s to %s is more than %s", lowerBound, nodeId, endNodeId, durations[endNodeId]));
+				}
+				hasLowerBound |= lowerBound > 0;
+			}
+		}
+
+		Assertions.assertTrue(hasLowerBound);
+	}
+
+	/**
+	 * Dijkstra's algorithm over rail nodes, ignoring angles. A path that has to respect angles is never faster, so this is the tightest duration a bound must stay below.
+	 */
+	private static long[] getShortestDurations(RailGraph railGraph, int startNodeId) {
+		final long[] durations = new long[railGraph.getNodeCount()];
+		final boolean[] visited = new boolean[railGraph.getNodeCount()];
+		Arrays.fill(durations, Long.MAX_VALUE);
+		durations[startNodeId] = 0;
+
+		while (true) {
+			int nodeId = -1;
+			for (int i = 0; i < durations.length; i++) {
+				if (!visited[i] && durations[i] != Long.MAX_VALUE && (nodeId < 0 || durations[i] < durations[nodeId])) {
+					nodeId = i;
+				}
+			}
+
+			if (nodeId < 0) {
+				return durations;
+			}
+
+			visited[nodeId] = true;
+			for (int edge = railGraph.getFirstEdge(nodeId); edge < railGraph.getFirstEdge(nodeId + 1); edge++) {
+				if (railGraph.canTraverseEdge(edge)) {
+					final int targetNodeId = railGraph.getEdgeTarget(edge);
+					durations[targetNodeId] = Math.min(durations[targetNodeId], durations[nodeId] + railGraph.getEdgeDuration(edge));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package org.mtr.core.path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.*;
+import org.mtr.core.tool.Angle;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectObjectImmutablePair;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
+
+/**
+ * Checks that the A* search finds paths exactly as fast as an exhaustive search over the same {@link RailGraph}.
+ */
+@ParametersAreNonnullByDefault
+public class SidingPathFinderTests implements TestUtilities {
+
+	private static final int GRID_SIZE = 6;
+	private static final int QUERIES_PER_GRID = 64;
+
+	@Test
+	public void searchMatchesDijkstra() {
+		for (int i = 0; i < 10; i++) {
+			checkRandomQueries(16, 20, 40, 80, 120, 160);
+		}
+	}
+
+	/**
+	 * Rails this short and fast have durations of about {@code 1.5} milliseconds, which are rounded down by up to a third.
+	 */
+	@Test
+	public void searchMatchesDijkstraWithRoundedDurations() {
+		for (int i = 0; i < 10; i++) {
+			checkRandomQueries(1, 2500, 2000, 80);
+		}
+	}
+
+	/**
+	 * The end can only be reached by reversing on the turn back rail.
+	 */
+	@Test
+	public void searchWithTurnBack() {
+		final ClientData data = new ClientData();
+		final Position positionA = new Position(0, 0, 0);
+		final Position positionB = new Position(16, 0, 0);
+		final Position positionC = new Position(32, 0, 0);
+		final Position positionD = new Position(-64, 0, 16);
+		final ObjectObjectImmutablePair<Angle, Angle> anglesAB = Rail.getAngles(positionA, 0, positionB, 0);
+		final ObjectObjectImmutablePair<Angle, Angle> anglesBC = Rail.getAngles(positionB, 0, positionC, 0);
+		final ObjectObjectImmutablePair<Angle, Angle> anglesBD = Rail.getAngles(positionB, 180, positionD, 180);
+		data.rails.add(Rail.newRail(positionA, anglesAB.left(), positionB, anglesAB.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(), 80, 0, false, false, true, false, false, TransportMode.TRAIN));
+		data.rails.add(Rail.newTurnBackRail(positionB, anglesBC.left(), positionC, anglesBC.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(), TransportMode.TRAIN));
+		data.rails.add(Rail.newRail(positionB, anglesBD.left(), positionD, anglesBD.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(), 80, 80, false, false, true, false, false, TransportMode.TRAIN));
+		data.sync();
+
+		final RailGraph railGraph = data.getRailGraph();
+		final long duration = checkQuery(data, new Platform(positionA, positionB, TransportMode.TRAIN, data), new Platform(positionD, positionB, TransportMode.TRAIN, data));
+		Assertions.assertTrue(duration > getEdgeDuration(railGraph, positionA, positionB) + getEdgeDuration(railGraph, positionB, positionD));
+	}
+
+	/**
+	 * Airplanes can only get from one runway to the other by flying.
+	 */
+	@Test
+	public void searchWithRunways() {
+		final ClientData data = new ClientData();
+		final Position positionA = new Position(0, 0, 0);
+		final Position positionB = new Position(16, 0, 0);
+		final Position positionC = new Position(80, 0, 0);
+		final Position positionD = new Position(1000, 0, 500);
+		final Position positionE = new Position(1064, 0, 500);
+		final Position positionF = new Position(1080, 0, 500);
+		addAirplaneRail(data, positionA, positionB, false);
+		addAirplaneRail(data, positionB, positionC, true);
+		addAirplaneRail(data, positionD, positionE, true);
+		addAirplaneRail(data, positionE, positionF, false);
+		data.sync();
+
+		final RailGraph railGraph = data.getRailGraph();
+		Assertions.assertTrue(railGraph.isRunwayOutbound(railGraph.getNodeId(positionC)));
+		Assertions.assertEquals(1, railGraph.getRunwayInboundCount());
+		Assertions.assertEquals(positionD, railGraph.getPosition(railGraph.getRunwayInboundNodeId(0)));
+		Assertions.assertTrue(checkQuery(data, new Platform(positionA, positionB, TransportMode.AIRPLANE, data), new Platform(positionE, positionF, TransportMode.AIRPLANE, data)) > 0);
+	}
+
+	private static void checkRandomQueries(int spacing, long... speedLimits) {
+		final ClientData data = new ClientData();
+		final Position[][] positions = TestUtilities.addTestRailGrid(data, GRID_SIZE, spacing, speedLimits);
+		data.sync();
+
+		// Enough queries on the same graph for the landmarks to be built and used as well
+		for (int i = 0; i < QUERIES_PER_GRID; i++) {
+			final Platform startPlatform = getRandomPlatform(data, positions);
+			final Platform endPlatform = getRandomPlatform(data, positions);
+			// A search that starts at the end finishes straight away without a path
+			if (!startPlatform.getRandomPosition().equals(endPlatform.getRandomPosition())) {
+				checkQuery(data, startPlatform, endPlatform);
+			}
+		}
+	}
+
+	/**
+	 * @return the duration of the path or {@code -1} if there is no path
+	 */
+	private static long checkQuery(Data data, Platform startPlatform, Platform endPlatform) {
+		final RailGraph railGraph = data.getRailGraph();
+		final SidingPathFinder<Station, Platform, Station, Platform> sidingPathFinder = new SidingPathFinder<>(data, startPlatform, endPlatform, 0);
+		boolean completed = false;
+		while (!completed) {
+			completed = sidingPathFinder.search();
+		}
+
+		final IntArrayList path = sidingPathFinder.getPath();
+		long duration = path.isEmpty() ? -1 : 0;
+		for (int i = 1; i < path.size(); i++) {
+			duration += sidingPathFinder.getDuration(path.getInt(i));
+		}
+
+		final boolean isAirplane = startPlatform.getTransportMode() == TransportMode.AIRPLANE;
+		Assertions.assertEquals(getShortestDuration(railGraph, railGraph.getNodeId(startPlatform.getRandomPosition()), railGraph.getNodeId(endPlatform.getRandomPosition()), isAirplane), duration);
+		return duration;
+	}
+
+	/**
+	 * Dijkstra's algorithm over every combination of rail node and angle, without a heap or a heuristic.
+	 *
+	 * @return the duration of the fastest path or {@code -1} if there is no path
+	 */
+	private static long getShortestDuration(RailGraph railGraph, int startNodeId, int endNodeId, boolean isAirplane) {
+		if (startNodeId < 0 || endNodeId < 0) {
+			return -1;
+		}
+
+		final int stateCount = railGraph.getNodeCount() * RailGraph.ANGLE_COUNT;
+		final long[] durations = new long[stateCount];
+		final boolean[] visited = new boolean[stateCount];
+		Arrays.fill(durations, Long.MAX_VALUE);
+		durations[startNodeId * RailGraph.ANGLE_COUNT + RailGraph.NO_ANGLE] = 0;
+
+		while (true) {
+			int state = -1;
+			for (int i = 0; i < stateCount; i++) {
+				if (!visited[i] && durations[i] != Long.MAX_VALUE && (state < 0 || durations[i] < durations[state])) {
+					state = i;
+				}
+			}
+
+			if (state < 0) {
+				return -1;
+			}
+
+			final int nodeId = state / RailGraph.ANGLE_COUNT;
+			if (nodeId == endNodeId) {
+				return durations[state];
+			}
+
+			visited[state] = true;
+			for (int edge = railGraph.getFirstEdge(nodeId); edge < railGraph.getFirstEdge(nodeId + 1); edge++) {
+				if (railGraph.canEnterEdge(edge, state % RailGraph.ANGLE_COUNT)) {
+					final int newState = railGraph.getEdgeTarget(edge) * RailGraph.ANGLE_COUNT + railGraph.getEdgeEndAngle(edge);
+					durations[newState] = Math.min(durations[newState], durations[state] + railGraph.getEdgeDuration(edge));
+				}
+			}
+
+			if (isAirplane && railGraph.isRunwayOutbound(nodeId)) {
+				for (int i = 0; i < railGraph.getRunwayInboundCount(); i++) {
+					final int newState = railGraph.getRunwayInboundNodeId(i) * RailGraph.ANGLE_COUNT + railGraph.getRunwayInboundAngle(i);
+					durations[newState] = Math.min(durations[newState], durations[state] + 1);
+				}
+			}
+		}
+	}
+
+	private static Platform getRandomPlatform(Data data, Position[][] positions) {
+		final int x = RANDOM.nextInt(GRID_SIZE - 1);
+		final int z = RANDOM.nextInt(GRID_SIZE);
+		return new Platform(positions[x][z], positions[x + 1][z], TransportMode.TRAIN, data);
+	}
+
+	private static long getEdgeDuration(RailGraph railGraph, Position position1, Position position2) {
+		final int nodeId = railGraph.getNodeId(position1);
+		for (int edge = railGraph.getFirstEdge(nodeId); edge < railGraph.getFirstEdge(nodeId + 1); edge++) {
+			if (railGraph.getPosition(railGraph.getEdgeTarget(edge)).equals(position2)) {
+				return railGraph.getEdgeDuration(edge);
+			}
+		}
+		return Assertions.fail();
+	}
+
+	private static void addAirplaneRail(Data data, Position position1, Position position2, boolean isRunway) {
+		final ObjectObjectImmutablePair<Angle, Angle> angles = Rail.getAngles(position1, 0, position2, 0);
+		data.rails.add(Rail.newRail(position1, angles.left(), position2, angles.right(), Rail.Shape.QUADRATIC, 0, new ObjectArrayList<>(), 300, 0, false, false, true, isRunway, false, TransportMode.AIRPLANE));
+	}
+}
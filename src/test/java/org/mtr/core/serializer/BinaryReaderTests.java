@@ -0,0 +1,134 @@
+package org.mtr.core.serializer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.Depot;
+import org.mtr.core.data.Position;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.core.simulation.Simulator;
+import org.mtr.libraries.it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Checks the parts of {@link BinaryReader} and {@link BinaryWriter} that the generated schema tests don't cover.
+ */
+@ParametersAreNonnullByDefault
+public class BinaryReaderTests implements TestUtilities {
+
+	@Test
+	public void readValues() {
+		final String text = "Ünïcödé 車站 🚆";
+		final Position position = TestUtilities.randomPosition();
+		final BinaryReader binaryReader = read(writerBase -> {
+			writerBase.writeLong("id", Long.MIN_VALUE);
+			writerBase.writeInt("count", -1);
+			writerBase.writeString("name", text);
+			position.serializeData(writerBase.writeChild("position"));
+			final WriterBase.Array writerBaseArray = writerBase.writeArray("values");
+			writerBaseArray.writeDouble(1.5);
+			writerBaseArray.writeString("skipped");
+			writerBaseArray.writeDouble(-2);
+			writerBase.writeBoolean("enabled", true);
+			writerBase.writeLong("id", Long.MAX_VALUE);
+		});
+
+		// Repeated keys use the last value and values with a different type are treated as missing
+		Assertions.assertEquals(Long.MAX_VALUE, binaryReader.getLong("id", 0));
+		Assertions.assertEquals(-1, binaryReader.getInt("count", 0));
+		Assertions.assertEquals(0, binaryReader.getDouble("count", 0));
+		Assertions.assertEquals(text, binaryReader.getString("name", ""));
+		Assertions.assertEquals("", binaryReader.getString("missing", ""));
+		Assertions.assertTrue(binaryReader.getBoolean("enabled", false));
+		TestUtilities.compareObjects(position, new Position(binaryReader.getChild("position")));
+
+		final DoubleArrayList values = new DoubleArrayList();
+		binaryReader.iterateDoubleArray("values", values::clear, values::add);
+		Assertions.assertEquals(DoubleArrayList.wrap(new double[]{1.5, -2}), values);
+
+		binaryReader.merge(read(writerBase -> writerBase.writeString("name", "merged")));
+		Assertions.assertEquals("merged", binaryReader.getString("name", ""));
+		Assertions.assertEquals(Long.MAX_VALUE, binaryReader.getLong("id", 0));
+	}
+
+	@Test
+	public void readNestedArrays() {
+		final ObjectArrayList<Position> positions = new ObjectArrayList<>();
+		TestUtilities.randomLoop(() -> positions.add(TestUtilities.randomPosition()));
+		final BinaryReader binaryReader = read(writerBase -> {
+			final WriterBase.Array writerBaseArray = writerBase.writeArray("groups");
+			for (int i = 0; i < 3; i++) {
+				writerBaseArray.writeChild().writeDataset(positions, "positions");
+			}
+			writerBase.writeLong("id", 1);
+		});
+
+		final ObjectArrayList<ReaderBase> groupReaders = new ObjectArrayList<>();
+		binaryReader.iterateReaderArray("groups", groupReaders::clear, groupReaders::add);
+		Assertions.assertEquals(3, groupReaders.size());
+		groupReaders.forEach(groupReader -> {
+			final ObjectArrayList<Position> newPositions = new ObjectArrayList<>();
+			groupReader.iterateReaderArray("positions", newPositions::clear, readerBase -> newPositions.add(new Position(readerBase)));
+			Assertions.assertEquals(positions.size(), newPositions.size());
+			for (int i = 0; i < positions.size(); i++) {
+				TestUtilities.compareObjects(positions.get(i), newPositions.get(i));
+			}
+		});
+		Assertions.assertEquals(1, binaryReader.getLong("id", 0));
+	}
+
+	@Test
+	public void writeToClosedChild() {
+		final BinaryWriter binaryWriter = new BinaryWriter();
+		final WriterBase child = binaryWriter.writeChild("child");
+		binaryWriter.writeLong("id", 1);
+		Assertions.assertThrows(IllegalStateException.class, () -> child.writeLong("id", 2));
+	}
+
+	/**
+	 * {@code "Aa"} and {@code "BB"} have the same hash code.
+	 */
+	@Test
+	public void writeKeysWithSameFieldId() {
+		final BinaryWriter binaryWriter = new BinaryWriter();
+		binaryWriter.writeLong("Aa", 1);
+		binaryWriter.writeChild("child").writeLong("BB", 2);
+		binaryWriter.writeLong("Aa", 3);
+		Assertions.assertThrows(IllegalStateException.class, () -> binaryWriter.writeLong("BB", 4));
+	}
+
+	/**
+	 * Keys written by hand in {@code serializeFullData} aren't checked by the schema generator.
+	 */
+	@Test
+	public void writeFullDataWithoutFieldIdCollisions() {
+		final Simulator simulator = TestUtilities.getDefaultSimulator();
+		final Depot depot = TestUtilities.addTestLine(simulator, 0, 2);
+		simulator.sync();
+		depot.init();
+		final ObjectArrayList<SerializedDataBase> dataList = new ObjectArrayList<>();
+		dataList.addAll(simulator.rails);
+		dataList.addAll(simulator.platforms);
+		dataList.addAll(simulator.sidings);
+		dataList.addAll(simulator.routes);
+		dataList.addAll(simulator.depots);
+		dataList.add(TestUtilities.randomStation());
+		dataList.add(TestUtilities.randomLift());
+		dataList.add(TestUtilities.randomVehicle());
+
+		dataList.forEach(data -> {
+			final BinaryWriter binaryWriter = new BinaryWriter();
+			data.serializeFullData(binaryWriter);
+			Assertions.assertNotEquals(0, binaryWriter.toByteArray().length);
+		});
+	}
+
+	private static BinaryReader read(Consumer<WriterBase> consumer) {
+		final BinaryWriter binaryWriter = new BinaryWriter();
+		consumer.accept(binaryWriter);
+		return new BinaryReader(ByteBuffer.wrap(binaryWriter.toByteArray()));
+	}
+}
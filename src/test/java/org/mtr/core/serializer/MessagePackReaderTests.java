@@ -0,0 +1,284 @@
+package org.mtr.core.serializer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.Main;
+import org.mtr.core.data.PathData;
+import org.mtr.core.data.Position;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.libraries.it.unimi.dsi.fastutil.booleans.BooleanConsumer;
+import org.mtr.libraries.it.unimi.dsi.fastutil.doubles.DoubleConsumer;
+import org.mtr.libraries.it.unimi.dsi.fastutil.ints.IntConsumer;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.longs.LongConsumer;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.org.msgpack.core.MessageBufferPacker;
+import org.mtr.libraries.org.msgpack.core.MessagePack;
+import org.mtr.libraries.org.msgpack.core.MessageUnpacker;
+import org.mtr.libraries.org.msgpack.value.Value;
+import org.mtr.libraries.org.msgpack.value.ValueFactory;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Checks that {@link MessagePackReader} returns the same values regardless of the order keys are requested in, and that it allocates less than decoding everything first.
+ */
+@ParametersAreNonnullByDefault
+public class MessagePackReaderTests implements TestUtilities {
+
+	private static final int PATH_LENGTH = 10000;
+
+	@Test
+	public void readKeysOutOfOrder() {
+		final Position position = TestUtilities.randomPosition();
+		final ObjectArrayList<Position> positions = new ObjectArrayList<>();
+		TestUtilities.randomLoop(() -> positions.add(TestUtilities.randomPosition()));
+
+		final MessagePackReader messagePackReader = new MessagePackReader(pack(writerBase -> {
+			writerBase.writeLong("id", 1);
+			position.serializeData(writerBase.writeChild("position"));
+			writerBase.writeString("legacy_name", "name");
+			writerBase.writeDataset(positions, "positions");
+			final WriterBase.Array writerBaseArray = writerBase.writeArray("values");
+			writerBaseArray.writeLong(2);
+			writerBaseArray.writeLong(3);
+		}));
+
+		// Skips all entries, which then have to be read from their offsets
+		Assertions.assertEquals("name", messagePackReader.getString("legacyName", ""));
+		Assertions.assertEquals(0, messagePackReader.getLong("missing", 0));
+		Assertions.assertEquals(1, messagePackReader.getLong("id", 0));
+		Assertions.assertEquals(1, messagePackReader.getLong("id", 0));
+		Assertions.assertEquals(0, messagePackReader.getDouble("id", 0));
+
+		final ObjectArrayList<ReaderBase> positionReaders = new ObjectArrayList<>();
+		messagePackReader.iterateReaderArray("positions", positionReaders::clear, positionReaders::add);
+		final ReaderBase positionReader = messagePackReader.getChild("position");
+		final LongArrayList values = new LongArrayList();
+		messagePackReader.iterateLongArray("values", values::clear, values::add);
+
+		Assertions.assertEquals(LongArrayList.wrap(new long[]{2, 3}), values);
+		TestUtilities.compareObjects(position, new Position(positionReader));
+		Assertions.assertEquals(positions.size(), positionReaders.size());
+		for (int i = 0; i < positions.size(); i++) {
+			TestUtilities.compareObjects(positions.get(i), new Position(positionReaders.get(i)));
+		}
+	}
+
+	@Test
+	public void readChildrenWhileStreaming() {
+		final ObjectArrayList<Position> positions = new ObjectArrayList<>();
+		TestUtilities.randomLoop(() -> positions.add(TestUtilities.randomPosition()));
+
+		final MessagePackReader messagePackReader = new MessagePackReader(pack(writerBase -> {
+			writerBase.writeDataset(positions, "positions");
+			writerBase.writeLong("id", 1);
+		}));
+
+		// Each child is detached from the shared cursor when the next one is read
+		final ObjectArrayList<ReaderBase> positionReaders = new ObjectArrayList<>();
+		messagePackReader.iterateReaderArray("positions", positionReaders::clear, readerBase -> {
+			readerBase.getLong("y", 0);
+			positionReaders.add(readerBase);
+		});
+		Assertions.assertEquals(1, messagePackReader.getLong("id", 0));
+
+		for (int i = 0; i < positions.size(); i++) {
+			TestUtilities.compareObjects(positions.get(i), new Position(positionReaders.get(i)));
+		}
+	}
+
+	/**
+	 * Reading the same path into the same objects, the streaming reader should allocate less than a reader that first decodes everything into a {@link Value} tree (like the previous reader).
+	 */
+	@Test
+	public void streamingAllocatesLessThanValueTree() {
+		final ObjectArrayList<PathData> path = new ObjectArrayList<>();
+		for (int i = 0; i < PATH_LENGTH; i++) {
+			path.add(TestUtilities.randomPathData());
+		}
+		final ByteBuffer buffer = pack(writerBase -> {
+			writerBase.writeDataset(path, "path");
+			writerBase.writeLong("id", 1);
+		});
+
+		final ObjectArrayList<PathData> valueTreePath = new ObjectArrayList<>();
+		final long valueTreeBytes = measureAllocation(() -> ValueTreeReader.create(buffer.duplicate()).iterateReaderArray("path", valueTreePath::clear, readerBase -> valueTreePath.add(new PathData(readerBase))));
+		final ObjectArrayList<PathData> streamingPath = new ObjectArrayList<>();
+		final long streamingBytes = measureAllocation(() -> new MessagePackReader(buffer.duplicate()).iterateReaderArray("path", streamingPath::clear, readerBase -> streamingPath.add(new PathData(readerBase))));
+		// Only reading a key after the path should skip the path without decoding it
+		final long valueTreeSkipBytes = measureAllocation(() -> Assertions.assertEquals(1, ValueTreeReader.create(buffer.duplicate()).getLong("id", 0)));
+		final long streamingSkipBytes = measureAllocation(() -> Assertions.assertEquals(1, new MessagePackReader(buffer.duplicate()).getLong("id", 0)));
+
+		Assertions.assertEquals(path.size(), valueTreePath.size());
+		Assertions.assertEquals(path.size(), streamingPath.size());
+		for (int i = 0; i < path.size(); i++) {
+			TestUtilities.compareObjects(path.get(i), valueTreePath.get(i));
+			TestUtilities.compareObjects(path.get(i), streamingPath.get(i));
+		}
+
+		Assumptions.assumeTrue(streamingBytes >= 0, "Allocation can't be measured on this JVM");
+		Main.LOGGER.info("Reading {} path segments: {} byte(s) allocated with a value tree, {} byte(s) allocated when streaming", PATH_LENGTH, valueTreeBytes, streamingBytes);
+		Assertions.assertTrue(streamingBytes < valueTreeBytes, String.format("Streaming allocated %s byte(s), value tree allocated %s byte(s)", streamingBytes, valueTreeBytes));
+		Assertions.assertTrue(streamingSkipBytes * 10 < valueTreeSkipBytes, String.format("Skipping while streaming allocated %s byte(s), skipping with a value tree allocated %s byte(s)", streamingSkipBytes, valueTreeSkipBytes));
+	}
+
+	private static ByteBuffer pack(Consumer<WriterBase> consumer) {
+		try (final MessageBufferPacker messageBufferPacker = MessagePack.newDefaultBufferPacker()) {
+			final MessagePackWriter messagePackWriter = new MessagePackWriter(messageBufferPacker);
+			consumer.accept(messagePackWriter);
+			messagePackWriter.serialize();
+			return ByteBuffer.wrap(messageBufferPacker.toByteArray());
+		} catch (Exception e) {
+			Main.LOGGER.error("", e);
+			return ByteBuffer.allocate(0);
+		}
+	}
+
+	/**
+	 * @return the number of bytes allocated by the current thread, or {@code -1} if not supported by the JVM
+	 */
+	private static long measureAllocation(Runnable runnable) {
+		final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			final long threadId = Thread.currentThread().getId();
+			final long startBytes = ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId);
+			runnable.run();
+			return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId) - startBytes;
+		} else {
+			runnable.run();
+			return -1;
+		}
+	}
+
+	/**
+	 * Decodes the whole message into a {@link Value} tree and reads from it, for comparison only.
+	 */
+	private static final class ValueTreeReader extends ReaderBase {
+
+		private final Object2ObjectArrayMap<String, Value> map = new Object2ObjectArrayMap<>();
+
+		private ValueTreeReader(Value value) {
+			value.asMapValue().entrySet().forEach(entry -> map.put(entry.getKey().asStringValue().asString(), entry.getValue()));
+		}
+
+		private static ValueTreeReader create(ByteBuffer buffer) {
+			try (final MessageUnpacker messageUnpacker = MessagePack.newDefaultUnpacker(buffer)) {
+				return new ValueTreeReader(messageUnpacker.unpackValue());
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void unpackBoolean(String key, BooleanConsumer ifExists) {
+			unpackValue(map.get(key), value -> ifExists.accept(value.asBooleanValue().getBoolean()));
+		}
+
+		@Override
+		public boolean getBoolean(String key, boolean defaultValue) {
+			return getValueOrDefault(map.get(key), defaultValue, value -> value.asBooleanValue().getBoolean());
+		}
+
+		@Override
+		public void iterateBooleanArray(String key, Runnable clearList, BooleanConsumer ifExists) {
+			iterateArray(key, clearList, value -> ifExists.accept(value.asBooleanValue().getBoolean()));
+		}
+
+		@Override
+		public void unpackInt(String key, IntConsumer ifExists) {
+			unpackValue(map.get(key), value -> ifExists.accept(value.asIntegerValue().asInt()));
+		}
+
+		@Override
+		public int getInt(String key, int defaultValue) {
+			return getValueOrDefault(map.get(key), defaultValue, value -> value.asIntegerValue().asInt());
+		}
+
+		@Override
+		public void iterateIntArray(String key, Runnable clearList, IntConsumer ifExists) {
+			iterateArray(key, clearList, value -> ifExists.accept(value.asIntegerValue().asInt()));
+		}
+
+		@Override
+		public void unpackLong(String key, LongConsumer ifExists) {
+			unpackValue(map.get(key), value -> ifExists.accept(value.asIntegerValue().asLong()));
+		}
+
+		@Override
+		public long getLong(String key, long defaultValue) {
+			return getValueOrDefault(map.get(key), defaultValue, value -> value.asIntegerValue().asLong());
+		}
+
+		@Override
+		public void iterateLongArray(String key, Runnable clearList, LongConsumer ifExists) {
+			iterateArray(key, clearList, value -> ifExists.accept(value.asIntegerValue().asLong()));
+		}
+
+		@Override
+		public void unpackDouble(String key, DoubleConsumer ifExists) {
+			unpackValue(map.get(key), value -> ifExists.accept(value.asFloatValue().toDouble()));
+		}
+
+		@Override
+		public double getDouble(String key, double defaultValue) {
+			return getValueOrDefault(map.get(key), defaultValue, value -> value.asFloatValue().toDouble());
+		}
+
+		@Override
+		public void iterateDoubleArray(String key, Runnable clearList, DoubleConsumer ifExists) {
+			iterateArray(key, clearList, value -> ifExists.accept(value.asFloatValue().toDouble()));
+		}
+
+		@Override
+		public void unpackString(String key, Consumer<String> ifExists) {
+			unpackValue(map.get(key), value -> ifExists.accept(value.asStringValue().asString()));
+		}
+
+		@Override
+		public String getString(String key, String defaultValue) {
+			return getValueOrDefault(map.get(key), defaultValue, value -> value.asStringValue().asString());
+		}
+
+		@Override
+		public void iterateStringArray(String key, Runnable clearList, Consumer<String> ifExists) {
+			iterateArray(key, clearList, value -> ifExists.accept(value.asStringValue().asString()));
+		}
+
+		@Override
+		public void iterateReaderArray(String key, Runnable clearList, Consumer<ReaderBase> ifExists) {
+			iterateArray(key, clearList, value -> ifExists.accept(new ValueTreeReader(value)));
+		}
+
+		@Override
+		public ReaderBase getChild(String key) {
+			final Value value = map.get(key);
+			return new ValueTreeReader(value == null ? ValueFactory.emptyMap() : value);
+		}
+
+		@Override
+		public void unpackChild(String key, Consumer<ReaderBase> ifExists) {
+			unpackValue(map.get(key), value -> ifExists.accept(new ValueTreeReader(value)));
+		}
+
+		@Override
+		public void merge(ReaderBase readerBase) {
+			if (readerBase instanceof ValueTreeReader) {
+				map.putAll(((ValueTreeReader) readerBase).map);
+			}
+		}
+
+		private void iterateArray(String key, Runnable clearList, Consumer<Value> consumer) {
+			unpackValue(map.get(key), value -> {
+				clearList.run();
+				value.asArrayValue().forEach(consumer);
+			});
+		}
+	}
+}
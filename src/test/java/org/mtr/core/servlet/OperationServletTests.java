@@ -0,0 +1,91 @@
+package org.mtr.core.servlet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.Main;
+import org.mtr.core.data.Position;
+import org.mtr.core.data.Station;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.core.operation.DataRequest;
+import org.mtr.core.simulation.Simulator;
+import org.mtr.core.tool.Utilities;
+import org.mtr.libraries.com.google.gson.JsonArray;
+import org.mtr.libraries.com.google.gson.JsonObject;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectImmutableList;
+import org.mtr.libraries.org.eclipse.jetty.servlet.ServletHolder;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@ParametersAreNonnullByDefault
+public class OperationServletTests implements TestUtilities {
+
+	private static final Path ROOT_PATH = TEST_DIRECTORY.resolve("operation-servlet");
+	private static final String DIMENSION = "test";
+	private static final String URL = String.format("http://localhost:%s/mtr/api/operation/", PORT);
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * Reads right after a write must see the write, even though the read snapshot is rebuilt in the background.
+	 */
+	@Test
+	public void getDataAfterUpdateData() throws IOException {
+		FileUtils.deleteDirectory(ROOT_PATH.toFile());
+		final Simulator simulator = new Simulator(DIMENSION, new String[]{DIMENSION}, ROOT_PATH, PORT + 1);
+		final ObjectArrayList<Simulator> simulators = new ObjectArrayList<>();
+		simulators.add(simulator);
+		final Webserver webserver = new Webserver(PORT);
+		webserver.addServlet(new ServletHolder(new OperationServlet(new ObjectImmutableList<>(simulators))), "/mtr/api/operation/*");
+		webserver.start();
+		final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+		scheduledExecutorService.scheduleAtFixedRate(simulator::tick, 0, Main.MILLISECONDS_PER_TICK, TimeUnit.MILLISECONDS);
+
+		try {
+			final long endMillis = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			while (simulator.getReadSnapshot() == null) {
+				Assertions.assertTrue(System.currentTimeMillis() < endMillis);
+				Thread.sleep(10);
+			}
+
+			for (int i = 0; i < 10; i++) {
+				final Station station = new Station(simulator);
+				station.setName("Station " + i);
+				station.setCorners(new Position(-10, -100, -10), new Position(10, 100, 10));
+
+				final JsonObject updateObject = new JsonObject();
+				final JsonArray stationsArray = new JsonArray();
+				stationsArray.add(Utilities.getJsonObjectFromData(station));
+				updateObject.add("stations", stationsArray);
+				TestUtilities.sendHttpRequest(URL + "update-data", updateObject);
+
+				final JsonObject getDataObject = TestUtilities.sendHttpRequest(URL + "get-data", Utilities.getJsonObjectFromData(new DataRequest("client", new Position(0, 0, 0), 100)));
+				Assertions.assertTrue(hasStation(getDataObject, station.getName()), String.format("get-data is missing %s", station.getName()));
+				final JsonObject listDataObject = TestUtilities.sendHttpRequest(URL + "list-data", new JsonObject());
+				Assertions.assertTrue(hasStation(listDataObject, station.getName()), String.format("list-data is missing %s", station.getName()));
+			}
+		} catch (InterruptedException e) {
+			Assertions.fail(e);
+		} finally {
+			scheduledExecutorService.shutdown();
+			Utilities.awaitTermination(scheduledExecutorService);
+			webserver.stop();
+			simulator.stop();
+		}
+	}
+
+	private static boolean hasStation(JsonObject responseObject, String name) {
+		final JsonArray stationsArray = responseObject.getAsJsonObject("data").getAsJsonArray("stations");
+		for (int i = 0; i < stationsArray.size(); i++) {
+			if (stationsArray.get(i).getAsJsonObject().get("name").getAsString().equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
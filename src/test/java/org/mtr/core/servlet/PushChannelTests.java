@@ -0,0 +1,196 @@
+package org.mtr.core.servlet;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.core.simulation.ClientUpdateBatch;
+import org.mtr.core.simulation.Simulator;
+import org.mtr.core.simulation.SimulatorOptions;
+import org.mtr.libraries.javax.servlet.http.HttpServlet;
+import org.mtr.libraries.javax.servlet.http.HttpServletRequest;
+import org.mtr.libraries.javax.servlet.http.HttpServletResponse;
+import org.mtr.libraries.org.eclipse.jetty.servlet.ServletHolder;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+@ParametersAreNonnullByDefault
+public class PushChannelTests implements TestUtilities {
+
+	private static final String URL = String.format("http://localhost:%s/mtr/api/push", PORT);
+	private static final String ENDPOINT = "vehicles-lifts";
+	private static final long TIMEOUT_MILLIS = 10000;
+	private static final long MAX_PENDING_MILLIS = 1000;
+
+	@Test
+	public void sendWithoutSubscriber() {
+		final PushChannel pushChannel = new PushChannel();
+		Assertions.assertTrue(pushChannel.canSend("test"));
+		// The caller falls back to a POST request
+		Assertions.assertFalse(pushChannel.send("test", ENDPOINT, new byte[]{1, 2, 3}));
+	}
+
+	@Test
+	public void framesAreWrittenInOrder() throws IOException {
+		final PushChannel pushChannel = new PushChannel();
+		final Webserver webserver = startWebserver(pushChannel);
+
+		try (final CloseableHttpClient closeableHttpClient = HttpClients.createDefault(); final CloseableHttpResponse closeableHttpResponse = closeableHttpClient.execute(new HttpGet(URL))) {
+			Assertions.assertEquals(HttpResponseStatus.OK.code, closeableHttpResponse.getStatusLine().getStatusCode());
+			final byte[] content1 = randomBytes(100);
+			final byte[] content2 = randomBytes(100000);
+			final byte[] content3 = new byte[0];
+			Assertions.assertTrue(pushChannel.send("dimension1", ENDPOINT, content1));
+			Assertions.assertTrue(pushChannel.send("dimension2", ENDPOINT, content2));
+			Assertions.assertTrue(pushChannel.send("dimension1", "client-updates", content3));
+
+			final DataInputStream dataInputStream = new DataInputStream(closeableHttpResponse.getEntity().getContent());
+			checkFrame(dataInputStream, "dimension1", ENDPOINT, content1);
+			checkFrame(dataInputStream, "dimension2", ENDPOINT, content2);
+			checkFrame(dataInputStream, "dimension1", "client-updates", content3);
+			waitFor(() -> pushChannel.canSend("dimension1") && pushChannel.canSend("dimension2"));
+		} finally {
+			webserver.stop();
+		}
+	}
+
+	@Test
+	public void secondSubscriberIsRejected() throws IOException {
+		final PushChannel pushChannel = new PushChannel();
+		final Webserver webserver = startWebserver(pushChannel);
+
+		try (final CloseableHttpClient closeableHttpClient = HttpClients.createDefault(); final CloseableHttpResponse closeableHttpResponse1 = closeableHttpClient.execute(new HttpGet(URL))) {
+			Assertions.assertEquals(HttpResponseStatus.OK.code, closeableHttpResponse1.getStatusLine().getStatusCode());
+
+			try (final CloseableHttpClient closeableHttpClient2 = HttpClients.createDefault(); final CloseableHttpResponse closeableHttpResponse2 = closeableHttpClient2.execute(new HttpGet(URL))) {
+				Assertions.assertEquals(HttpResponseStatus.CONFLICT.code, closeableHttpResponse2.getStatusLine().getStatusCode());
+			}
+
+			// The first subscriber still gets the updates
+			final byte[] content = randomBytes(100);
+			Assertions.assertTrue(pushChannel.send("test", ENDPOINT, content));
+			checkFrame(new DataInputStream(closeableHttpResponse1.getEntity().getContent()), "test", ENDPOINT, content);
+		} finally {
+			webserver.stop();
+		}
+	}
+
+	@Test
+	public void disconnectedSubscriberFallsBack() throws IOException {
+		final PushChannel pushChannel = new PushChannel();
+		final Webserver webserver = startWebserver(pushChannel);
+
+		try (final CloseableHttpClient closeableHttpClient = HttpClients.createDefault()) {
+			try (final CloseableHttpResponse closeableHttpResponse = closeableHttpClient.execute(new HttpGet(URL))) {
+				Assertions.assertEquals(HttpResponseStatus.OK.code, closeableHttpResponse.getStatusLine().getStatusCode());
+				Assertions.assertTrue(pushChannel.send("test", ENDPOINT, randomBytes(100)));
+			}
+
+			// Writing to the closed connection fails at some point, after which updates are sent as POST requests again
+			waitFor(() -> !pushChannel.send("test", ENDPOINT, randomBytes(100000)));
+			Assertions.assertFalse(pushChannel.send("test", ENDPOINT, randomBytes(100)));
+			Assertions.assertTrue(pushChannel.canSend("test"));
+
+			// The game can subscribe again
+			try (final CloseableHttpResponse closeableHttpResponse = closeableHttpClient.execute(new HttpGet(URL))) {
+				Assertions.assertEquals(HttpResponseStatus.OK.code, closeableHttpResponse.getStatusLine().getStatusCode());
+				final byte[] content = randomBytes(100);
+				Assertions.assertTrue(pushChannel.send("test", ENDPOINT, content));
+				checkFrame(new DataInputStream(closeableHttpResponse.getEntity().getContent()), "test", ENDPOINT, content);
+			}
+		} finally {
+			webserver.stop();
+		}
+	}
+
+	/**
+	 * A subscriber that doesn't read only has one frame pending, which is detected by the simulator checking the channel every tick.
+	 * Updates are merged while the frame is pending and sent together as a {@code POST} request once the subscriber is disconnected.
+	 */
+	@Test
+	public void stalledSubscriberIsDisconnected() throws IOException, InterruptedException {
+		final PushChannel pushChannel = new PushChannel(MAX_PENDING_MILLIS);
+		final LinkedBlockingQueue<byte[]> postedBatches = new LinkedBlockingQueue<>();
+		final Webserver webserver = new Webserver(PORT);
+		webserver.addServlet(new ServletHolder(new PushServlet(pushChannel)), "/mtr/api/push");
+		webserver.addServlet(new ServletHolder(new HttpServlet() {
+			@Override
+			protected void doPost(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws IOException {
+				final byte[] content = new byte[httpServletRequest.getContentLength()];
+				new DataInputStream(httpServletRequest.getInputStream()).readFully(content);
+				postedBatches.add(content);
+				httpServletResponse.setContentType("application/json");
+				httpServletResponse.getWriter().write("{\"playerPresentResponses\":[]}");
+			}
+		}), "/" + ClientUpdateBatch.ENDPOINT);
+		webserver.start();
+		final Simulator simulator = new Simulator("test", new String[]{"test"}, TEST_DIRECTORY, PORT, new SimulatorOptions().setBatchClientUpdates(true).setPushChannel(pushChannel));
+
+		try (final CloseableHttpClient closeableHttpClient = HttpClients.createDefault(); final CloseableHttpResponse closeableHttpResponse = closeableHttpClient.execute(new HttpGet(URL))) {
+			Assertions.assertEquals(HttpResponseStatus.OK.code, closeableHttpResponse.getStatusLine().getStatusCode());
+
+			// Nothing is read, so a frame stays pending once the socket buffers are full
+			final long startMillis = System.currentTimeMillis();
+			byte[] postedBatch = null;
+			while (postedBatch == null) {
+				Assertions.assertTrue(System.currentTimeMillis() - startMillis < TIMEOUT_MILLIS);
+				simulator.sendClientUpdate("client", ENDPOINT, randomBytes(64 * 1024), ClientUpdateBatch.CONTENT_TYPE);
+				simulator.tick();
+				postedBatch = postedBatches.poll(10, TimeUnit.MILLISECONDS);
+			}
+
+			final int[] sections = {0};
+			Assertions.assertEquals("test", ClientUpdateBatch.read(postedBatch, (clientId, endpoint, content) -> sections[0]++));
+			Assertions.assertTrue(sections[0] > 1);
+			Assertions.assertTrue(System.currentTimeMillis() - startMillis > MAX_PENDING_MILLIS);
+			Assertions.assertTrue(pushChannel.canSend("test"));
+			Assertions.assertFalse(pushChannel.send("test", ENDPOINT, randomBytes(100)));
+		} finally {
+			simulator.stop();
+			webserver.stop();
+		}
+	}
+
+	private static Webserver startWebserver(PushChannel pushChannel) {
+		final Webserver webserver = new Webserver(PORT);
+		webserver.addServlet(new ServletHolder(new PushServlet(pushChannel)), "/mtr/api/push");
+		webserver.start();
+		return webserver;
+	}
+
+	private static void checkFrame(DataInputStream dataInputStream, String dimension, String endpoint, byte[] content) throws IOException {
+		final int length = dataInputStream.readInt();
+		Assertions.assertEquals(dimension, dataInputStream.readUTF());
+		Assertions.assertEquals(endpoint, dataInputStream.readUTF());
+		// The names are ASCII, so each is written as a 2-byte length followed by one byte per character
+		final byte[] readContent = new byte[length - dimension.length() - endpoint.length() - 4];
+		dataInputStream.readFully(readContent);
+		Assertions.assertArrayEquals(content, readContent);
+	}
+
+	private static byte[] randomBytes(int length) {
+		final byte[] bytes = new byte[length];
+		RANDOM.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static void waitFor(BooleanSupplier condition) {
+		final long endMillis = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			Assertions.assertTrue(System.currentTimeMillis() < endMillis);
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Assertions.fail(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.mtr.core.simulation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.core.operation.PlayerPresentResponse;
+import org.mtr.core.servlet.Webserver;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.mtr.libraries.javax.servlet.http.HttpServlet;
+import org.mtr.libraries.javax.servlet.http.HttpServletRequest;
+import org.mtr.libraries.javax.servlet.http.HttpServletResponse;
+import org.mtr.libraries.org.eclipse.jetty.servlet.ServletHolder;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that each section of a {@link ClientUpdateBatch} is read back in order, and that client updates are only batched if the simulator is set up to.
+ */
+@ParametersAreNonnullByDefault
+public class ClientUpdateBatchTests implements TestUtilities {
+
+	@Test
+	public void readSections() throws IOException {
+		final ClientUpdateBatch clientUpdateBatch = new ClientUpdateBatch("dimension");
+		final ObjectArrayList<String> clientIds = TestUtilities.randomList(TestUtilities::randomString);
+		Assertions.assertTrue(clientUpdateBatch.isEmpty());
+
+		for (int i = 0; i < 2; i++) {
+			clientIds.forEach(clientId -> clientUpdateBatch.add(clientId, "vehicles-lifts", clientId.getBytes(StandardCharsets.UTF_8)));
+			Assertions.assertEquals(clientIds.isEmpty(), clientUpdateBatch.isEmpty());
+
+			// Taking the batch should leave it empty for the next tick
+			final ObjectArrayList<String> readClientIds = new ObjectArrayList<>();
+			Assertions.assertEquals("dimension", ClientUpdateBatch.read(clientUpdateBatch.take(), (clientId, endpoint, content) -> {
+				Assertions.assertEquals("vehicles-lifts", endpoint);
+				Assertions.assertEquals(clientId, new String(content, StandardCharsets.UTF_8));
+				readClientIds.add(clientId);
+			}));
+			Assertions.assertEquals(clientIds, readClientIds);
+			Assertions.assertTrue(clientUpdateBatch.isEmpty());
+		}
+	}
+
+	/**
+	 * Without batching, each update should still be sent as its own {@code POST} request to its endpoint.
+	 */
+	@Test
+	public void sendWithoutBatching() throws InterruptedException {
+		final LinkedBlockingQueue<ReceivedRequest> receivedRequests = new LinkedBlockingQueue<>();
+		final Webserver webserver = startWebserver(receivedRequests);
+		final Simulator simulator = new Simulator("test", new String[]{"test"}, TEST_DIRECTORY, PORT);
+
+		try {
+			final byte[] content = TestUtilities.randomString().getBytes(StandardCharsets.UTF_8);
+			simulator.sendClientUpdate("client", "vehicles-lifts-delta", content, "application/octet-stream");
+			simulator.sendClientUpdate("client", "vehicles-lifts", new PlayerPresentResponse("test"));
+			simulator.tick();
+
+			final ReceivedRequest receivedRequest1 = receivedRequests.poll(10, TimeUnit.SECONDS);
+			final ReceivedRequest receivedRequest2 = receivedRequests.poll(10, TimeUnit.SECONDS);
+			Assertions.assertNotNull(receivedRequest1);
+			Assertions.assertNotNull(receivedRequest2);
+			// The requests are sent on other threads, so they can arrive in any order
+			final ReceivedRequest deltaRequest = receivedRequest1.path.equals("/vehicles-lifts-delta") ? receivedRequest1 : receivedRequest2;
+			final ReceivedRequest jsonRequest = receivedRequest1.path.equals("/vehicles-lifts-delta") ? receivedRequest2 : receivedRequest1;
+
+			Assertions.assertEquals("/vehicles-lifts-delta", deltaRequest.path);
+			Assertions.assertTrue(deltaRequest.contentType.startsWith("application/octet-stream"));
+			Assertions.assertArrayEquals(content, deltaRequest.content);
+			Assertions.assertEquals("/vehicles-lifts", jsonRequest.path);
+			Assertions.assertTrue(jsonRequest.contentType.startsWith("application/json"));
+			Assertions.assertTrue(new String(jsonRequest.content, StandardCharsets.UTF_8).contains("\"data\""));
+
+			// Nothing is sent to the batch endpoint
+			Assertions.assertNull(receivedRequests.poll(1, TimeUnit.SECONDS));
+		} finally {
+			simulator.stop();
+			webserver.stop();
+		}
+	}
+
+	@Test
+	public void sendWithBatching() throws InterruptedException, IOException {
+		final LinkedBlockingQueue<ReceivedRequest> receivedRequests = new LinkedBlockingQueue<>();
+		final Webserver webserver = startWebserver(receivedRequests);
+		final Simulator simulator = new Simulator("test", new String[]{"test"}, TEST_DIRECTORY, PORT, new SimulatorOptions().setBatchClientUpdates(true));
+
+		try {
+			final byte[] content1 = TestUtilities.randomString().getBytes(StandardCharsets.UTF_8);
+			final byte[] content2 = TestUtilities.randomString().getBytes(StandardCharsets.UTF_8);
+			simulator.sendClientUpdate("client1", "vehicles-lifts-delta", content1, "application/octet-stream");
+			simulator.sendClientUpdate("client2", "vehicles-lifts-delta", content2, "application/octet-stream");
+			simulator.tick();
+
+			final ReceivedRequest receivedRequest = receivedRequests.poll(10, TimeUnit.SECONDS);
+			Assertions.assertNotNull(receivedRequest);
+			Assertions.assertEquals("/" + ClientUpdateBatch.ENDPOINT, receivedRequest.path);
+			final ObjectArrayList<String> clientIds = new ObjectArrayList<>();
+			Assertions.assertEquals("test", ClientUpdateBatch.read(receivedRequest.content, (clientId, endpoint, content) -> {
+				Assertions.assertEquals("vehicles-lifts-delta", endpoint);
+				Assertions.assertArrayEquals(clientId.equals("client1") ? content1 : content2, content);
+				clientIds.add(clientId);
+			}));
+			Assertions.assertEquals(ObjectArrayList.of("client1", "client2"), clientIds);
+			Assertions.assertNull(receivedRequests.poll(1, TimeUnit.SECONDS));
+		} finally {
+			simulator.stop();
+			webserver.stop();
+		}
+	}
+
+	/**
+	 * Stands in for the game, replying that every player is still in the dimension.
+	 */
+	private static Webserver startWebserver(LinkedBlockingQueue<ReceivedRequest> receivedRequests) {
+		final Webserver webserver = new Webserver(PORT);
+		webserver.addServlet(new ServletHolder(new HttpServlet() {
+			@Override
+			protected void doPost(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws IOException {
+				final byte[] content = new byte[httpServletRequest.getContentLength()];
+				new DataInputStream(httpServletRequest.getInputStream()).readFully(content);
+				receivedRequests.add(new ReceivedRequest(httpServletRequest.getRequestURI(), httpServletRequest.getContentType(), content));
+				httpServletResponse.setContentType("application/json");
+				httpServletResponse.getWriter().write(httpServletRequest.getRequestURI().endsWith(ClientUpdateBatch.ENDPOINT) ? "{\"playerPresentResponses\":[]}" : "{\"playerDimension\":\"test\"}");
+			}
+		}), "/*");
+		webserver.start();
+		return webserver;
+	}
+
+	private static final class ReceivedRequest {
+
+		private final String path;
+		private final String contentType;
+		private final byte[] content;
+
+		private ReceivedRequest(String path, String contentType, byte[] content) {
+			this.path = path;
+			this.contentType = contentType;
+			this.content = content;
+		}
+	}
+}
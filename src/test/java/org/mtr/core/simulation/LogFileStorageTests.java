@@ -0,0 +1,271 @@
+package org.mtr.core.simulation;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+@ParametersAreNonnullByDefault
+public class LogFileStorageTests implements TestUtilities {
+
+	private static final Path ROOT_PATH = TEST_DIRECTORY.resolve("log-file-storage");
+	private static final String KEY = "test";
+	private static final long SEGMENT_BYTES = 64 << 10;
+	private static final int ENTRY_BYTES = 4 << 10;
+
+	/**
+	 * A single batch (like a migration or a full save) larger than a segment should be split over several segments, each of which can be read again.
+	 */
+	@Test
+	public void batchLargerThanSegment() throws IOException {
+		FileUtils.deleteDirectory(ROOT_PATH.toFile());
+		final Object2ObjectOpenHashMap<String, byte[]> entries = new Object2ObjectOpenHashMap<>();
+
+		final LogFileStorage logFileStorage1 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+		for (int i = 0; i < SEGMENT_BYTES * 5 / ENTRY_BYTES; i++) {
+			final byte[] bytes = new byte[ENTRY_BYTES];
+			RANDOM.nextBytes(bytes);
+			final String key = TestUtilities.randomString();
+			entries.put(key, bytes);
+			logFileStorage1.write(key, bytes);
+		}
+		logFileStorage1.commit();
+		logFileStorage1.close();
+
+		final File[] segmentFiles = ROOT_PATH.toFile().listFiles((directory, fileName) -> fileName.endsWith(".log"));
+		Assertions.assertNotNull(segmentFiles);
+		Assertions.assertTrue(segmentFiles.length >= 5);
+		for (final File segmentFile : segmentFiles) {
+			Assertions.assertTrue(segmentFile.length() <= SEGMENT_BYTES);
+		}
+
+		final LogFileStorage logFileStorage2 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+		checkEntries(logFileStorage2, entries);
+
+		// Appending after reopening should continue in the last segment without breaking the earlier ones
+		final String key = TestUtilities.randomString();
+		final byte[] bytes = new byte[ENTRY_BYTES];
+		RANDOM.nextBytes(bytes);
+		entries.put(key, bytes);
+		logFileStorage2.write(key, bytes);
+		logFileStorage2.commit();
+		logFileStorage2.close();
+
+		final LogFileStorage logFileStorage3 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+		checkEntries(logFileStorage3, entries);
+		logFileStorage3.close();
+	}
+
+	/**
+	 * A crash can cut the last batch off anywhere or leave a footer that doesn't match its records. In every case, the state of the last good commit should be read back.
+	 */
+	@Test
+	public void tornTailIsIgnored() throws IOException {
+		final int entryCount = 8;
+		for (int i = 0; i < 10; i++) {
+			FileUtils.deleteDirectory(ROOT_PATH.toFile());
+			final Object2ObjectOpenHashMap<String, byte[]> entries = new Object2ObjectOpenHashMap<>();
+			final ObjectArrayList<String> keys = new ObjectArrayList<>();
+			final LogFileStorage logFileStorage1 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+			for (int j = 0; j < entryCount; j++) {
+				final String key = TestUtilities.randomString();
+				keys.add(key);
+				entries.put(key, writeRandomBytes(logFileStorage1, key));
+			}
+			logFileStorage1.commit();
+			final Path segmentPath = ROOT_PATH.resolve(String.format("%s-%08x.log", KEY, 0));
+			final long committedSize = Files.size(segmentPath);
+
+			// The second batch changes, deletes and adds entries
+			writeRandomBytes(logFileStorage1, keys.get(0));
+			logFileStorage1.delete(keys.get(1));
+			writeRandomBytes(logFileStorage1, TestUtilities.randomString());
+			logFileStorage1.commit();
+			logFileStorage1.close();
+			final long totalSize = Files.size(segmentPath);
+
+			try (final RandomAccessFile randomAccessFile = new RandomAccessFile(segmentPath.toFile(), "rw")) {
+				if (i == 0) {
+					// The checksum in the footer doesn't match
+					randomAccessFile.seek(totalSize - Integer.BYTES - 1);
+					final int lastChecksumByte = randomAccessFile.read();
+					randomAccessFile.seek(totalSize - Integer.BYTES - 1);
+					randomAccessFile.write(lastChecksumByte ^ 0xFF);
+				} else {
+					// Anything from the first byte of the second batch to the last byte of its footer is cut off
+					randomAccessFile.setLength(i == 1 ? committedSize + 1 : i == 2 ? totalSize - 1 : committedSize + 1 + RANDOM.nextInt((int) (totalSize - committedSize - 1)));
+				}
+			}
+
+			final LogFileStorage logFileStorage2 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+			checkEntries(logFileStorage2, entries);
+
+			// New batches should be readable after the torn one
+			final String key = TestUtilities.randomString();
+			entries.put(key, writeRandomBytes(logFileStorage2, key));
+			logFileStorage2.commit();
+			logFileStorage2.close();
+
+			final LogFileStorage logFileStorage3 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+			checkEntries(logFileStorage3, entries);
+			logFileStorage3.close();
+		}
+	}
+
+	/**
+	 * Once most of the log is outdated, it should be rewritten with only the latest value of each key, and deleted keys shouldn't be written at all.
+	 */
+	@Test
+	public void compactionKeepsLatestValues() throws IOException {
+		FileUtils.deleteDirectory(ROOT_PATH.toFile());
+		final Object2ObjectOpenHashMap<String, byte[]> entries = new Object2ObjectOpenHashMap<>();
+		final ObjectArrayList<String> deletedKeys = new ObjectArrayList<>();
+		final LogFileStorage logFileStorage1 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+		for (int i = 0; i < 20; i++) {
+			final String key = TestUtilities.randomString();
+			entries.put(key, writeRandomBytes(logFileStorage1, key));
+		}
+		logFileStorage1.commit();
+
+		for (int i = 0; i < 10; i++) {
+			final String key = entries.keySet().iterator().next();
+			entries.remove(key);
+			deletedKeys.add(key);
+			Assertions.assertTrue(logFileStorage1.delete(key));
+		}
+		Assertions.assertFalse(logFileStorage1.delete(deletedKeys.get(0)));
+		logFileStorage1.commit();
+
+		// Keep overwriting the remaining entries until the log shrinks
+		long writtenBytes = getSegmentBytes();
+		boolean compacted = false;
+		for (int i = 0; i < 1000 && !compacted; i++) {
+			entries.keySet().forEach(key -> {
+				try {
+					entries.put(key, writeRandomBytes(logFileStorage1, key));
+				} catch (IOException e) {
+					Assertions.fail(e);
+				}
+			});
+			logFileStorage1.commit();
+			final long segmentBytes = getSegmentBytes();
+			compacted = segmentBytes < writtenBytes;
+			writtenBytes = segmentBytes;
+		}
+
+		Assertions.assertTrue(compacted);
+		Assertions.assertTrue(writtenBytes < (long) entries.size() * ENTRY_BYTES * 2);
+		checkEntries(logFileStorage1, entries);
+		logFileStorage1.close();
+
+		// Neither the deleted entries nor their deletions are left in the log
+		final byte[] allBytes = getAllSegmentBytes();
+		deletedKeys.forEach(key -> Assertions.assertFalse(contains(allBytes, key.getBytes(StandardCharsets.UTF_8)), key));
+
+		final LogFileStorage logFileStorage2 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+		checkEntries(logFileStorage2, entries);
+		logFileStorage2.close();
+	}
+
+	/**
+	 * Entries in the old one-file-per-entry layout should be moved into the log, except for keys that the log already has a newer value for.
+	 */
+	@Test
+	public void migrateDirectoryFileStorage() throws IOException {
+		FileUtils.deleteDirectory(ROOT_PATH.toFile());
+		final Path directoryPath = TEST_DIRECTORY.resolve("log-file-storage-migration");
+		FileUtils.deleteDirectory(directoryPath.toFile());
+		final Object2ObjectOpenHashMap<String, byte[]> entries = new Object2ObjectOpenHashMap<>();
+
+		final DirectoryFileStorage directoryFileStorage = new DirectoryFileStorage(directoryPath);
+		for (int i = 0; i < 100; i++) {
+			final String key = TestUtilities.randomString();
+			entries.put(key, writeRandomBytes(directoryFileStorage, key));
+		}
+		directoryFileStorage.commit();
+
+		final LogFileStorage logFileStorage1 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+		final String newerKey = entries.keySet().iterator().next();
+		entries.put(newerKey, writeRandomBytes(logFileStorage1, newerKey));
+		logFileStorage1.commit();
+
+		logFileStorage1.migrate(directoryFileStorage);
+		Assertions.assertFalse(Files.exists(directoryPath));
+		checkEntries(logFileStorage1, entries);
+		logFileStorage1.close();
+
+		final LogFileStorage logFileStorage2 = new LogFileStorage(ROOT_PATH, KEY, SEGMENT_BYTES);
+		checkEntries(logFileStorage2, entries);
+		logFileStorage2.close();
+	}
+
+	private static void checkEntries(LogFileStorage logFileStorage, Object2ObjectOpenHashMap<String, byte[]> entries) {
+		final Object2ObjectOpenHashMap<String, byte[]> readEntries = new Object2ObjectOpenHashMap<>();
+		logFileStorage.read((key, readBytes) -> {
+			try {
+				final ByteBuffer buffer = readBytes.call();
+				final byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				readEntries.put(key, bytes);
+			} catch (Exception e) {
+				Assertions.fail(e);
+			}
+		});
+		logFileStorage.finishReading();
+
+		Assertions.assertEquals(entries.keySet(), readEntries.keySet());
+		entries.forEach((key, bytes) -> Assertions.assertArrayEquals(bytes, readEntries.get(key), key));
+	}
+
+	private static byte[] writeRandomBytes(FileStorage fileStorage, String key) throws IOException {
+		final byte[] bytes = new byte[ENTRY_BYTES];
+		RANDOM.nextBytes(bytes);
+		fileStorage.write(key, bytes);
+		return bytes;
+	}
+
+	private static long getSegmentBytes() {
+		final File[] segmentFiles = ROOT_PATH.toFile().listFiles((directory, fileName) -> fileName.endsWith(".log"));
+		Assertions.assertNotNull(segmentFiles);
+		long bytes = 0;
+		for (final File segmentFile : segmentFiles) {
+			bytes += segmentFile.length();
+		}
+		return bytes;
+	}
+
+	private static byte[] getAllSegmentBytes() throws IOException {
+		final File[] segmentFiles = ROOT_PATH.toFile().listFiles((directory, fileName) -> fileName.endsWith(".log"));
+		Assertions.assertNotNull(segmentFiles);
+		final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		for (final File segmentFile : segmentFiles) {
+			byteArrayOutputStream.write(Files.readAllBytes(segmentFile.toPath()));
+		}
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	private static boolean contains(byte[] bytes, byte[] search) {
+		for (int i = 0; i <= bytes.length - search.length; i++) {
+			boolean matches = true;
+			for (int j = 0; j < search.length && matches; j++) {
+				matches = bytes[i + j] == search[j];
+			}
+			if (matches) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
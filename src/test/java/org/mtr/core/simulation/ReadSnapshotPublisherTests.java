@@ -0,0 +1,85 @@
+package org.mtr.core.simulation;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.Station;
+import org.mtr.core.data.TestUtilities;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.file.Path;
+
+@ParametersAreNonnullByDefault
+public class ReadSnapshotPublisherTests implements TestUtilities {
+
+	private static final Path ROOT_PATH = TEST_DIRECTORY.resolve("read-snapshot");
+	private static final String DIMENSION = "test";
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@Test
+	public void publishChangedEntities() throws IOException {
+		FileUtils.deleteDirectory(ROOT_PATH.toFile());
+		final Simulator simulator = new Simulator(DIMENSION, new String[]{DIMENSION}, ROOT_PATH, 0);
+		final ReadSnapshotPublisher readSnapshotPublisher = new ReadSnapshotPublisher();
+
+		try {
+			final Station station1 = new Station(simulator);
+			final Station station2 = new Station(simulator);
+			station1.setName("Station 1");
+			station2.setName("Station 2");
+			simulator.stations.add(station1);
+			simulator.stations.add(station2);
+			simulator.sync();
+
+			final ReadSnapshot readSnapshot1 = tickUntilPublished(readSnapshotPublisher, simulator, 0, null);
+			Assertions.assertEquals("Station 1", getStation(readSnapshot1, station1).getName());
+			final byte[] bytes1 = readSnapshotPublisher.getSerializedBytes(station1);
+			final byte[] bytes2 = readSnapshotPublisher.getSerializedBytes(station2);
+			Assertions.assertNotNull(bytes1);
+			Assertions.assertNotNull(bytes2);
+
+			// Nothing has changed, so no snapshot is built
+			readSnapshotPublisher.tick(simulator, 10000);
+			Assertions.assertSame(readSnapshot1, readSnapshotPublisher.getReadSnapshot());
+
+			// Changes without a sync are published once the minimum interval has passed
+			station1.setName("Changed");
+			final ReadSnapshot readSnapshot2 = tickUntilPublished(readSnapshotPublisher, simulator, 20000, readSnapshot1);
+			Assertions.assertEquals(readSnapshot1.version + 1, readSnapshot2.version);
+			Assertions.assertEquals("Changed", getStation(readSnapshot2, station1).getName());
+			Assertions.assertEquals("Station 2", getStation(readSnapshot2, station2).getName());
+
+			// Only the changed station is serialized again
+			Assertions.assertNotSame(bytes1, readSnapshotPublisher.getSerializedBytes(station1));
+			Assertions.assertSame(bytes2, readSnapshotPublisher.getSerializedBytes(station2));
+		} finally {
+			readSnapshotPublisher.shutdown();
+			simulator.stop();
+		}
+	}
+
+	private static ReadSnapshot tickUntilPublished(ReadSnapshotPublisher readSnapshotPublisher, Simulator simulator, long currentMillis, @Nullable ReadSnapshot previousReadSnapshot) {
+		final long endMillis = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (true) {
+			readSnapshotPublisher.tick(simulator, currentMillis);
+			final ReadSnapshot readSnapshot = readSnapshotPublisher.getReadSnapshot();
+			if (readSnapshot != null && readSnapshot != previousReadSnapshot) {
+				return readSnapshot;
+			}
+			Assertions.assertTrue(System.currentTimeMillis() < endMillis);
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Assertions.fail(e);
+			}
+		}
+	}
+
+	private static Station getStation(ReadSnapshot readSnapshot, Station station) {
+		final Station snapshotStation = readSnapshot.stations.get(station.getHexId());
+		Assertions.assertNotNull(snapshotStation);
+		return snapshotStation;
+	}
+}
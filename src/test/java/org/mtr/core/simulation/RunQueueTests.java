@@ -0,0 +1,55 @@
+package org.mtr.core.simulation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.TestUtilities;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks that {@link RunQueue} runs everything added from several threads exactly once and in the order each thread added it.
+ */
+@ParametersAreNonnullByDefault
+public class RunQueueTests implements TestUtilities {
+
+	private static final int THREADS = 4;
+	private static final int RUNS_PER_THREAD = 100000;
+
+	@Test
+	public void runFromManyThreads() throws InterruptedException {
+		final RunQueue runQueue = new RunQueue();
+		final int[] lastRuns = new int[THREADS];
+		final int[] runCount = {0};
+		final Thread[] threads = new Thread[THREADS];
+
+		for (int i = 0; i < THREADS; i++) {
+			final int thread = i;
+			lastRuns[thread] = -1;
+			threads[thread] = new Thread(() -> {
+				for (int j = 0; j < RUNS_PER_THREAD; j++) {
+					final int run = j;
+					runQueue.add(() -> {
+						Assertions.assertEquals(lastRuns[thread] + 1, run);
+						lastRuns[thread] = run;
+						runCount[0]++;
+					});
+				}
+			});
+			threads[thread].start();
+		}
+
+		// Keep running on this thread while the other threads are adding
+		final long deadlineMillis = System.currentTimeMillis() + 10000;
+		while (runCount[0] < THREADS * RUNS_PER_THREAD && System.currentTimeMillis() < deadlineMillis) {
+			runQueue.run(Long.MAX_VALUE);
+		}
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		Assertions.assertEquals(THREADS * RUNS_PER_THREAD, runCount[0]);
+		Assertions.assertEquals(THREADS * RUNS_PER_THREAD, runQueue.getRunCount());
+		Assertions.assertEquals(0, runQueue.getDepth());
+	}
+}
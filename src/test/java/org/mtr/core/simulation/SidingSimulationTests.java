@@ -0,0 +1,111 @@
+package org.mtr.core.simulation;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mtr.core.data.Depot;
+import org.mtr.core.data.Siding;
+import org.mtr.core.data.TestUtilities;
+import org.mtr.core.serializer.JsonWriter;
+import org.mtr.libraries.com.google.gson.JsonElement;
+import org.mtr.libraries.com.google.gson.JsonObject;
+import org.mtr.libraries.it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Simulating independent groups of sidings in parallel should give exactly the same vehicles as simulating all sidings in order.
+ */
+@ParametersAreNonnullByDefault
+public class SidingSimulationTests implements TestUtilities {
+
+	private static final Path ROOT_PATH = TEST_DIRECTORY.resolve("siding-simulation");
+	private static final String DIMENSION = "test";
+	private static final int LINES = 4;
+	private static final int TICKS = 2000;
+	private static final int MILLIS_PER_TICK = 50;
+
+	@Test
+	public void parallelSimulationMatchesSerialSimulation() throws IOException {
+		FileUtils.deleteDirectory(ROOT_PATH.toFile());
+		createFixture();
+
+		final ForkJoinPool forkJoinPool = new ForkJoinPool(LINES);
+		final long startMillis = System.currentTimeMillis();
+		final Simulator serialSimulator = new Simulator(DIMENSION, new String[]{DIMENSION}, ROOT_PATH, 0);
+		final Simulator parallelSimulator = new Simulator(DIMENSION, new String[]{DIMENSION}, ROOT_PATH, 0, new SimulatorOptions().setParallelSidingSimulation(true).setForkJoinPool(forkJoinPool));
+		Assertions.assertEquals(getVehicleState(serialSimulator), getVehicleState(parallelSimulator));
+
+		boolean hasMovingVehicles = false;
+		for (int i = 0; i < TICKS; i++) {
+			// Both simulators see the same clock, so departures and delays are the same
+			final long millis = startMillis + (long) i * MILLIS_PER_TICK;
+			serialSimulator.tick(millis);
+			parallelSimulator.tick(millis);
+			final String vehicleState = getVehicleState(serialSimulator);
+			Assertions.assertEquals(vehicleState, getVehicleState(parallelSimulator), String.format("Vehicles differ after tick %s", i));
+			hasMovingVehicles |= getVehicleObjects(serialSimulator).stream().anyMatch(vehicleObject -> vehicleObject.has("speed") && vehicleObject.get("speed").getAsDouble() > 0);
+		}
+
+		Assertions.assertTrue(hasMovingVehicles);
+		serialSimulator.stop();
+		parallelSimulator.stop();
+		forkJoinPool.shutdown();
+	}
+
+	/**
+	 * Build independent lines, generate their paths, and save them so that both simulators load exactly the same data (including ids).
+	 */
+	private static void createFixture() {
+		final Simulator simulator = new Simulator(DIMENSION, new String[]{DIMENSION}, ROOT_PATH, 0);
+		final ObjectArrayList<Depot> depots = new ObjectArrayList<>();
+		for (int i = 0; i < LINES; i++) {
+			depots.add(TestUtilities.addTestLine(simulator, i * TEST_LINE_SPACING * 4, 3));
+		}
+		simulator.sync();
+		depots.forEach(Depot::init);
+
+		Depot.generateDepots(simulator, depots, null);
+		final long timeoutMillis = System.currentTimeMillis() + 30000;
+		while (depots.stream().anyMatch(depot -> depot.getLastGeneratedStatus() != Depot.GeneratedStatus.SUCCESSFUL) && System.currentTimeMillis() < timeoutMillis) {
+			simulator.tick();
+		}
+		depots.forEach(depot -> Assertions.assertEquals(Depot.GeneratedStatus.SUCCESSFUL, depot.getLastGeneratedStatus()));
+
+		// Vehicles spawned while generating would otherwise be simulated from a different first tick
+		Depot.clearDepots(depots);
+		simulator.stop();
+	}
+
+	/**
+	 * Vehicle ids are random, so they are left out.
+	 */
+	private static String getVehicleState(Simulator simulator) {
+		final StringBuilder stringBuilder = new StringBuilder();
+		getVehicleObjects(simulator).forEach(vehicleObject -> {
+			vehicleObject.remove("id");
+			stringBuilder.append(vehicleObject).append('\n');
+		});
+		return stringBuilder.toString();
+	}
+
+	private static ObjectArrayList<JsonObject> getVehicleObjects(Simulator simulator) {
+		final ObjectArrayList<Siding> sidings = new ObjectArrayList<>(simulator.sidings);
+		sidings.sort(Comparator.comparingLong(Siding::getId));
+		final ObjectArrayList<JsonObject> vehicleObjects = new ObjectArrayList<>();
+		sidings.forEach(siding -> {
+			final JsonObject jsonObject = new JsonObject();
+			siding.serializeFullData(new JsonWriter(jsonObject));
+			if (jsonObject.has("vehicles")) {
+				for (final JsonElement vehicleElement : jsonObject.getAsJsonArray("vehicles")) {
+					vehicleObjects.add(vehicleElement.getAsJsonObject());
+				}
+			}
+		});
+		return vehicleObjects;
+	}
+}